@@ -0,0 +1,193 @@
+package roadgraph;
+
+import java.util.Arrays;
+
+/**
+ * Graph storage in plain Java arrays. This is the default, and the fastest when the map fits in the
+ * heap.
+ * @author Adam Sickmiller
+ *
+ */
+class ArrayGraphStorage implements GraphStorage {
+	private final int[] firstOut;
+	private final int[] head;
+	private final double[] length;
+	private final double[] coordinates; //latitude and longitude of vertex v at 2v and 2v + 1
+	private final int[] edgeIds;
+	private final short[] roadTypeCodes;
+	private final int[] profileCodes;
+	private final int[] positionOfEdge;
+
+	ArrayGraphStorage(int numVertices, int numEdges, int numEdgeIds) {
+		this(new int[numVertices + 1], new int[numEdges], new double[numEdges], new double[2 * numVertices],
+				new int[numEdges], new short[numEdges], new int[numEdges], new int[numEdgeIds]);
+		Arrays.fill(positionOfEdge, -1);
+	}
+
+	private ArrayGraphStorage(int[] firstOut, int[] head, double[] length, double[] coordinates, int[] edgeIds,
+			short[] roadTypeCodes, int[] profileCodes, int[] positionOfEdge) {
+		this.firstOut = firstOut;
+		this.head = head;
+		this.length = length;
+		this.coordinates = coordinates;
+		this.edgeIds = edgeIds;
+		this.roadTypeCodes = roadTypeCodes;
+		this.profileCodes = profileCodes;
+		this.positionOfEdge = positionOfEdge;
+	}
+
+	@Override
+	public int firstOut(int v) {
+		return firstOut[v];
+	}
+
+	@Override
+	public void setFirstOut(int v, int e) {
+		firstOut[v] = e;
+	}
+
+	@Override
+	public int head(int e) {
+		return head[e];
+	}
+
+	@Override
+	public void setHead(int e, int v) {
+		head[e] = v;
+	}
+
+	@Override
+	public double length(int e) {
+		return length[e];
+	}
+
+	@Override
+	public void setLength(int e, double length) {
+		this.length[e] = length;
+	}
+
+	@Override
+	public double latitude(int v) {
+		return coordinates[2 * v];
+	}
+
+	@Override
+	public double longitude(int v) {
+		return coordinates[2 * v + 1];
+	}
+
+	@Override
+	public void setCoordinates(int v, double latitude, double longitude) {
+		coordinates[2 * v] = latitude;
+		coordinates[2 * v + 1] = longitude;
+	}
+
+	@Override
+	public int edgeId(int e) {
+		return edgeIds[e];
+	}
+
+	@Override
+	public void setEdgeId(int e, int edgeId) {
+		edgeIds[e] = edgeId;
+	}
+
+	@Override
+	public short roadTypeCode(int e) {
+		return roadTypeCodes[e];
+	}
+
+	@Override
+	public void setRoadTypeCode(int e, short code) {
+		roadTypeCodes[e] = code;
+	}
+
+	@Override
+	public int profileCode(int e) {
+		return profileCodes[e];
+	}
+
+	@Override
+	public void setProfileCode(int e, int code) {
+		profileCodes[e] = code;
+	}
+
+	@Override
+	public int positionOfEdge(int edgeId) {
+		return positionOfEdge[edgeId];
+	}
+
+	@Override
+	public void setPositionOfEdge(int edgeId, int e) {
+		positionOfEdge[edgeId] = e;
+	}
+
+	@Override
+	public DoubleColumn newDoubleColumn(int size) {
+		return new Doubles(new double[size]);
+	}
+
+	@Override
+	public IntColumn newIntColumn(int size) {
+		return new Ints(new int[size]);
+	}
+
+	@Override
+	public GraphStorage withCopiedLengths() {
+		return new ArrayGraphStorage(firstOut, head, length.clone(), coordinates, edgeIds, roadTypeCodes, profileCodes,
+				positionOfEdge);
+	}
+
+	@Override
+	public long estimateBytes() {
+		return 4L * firstOut.length + 8L * coordinates.length + 22L * head.length + 4L * positionOfEdge.length;
+	}
+
+	@Override
+	public boolean isOffHeap() {
+		return false;
+	}
+
+	/** A column of doubles in an array */
+	static final class Doubles implements DoubleColumn {
+		private final double[] values;
+
+		Doubles(double[] values) {
+			this.values = values;
+		}
+
+		@Override
+		public double get(int i) {
+			return values[i];
+		}
+
+		@Override
+		public void set(int i, double value) {
+			values[i] = value;
+		}
+
+		@Override
+		public DoubleColumn copy() {
+			return new Doubles(values.clone());
+		}
+	}
+
+	/** A column of ints in an array */
+	static final class Ints implements IntColumn {
+		private final int[] values;
+
+		Ints(int[] values) {
+			this.values = values;
+		}
+
+		@Override
+		public int get(int i) {
+			return values[i];
+		}
+
+		@Override
+		public void set(int i, int value) {
+			values[i] = value;
+		}
+	}
+}
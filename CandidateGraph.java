@@ -0,0 +1,227 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import geography.GeographicPoint;
+
+/**
+ * The k nearest stops by road from every stop of a tour, in place of a full distance matrix. Each
+ * stop's list comes from one Dijkstra search that stops as soon as k other stops are settled, so
+ * it only explores the stop's neighborhood, and the lists are kept in flat primitive arrays: stop
+ * i's r-th nearest stop is neighbor[i * k + r]. Memory grows with stops * k, not stops squared.
+ *
+ * Tour heuristics mostly look at short legs, and those are candidates. For the few other legs they
+ * price, such as the leg that closes the gap when a stop is moved away, distance(i, j) runs one
+ * more search and remembers the answer. Those searches are short too, since the legs a good tour
+ * uses join nearby stops.
+ *
+ * The lists are built on several threads; distance(i, j) may only be called from one thread.
+ * @author Adam Sickmiller
+ *
+ */
+class CandidateGraph {
+	private final MapGraph graph;
+	private final GraphIndex graphIndex; //the snapshot the lists were measured on
+	private final int[] ids;			 //vertex id of each stop
+	private final int k;
+	private final int[] count;			 //number of candidates of each stop, k unless fewer are reachable
+	private final int[] neighbor;		 //neighbor[i * k + r] is stop i's r-th nearest stop
+	private final double[] cost;		 //cost[i * k + r] is the road distance to it
+	private final Map<Long, Double> extra = new HashMap<>(); //legs outside the lists that were asked for
+	private int extraSearches;
+
+	/**
+	 * Find the candidates of every stop
+	 * @param graph the graph the stops are on
+	 * @param stops the stops, with no repeats
+	 * @param k how many candidates each stop keeps
+	 * @param threads how many threads run the searches
+	 * @throws IllegalArgumentException if a stop is not in the graph or k is less than 1
+	 */
+	CandidateGraph(MapGraph graph, List<GeographicPoint> stops, int k, int threads) {
+		if(k < 1) {
+			throw new IllegalArgumentException("k must be at least 1");
+		}
+		this.graph = graph;
+		this.graphIndex = graph.getIndex();
+		int n = stops.size();
+		this.k = Math.max(1, Math.min(k, n - 1));
+		ids = new int[n];
+		for(int i = 0; i < n; i++) {
+			ids[i] = graph.getVertexId(stops.get(i));
+			if(ids[i] < 0) {
+				throw new IllegalArgumentException("Stop " + stops.get(i) + " is not in the graph");
+			}
+		}
+		count = new int[n];
+		neighbor = new int[n * this.k];
+		cost = new double[n * this.k];
+
+		Map<Integer, Integer> stopOf = new HashMap<>(n * 2); //vertex id back to stop index
+		for(int i = 0; i < n; i++) {
+			stopOf.put(ids[i], i);
+		}
+		int parts = Math.max(1, Math.min(threads, n / 64)); //a part of the stops per task, not a task per stop
+		List<Callable<Void>> tasks = new ArrayList<>(parts);
+		for(int p = 0; p < parts; p++) {
+			int from = n * p / parts;
+			int to = n * (p + 1) / parts;
+			tasks.add(() -> {
+				SearchState state = graph.getSearchState();
+				for(int i = from; i < to; i++) {
+					//the stop itself is settled first, so ask for one more
+					int[] found = graph.multiSearch(graphIndex, state, new int[] {ids[i]}, ids, this.k + 1);
+					for(int target: found) {
+						if(target != ids[i]) {
+							neighbor[i * this.k + count[i]] = stopOf.get(target);
+							cost[i * this.k + count[i]] = state.dist[target];
+							count[i]++;
+						}
+					}
+				}
+				return null;
+			});
+		}
+		if(parts == 1) {
+			try {
+				tasks.get(0).call();
+			} catch(Exception e) {
+				throw new IllegalStateException("A candidate search failed", e);
+			}
+			return;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(parts);
+		try {
+			for(Future<Void> future: executor.invokeAll(graph.releasingSearchStates(tasks))) {
+				future.get();
+			}
+		} catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while finding candidates", ie);
+		} catch(ExecutionException ee) {
+			throw new IllegalStateException("A candidate search failed", ee.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	int size() {
+		return ids.length;
+	}
+
+	/**
+	 * Get the number of candidates of a stop
+	 * @return k, unless fewer other stops can be reached from stop i
+	 */
+	int count(int i) {
+		return count[i];
+	}
+
+	/**
+	 * Get a candidate
+	 * @param i the stop
+	 * @param r the rank, below count(i)
+	 * @return the r-th nearest stop to stop i by road
+	 */
+	int neighbor(int i, int r) {
+		return neighbor[i * k + r];
+	}
+
+	/**
+	 * Get the distance to a candidate
+	 * @return the road distance from stop i to neighbor(i, r)
+	 */
+	double cost(int i, int r) {
+		return cost[i * k + r];
+	}
+
+	/**
+	 * Get the road distance between any two stops, read from the candidate lists when j is one of
+	 * i's candidates and measured with one more search otherwise
+	 * @return the distance from stop i to stop j, Double.POSITIVE_INFINITY if there is no path
+	 */
+	double distance(int i, int j) {
+		if(i == j) {
+			return 0;
+		}
+		for(int r = i * k, end = r + count[i]; r < end; r++) {
+			if(neighbor[r] == j) {
+				return cost[r];
+			}
+		}
+		long key = (long) i * ids.length + j;
+		Double known = extra.get(key);
+		if(known == null) {
+			SearchState state = graph.getSearchState();
+			int[] found = graph.multiSearch(graphIndex, state, new int[] {ids[i]}, new int[] {ids[j]}, 1);
+			known = found.length == 0 ? Double.POSITIVE_INFINITY : state.dist[ids[j]];
+			extra.put(key, known);
+			extraSearches++;
+		}
+		return known;
+	}
+
+	/**
+	 * Get how many legs outside the candidate lists distance(i, j) has had to measure
+	 * @return the number of extra searches run so far
+	 */
+	int getExtraSearches() {
+		return extraSearches;
+	}
+
+	/**
+	 * Get every candidate leg, shortest first
+	 * @return the legs as i * k + r positions, which neighbor and cost take apart again
+	 */
+	int[] legsByCost() {
+		int legs = 0;
+		for(int c: count) {
+			legs += c;
+		}
+		long[] keys = new long[legs];
+		int next = 0;
+		for(int i = 0; i < ids.length; i++) {
+			for(int r = 0; r < count[i]; r++) { //non-negative floats sort like their bits
+				keys[next++] = (long) Float.floatToIntBits((float) cost[i * k + r]) << 32 | (i * k + r);
+			}
+		}
+		Arrays.sort(keys);
+		int[] sorted = new int[legs];
+		for(int l = 0; l < legs; l++) {
+			sorted[l] = (int) keys[l];
+		}
+		return sorted;
+	}
+
+	/** Get the stop a leg from legsByCost starts at */
+	int legStart(int leg) {
+		return leg / k;
+	}
+
+	/** Get the stop a leg from legsByCost ends at */
+	int legEnd(int leg) {
+		return neighbor[leg];
+	}
+
+	/** Get the vertex id of a stop */
+	int vertexId(int i) {
+		return ids[i];
+	}
+
+	MapGraph getGraph() {
+		return graph;
+	}
+
+	GraphIndex getIndex() {
+		return graphIndex;
+	}
+}
@@ -0,0 +1,451 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import geography.GeographicPoint;
+
+/**
+ * Plans salesman tours through more stops than a full distance matrix can hold. TourSearch needs
+ * the road distance between every pair of stops, which for 10,000 stops is 100 million searches'
+ * worth of entries. This engine splits the problem instead:
+ *
+ *   cluster - k-means over the stops' coordinates, into groups of about clusterSize stops. A group
+ *             k-means leaves much larger than that is cut into slices along its longer side
+ *   order   - a tour through the cluster centers, by straight-line distance, starting at the
+ *             origin's cluster
+ *   solve   - each cluster in parallel as a path from an entry stop near the previous cluster to an
+ *             exit stop near the next one, with TourSearch on that cluster's own matrix
+ *   stitch  - the paths joined in cluster order
+ *   repair  - the stops on either side of each seam measured again together and reordered with
+ *             local search, ends held in place, so the route can weave across the cluster border
+ *
+ * At most one cluster matrix per thread exists at a time and no matrix spans two clusters, so
+ * memory grows with stops * clusterSize instead of stops squared. The price is the seams: the tour
+ * can not reorder stops across cluster borders except within the repair windows.
+ * @author Adam Sickmiller
+ *
+ */
+public class ClusteredTourSearch {
+	private static final int KMEANS_ROUNDS = 20; //most k-means rounds, it usually settles well before
+	private static final int SEAM_WINDOW = 15;	 //most stops on each side of a seam that repair may move
+
+	private final MapGraph graph;
+	private int clusterSize = 200;
+	private long timeBudgetMillis = 1000;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private long seed = 42;
+
+	/**
+	 * Create an engine for the given graph
+	 * @param graph the graph the tour stops are on
+	 */
+	public ClusteredTourSearch(MapGraph graph) {
+		this.graph = graph;
+	}
+
+	/**
+	 * Set how many stops a cluster should hold
+	 * @param clusterSize the target cluster size, 200 by default. The largest matrix built has about
+	 *   (2 * clusterSize) squared entries
+	 */
+	public void setClusterSize(int clusterSize) {
+		if(clusterSize < 2) {
+			throw new IllegalArgumentException("clusterSize must be at least 2");
+		}
+		this.clusterSize = clusterSize;
+	}
+
+	/**
+	 * Set how long the cluster searches may run, all together
+	 * @param timeBudgetMillis the time budget in milliseconds, shared out between the clusters.
+	 *   Measuring the cluster matrices and repairing the seams is not counted
+	 */
+	public void setTimeBudgetMillis(long timeBudgetMillis) {
+		if(timeBudgetMillis < 0) {
+			throw new IllegalArgumentException("timeBudgetMillis must be >= 0");
+		}
+		this.timeBudgetMillis = timeBudgetMillis;
+	}
+
+	/**
+	 * Set how many clusters are solved side by side
+	 * @param threads the number of threads, one by default per processor
+	 */
+	public void setThreads(int threads) {
+		if(threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1");
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * Set the seed of the random choices, so runs can be repeated
+	 * @param seed the seed of the clustering. Cluster c is searched with seed + c
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Find a short tour from origin through every destination and back to origin
+	 * @param origin where the tour starts and ends
+	 * @param destinations the stops to visit. Repeats and the origin itself are visited once
+	 * @return the stops in the order they should be visited, starting and ending with origin
+	 * @throws IllegalArgumentException if a point is not in the graph, or a destination is not in the
+	 *   origin's strongly connected component, so no tour could visit it and come back
+	 */
+	public List<GeographicPoint> solve(GeographicPoint origin, List<GeographicPoint> destinations) {
+		TourSearch search = new TourSearch(graph);
+		List<GeographicPoint> stops = search.stopsOf(origin, destinations);
+		int n = stops.size();
+		List<int[]> clusters = cluster(stops);
+		if(clusters.size() == 1) {
+			search.setThreads(threads);
+			search.setTimeBudgetMillis(timeBudgetMillis);
+			search.setSeed(seed);
+			return search.solve(origin, destinations);
+		}
+		int[] order = clusterOrder(stops, clusters);
+		int[][] entryExit = entriesAndExits(stops, clusters, order);
+
+		long perCluster = timeBudgetMillis * Math.min(threads, clusters.size()) / clusters.size();
+		List<Callable<int[]>> tasks = new ArrayList<>(clusters.size());
+		for(int c = 0; c < order.length; c++) {
+			int[] members = clusters.get(order[c]);
+			int entry = entryExit[c][0];
+			int exit = entryExit[c][1];
+			long clusterSeed = seed + c;
+			tasks.add(() -> clusterPath(stops, members, entry, exit, perCluster, clusterSeed));
+		}
+		int[] tour = new int[n + 1]; //stop indices, with the origin at both ends
+		int[] clusterStart = new int[order.length + 1];
+		int at = 0;
+		List<int[]> paths = run(tasks);
+		for(int c = 0; c < paths.size(); c++) {
+			clusterStart[c] = at;
+			for(int stop: paths.get(c)) {
+				tour[at++] = stop;
+			}
+		}
+		clusterStart[order.length] = n;
+		tour[n] = tour[0];
+
+		List<Callable<int[]>> repairs = new ArrayList<>(order.length);
+		List<Integer> windowStarts = new ArrayList<>(order.length);
+		for(int c = 0; c < order.length; c++) { //the seam after cluster c, the last one closing at the origin
+			int left = Math.min(SEAM_WINDOW, (clusterStart[c + 1] - clusterStart[c] - 1) / 2);
+			int right = c + 1 == order.length ? 0
+					: Math.min(SEAM_WINDOW, (clusterStart[c + 2] - clusterStart[c + 1] - 1) / 2);
+			int from = clusterStart[c + 1] - left - 1; //held in place, like the end of the window
+			int to = clusterStart[c + 1] + right;
+			if(to - from >= 3) { //at least two stops to reorder
+				int[] window = Arrays.copyOfRange(tour, from, to + 1);
+				repairs.add(() -> repairSeam(stops, window));
+				windowStarts.add(from);
+			}
+		}
+		List<int[]> repaired = run(repairs);
+		for(int w = 0; w < repaired.size(); w++) { //windows never share a stop they may move
+			System.arraycopy(repaired.get(w), 0, tour, windowStarts.get(w), repaired.get(w).length);
+		}
+
+		List<GeographicPoint> route = new ArrayList<>(n + 1);
+		for(int stop: tour) {
+			route.add(stops.get(stop));
+		}
+		return route;
+	}
+
+	/**
+	 * Group the stops with k-means over their coordinates, and cut any group more than twice
+	 * clusterSize into slices along its longer side. Stop 0, the origin, is in the first group
+	 * @return the stop indices of each group, none empty
+	 */
+	private List<int[]> cluster(List<GeographicPoint> stops) {
+		int n = stops.size();
+		int k = (n + clusterSize - 1) / clusterSize;
+		double[] x = new double[n];
+		double[] y = new double[n];
+		double meanLatitude = 0;
+		for(GeographicPoint stop: stops) {
+			meanLatitude += stop.getX() / n;
+		}
+		double shrink = Math.cos(Math.toRadians(meanLatitude)); //a degree of longitude is shorter away from the equator
+		for(int i = 0; i < n; i++) {
+			x[i] = stops.get(i).getY() * shrink;
+			y[i] = stops.get(i).getX();
+		}
+
+		Random random = new Random(seed);
+		double[] centerX = new double[k];
+		double[] centerY = new double[k];
+		double[] nearest = new double[n];
+		Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+		int pick = 0;
+		for(int c = 0; c < k; c++) { //k-means++: each new center far from the ones before it
+			centerX[c] = x[pick];
+			centerY[c] = y[pick];
+			double total = 0;
+			for(int i = 0; i < n; i++) {
+				nearest[i] = Math.min(nearest[i], square(x[i] - centerX[c], y[i] - centerY[c]));
+				total += nearest[i];
+			}
+			double r = random.nextDouble() * total;
+			for(pick = 0; pick < n - 1 && (r -= nearest[pick]) > 0; pick++) {
+			}
+		}
+		int[] assigned = new int[n];
+		Arrays.fill(assigned, -1);
+		for(int round = 0; round < KMEANS_ROUNDS; round++) {
+			boolean moved = false;
+			for(int i = 0; i < n; i++) {
+				int best = 0;
+				for(int c = 1; c < k; c++) {
+					if(square(x[i] - centerX[c], y[i] - centerY[c]) < square(x[i] - centerX[best], y[i] - centerY[best])) {
+						best = c;
+					}
+				}
+				moved |= assigned[i] != best;
+				assigned[i] = best;
+			}
+			if(!moved) {
+				break;
+			}
+			int[] count = new int[k];
+			Arrays.fill(centerX, 0);
+			Arrays.fill(centerY, 0);
+			for(int i = 0; i < n; i++) {
+				count[assigned[i]]++;
+				centerX[assigned[i]] += x[i];
+				centerY[assigned[i]] += y[i];
+			}
+			for(int c = 0; c < k; c++) {
+				if(count[c] > 0) {
+					centerX[c] /= count[c];
+					centerY[c] /= count[c];
+				}
+			}
+		}
+
+		List<List<Integer>> groups = new ArrayList<>();
+		for(int c = 0; c < k; c++) {
+			groups.add(new ArrayList<>());
+		}
+		for(int i = 0; i < n; i++) {
+			groups.get(assigned[i]).add(i);
+		}
+		List<int[]> clusters = new ArrayList<>();
+		for(List<Integer> group: groups) {
+			if(group.isEmpty()) {
+				continue;
+			}
+			Integer[] members = group.toArray(new Integer[0]);
+			int slices = members.length > 2 * clusterSize ? (members.length + clusterSize - 1) / clusterSize : 1;
+			if(slices > 1) { //k-means left it lopsided, cut it along its longer side
+				double spanX = 0, spanY = 0;
+				for(int i: members) {
+					spanX = Math.max(spanX, Math.abs(x[i] - x[members[0]]));
+					spanY = Math.max(spanY, Math.abs(y[i] - y[members[0]]));
+				}
+				double[] along = spanX > spanY ? x : y;
+				Arrays.sort(members, (a, b) -> Double.compare(along[a], along[b]));
+			}
+			for(int s = 0; s < slices; s++) {
+				int from = members.length * s / slices;
+				int to = members.length * (s + 1) / slices;
+				int[] slice = new int[to - from];
+				for(int i = from; i < to; i++) {
+					slice[i - from] = members[i];
+				}
+				clusters.add(slice);
+				for(int stop: slice) {
+					if(stop == 0) { //the origin's cluster goes first
+						Collections.swap(clusters, 0, clusters.size() - 1);
+					}
+				}
+			}
+		}
+		return clusters;
+	}
+
+	private static double square(double dx, double dy) {
+		return dx * dx + dy * dy;
+	}
+
+	/**
+	 * Order the clusters by a tour through their centers, by straight-line distance
+	 * @return cluster indices in visiting order, starting with cluster 0, the origin's
+	 */
+	private static int[] clusterOrder(List<GeographicPoint> stops, List<int[]> clusters) {
+		int k = clusters.size();
+		GeographicPoint[] centers = new GeographicPoint[k];
+		for(int c = 0; c < k; c++) {
+			double latitude = 0, longitude = 0;
+			for(int stop: clusters.get(c)) {
+				latitude += stops.get(stop).getX();
+				longitude += stops.get(stop).getY();
+			}
+			centers[c] = new GeographicPoint(latitude / clusters.get(c).length, longitude / clusters.get(c).length);
+		}
+		double[][] matrix = new double[k][k];
+		for(int i = 0; i < k; i++) {
+			for(int j = 0; j < k; j++) {
+				matrix[i][j] = centers[i].distance(centers[j]);
+			}
+		}
+		int[] order = TourSearch.nearestNeighbor(matrix, 0);
+		TourSearch.localSearch(matrix, order, TourSearch.nearestCandidates(matrix, 8));
+		return order;
+	}
+
+	/**
+	 * Choose where the tour enters and leaves each cluster. The origin's cluster is entered at the
+	 * origin. Every cluster is left at its stop nearest the next cluster's entry side, and the next
+	 * cluster entered at its stop nearest that exit, all by straight-line distance
+	 * @return for the c-th cluster in order, its entry and exit stop. They differ unless it has one stop
+	 */
+	private static int[][] entriesAndExits(List<GeographicPoint> stops, List<int[]> clusters, int[] order) {
+		int k = order.length;
+		int[][] entryExit = new int[k][2];
+		entryExit[0][0] = 0;
+		for(int c = 0; c < k; c++) {
+			int[] members = clusters.get(order[c]);
+			int entry = entryExit[c][0];
+			GeographicPoint toward = stops.get(0); //the last cluster heads back to the origin
+			if(c + 1 < k) {
+				toward = stops.get(nearest(stops, clusters.get(order[c + 1]), stops.get(entry), -1));
+			}
+			int exit = nearest(stops, members, toward, members.length > 1 ? entry : -1);
+			entryExit[c][1] = exit;
+			if(c + 1 < k) {
+				entryExit[c + 1][0] = nearest(stops, clusters.get(order[c + 1]), stops.get(exit), -1);
+			}
+		}
+		return entryExit;
+	}
+
+	/** The member nearest a point, by straight-line distance, other than skip */
+	private static int nearest(List<GeographicPoint> stops, int[] members, GeographicPoint point, int skip) {
+		int best = -1;
+		double bestDistance = Double.POSITIVE_INFINITY;
+		for(int stop: members) {
+			double distance = stops.get(stop).distance(point);
+			if(stop != skip && distance < bestDistance) {
+				best = stop;
+				bestDistance = distance;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Find a short path through one cluster
+	 * @return the cluster's stops in visiting order, from entry to exit
+	 */
+	private int[] clusterPath(List<GeographicPoint> stops, int[] members, int entry, int exit,
+			long budget, long clusterSeed) {
+		if(members.length == 1) {
+			return members.clone();
+		}
+		int[] local = new int[members.length]; //entry first and exit last, as pinEnds wants
+		local[0] = entry;
+		local[members.length - 1] = exit;
+		int next = 1;
+		for(int stop: members) {
+			if(stop != entry && stop != exit) {
+				local[next++] = stop;
+			}
+		}
+		double[][] matrix = pinEnds(graph.distanceMatrix(pointsOf(stops, local)));
+		TourSearch search = new TourSearch(graph);
+		search.setThreads(1);
+		search.setTimeBudgetMillis(budget);
+		search.setSeed(clusterSeed);
+		int[] tour = search.solve(matrix);
+		for(int i = 0; i < tour.length; i++) {
+			tour[i] = local[tour[i]];
+		}
+		return tour;
+	}
+
+	/**
+	 * Reorder the stops inside a seam window with local search, keeping the first and last in place
+	 * @param window stop indices along the tour
+	 * @return the same stops, reordered if that is shorter
+	 */
+	private int[] repairSeam(List<GeographicPoint> stops, int[] window) {
+		double[][] matrix = pinEnds(graph.distanceMatrix(pointsOf(stops, window)));
+		int[] tour = new int[window.length];
+		for(int i = 0; i < tour.length; i++) {
+			tour[i] = i;
+		}
+		TourSearch.localSearch(matrix, tour, TourSearch.nearestCandidates(matrix, 8));
+		int[] repaired = new int[window.length];
+		for(int i = 0; i < tour.length; i++) {
+			repaired[i] = window[tour[i]];
+		}
+		return repaired;
+	}
+
+	/**
+	 * Turn a matrix over a path's stops into one whose shortest tour is the shortest path from the
+	 * first stop to the last: the leg from the last stop back to the first costs nothing, and every
+	 * other leg into the first stop costs more than any whole tour. A tour that starts at stop 0 then
+	 * always ends with the last stop
+	 * @param matrix the road distances, changed in place
+	 * @return matrix
+	 */
+	private static double[][] pinEnds(double[][] matrix) {
+		int last = matrix.length - 1;
+		double penalty = 1;
+		for(double[] row: matrix) {
+			for(double cost: row) {
+				penalty += cost;
+			}
+		}
+		for(int i = 1; i < last; i++) {
+			matrix[i][0] = penalty;
+		}
+		matrix[last][0] = 0;
+		return matrix;
+	}
+
+	private static List<GeographicPoint> pointsOf(List<GeographicPoint> stops, int[] indices) {
+		List<GeographicPoint> points = new ArrayList<>(indices.length);
+		for(int i: indices) {
+			points.add(stops.get(i));
+		}
+		return points;
+	}
+
+	/** Run tasks on the thread pool and collect their results in order */
+	private List<int[]> run(List<Callable<int[]>> tasks) {
+		List<int[]> results = new ArrayList<>(tasks.size());
+		if(tasks.isEmpty()) {
+			return results;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, tasks.size()));
+		try {
+			for(Future<int[]> future: executor.invokeAll(graph.releasingSearchStates(tasks))) {
+				results.add(future.get());
+			}
+		} catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while searching for a tour", ie);
+		} catch(ExecutionException ee) {
+			throw new IllegalStateException("A cluster search failed", ee.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		return results;
+	}
+}
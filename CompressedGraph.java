@@ -0,0 +1,568 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import geography.GeographicPoint;
+
+/**
+ * A smaller version of a GraphIndex for shortest path queries. Two passes shrink the graph:
+ *
+ * Dead-end pruning repeatedly removes vertices with a single neighbor, so whole cul-de-sacs and
+ * trees of side streets hanging off the rest of the graph disappear. A route can only enter or
+ * leave such a tree through the vertex it hangs from (its root), so the part of a route inside a
+ * tree is the tree path, and no search is needed there.
+ *
+ * Chain compression then replaces every run of degree-2 vertices (the points that only describe
+ * the curve of a road) with a single edge carrying the summed length. The vertices in between are
+ * kept, in order, as the geometry of the edge, together with their distance from its start, so a
+ * route is expanded back to every original point and a query may start or end in the middle of a
+ * chain.
+ *
+ * Only the vertices that are left (junctions, mostly) are settled by a search. A compressed graph
+ * is built from one snapshot, and like the snapshot it is never modified, so any number of threads
+ * may search it at once. Blocked edges are left out.
+ * @author Adam Sickmiller
+ *
+ */
+public class CompressedGraph {
+	private final GraphIndex graphIndex;
+	private final int[] pruneParent;	//neighbor a pruned vertex hung from when it was removed, -1 for the rest
+	private final int[] pruneRoot;		//vertex left in the graph that a pruned vertex's tree hangs from
+	private final boolean[] kept;		//true for vertices a search settles
+	private final int[] firstOut;		//compressed edges leaving v are firstOut[v] up to firstOut[v + 1]
+	private final int[] edgeTail;
+	private final int[] edgeHead;
+	private final double[] edgeLength;
+	private final int[] geometryStart;	//geometry of edge c is slots geometryStart[c] up to geometryStart[c + 1]
+	private final int[] geometryVertex; //vertex id in each slot
+	private final double[] geometryOffset; //distance from the edge's tail to the vertex in each slot
+	private final int[][] chainEdge;	//compressed edges whose geometry holds v, at most one per direction
+	private final int[][] chainSlot;	//slot of v in each of those edges
+	private final int numPruned;
+	private final int numChainVertices;
+
+	/**
+	 * Prune and compress a snapshot
+	 * @param graphIndex the snapshot to compress
+	 */
+	CompressedGraph(GraphIndex graphIndex) {
+		this.graphIndex = graphIndex;
+		int n = graphIndex.getNumVertices();
+		int[][] neighbors = undirectedNeighbors(graphIndex);
+
+		//dead-end pruning, leaves first, until every vertex left has at least two neighbors or none
+		pruneParent = new int[n];
+		pruneRoot = new int[n];
+		Arrays.fill(pruneParent, -1);
+		boolean[] pruned = new boolean[n];
+		int[] degree = new int[n]; //number of neighbors that are not pruned
+		int[] queue = new int[n]; //a vertex is queued once, when its degree becomes 1
+		int[] removed = new int[n]; //in the order they were pruned
+		int queueTail = 0;
+		int numRemoved = 0;
+		for(int v = 0; v < n; v++) {
+			degree[v] = neighbors[v].length;
+			if(degree[v] == 1) {
+				queue[queueTail++] = v;
+			}
+		}
+		for(int queueHead = 0; queueHead < queueTail; queueHead++) {
+			int leaf = queue[queueHead];
+			if(degree[leaf] != 1) {
+				continue; //the last vertex of a tree is left in the graph, on its own
+			}
+			int p = -1;
+			for(int w: neighbors[leaf]) {
+				p = pruned[w] ? p : w;
+			}
+			pruned[leaf] = true;
+			pruneParent[leaf] = p;
+			degree[leaf] = 0;
+			removed[numRemoved++] = leaf;
+			if(--degree[p] == 1) {
+				queue[queueTail++] = p;
+			}
+		}
+		numPruned = numRemoved;
+		for(int v = 0; v < n; v++) {
+			pruneRoot[v] = v;
+		}
+		for(int i = numRemoved - 1; i >= 0; i--) { //a parent is pruned after its children
+			int v = removed[i];
+			pruneRoot[v] = pruneRoot[pruneParent[v]];
+		}
+
+		//a vertex is the inside of a chain if it has two neighbors and traffic can only pass through it
+		kept = new boolean[n];
+		int chainVertices = 0;
+		for(int v = 0; v < n; v++) {
+			kept[v] = !pruned[v] && !(degree[v] == 2 && passesThrough(v, neighbors[v], pruned));
+			chainVertices += !pruned[v] && !kept[v] ? 1 : 0;
+		}
+
+		//walk every chain from the kept vertex it starts at
+		chainEdge = new int[2][n];
+		chainSlot = new int[2][n];
+		Arrays.fill(chainEdge[0], -1);
+		Arrays.fill(chainEdge[1], -1);
+		EdgeBuilder edges = new EdgeBuilder();
+		for(int u = 0; u < n; u++) {
+			if(kept[u]) {
+				walkChains(u, pruned, edges);
+			}
+		}
+		for(int v = 0; v < n; v++) {
+			if(!pruned[v] && !kept[v] && chainEdge[0][v] == -1) {
+				kept[v] = true; //a loop of chain vertices with no junction on it, one of them has to stay
+				chainVertices--;
+				walkChains(v, pruned, edges);
+			}
+		}
+		numChainVertices = chainVertices;
+
+		//order the compressed edges by tail
+		int m = edges.size;
+		firstOut = new int[n + 1];
+		for(int c = 0; c < m; c++) {
+			firstOut[edges.tail[c] + 1]++;
+		}
+		for(int v = 0; v < n; v++) {
+			firstOut[v + 1] += firstOut[v];
+		}
+		int[] next = Arrays.copyOf(firstOut, n);
+		int[] newId = new int[m];
+		for(int c = 0; c < m; c++) {
+			newId[c] = next[edges.tail[c]]++;
+		}
+		edgeTail = new int[m];
+		edgeHead = new int[m];
+		edgeLength = new double[m];
+		geometryStart = new int[m + 1];
+		for(int c = 0; c < m; c++) {
+			edgeTail[newId[c]] = edges.tail[c];
+			edgeHead[newId[c]] = edges.head[c];
+			edgeLength[newId[c]] = edges.length[c];
+			geometryStart[newId[c] + 1] = edges.geometryStart[c + 1] - edges.geometryStart[c];
+		}
+		for(int c = 0; c < m; c++) {
+			geometryStart[c + 1] += geometryStart[c];
+		}
+		geometryVertex = new int[edges.numSlots];
+		geometryOffset = new double[edges.numSlots];
+		for(int c = 0; c < m; c++) {
+			int from = edges.geometryStart[c];
+			int count = edges.geometryStart[c + 1] - from;
+			System.arraycopy(edges.geometryVertex, from, geometryVertex, geometryStart[newId[c]], count);
+			System.arraycopy(edges.geometryOffset, from, geometryOffset, geometryStart[newId[c]], count);
+		}
+		for(int k = 0; k < 2; k++) {
+			for(int v = 0; v < n; v++) {
+				int c = chainEdge[k][v];
+				if(c != -1) {
+					chainSlot[k][v] = chainSlot[k][v] - edges.geometryStart[c] + geometryStart[newId[c]];
+					chainEdge[k][v] = newId[c];
+				}
+			}
+		}
+	}
+
+	/** Get the distinct neighbors of every vertex, ignoring edge direction, blocked edges and loops */
+	private static int[][] undirectedNeighbors(GraphIndex graphIndex) {
+		int n = graphIndex.getNumVertices();
+		int[] count = new int[n];
+		for(int v = 0; v < n; v++) {
+			for(int e = graphIndex.firstOut(v), end = graphIndex.firstOut(v + 1); e < end; e++) {
+				int w = graphIndex.head(e);
+				if(w != v && !graphIndex.isBlocked(e)) {
+					count[v]++;
+					count[w]++;
+				}
+			}
+		}
+		int[][] neighbors = new int[n][];
+		for(int v = 0; v < n; v++) {
+			neighbors[v] = new int[count[v]];
+			count[v] = 0;
+		}
+		for(int v = 0; v < n; v++) {
+			for(int e = graphIndex.firstOut(v), end = graphIndex.firstOut(v + 1); e < end; e++) {
+				int w = graphIndex.head(e);
+				if(w != v && !graphIndex.isBlocked(e)) {
+					neighbors[v][count[v]++] = w;
+					neighbors[w][count[w]++] = v;
+				}
+			}
+		}
+		for(int v = 0; v < n; v++) { //a two-way road shows up twice
+			int[] list = neighbors[v];
+			Arrays.sort(list);
+			int distinct = 0;
+			for(int i = 0; i < list.length; i++) {
+				if(i == 0 || list[i] != list[i - 1]) {
+					list[distinct++] = list[i];
+				}
+			}
+			neighbors[v] = Arrays.copyOf(list, distinct);
+		}
+		return neighbors;
+	}
+
+	/**
+	 * Check whether traffic can only pass through v: one edge in from each of its two neighbors and
+	 * one edge out to each, or one edge in from one neighbor and one edge out to the other
+	 */
+	private boolean passesThrough(int v, int[] neighbors, boolean[] pruned) {
+		int a = -1;
+		int b = -1;
+		for(int w: neighbors) {
+			if(!pruned[w]) {
+				b = a;
+				a = w;
+			}
+		}
+		int outA = countEdges(v, a);
+		int inA = countEdges(a, v);
+		int outB = countEdges(v, b);
+		int inB = countEdges(b, v);
+		return (outA == 1 && inA == 1 && outB == 1 && inB == 1)
+				|| (outA == 1 && inA == 0 && outB == 0 && inB == 1)
+				|| (outA == 0 && inA == 1 && outB == 1 && inB == 0);
+	}
+
+	/** Count the open edges from u to v */
+	private int countEdges(int u, int v) {
+		int count = 0;
+		for(int e = graphIndex.firstOut(u), end = graphIndex.firstOut(u + 1); e < end; e++) {
+			if(graphIndex.head(e) == v && !graphIndex.isBlocked(e)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Follow every edge out of a kept vertex through the chain it starts, and record the chain as
+	 * one compressed edge
+	 */
+	private void walkChains(int u, boolean[] pruned, EdgeBuilder edges) {
+		for(int e = graphIndex.firstOut(u), end = graphIndex.firstOut(u + 1); e < end; e++) {
+			int cur = graphIndex.head(e);
+			if(graphIndex.isBlocked(e) || cur == u || pruned[cur]) {
+				continue;
+			}
+			int c = edges.start(u);
+			double length = graphIndex.length(e);
+			int prev = u;
+			while(!kept[cur]) {
+				int k = chainEdge[0][cur] == -1 ? 0 : 1;
+				chainEdge[k][cur] = c;
+				chainSlot[k][cur] = edges.addSlot(cur, length);
+				int out = -1; //the one way on, which is not back to prev
+				for(int e2 = graphIndex.firstOut(cur), end2 = graphIndex.firstOut(cur + 1); e2 < end2; e2++) {
+					int w = graphIndex.head(e2);
+					if(!graphIndex.isBlocked(e2) && w != prev && w != cur && !pruned[w]) {
+						out = e2;
+					}
+				}
+				length += graphIndex.length(out);
+				prev = cur;
+				cur = graphIndex.head(out);
+			}
+			edges.finish(cur, length);
+		}
+	}
+
+	/**
+	 * Find the shortest path between two vertices. Only kept vertices are settled; the parts of the
+	 * route inside chains and pruned trees are filled in afterwards.
+	 * @param start the id of the starting vertex
+	 * @param goal the id of the goal vertex
+	 * @param state this thread's search state, which is reset
+	 * @param nodeSearched called with every vertex the search settles, or null for none
+	 * @return the ids of the vertices on the path, including start and goal, an empty array if there
+	 *   is no path, or null if start and goal hang from the same pruned tree, in which case the caller
+	 *   has to search the full graph
+	 */
+	int[] shortestPath(int start, int goal, SearchState state, Consumer<GeographicPoint> nodeSearched) {
+		if(start == goal) {
+			return new int[] {start};
+		}
+		int cs = pruneRoot[start];
+		int cg = pruneRoot[goal];
+		if(cs == cg && (cs != start || cg != goal)) {
+			return null;
+		}
+		int[] prefix = treePath(start, true);
+		int[] suffix = treePath(goal, false);
+		if(prefix == null || suffix == null) {
+			return new int[0]; //the tree path is the only way in or out, and a one-way street is against it
+		}
+		int[] core = corePath(cs, cg, state, nodeSearched);
+		if(core.length == 0) {
+			return core;
+		}
+		int[] path = new int[prefix.length + core.length + suffix.length - 2];
+		System.arraycopy(prefix, 0, path, 0, prefix.length - 1);
+		System.arraycopy(core, 0, path, prefix.length - 1, core.length);
+		System.arraycopy(suffix, 1, path, prefix.length - 1 + core.length, suffix.length - 1);
+		return path;
+	}
+
+	/**
+	 * Get the path between a vertex and the root of the pruned tree it is in
+	 * @param v a vertex id
+	 * @param leaving true for the path from v to the root, false for the path from the root to v
+	 * @return the vertex ids in route order, just v if v was not pruned, or null if a one-way street
+	 *   is against the direction of travel
+	 */
+	private int[] treePath(int v, boolean leaving) {
+		int length = 1;
+		for(int x = v; pruneParent[x] != -1; x = pruneParent[x]) {
+			length++;
+		}
+		int[] path = new int[length];
+		int i = leaving ? 0 : length - 1;
+		for(int x = v; ; x = pruneParent[x]) {
+			path[i] = x;
+			int p = pruneParent[x];
+			if(p == -1) {
+				return path;
+			}
+			if(countEdges(leaving ? x : p, leaving ? p : x) == 0) {
+				return null;
+			}
+			i += leaving ? 1 : -1;
+		}
+	}
+
+	/** Dijkstra over the kept vertices between two vertices that were not pruned */
+	private int[] corePath(int cs, int cg, SearchState state, Consumer<GeographicPoint> nodeSearched) {
+		if(cs == cg) {
+			return new int[] {cs};
+		}
+		state.reset(graphIndex.getNumVertices());
+		int[] parent = state.parent; //compressed edge a vertex was reached by, -1 for cs, -2 - c for part of c
+		double[] dist = state.dist;
+		IntMinHeap heap = state.heap;
+		double best = Double.POSITIVE_INFINITY;
+		int bestEdge = -1; //compressed edge whose geometry holds cg, if cg is inside a chain
+		boolean direct = false; //true if cs and cg are in the same chain, in that order
+
+		if(kept[cs]) {
+			state.markVisited(cs);
+			parent[cs] = -1;
+			dist[cs] = 0;
+			heap.insertOrDecrease(cs, 0);
+		} else {
+			for(int k = 0; k < 2; k++) {
+				int c = chainEdge[k][cs];
+				if(c == -1) {
+					continue;
+				}
+				double startOffset = geometryOffset[chainSlot[k][cs]];
+				int w = edgeHead[c];
+				double d = edgeLength[c] - startOffset;
+				if(!state.isVisited(w) || d < dist[w]) {
+					state.markVisited(w);
+					parent[w] = -2 - c;
+					dist[w] = d;
+					heap.insertOrDecrease(w, d);
+				}
+				int goalSlot = kept[cg] ? -1 : slotOf(cg, c);
+				if(goalSlot > chainSlot[k][cs] && geometryOffset[goalSlot] - startOffset < best) {
+					best = geometryOffset[goalSlot] - startOffset;
+					bestEdge = c;
+					direct = true;
+				}
+			}
+		}
+		while(!heap.isEmpty() && heap.peekKey() < best) {
+			int u = heap.poll();
+			state.markSettled(u);
+			if(nodeSearched != null) {
+				nodeSearched.accept(graphIndex.point(u));
+			}
+			if(u == cg) {
+				best = dist[u];
+				bestEdge = -1;
+				direct = false;
+				break;
+			}
+			for(int c = firstOut[u]; c < firstOut[u + 1]; c++) {
+				int goalSlot = kept[cg] ? -1 : slotOf(cg, c);
+				if(goalSlot != -1 && dist[u] + geometryOffset[goalSlot] < best) {
+					best = dist[u] + geometryOffset[goalSlot];
+					bestEdge = c;
+					direct = false;
+				}
+				int w = edgeHead[c];
+				if(state.isSettled(w)) {
+					continue;
+				}
+				double d = dist[u] + edgeLength[c];
+				if(!state.isVisited(w) || d < dist[w]) {
+					state.markVisited(w);
+					parent[w] = c;
+					dist[w] = d;
+					heap.insertOrDecrease(w, d);
+				}
+			}
+		}
+		if(best == Double.POSITIVE_INFINITY) {
+			return new int[0];
+		}
+
+		//expand the compressed edges back to every vertex, from cg back to cs
+		IntList reversed = new IntList();
+		if(direct) {
+			for(int s = slotOf(cg, bestEdge), end = slotOf(cs, bestEdge); s >= end; s--) {
+				reversed.add(geometryVertex[s]);
+			}
+			return reversed.toReversedArray();
+		}
+		int v = cg;
+		if(bestEdge != -1) {
+			for(int s = slotOf(cg, bestEdge); s >= geometryStart[bestEdge]; s--) {
+				reversed.add(geometryVertex[s]);
+			}
+			v = edgeTail[bestEdge];
+		}
+		while(true) {
+			reversed.add(v);
+			int c = parent[v];
+			if(c == -1) {
+				break;
+			}
+			boolean partial = c < -1;
+			c = partial ? -2 - c : c;
+			for(int s = geometryStart[c + 1] - 1, end = partial ? slotOf(cs, c) : geometryStart[c]; s >= end; s--) {
+				reversed.add(geometryVertex[s]);
+			}
+			if(partial) {
+				break;
+			}
+			v = edgeTail[c];
+		}
+		return reversed.toReversedArray();
+	}
+
+	/** Get the slot of a chain vertex in a compressed edge, or -1 if the edge does not pass through it */
+	private int slotOf(int v, int c) {
+		return chainEdge[0][v] == c ? chainSlot[0][v] : chainEdge[1][v] == c ? chainSlot[1][v] : -1;
+	}
+
+	/**
+	 * Get the number of vertices a search may settle: junctions, dead-end roots and anything else
+	 * that is neither pruned nor inside a chain
+	 * @return the vertex count
+	 */
+	public int getNumSearchVertices() {
+		return graphIndex.getNumVertices() - numPruned - numChainVertices;
+	}
+
+	/**
+	 * Get the number of vertices removed as parts of dead-end trees
+	 * @return the pruned vertex count
+	 */
+	public int getNumPrunedVertices() {
+		return numPruned;
+	}
+
+	/**
+	 * Get the number of vertices folded into compressed edges
+	 * @return the chain vertex count
+	 */
+	public int getNumChainVertices() {
+		return numChainVertices;
+	}
+
+	/**
+	 * Get the number of compressed edges
+	 * @return the edge count
+	 */
+	public int getNumEdges() {
+		return edgeTail.length;
+	}
+
+	/**
+	 * Get every point along a compressed edge
+	 * @param c a compressed edge, between 0 and getNumEdges() - 1
+	 * @return the locations from the edge's start to its end
+	 */
+	public List<GeographicPoint> getGeometry(int c) {
+		List<GeographicPoint> points = new ArrayList<GeographicPoint>();
+		points.add(graphIndex.point(edgeTail[c]));
+		for(int s = geometryStart[c]; s < geometryStart[c + 1]; s++) {
+			points.add(graphIndex.point(geometryVertex[s]));
+		}
+		points.add(graphIndex.point(edgeHead[c]));
+		return points;
+	}
+
+	/** Growable arrays for the compressed edges while they are found */
+	private static class EdgeBuilder {
+		int[] tail = new int[16];
+		int[] head = new int[16];
+		double[] length = new double[16];
+		int[] geometryStart = new int[17];
+		int[] geometryVertex = new int[16];
+		double[] geometryOffset = new double[16];
+		int size;
+		int numSlots;
+
+		/** Begin a new edge, returning its id */
+		int start(int from) {
+			if(size == tail.length) {
+				tail = Arrays.copyOf(tail, size * 2);
+				head = Arrays.copyOf(head, size * 2);
+				length = Arrays.copyOf(length, size * 2);
+				geometryStart = Arrays.copyOf(geometryStart, size * 2 + 1);
+			}
+			tail[size] = from;
+			geometryStart[size] = numSlots;
+			return size;
+		}
+
+		/** Add a chain vertex to the edge being built, returning its slot */
+		int addSlot(int v, double offset) {
+			if(numSlots == geometryVertex.length) {
+				geometryVertex = Arrays.copyOf(geometryVertex, numSlots * 2);
+				geometryOffset = Arrays.copyOf(geometryOffset, numSlots * 2);
+			}
+			geometryVertex[numSlots] = v;
+			geometryOffset[numSlots] = offset;
+			return numSlots++;
+		}
+
+		/** Finish the edge being built */
+		void finish(int to, double totalLength) {
+			head[size] = to;
+			length[size] = totalLength;
+			geometryStart[++size] = numSlots;
+		}
+	}
+
+	/** A growable int array for expanding a path */
+	private static class IntList {
+		private int[] values = new int[16];
+		private int size;
+
+		void add(int value) {
+			if(size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		int[] toReversedArray() {
+			int[] reversed = new int[size];
+			for(int i = 0; i < size; i++) {
+				reversed[i] = values[size - 1 - i];
+			}
+			return reversed;
+		}
+	}
+}
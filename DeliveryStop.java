@@ -0,0 +1,74 @@
+package roadgraph;
+
+import geography.GeographicPoint;
+
+/**
+ * A place a VehicleRoutingSolver route must visit: how much of a vehicle's capacity it uses, the
+ * time window service may start in and how long service takes.
+ * @author Adam Sickmiller
+ *
+ */
+public class DeliveryStop {
+	private final GeographicPoint location;
+	private final int demand;
+	private final double earliestSeconds;
+	private final double latestSeconds;
+	private final double serviceSeconds;
+
+	/**
+	 * Create a stop that may be served at any time and takes no time to serve
+	 * @param location where the stop is. Must be in the graph it is planned on
+	 * @param demand the capacity the stop uses up
+	 */
+	public DeliveryStop(GeographicPoint location, int demand) {
+		this(location, demand, 0, Double.POSITIVE_INFINITY, 0);
+	}
+
+	/**
+	 * Create a stop with a time window. A vehicle that arrives before earliestSeconds waits
+	 * @param location where the stop is. Must be in the graph it is planned on
+	 * @param demand the capacity the stop uses up
+	 * @param earliestSeconds the earliest time service may start
+	 * @param latestSeconds the latest time service may start
+	 * @param serviceSeconds how long the vehicle stays at the stop
+	 * @throws IllegalArgumentException if location is null, demand or serviceSeconds is negative,
+	 *   or the window closes before it opens
+	 */
+	public DeliveryStop(GeographicPoint location, int demand, double earliestSeconds, double latestSeconds,
+			double serviceSeconds) {
+		if(location == null || demand < 0 || !(earliestSeconds <= latestSeconds) || !(serviceSeconds >= 0)) {
+			throw new IllegalArgumentException("location must be non-null, demand and serviceSeconds must be >= 0 "
+					+ "and the window must not close before it opens");
+		}
+		this.location = location;
+		this.demand = demand;
+		this.earliestSeconds = earliestSeconds;
+		this.latestSeconds = latestSeconds;
+		this.serviceSeconds = serviceSeconds;
+	}
+
+	public GeographicPoint getLocation() {
+		return location;
+	}
+
+	public int getDemand() {
+		return demand;
+	}
+
+	public double getEarliestSeconds() {
+		return earliestSeconds;
+	}
+
+	public double getLatestSeconds() {
+		return latestSeconds;
+	}
+
+	public double getServiceSeconds() {
+		return serviceSeconds;
+	}
+
+	@Override
+	public String toString() {
+		return location + "[" + demand + "]";
+	}
+}
@@ -0,0 +1,360 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import geography.GeographicPoint;
+
+/**
+ * Builds road distance matrices with one search per row, like MapGraph.distanceMatrix, but lets each
+ * search stop expanding the parts of the graph that can no longer lead to a target it still needs.
+ *
+ * Every row search keeps an upper bound on the distance to each target it has not settled yet:
+ * the best distance found to it so far, or, once the search settles a stop whose row is already
+ * known, the distance to that stop plus the stop's distance to the target (the triangle
+ * inequality). A vertex can only be on the shortest path to a target if the distance to the
+ * vertex plus a lower bound on the rest of the way is within the largest of these upper bounds. The
+ * lower bound is the straight-line distance to the box around the targets still wanted, scaled by
+ * GraphIndex.getStraightLineScale(), so a vertex failing the test is settled but its edges are not
+ * followed. A target whose upper bound is no more than the search radius is also finished on the
+ * spot, since no shorter path to it can be left. Every distance is still exact. When the points
+ * are spread evenly over the whole map nothing is left to prune, so a thread that has pruned
+ * almost nothing in its first rows runs the rest as plain searches.
+ *
+ * Rows are handed out to the threads one at a time, and a finished row is shared with the others,
+ * so each search can use every row finished before it. The work done and saved by the last build
+ * can be read back with the get methods.
+ * @author Adam Sickmiller
+ *
+ */
+public class DistanceMatrixBuilder {
+	private static final int BOUND_REFRESH = 4; //a refresh costs a pass over the targets, so it comes every targets * this settled vertices
+	//GeographicPoint.distance of one radian of latitude, a hair less to leave room for rounding
+	private static final double KM_PER_RADIAN = new GeographicPoint(0, 0).distance(new GeographicPoint(1, 0))
+			/ Math.toRadians(1) * (1 - 1e-9);
+	private static final int PROBE_ROWS = 16; //rows a thread searches before it checks that the bounds pay off
+	private static final double MIN_PRUNED = 0.001; //share of settled vertices the bounds must prune to stay on
+	private static final int TRIANGLE_STOPS = 16; //finished rows a search takes bounds from, each costs a pass over the row
+
+	private final MapGraph graph;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private boolean pruning = true;
+	private long settled;  //vertices settled by the last build
+	private long pruned;   //of those, vertices whose edges were not followed
+	private long bounded;  //entries finished by their upper bound instead of by settling the target
+	private long buildMillis;
+
+	/**
+	 * Create a builder for the given graph
+	 * @param graph the graph the points are on
+	 */
+	public DistanceMatrixBuilder(MapGraph graph) {
+		this.graph = graph;
+	}
+
+	/**
+	 * Set how many rows are searched side by side
+	 * @param threads the number of threads, one by default per processor
+	 */
+	public void setThreads(int threads) {
+		if(threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1");
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * Turn the bounds on or off. With them off every row is a plain search that stops once all
+	 * targets are settled, which is what the bounds are measured against
+	 * @param pruning true, the default, to use the bounds
+	 */
+	public void setPruning(boolean pruning) {
+		this.pruning = pruning;
+	}
+
+	/**
+	 * Get the number of vertices the searches of the last build settled
+	 * @return the count, summed over every row
+	 */
+	public long getSettledVertices() {
+		return settled;
+	}
+
+	/**
+	 * Get the number of settled vertices whose edges the last build did not follow, because the
+	 * bounds showed they lead to no target still wanted
+	 * @return the count, summed over every row
+	 */
+	public long getPrunedVertices() {
+		return pruned;
+	}
+
+	/**
+	 * Get the number of matrix entries the last build finished from their upper bound, without the
+	 * search settling the target
+	 * @return the count
+	 */
+	public long getBoundedEntries() {
+		return bounded;
+	}
+
+	/**
+	 * Get how long the last build took
+	 * @return the time in milliseconds
+	 */
+	public long getBuildMillis() {
+		return buildMillis;
+	}
+
+	/**
+	 * Find the road distance between every ordered pair of points
+	 * @param points the points to measure between. All must be in the graph
+	 * @return matrix[i][j] is the length of the shortest route from point i to point j in km,
+	 *   Double.POSITIVE_INFINITY if there is none. The diagonal is 0
+	 * @throws IllegalArgumentException if a point is not in the graph
+	 */
+	public double[][] build(List<GeographicPoint> points) {
+		long start = System.nanoTime();
+		int n = points.size();
+		int[] ids = new int[n];
+		for(int i = 0; i < n; i++) {
+			ids[i] = graph.getVertexId(points.get(i));
+			if(ids[i] < 0) {
+				throw new IllegalArgumentException("Point " + points.get(i) + " is not in the graph");
+			}
+		}
+		Map<Integer, Integer> indexOf = new HashMap<>(n * 2); //vertex id to the first point there
+		double[] latitude = new double[n];
+		double[] longitude = new double[n];
+		for(int i = 0; i < n; i++) {
+			indexOf.putIfAbsent(ids[i], i);
+			latitude[i] = points.get(i).getX();
+			longitude[i] = points.get(i).getY();
+		}
+		GraphIndex graphIndex = graph.getIndex();
+		double scale = pruning ? graphIndex.getStraightLineScale() : 0;
+		AtomicReferenceArray<double[]> rows = new AtomicReferenceArray<>(n);
+		AtomicInteger nextRow = new AtomicInteger();
+
+		int workers = Math.max(1, Math.min(threads, n));
+		List<Callable<long[]>> tasks = new ArrayList<>(workers);
+		for(int w = 0; w < workers; w++) {
+			tasks.add(() -> {
+				SearchState state = graph.getSearchState();
+				long[] counts = new long[3];
+				double rowScale = scale;
+				int searched = 0;
+				for(int i = nextRow.getAndIncrement(); i < n; i = nextRow.getAndIncrement()) {
+					rows.set(i, row(graphIndex, state, i, ids, indexOf, latitude, longitude, rows, rowScale, counts));
+					if(++searched == PROBE_ROWS && counts[1] < counts[0] * MIN_PRUNED) {
+						rowScale = 0; //the stops cover the map too evenly for the bounds to pay for themselves
+					}
+				}
+				return counts;
+			});
+		}
+		List<long[]> counts = new ArrayList<>(workers);
+		if(workers == 1) {
+			try {
+				counts.add(tasks.get(0).call());
+			} catch(Exception e) {
+				throw new IllegalStateException("A matrix row search failed", e);
+			}
+		} else {
+			ExecutorService executor = Executors.newFixedThreadPool(workers);
+			try {
+				for(Future<long[]> future: executor.invokeAll(graph.releasingSearchStates(tasks))) {
+					counts.add(future.get());
+				}
+			} catch(InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while building a matrix", ie);
+			} catch(ExecutionException ee) {
+				throw new IllegalStateException("A matrix row search failed", ee.getCause());
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+		settled = pruned = bounded = 0;
+		for(long[] c: counts) {
+			settled += c[0];
+			pruned += c[1];
+			bounded += c[2];
+		}
+		double[][] matrix = new double[n][];
+		for(int i = 0; i < n; i++) {
+			matrix[i] = rows.get(i);
+		}
+		buildMillis = (System.nanoTime() - start) / 1000000;
+		return matrix;
+	}
+
+	/**
+	 * Search one row
+	 * @param indexOf the first point at each vertex. Later points at the same vertex copy its entries
+	 * @param latitude the latitude of each point, as is longitude its longitude
+	 * @param rows the rows finished so far, null where not
+	 * @param scale the straight-line lower bound scale, 0 to search without bounds
+	 * @param counts settled, pruned and bounded counts, added to
+	 * @return the row
+	 */
+	private double[] row(GraphIndex graphIndex, SearchState state, int source, int[] ids,
+			Map<Integer, Integer> indexOf, double[] latitude, double[] longitude, AtomicReferenceArray<double[]> rows,
+			double scale, long[] counts) {
+		int n = ids.length;
+		double[] row = new double[n];
+		boolean[] done = new boolean[n];
+		double[] upper = new double[n];
+		int remaining = 0;
+		for(int j = 0; j < n; j++) {
+			upper[j] = Double.POSITIVE_INFINITY;
+			if(indexOf.get(ids[j]) == j) { //the first point at its vertex
+				remaining++;
+			} else {
+				done[j] = true; //filled in from the first point at the same vertex
+			}
+		}
+
+		state.reset(graphIndex.getNumVertices());
+		for(int id: ids) {
+			state.markTarget(id); //so only stops need a lookup in indexOf
+		}
+		int[] parent = state.parent;
+		double[] dist = state.dist;
+		IntMinHeap heap = state.heap;
+		int from = ids[source];
+		state.markVisited(from);
+		parent[from] = from;
+		dist[from] = 0;
+		heap.insertOrDecrease(from, 0);
+
+		boolean bounds = scale > 0;
+		double cosine = graphIndex.getMinLatitudeCosine();
+		double reach = Double.POSITIVE_INFINITY; //no remaining target is further than this
+		double prunable = Double.POSITIVE_INFINITY; //only vertices further than this can be pruned
+		double minLatitude = 0, maxLatitude = 0, minLongitude = 0, maxLongitude = 0; //box around the remaining targets
+		int sinceRefresh = 0;
+		int triangles = 0;
+		boolean stale = false; //a new bound is known, refresh as soon as the bounds can first prune
+		while(!heap.isEmpty() && remaining > 0) {
+			int curr = heap.poll();
+			double d = dist[curr];
+			state.markSettled(curr);
+			counts[0]++;
+			if(state.isTarget(curr)) {
+				int at = indexOf.get(curr);
+				if(!done[at]) {
+					row[at] = d;
+					done[at] = true;
+					remaining--;
+					stale = true;
+				}
+				double[] known = bounds && triangles < TRIANGLE_STOPS ? rows.get(at) : null;
+				if(known != null) { //a stop whose row is finished: the triangle inequality bounds every target
+					for(int j = 0; j < n; j++) {
+						if(!done[j] && d + known[j] < upper[j]) {
+							upper[j] = d + known[j];
+						}
+					}
+					stale = true;
+					triangles++;
+				}
+			}
+			if(remaining == 0) {
+				break;
+			}
+
+			//stale bounds are only looser, so after the first time they are refreshed now and then
+			if(bounds && (++sinceRefresh >= n * BOUND_REFRESH || (stale && reach == Double.POSITIVE_INFINITY))) {
+				reach = 0;
+				minLatitude = minLongitude = Double.POSITIVE_INFINITY;
+				maxLatitude = maxLongitude = Double.NEGATIVE_INFINITY;
+				for(int j = 0; j < n; j++) {
+					if(done[j]) {
+						continue;
+					}
+					double bound = state.isVisited(ids[j]) ? Math.min(upper[j], dist[ids[j]]) : upper[j];
+					if(bound <= d) { //every vertex closer than d is settled, so nothing beats the bound
+						row[j] = bound;
+						done[j] = true;
+						remaining--;
+						counts[2]++;
+						continue;
+					}
+					reach = Math.max(reach, bound);
+					minLatitude = Math.min(minLatitude, latitude[j]);
+					maxLatitude = Math.max(maxLatitude, latitude[j]);
+					minLongitude = Math.min(minLongitude, longitude[j]);
+					maxLongitude = Math.max(maxLongitude, longitude[j]);
+				}
+				stale = false;
+				sinceRefresh = 0;
+				if(remaining == 0) {
+					break;
+				}
+				//the bound at curr is at most d plus the straight line from the source to the box, so
+				//only vertices beyond half of this can be pruned, and the rest need not be looked up
+				double originLatitude = graphIndex.latitude(from);
+				double originLongitude = graphIndex.longitude(from);
+				prunable = (reach - scale * GraphIndex.distance(originLatitude, originLongitude,
+						Math.max(minLatitude, Math.min(maxLatitude, originLatitude)),
+						Math.max(minLongitude, Math.min(maxLongitude, originLongitude)))) / 2;
+			}
+			if(d > prunable && d + toBox(graphIndex.latitude(curr), graphIndex.longitude(curr), minLatitude, maxLatitude,
+					minLongitude, maxLongitude, cosine) * scale > reach * (1 + 1e-9)) {
+				counts[1]++;
+				continue; //no target still wanted can be reached through curr in time
+			}
+
+			for(int e = graphIndex.firstOut(curr), end = graphIndex.firstOut(curr + 1); e < end; e++) {
+				int neighbor = graphIndex.head(e);
+				if(state.isSettled(neighbor) || graphIndex.isBlocked(e)) {
+					continue;
+				}
+				double distance = d + graphIndex.length(e);
+				if(!state.isVisited(neighbor) || distance < dist[neighbor]) {
+					state.markVisited(neighbor);
+					dist[neighbor] = distance;
+					parent[neighbor] = curr;
+					heap.insertOrDecrease(neighbor, distance);
+				}
+			}
+		}
+		for(int j = 0; j < n; j++) {
+			int first = indexOf.get(ids[j]);
+			if(first == j && !done[j]) { //unreachable, the heap ran dry
+				row[j] = Double.POSITIVE_INFINITY;
+			}
+		}
+		for(int j = 0; j < n; j++) {
+			row[j] = row[indexOf.get(ids[j])];
+		}
+		return row;
+	}
+
+	/**
+	 * Get a lower bound on the straight-line distance from a point to the nearest point of a box,
+	 * without trigonometry: the latitude difference alone, or the longitude difference at the
+	 * narrowest a degree of longitude gets, whichever is more
+	 * @param cosine GraphIndex.getMinLatitudeCosine()
+	 * @return the bound in km, 0 if the point is inside the box
+	 */
+	private static double toBox(double pointLatitude, double pointLongitude, double minLatitude, double maxLatitude,
+			double minLongitude, double maxLongitude, double cosine) {
+		double latitude = Math.abs(pointLatitude - Math.max(minLatitude, Math.min(maxLatitude, pointLatitude)));
+		double longitude = Math.abs(pointLongitude - Math.max(minLongitude, Math.min(maxLongitude, pointLongitude)));
+		double half = Math.toRadians(Math.min(180, longitude)) / 2;
+		//the central angle is at least 2 asin(cosine * sin(half)), and sin(x) >= x - x^3 / 6
+		double across = 2 * cosine * (half - half * half * half / 6);
+		return KM_PER_RADIAN * Math.max(Math.toRadians(latitude), across);
+	}
+}
@@ -0,0 +1,30 @@
+package roadgraph;
+
+/**
+ * A fixed size column of doubles, such as the cost of every edge under one routing profile. A
+ * snapshot hands them out from its GraphStorage, so the column lives on or off the heap along with
+ * the rest of the snapshot.
+ * @author Adam Sickmiller
+ *
+ */
+interface DoubleColumn {
+
+	/**
+	 * Use an array as a column, for searches that keep their own per edge costs
+	 * @param values the array, which is shared rather than copied
+	 * @return a column reading and writing values
+	 */
+	static DoubleColumn wrap(double[] values) {
+		return new ArrayGraphStorage.Doubles(values);
+	}
+
+	double get(int i);
+
+	void set(int i, double value);
+
+	/**
+	 * Copy this column into new memory of the same kind
+	 * @return the copy
+	 */
+	DoubleColumn copy();
+}
@@ -6,27 +6,30 @@ package roadgraph;
  *
  */
 public class Edge {
-	private String roadType;
+	private int id = -1; //position of this edge in its graph's RoadAttributeTable
 	private double length;
 	private MapNode begin;
 	private MapNode end;
+	private TravelTimeProfile travelTimeProfile = TravelTimeProfile.FREE_FLOW; //shared with other edges on the same curve
+	private boolean blocked; //closed roads stay in the graph but are never searched
 	
 	//below are getters and setters for variables 
 	
 	/**
-	 * Get the type of road represented by this edge
-	 * @return String describing the road type
+	 * Get the id of this edge. Ids are handed out in the order edges are added to a graph, starting at 0,
+	 * and never change. The road name and type are kept in the graph's RoadAttributeTable under this id
+	 * @return the edge id, or -1 if this edge was not created by a MapGraph
 	 */
-	public String getRoadType() {
-		return roadType;
+	public int getId() {
+		return id;
 	}
 	
 	/**
-	 * Set the type of road represented by this edge
-	 * @param roadType a String describing the type of road
+	 * Set the id of this edge
+	 * @param id the edge id
 	 */
-	public void setRoadType(String roadType) {
-		this.roadType = roadType;
+	public void setId(int id) {
+		this.id = id;
 	}
 	
 	/**
@@ -76,4 +79,37 @@ public class Edge {
 	public void setEnd(MapNode end) {
 		this.end = end;
 	}
+	
+	/**
+	 * Retrieve the travel time profile of this edge
+	 * @return the profile, TravelTimeProfile.FREE_FLOW if none has been set
+	 */
+	public TravelTimeProfile getTravelTimeProfile() {
+		return travelTimeProfile;
+	}
+	
+	/**
+	 * Set the travel time profile of this edge. Use MapGraph.setTravelTimeProfile so that edges
+	 * with the same curve share one profile
+	 * @param travelTimeProfile the profile, or null for free-flow all day
+	 */
+	public void setTravelTimeProfile(TravelTimeProfile travelTimeProfile) {
+		this.travelTimeProfile = travelTimeProfile == null ? TravelTimeProfile.FREE_FLOW : travelTimeProfile;
+	}
+	
+	/**
+	 * Check whether this edge is blocked, for example by a road closure
+	 * @return true if searches may not use this edge
+	 */
+	public boolean isBlocked() {
+		return blocked;
+	}
+	
+	/**
+	 * Block or unblock this edge. Use MapGraph.applyUpdates so that searches see the change
+	 * @param blocked true to keep searches off this edge
+	 */
+	public void setBlocked(boolean blocked) {
+		this.blocked = blocked;
+	}
 }
@@ -0,0 +1,521 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import geography.GeographicPoint;
+
+/**
+ * A compact, read-only snapshot of a MapGraph's adjacency, stored in flat int arrays
+ * (compressed sparse row layout). Vertex v's outgoing neighbors are head(firstOut(v))
+ * through head(firstOut(v + 1) - 1). Vertices are identified by their vertex id. The
+ * coordinates, adjacency and every per edge column (length, Edge id, road type, travel time
+ * profile, per-profile weights) are kept in a GraphStorage, on or off the Java heap, so a graph
+ * stored off the heap keeps nothing on it that grows with the number of edges.
+ *
+ * MapGraph builds a snapshot lazily the first time a search needs one. A snapshot is never
+ * modified after it is built, so any number of threads can search it at once, and a search
+ * that holds on to one sees a consistent graph from start to finish. When the topology changes
+ * the snapshot is thrown away and rebuilt. When only edge lengths change or edges are blocked,
+ * MapGraph instead publishes a copy with the next epoch number that shares every column except
+ * the edge costs, and patches the derived per-profile weights, the first time each is asked
+ * for, rather than recomputing them.
+ *
+ * A blocked edge has a length of Double.POSITIVE_INFINITY and is never used by a search. Blocking
+ * can split a component, so a copy that blocks or unblocks an edge works out its own strongly
+ * connected components. A copy that only changes lengths keeps them. The compressed graph folds
+ * lengths together, so every copy builds its own.
+ * @author Adam Sickmiller
+ *
+ */
+public class GraphIndex {
+	private static final double EARTH_RADIUS_KM = 6373; //as used by GeographicPoint.distance
+
+	private final long epoch; //incremented every time MapGraph publishes a new snapshot
+	private final int numVertices;
+	private final int numEdges;
+	private final int numEdgeIds; //Edge ids handed out when this snapshot was built, removed edges included
+	private final GraphStorage storage; //coordinates, adjacency and per edge columns, on or off the heap
+	private final TravelTimeProfile[] profiles; //each distinct profile once, indexed by profile code
+	private final String[] roadTypeNames;  //road type of each type code
+	private final double[] speedOfType; //default speed of type code - 1, so untyped edges are at 0
+	private final double maxSpeedKmh;		  //fastest free-flow speed of any edge
+	private final double minMultiplier;		  //lowest multiplier of any profile
+	private final ConcurrentHashMap<RoutingProfile, DoubleColumn> profileWeights = new ConcurrentHashMap<>();
+	private final Map<RoutingProfile, DoubleColumn> inheritedWeights; //weights of the snapshot this was copied from
+	private final int[] changedPositions; //edges whose cost differs from that snapshot
+	private volatile StronglyConnectedComponents components; //found the first time they are asked for
+	private volatile CompressedGraph compressed; //built the first time it is asked for
+	private volatile Incoming incoming; //built the first time it is asked for, shared by copies
+	private volatile double straightLineScale = -1; //worked out the first time it is asked for
+	private volatile double minLatitudeCosine;
+
+	/**
+	 * Build a snapshot of a graph
+	 * @param table the graph's vertices and edges
+	 * @param roadAttributes the road names and types of the graph's edges
+	 * @param epoch the version number of this snapshot
+	 * @param offHeap true to keep the snapshot outside the Java heap
+	 */
+	GraphIndex(GraphTable table, RoadAttributeTable roadAttributes, long epoch, boolean offHeap) {
+		this.epoch = epoch;
+		inheritedWeights = Collections.emptyMap();
+		changedPositions = new int[0];
+		numVertices = table.getNumVertices();
+		numEdgeIds = table.getNumEdgeIds();
+		int edgeCount = 0;
+		for(int id = 0; id < numEdgeIds; id++) {
+			edgeCount += table.isRemoved(id) ? 0 : 1;
+		}
+		numEdges = edgeCount;
+		storage = GraphStorage.allocate(offHeap, numVertices, numEdges, numEdgeIds);
+		for(int v = 0; v < numVertices; v++) {
+			storage.setCoordinates(v, table.latitude(v), table.longitude(v));
+		}
+		roadTypeNames = new String[roadAttributes.getNumRoadTypes()];
+		speedOfType = new double[roadTypeNames.length + 1];
+		speedOfType[0] = TravelTimeProfile.defaultSpeedKmh(null);
+		for(short code = 0; code < roadTypeNames.length; code++) {
+			roadTypeNames[code] = roadAttributes.roadTypeOf(code);
+			speedOfType[code + 1] = TravelTimeProfile.defaultSpeedKmh(roadTypeNames[code]);
+		}
+		
+		//group the edges by the vertex they leave with a counting sort, using firstOut as the cursor:
+		//first each vertex's out-degree, then the end of its edges, then edges are placed backwards
+		for(int id = 0; id < numEdgeIds; id++) {
+			if(!table.isRemoved(id)) {
+				storage.setFirstOut(table.from(id), storage.firstOut(table.from(id)) + 1);
+			}
+		}
+		for(int v = 0, end = 0; v < numVertices; v++) {
+			end += storage.firstOut(v);
+			storage.setFirstOut(v, end);
+		}
+		storage.setFirstOut(numVertices, numEdges);
+		List<TravelTimeProfile> distinct = new ArrayList<>();
+		Map<TravelTimeProfile, Integer> profileCodes = new IdentityHashMap<>(); //profiles are shared, so one per curve
+		double maxSpeed = 0;
+		double minMult = 1;
+		for(int id = numEdgeIds - 1; id >= 0; id--) { //backwards, so each vertex's edges stay in the order they were added
+			if(table.isRemoved(id)) {
+				continue;
+			}
+			int e = storage.firstOut(table.from(id)) - 1;
+			storage.setFirstOut(table.from(id), e);
+			storage.setHead(e, table.to(id));
+			storage.setLength(e, table.isBlocked(id) ? Double.POSITIVE_INFINITY : table.length(id));
+			storage.setEdgeId(e, id);
+			storage.setPositionOfEdge(id, e);
+			short code = roadAttributes.getRoadTypeCode(id);
+			storage.setRoadTypeCode(e, code);
+			TravelTimeProfile profile = table.profile(id);
+			Integer profileCode = profileCodes.get(profile);
+			if(profileCode == null) {
+				profileCode = distinct.size();
+				distinct.add(profile);
+				profileCodes.put(profile, profileCode);
+			}
+			storage.setProfileCode(e, profileCode);
+			maxSpeed = Math.max(maxSpeed, speedOfType[code + 1]);
+			minMult = Math.min(minMult, profile.getMinMultiplier());
+		}
+		profiles = distinct.toArray(new TravelTimeProfile[distinct.size()]);
+		maxSpeedKmh = maxSpeed;
+		minMultiplier = minMult;
+	}
+
+	/**
+	 * Copy a snapshot, giving some edges new lengths. Everything but the edge costs is shared with
+	 * base. Per-profile weights that base has already worked out are patched for the changed edges
+	 * only, when they are first asked for, and base's components are kept if no edge was blocked
+	 * or unblocked.
+	 * @param base the snapshot to copy
+	 * @param changed the ids of the edges whose length or blocked state has changed
+	 * @param table the graph's edges, holding their new lengths
+	 */
+	private GraphIndex(GraphIndex base, int[] changed, GraphTable table) {
+		epoch = base.epoch + 1;
+		numVertices = base.numVertices;
+		numEdges = base.numEdges;
+		numEdgeIds = base.numEdgeIds;
+		profiles = base.profiles;
+		roadTypeNames = base.roadTypeNames;
+		speedOfType = base.speedOfType;
+		maxSpeedKmh = base.maxSpeedKmh;
+		minMultiplier = base.minMultiplier;
+		storage = base.storage.withCopiedLengths();
+		incoming = base.incoming; //same topology, only the costs differ
+		changedPositions = new int[changed.length];
+		boolean blockingChanged = false;
+		for(int i = 0; i < changed.length; i++) {
+			int e = changedPositions[i] = storage.positionOfEdge(changed[i]);
+			storage.setLength(e, table.isBlocked(changed[i]) ? Double.POSITIVE_INFINITY : table.length(changed[i]));
+			blockingChanged |= base.isBlocked(e) != isBlocked(e);
+		}
+		inheritedWeights = new HashMap<>(base.profileWeights); //only the columns, so base itself can be collected
+		if(base.straightLineScale >= 0) { //only the changed edges can lower the scale, so the rest need not be measured again
+			double scale = base.straightLineScale;
+			for(int id: changed) {
+				double straight = distance(table.from(id), table.to(id));
+				if(straight > 0) {
+					scale = Math.min(scale, table.length(id) / straight * (1 - 1e-9));
+				}
+			}
+			minLatitudeCosine = base.minLatitudeCosine; //the vertices have not moved
+			straightLineScale = Math.max(0, scale); //an edge made longer leaves the scale a little low, which is still safe
+		}
+		components = blockingChanged ? null : base.components; //lengths alone never change who can reach whom
+	}
+
+	/**
+	 * Make the next version of this snapshot after some edges changed length or were blocked or
+	 * unblocked. This snapshot is left as it is, for searches that are still using it
+	 * @param changed the ids of the edges that changed. They must all be in this snapshot
+	 * @param table the graph's edges, holding their new lengths
+	 * @return a new snapshot with the next epoch number
+	 */
+	GraphIndex withChangedEdges(int[] changed, GraphTable table) {
+		return new GraphIndex(this, changed, table);
+	}
+
+	/**
+	 * Get the version number of this snapshot. A later snapshot of the same graph always has a
+	 * larger epoch
+	 * @return the epoch
+	 */
+	public long getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * Check whether an Edge is in this snapshot
+	 * @param edgeId an Edge id
+	 * @return true if the edge has a position in this snapshot
+	 */
+	boolean containsEdge(int edgeId) {
+		return edgeId >= 0 && edgeId < numEdgeIds && storage.positionOfEdge(edgeId) >= 0;
+	}
+
+	public int getNumVertices() {
+		return numVertices;
+	}
+
+	public int getNumEdges() {
+		return numEdges;
+	}
+
+	/**
+	 * Get the position of the first outgoing edge of a vertex. The outgoing edges of v are
+	 * firstOut(v) up to, but not including, firstOut(v + 1)
+	 * @param v a vertex id
+	 * @return the index of v's first outgoing edge
+	 */
+	public int firstOut(int v) {
+		return storage.firstOut(v);
+	}
+
+	/**
+	 * Get the vertex an edge leads to
+	 * @param e an edge position between 0 and getNumEdges()
+	 * @return the id of the edge's end vertex
+	 */
+	public int head(int e) {
+		return storage.head(e);
+	}
+
+	/**
+	 * Check whether an edge is blocked
+	 * @param e an edge position between 0 and getNumEdges()
+	 * @return true if no search may use the edge
+	 */
+	public boolean isBlocked(int e) {
+		return storage.length(e) == Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Get the stable id of the Edge at an edge position. Edge positions change when the snapshot is
+	 * rebuilt, edge ids do not
+	 * @param e an edge position between 0 and getNumEdges()
+	 * @return the Edge id, usable with the graph's RoadAttributeTable
+	 */
+	public int edgeId(int e) {
+		return storage.edgeId(e);
+	}
+
+	/**
+	 * Get the length of an edge
+	 * @param e an edge position between 0 and getNumEdges()
+	 * @return the length of the road, in km, or Double.POSITIVE_INFINITY if the edge is blocked
+	 */
+	public double length(int e) {
+		return storage.length(e);
+	}
+
+	/**
+	 * Get the cost of every edge under a routing profile. The column is worked out the first time a
+	 * profile is asked for and kept for the life of this snapshot, next to its other columns, so
+	 * searches never look at road type strings. Excluded edges cost RoutingProfile.EXCLUDED. The
+	 * column must not be modified.
+	 * @param profile the routing profile
+	 * @return the cost of each edge position
+	 */
+	DoubleColumn weights(RoutingProfile profile) {
+		return profileWeights.computeIfAbsent(profile, p -> {
+			double[] multipliers = new double[roadTypeNames.length + 1]; //one lookup per road type, not per edge
+			multipliers[0] = p.getMultiplier(null);
+			for(int code = 0; code < roadTypeNames.length; code++) {
+				multipliers[code + 1] = p.getMultiplier(roadTypeNames[code]);
+			}
+			DoubleColumn inherited = inheritedWeights.get(p);
+			if(inherited != null) { //copy the older snapshot's weights and fix the edges that changed
+				DoubleColumn weights = inherited.copy();
+				for(int e: changedPositions) {
+					weights.set(e, storage.length(e) * multipliers[storage.roadTypeCode(e) + 1]);
+				}
+				return weights;
+			}
+			DoubleColumn weights = storage.newDoubleColumn(numEdges);
+			for(int e = 0; e < numEdges; e++) {
+				weights.set(e, storage.length(e) * multipliers[storage.roadTypeCode(e) + 1]);
+			}
+			return weights;
+		});
+	}
+
+	/**
+	 * Get the time it takes to drive an edge when reaching it at the given time, including any wait
+	 * at its start that gets there sooner. See TravelTimeProfile.travelTime
+	 * @param e an edge position between 0 and getNumEdges()
+	 * @param departureSeconds time of reaching the edge, in seconds since midnight
+	 * @return travel time, in seconds
+	 */
+	public double travelTime(int e, double departureSeconds) {
+		double freeFlowSeconds = storage.length(e) / speedOfType[storage.roadTypeCode(e) + 1] * 3600; //infinite if blocked
+		return profiles[storage.profileCode(e)].travelTime(freeFlowSeconds, departureSeconds);
+	}
+
+	/**
+	 * Get a lower bound on the time it takes to drive the given straight line distance anywhere in
+	 * this graph, at any time of day. Used as the A* estimate for travel time searches
+	 * @param km a straight line distance
+	 * @return a travel time no larger than any real route of that distance, in seconds
+	 */
+	public double minTravelTime(double km) {
+		return maxSpeedKmh == 0 ? 0 : km / maxSpeedKmh * 3600 * minMultiplier;
+	}
+
+	/**
+	 * Get the location of a vertex
+	 * @param v a vertex id
+	 * @return a new GeographicPoint at the vertex. Searches use latitude and longitude instead
+	 */
+	public GeographicPoint point(int v) {
+		return new GeographicPoint(storage.latitude(v), storage.longitude(v));
+	}
+
+	public double latitude(int v) {
+		return storage.latitude(v);
+	}
+
+	public double longitude(int v) {
+		return storage.longitude(v);
+	}
+
+	/**
+	 * Get the straight line distance between two vertices, as GeographicPoint.distance would give
+	 * it, without making a GeographicPoint
+	 * @param v a vertex id
+	 * @param w a vertex id
+	 * @return the distance, in km
+	 */
+	public double distance(int v, int w) {
+		return distance(storage.latitude(v), storage.longitude(v), storage.latitude(w), storage.longitude(w));
+	}
+
+	/**
+	 * Get the great circle distance between two points, with the same formula and rounding as
+	 * GeographicPoint.distance, so searches that estimate with it settle vertices in the same order
+	 * @return the distance, in km
+	 */
+	static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+		double latitudeDistance = Math.toRadians(latitude2 - latitude1);
+		double longitudeDistance = Math.toRadians(longitude2 - longitude1);
+		double a = Math.sin(latitudeDistance / 2) * Math.sin(latitudeDistance / 2)
+				+ Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2))
+				* Math.sin(longitudeDistance / 2) * Math.sin(longitudeDistance / 2);
+		return EARTH_RADIUS_KM * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+	}
+
+	/**
+	 * Check where this snapshot keeps its coordinates, adjacency and per edge columns
+	 * @return true if they are outside the Java heap
+	 */
+	public boolean isOffHeap() {
+		return storage.isOffHeap();
+	}
+
+	/**
+	 * Get the strongly connected components of this snapshot, finding them the first time they are
+	 * asked for. Two threads asking at once may both do the work, the answer is the same
+	 * @return the components, ignoring blocked edges
+	 */
+	public StronglyConnectedComponents getComponents() {
+		StronglyConnectedComponents current = components;
+		if(current == null) {
+			current = new StronglyConnectedComponents(this);
+			components = current;
+		}
+		return current;
+	}
+
+	/**
+	 * Get the pruned and chain-compressed version of this snapshot, building it the first time it is
+	 * asked for
+	 * @return the compressed graph, without blocked edges
+	 */
+	public CompressedGraph getCompressed() {
+		CompressedGraph current = compressed;
+		if(current == null) {
+			current = new CompressedGraph(this);
+			compressed = current;
+		}
+		return current;
+	}
+
+	/**
+	 * Get the incoming edges of every vertex, building them the first time they are asked for. They
+	 * let a search run backwards from a target
+	 * @return the incoming edges, blocked ones included
+	 */
+	Incoming getIncoming() {
+		Incoming current = incoming;
+		if(current == null) {
+			current = new Incoming(this);
+			incoming = current;
+		}
+		return current;
+	}
+
+	/**
+	 * Get how far straight-line distance can be trusted as a lower bound on road distance: the
+	 * smallest ratio of an edge's length to the straight-line distance between its ends, at most 1.
+	 * Any path is then at least this scale times the straight-line distance between its ends.
+	 * Worked out over every edge the first time it is asked for, or carried over from the snapshot
+	 * this one was made from by withChangedEdges, lowered for any changed edge that is shorter
+	 * @return the scale, 0 if an edge is shorter than any positive fraction of its straight line
+	 */
+	double getStraightLineScale() {
+		if(straightLineScale < 0) {
+			measureStraightLines();
+		}
+		return straightLineScale;
+	}
+
+	/**
+	 * Get the cosine of the latitude furthest from the equator of any vertex, which is how short a
+	 * degree of longitude can get relative to a degree of latitude anywhere in this snapshot
+	 * @return the cosine, between 0 and 1
+	 */
+	double getMinLatitudeCosine() {
+		if(straightLineScale < 0) {
+			measureStraightLines();
+		}
+		return minLatitudeCosine;
+	}
+
+	/** Work out getStraightLineScale and getMinLatitudeCosine. Two threads may both do it, the answer is the same */
+	private void measureStraightLines() {
+		double scale = 1;
+		double maxLatitude = 0;
+		for(int v = 0; v < numVertices; v++) {
+			maxLatitude = Math.max(maxLatitude, Math.abs(latitude(v)));
+			for(int e = firstOut(v), end = firstOut(v + 1); e < end; e++) {
+				double straight = distance(v, head(e));
+				if(straight > 0) {
+					scale = Math.min(scale, length(e) / straight);
+				}
+			}
+		}
+		minLatitudeCosine = Math.max(0, Math.cos(Math.toRadians(Math.min(90, maxLatitude))));
+		straightLineScale = Math.max(0, scale * (1 - 1e-9)); //leave room for rounding in distance(), written last
+	}
+
+	/**
+	 * The edges of a snapshot grouped by head, in the same compressed sparse row layout as the
+	 * outgoing edges. Vertex v's incoming edges are edge(firstIn(v)) through edge(firstIn(v + 1) - 1),
+	 * given as edge positions so length and isBlocked can be asked of them. The columns live with
+	 * the snapshot's storage
+	 */
+	static final class Incoming {
+		private final IntColumn firstIn;
+		private final IntColumn edge; //edge position of each incoming edge
+		private final IntColumn tail; //the vertex each incoming edge leaves from
+
+		private Incoming(GraphIndex graphIndex) {
+			int n = graphIndex.getNumVertices();
+			int m = graphIndex.getNumEdges();
+			firstIn = graphIndex.storage.newIntColumn(n + 1);
+			edge = graphIndex.storage.newIntColumn(m);
+			tail = graphIndex.storage.newIntColumn(m);
+			//the same counting sort as the outgoing edges, with firstIn as the cursor
+			for(int e = 0; e < m; e++) {
+				firstIn.set(graphIndex.head(e), firstIn.get(graphIndex.head(e)) + 1);
+			}
+			for(int v = 0, end = 0; v < n; v++) {
+				end += firstIn.get(v);
+				firstIn.set(v, end);
+			}
+			firstIn.set(n, m);
+			for(int v = n - 1; v >= 0; v--) {
+				for(int e = graphIndex.firstOut(v + 1) - 1, begin = graphIndex.firstOut(v); e >= begin; e--) {
+					int i = firstIn.get(graphIndex.head(e)) - 1;
+					firstIn.set(graphIndex.head(e), i);
+					edge.set(i, e);
+					tail.set(i, v);
+				}
+			}
+		}
+
+		int firstIn(int v) {
+			return firstIn.get(v);
+		}
+
+		int edge(int i) {
+			return edge.get(i);
+		}
+
+		int tail(int i) {
+			return tail.get(i);
+		}
+	}
+
+	/**
+	 * Estimate the memory this snapshot takes on the Java heap. The tables of road types and travel
+	 * time profiles, a few entries each, and derived structures (components, compressed graph) are
+	 * not counted
+	 * @return estimated size in bytes, including per-profile weights worked out so far, 0 if the
+	 *   snapshot is stored off the heap
+	 */
+	public long estimateHeapBytes() {
+		return storage.isOffHeap() ? 0 : storageBytes();
+	}
+
+	/**
+	 * Estimate the memory this snapshot takes outside the Java heap
+	 * @return estimated size in bytes, 0 unless the graph stores its snapshots off the heap
+	 */
+	public long estimateOffHeapBytes() {
+		return storage.isOffHeap() ? storageBytes() : 0;
+	}
+
+	/** The storage, the incoming edges if built, and a double per edge for each profile's weights */
+	private long storageBytes() {
+		long bytes = storage.estimateBytes() + 8L * numEdges * profileWeights.size();
+		return incoming == null ? bytes : bytes + 4L * (numVertices + 1) + 8L * numEdges;
+	}
+}
@@ -0,0 +1,100 @@
+package roadgraph;
+
+/**
+ * Where a GraphIndex keeps its coordinates, adjacency and per edge columns. ArrayGraphStorage keeps
+ * them in Java arrays on the heap; OffHeapGraphStorage keeps them in direct buffers outside the heap,
+ * so a continental map does not count against the heap budget and the garbage collector never has
+ * to scan it. Searches read both through the same methods. Which one a graph uses is chosen when the
+ * MapGraph is constructed.
+ *
+ * Edge positions run from 0 to the number of edges in the snapshot, grouped by the vertex they
+ * leave from. Edge ids are the stable ids the graph hands out, see Edge.getId.
+ * @author Adam Sickmiller
+ *
+ */
+interface GraphStorage {
+
+	/**
+	 * Allocate storage for a graph
+	 * @param offHeap true for direct buffers, false for arrays
+	 * @param numVertices the number of vertices
+	 * @param numEdges the number of edges
+	 * @param numEdgeIds the number of edge ids handed out, removed edges included
+	 * @return empty storage of that size
+	 */
+	static GraphStorage allocate(boolean offHeap, int numVertices, int numEdges, int numEdgeIds) {
+		return offHeap ? new OffHeapGraphStorage(numVertices, numEdges, numEdgeIds)
+				: new ArrayGraphStorage(numVertices, numEdges, numEdgeIds);
+	}
+
+	int firstOut(int v);
+
+	void setFirstOut(int v, int e);
+
+	int head(int e);
+
+	void setHead(int e, int v);
+
+	double length(int e);
+
+	void setLength(int e, double length);
+
+	double latitude(int v);
+
+	double longitude(int v);
+
+	void setCoordinates(int v, double latitude, double longitude);
+
+	int edgeId(int e);
+
+	void setEdgeId(int e, int edgeId);
+
+	/** The RoadAttributeTable type code of an edge position, -1 for none */
+	short roadTypeCode(int e);
+
+	void setRoadTypeCode(int e, short code);
+
+	/** The index of an edge position's travel time profile in the snapshot's table of profiles */
+	int profileCode(int e);
+
+	void setProfileCode(int e, int code);
+
+	/** The edge position of an edge id, -1 for a removed edge */
+	int positionOfEdge(int edgeId);
+
+	void setPositionOfEdge(int edgeId, int e);
+
+	/**
+	 * Allocate a column next to this storage, for data derived from the snapshot
+	 * @param size the number of entries
+	 * @return a column of zeros
+	 */
+	DoubleColumn newDoubleColumn(int size);
+
+	/**
+	 * Allocate a column next to this storage, for data derived from the snapshot
+	 * @param size the number of entries
+	 * @return a column of zeros
+	 */
+	IntColumn newIntColumn(int size);
+
+	/**
+	 * Copy this storage for a new snapshot in which only edge lengths change. Everything else is
+	 * shared, the lengths are copied
+	 * @return the copy
+	 */
+	GraphStorage withCopiedLengths();
+
+	/**
+	 * Estimate the memory this storage takes, on or off the heap, not counting columns from
+	 * newDoubleColumn or newIntColumn
+	 * @return estimated size in bytes
+	 */
+	long estimateBytes();
+
+	/**
+	 * Check where this storage lives
+	 * @return true if it is outside the Java heap
+	 */
+	boolean isOffHeap();
+}
@@ -0,0 +1,164 @@
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A point in time summary of a MapGraph: sizes, out-degree distribution, strongly and weakly
+ * connected components, bounding box and an estimate of the memory each structure takes. Made by
+ * MapGraph.getSummary from counters the graph keeps up to date as vertices and edges are added, so
+ * asking for one does not scan the graph.
+ * @author Adam Sickmiller
+ *
+ */
+public class GraphSummary {
+	private final int numVertices;
+	private final int numEdges;
+	private final int[] outDegreeCounts;
+	private final int numComponents;
+	private final int largestComponent;
+	private final int numWeakComponents;
+	private final int largestWeakComponent;
+	private final double minLatitude;
+	private final double minLongitude;
+	private final double maxLatitude;
+	private final double maxLongitude;
+	private final Map<String, Long> memoryBytes;
+
+	GraphSummary(int numVertices, int numEdges, int[] outDegreeCounts, StronglyConnectedComponents components,
+			double[] boundingBox, Map<String, Long> memoryBytes) {
+		this.numVertices = numVertices;
+		this.numEdges = numEdges;
+		this.outDegreeCounts = outDegreeCounts;
+		this.numComponents = components.getNumComponents();
+		this.largestComponent = components.getLargestComponentSize();
+		this.numWeakComponents = components.getNumWeakComponents();
+		this.largestWeakComponent = components.getLargestWeakComponentSize();
+		this.minLatitude = boundingBox[0];
+		this.minLongitude = boundingBox[1];
+		this.maxLatitude = boundingBox[2];
+		this.maxLongitude = boundingBox[3];
+		this.memoryBytes = Collections.unmodifiableMap(new LinkedHashMap<String, Long>(memoryBytes));
+	}
+
+	public int getNumVertices() {
+		return numVertices;
+	}
+
+	public int getNumEdges() {
+		return numEdges;
+	}
+
+	/**
+	 * Get the out-degree distribution
+	 * @return element d is the number of vertices with exactly d outgoing edges
+	 */
+	public int[] getOutDegreeCounts() {
+		return outDegreeCounts.clone();
+	}
+
+	/**
+	 * Get the largest number of edges leaving any one vertex
+	 * @return the maximum out-degree, 0 for an empty graph
+	 */
+	public int getMaxOutDegree() {
+		for(int d = outDegreeCounts.length - 1; d > 0; d--) {
+			if(outDegreeCounts[d] > 0) {
+				return d;
+			}
+		}
+		return 0;
+	}
+
+	public double getMeanOutDegree() {
+		return numVertices == 0 ? 0 : (double) numEdges / numVertices;
+	}
+
+	public int getNumComponents() {
+		return numComponents;
+	}
+
+	public int getLargestComponentSize() {
+		return largestComponent;
+	}
+
+	public int getNumWeakComponents() {
+		return numWeakComponents;
+	}
+
+	public int getLargestWeakComponentSize() {
+		return largestWeakComponent;
+	}
+
+	/**
+	 * Get the southern edge of the bounding box of every vertex
+	 * @return the smallest latitude, or Double.NaN for an empty graph
+	 */
+	public double getMinLatitude() {
+		return minLatitude;
+	}
+
+	public double getMinLongitude() {
+		return minLongitude;
+	}
+
+	public double getMaxLatitude() {
+		return maxLatitude;
+	}
+
+	public double getMaxLongitude() {
+		return maxLongitude;
+	}
+
+	/**
+	 * Get the estimated memory taken by each structure of the graph. The estimates assume
+	 * compressed references and count what each structure holds on its own, so shared objects are
+	 * counted once
+	 * @return bytes by structure name, in a fixed order
+	 */
+	public Map<String, Long> getMemoryBytes() {
+		return memoryBytes;
+	}
+
+	/**
+	 * Get the estimated memory taken by the whole graph
+	 * @return the sum of getMemoryBytes(), in bytes
+	 */
+	public long getTotalMemoryBytes() {
+		long total = 0;
+		for(long bytes: memoryBytes.values()) {
+			total += bytes;
+		}
+		return total;
+	}
+
+	/**
+	 * Write this summary as a one line JSON object
+	 * @return JSON with every value in this summary
+	 */
+	public String toJson() {
+		StringBuilder sb = new StringBuilder("{\"vertices\":").append(numVertices)
+			.append(",\"edges\":").append(numEdges)
+			.append(",\"outDegreeCounts\":").append(Arrays.toString(outDegreeCounts).replace(" ", ""))
+			.append(",\"components\":").append(numComponents)
+			.append(",\"largestComponent\":").append(largestComponent)
+			.append(",\"weakComponents\":").append(numWeakComponents)
+			.append(",\"largestWeakComponent\":").append(largestWeakComponent)
+			.append(",\"boundingBox\":[").append(number(minLatitude)).append(",").append(number(minLongitude))
+			.append(",").append(number(maxLatitude)).append(",").append(number(maxLongitude)).append("]")
+			.append(",\"memoryBytes\":{");
+		String separator = "";
+		for(Map.Entry<String, Long> entry: memoryBytes.entrySet()) {
+			sb.append(separator).append("\"").append(entry.getKey()).append("\":").append(entry.getValue());
+			separator = ",";
+		}
+		return sb.append("},\"totalMemoryBytes\":").append(getTotalMemoryBytes()).append("}").toString();
+	}
+
+	/** Write a double for JSON, which has no NaN or infinity */
+	private static String number(double value) {
+		return Double.isNaN(value) || Double.isInfinite(value) ? "null" : String.valueOf(value);
+	}
+}
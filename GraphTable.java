@@ -0,0 +1,120 @@
+package roadgraph;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import geography.GeographicPoint;
+
+/**
+ * The editable master copy of a MapGraph's vertices and edges, which GraphIndex snapshots are built
+ * from. NodeGraphTable keeps a MapNode per vertex and an Edge per edge on the heap. OffHeapGraphTable
+ * keeps the same data in direct buffers and only makes MapNodes and Edges when one is asked for.
+ *
+ * Vertices are identified by their dense vertex id, edges by the id the graph handed out when they
+ * were added. A removed edge keeps its id, which is never used again.
+ * @author Adam Sickmiller
+ *
+ */
+interface GraphTable {
+
+	int getNumVertices();
+
+	/**
+	 * Look up a vertex
+	 * @param location a point, may be null
+	 * @return the id of the vertex at location, or -1 if there is none
+	 */
+	int vertexId(GeographicPoint location);
+
+	double latitude(int v);
+
+	double longitude(int v);
+
+	GeographicPoint location(int v);
+
+	/**
+	 * Add a vertex. The caller has checked that there is none at location
+	 * @param location the point of the new vertex
+	 * @return its id, which is the number of vertices before the call
+	 */
+	int addVertex(GeographicPoint location);
+
+	/**
+	 * Get the locations of every vertex
+	 * @return a view of the vertices, see MapGraph.getVertices
+	 */
+	Set<GeographicPoint> vertices();
+
+	/** The number of edges leaving a vertex, not counting removed ones */
+	int outDegree(int v);
+
+	/**
+	 * Give every vertex a new id
+	 * @param order order[newId] is the current id of the vertex that gets newId, already checked
+	 */
+	void renumber(int[] order);
+
+	MapNode node(int v);
+
+	/**
+	 * Get the MapNode of every vertex, by location
+	 * @return the map, see MapGraph.getVerticesMap. A table that does not keep MapNodes returns a copy
+	 */
+	HashMap<GeographicPoint, MapNode> verticesMap();
+
+	/**
+	 * Get how many edge ids have been handed out
+	 * @return the number of edges ever added, removed edges included
+	 */
+	int getNumEdgeIds();
+
+	/**
+	 * Add an edge
+	 * @param id the id of the new edge, which must be getNumEdgeIds()
+	 * @param from the vertex it leaves
+	 * @param to the vertex it leads to
+	 * @param length its length, in km
+	 */
+	void addEdge(int id, int from, int to, double length);
+
+	int from(int id);
+
+	int to(int id);
+
+	double length(int id);
+
+	void setLength(int id, double length);
+
+	boolean isBlocked(int id);
+
+	void setBlocked(int id, boolean blocked);
+
+	boolean isRemoved(int id);
+
+	void remove(int id);
+
+	TravelTimeProfile profile(int id);
+
+	void setProfile(int id, TravelTimeProfile profile);
+
+	Edge edge(int id);
+
+	/**
+	 * Find every edge from one vertex to another
+	 * @return their ids, in the order they were added
+	 */
+	int[] edgesBetween(int from, int to);
+
+	/**
+	 * Get the edges by the key GraphUtility.generateHashMapKeyForEdge gives their two ends
+	 * @return the map, see MapGraph.getEdgeMap
+	 */
+	Map<Integer, Edge> edgeMap();
+
+	/**
+	 * Add an estimate of the memory this table takes to a graph summary
+	 * @param memory bytes by structure name
+	 */
+	void estimateMemory(Map<String, Long> memory);
+}
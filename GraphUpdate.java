@@ -0,0 +1,76 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import geography.GeographicPoint;
+
+/**
+ * A batch of changes to the edges of a MapGraph, such as new lengths from traffic data or road
+ * closures. Build up a batch and hand it to MapGraph.applyUpdates, which applies all of it at once:
+ * searches run on the graph's snapshot, so a search sees either none of the batch or all of it.
+ * Code that reads the Edge objects themselves can see part of a batch.
+ * @author Adam Sickmiller
+ *
+ */
+public class GraphUpdate {
+	/** The kinds of change a batch can hold */
+	enum Kind { SET_LENGTH, BLOCK, UNBLOCK }
+
+	/** One change to the edges from one point to another */
+	static class Change {
+		final Kind kind;
+		final GeographicPoint from;
+		final GeographicPoint to;
+		final double length;
+
+		Change(Kind kind, GeographicPoint from, GeographicPoint to, double length) {
+			this.kind = kind;
+			this.from = from;
+			this.to = to;
+			this.length = length;
+		}
+	}
+
+	private final List<Change> changes = new ArrayList<>();
+
+	/**
+	 * Give the edges from one point to another a new length
+	 * @param from The starting point of the edge
+	 * @param to The ending point of the edge
+	 * @param length the new length, in km
+	 * @throws IllegalArgumentException if length is less than 0
+	 */
+	public void setLength(GeographicPoint from, GeographicPoint to, double length) {
+		if(length < 0) {
+			throw new IllegalArgumentException("length must be >= 0");
+		}
+		changes.add(new Change(Kind.SET_LENGTH, from, to, length));
+	}
+
+	/**
+	 * Close the edges from one point to another
+	 * @param from The starting point of the edge
+	 * @param to The ending point of the edge
+	 */
+	public void block(GeographicPoint from, GeographicPoint to) {
+		changes.add(new Change(Kind.BLOCK, from, to, 0));
+	}
+
+	/**
+	 * Reopen the edges from one point to another
+	 * @param from The starting point of the edge
+	 * @param to The ending point of the edge
+	 */
+	public void unblock(GeographicPoint from, GeographicPoint to) {
+		changes.add(new Change(Kind.UNBLOCK, from, to, 0));
+	}
+
+	public int size() {
+		return changes.size();
+	}
+
+	List<Change> getChanges() {
+		return changes;
+	}
+}
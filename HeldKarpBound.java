@@ -0,0 +1,156 @@
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleConsumer;
+import java.util.function.DoubleSupplier;
+
+/**
+ * A lower bound on the length of the shortest tour through every stop of a distance matrix: the
+ * Held-Karp bound, found by subgradient optimization over 1-trees.
+ *
+ * A 1-tree is a minimum spanning tree over all stops but stop 0, plus the two cheapest legs joining
+ * stop 0 to it. Every tour is a 1-tree, so the cheapest 1-tree is a lower bound. Adding a penalty
+ * pi[v] to every leg at stop v changes the length of every tour by the same 2 * sum(pi) but not the
+ * cheapest 1-tree, so each choice of penalties gives a bound. The subgradient step raises the
+ * penalty of stops with more than two legs in the 1-tree and lowers it at leaves, which pushes
+ * the 1-tree towards a tour and the bound up towards the length of the best one. On road networks
+ * the bound usually ends within a few percent of the optimum. When every stop has exactly two legs
+ * the 1-tree is a tour and the bound is exact.
+ *
+ * Road distances need not be symmetric. The bound is taken over the shorter direction of each leg,
+ * which no tour can beat in either direction, so it stays a lower bound for one-way streets, if a
+ * looser one.
+ * @author Adam Sickmiller
+ *
+ */
+class HeldKarpBound {
+	private static final int PATIENCE = 20;		   //steps without progress before the step size is halved
+	private static final double MIN_STEP_SCALE = 1e-6; //smallest step size before giving up
+
+	private final double[][] weight; //the shorter direction of each leg
+	private final int n;
+	private final double fallbackUpperBound; //a nearest neighbor tour, until the caller knows a better one
+
+	/**
+	 * Prepare a bound for a matrix
+	 * @param matrix matrix[i][j] is the cost of going from stop i to stop j. Every entry must be finite
+	 */
+	HeldKarpBound(double[][] matrix) {
+		n = matrix.length;
+		weight = new double[n][n];
+		for(int i = 0; i < n; i++) {
+			for(int j = 0; j < n; j++) {
+				weight[i][j] = Math.min(matrix[i][j], matrix[j][i]);
+			}
+		}
+		fallbackUpperBound = n == 0 ? 0 : TourSearch.tourCost(matrix, TourSearch.nearestNeighbor(matrix, 0));
+	}
+
+	/**
+	 * Raise the bound until it stops improving, it proves a tour optimal or stop says so
+	 * @param upperBound the length of the best tour known so far, read before every step to size it.
+	 *   Double.POSITIVE_INFINITY until a tour is known
+	 * @param stop checked before every step, returns true to give up early
+	 * @param improved told about every better bound, for callers that watch the gap as it closes
+	 * @param maxSteps the most subgradient steps to take
+	 * @return the best lower bound found
+	 */
+	double compute(DoubleSupplier upperBound, BooleanSupplier stop, DoubleConsumer improved, int maxSteps) {
+		if(n <= 1) {
+			return 0;
+		}
+		if(n == 2) {
+			return weight[0][1] * 2;
+		}
+		double[] pi = new double[n];
+		int[] degree = new int[n];
+		double best = Double.NEGATIVE_INFINITY;
+		double scale = 2;
+		int stale = 0;
+		for(int step = 0; step < maxSteps && !stop.getAsBoolean(); step++) {
+			double bound = oneTree(pi, degree);
+			if(bound > best) {
+				best = bound;
+				stale = 0;
+				improved.accept(best);
+			} else if(++stale >= PATIENCE) {
+				scale /= 2;
+				stale = 0;
+				if(scale < MIN_STEP_SCALE) {
+					break;
+				}
+			}
+			double norm = 0;
+			for(int v = 0; v < n; v++) {
+				norm += (degree[v] - 2) * (degree[v] - 2);
+			}
+			double gap = Math.min(upperBound.getAsDouble(), fallbackUpperBound) - bound;
+			if(norm == 0 || !(gap > 0)) {
+				break; //the 1-tree is a tour, or the bound has met the best tour
+			}
+			double length = scale * gap / norm;
+			for(int v = 0; v < n; v++) {
+				pi[v] += length * (degree[v] - 2);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Find the cheapest 1-tree under the given penalties, with Prim's algorithm on the dense matrix
+	 * @param degree filled with the number of 1-tree legs at each stop
+	 * @return the length of the 1-tree less twice the sum of the penalties
+	 */
+	private double oneTree(double[] pi, int[] degree) {
+		double[] closest = new double[n];
+		int[] parent = new int[n];
+		boolean[] inTree = new boolean[n];
+		Arrays.fill(degree, 0);
+		Arrays.fill(closest, Double.POSITIVE_INFINITY);
+		closest[1] = 0;
+		parent[1] = -1;
+		double length = 0;
+		for(int added = 1; added < n; added++) { //spanning tree over stops 1 .. n - 1
+			int v = -1;
+			for(int u = 1; u < n; u++) {
+				if(!inTree[u] && (v < 0 || closest[u] < closest[v])) {
+					v = u;
+				}
+			}
+			inTree[v] = true;
+			length += closest[v];
+			if(parent[v] >= 0) {
+				degree[v]++;
+				degree[parent[v]]++;
+			}
+			for(int u = 1; u < n; u++) {
+				double w = weight[v][u] + pi[v] + pi[u];
+				if(!inTree[u] && w < closest[u]) {
+					closest[u] = w;
+					parent[u] = v;
+				}
+			}
+		}
+		int first = -1; //the two cheapest legs from stop 0
+		int second = -1;
+		for(int u = 1; u < n; u++) {
+			double w = weight[0][u] + pi[u];
+			if(first < 0 || w < weight[0][first] + pi[first]) {
+				second = first;
+				first = u;
+			} else if(second < 0 || w < weight[0][second] + pi[second]) {
+				second = u;
+			}
+		}
+		length += weight[0][first] + pi[first] + weight[0][second] + pi[second] + 2 * pi[0];
+		degree[0] = 2;
+		degree[first]++;
+		degree[second]++;
+		double sum = 0;
+		for(double p: pi) {
+			sum += p;
+		}
+		return length - 2 * sum;
+	}
+}
@@ -0,0 +1,14 @@
+package roadgraph;
+
+/**
+ * A fixed size column of ints, such as the incoming edges of a snapshot. A snapshot hands them out
+ * from its GraphStorage, so the column lives on or off the heap along with the rest of the snapshot.
+ * @author Adam Sickmiller
+ *
+ */
+interface IntColumn {
+
+	int get(int i);
+
+	void set(int i, int value);
+}
@@ -0,0 +1,116 @@
+package roadgraph;
+
+/**
+ * A binary min-heap of int ids keyed by double priorities, with decrease-key. Unlike a
+ * PriorityQueue of MapNodes, nothing is boxed and a vertex is never in the heap twice:
+ * lowering the key of a vertex that is already queued moves it up in place.
+ * @author Adam Sickmiller
+ *
+ */
+class IntMinHeap {
+	private int[] heap = new int[0];	 //heap[i] is the id stored at heap position i
+	private double[] keys = new double[0]; //keys[i] is the priority of heap[i]
+	private int[] position = new int[0]; //position[id] is where id sits in the heap, or -1
+	private int size;
+
+	/**
+	 * Empty the heap and make room for ids up to capacity - 1
+	 * @param capacity the number of distinct ids that may be stored
+	 */
+	void reset(int capacity) {
+		if(position.length < capacity) {
+			heap = new int[capacity];
+			keys = new double[capacity];
+			position = new int[capacity];
+			java.util.Arrays.fill(position, -1);
+		} else {
+			for(int i = 0; i < size; i++) {
+				position[heap[i]] = -1;
+			}
+		}
+		size = 0;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean contains(int id) {
+		return position[id] >= 0;
+	}
+
+	/**
+	 * Get the smallest key in the heap. Only valid when the heap is not empty
+	 * @return the key of the id poll() would return
+	 */
+	double peekKey() {
+		return keys[0];
+	}
+
+	/**
+	 * Insert an id, or lower its key if it is already in the heap. A larger key is ignored
+	 * @param id the id to insert
+	 * @param key its priority
+	 */
+	void insertOrDecrease(int id, double key) {
+		int i = position[id];
+		if(i < 0) {
+			i = size++;
+		} else if(key >= keys[i]) {
+			return;
+		}
+		siftUp(i, id, key);
+	}
+
+	/**
+	 * Remove and return the id with the smallest key
+	 * @return the removed id
+	 */
+	int poll() {
+		int top = heap[0];
+		position[top] = -1;
+		size--;
+		if(size > 0) {
+			siftDown(0, heap[size], keys[size]);
+		}
+		return top;
+	}
+
+	private void siftUp(int i, int id, double key) {
+		while(i > 0) {
+			int parent = (i - 1) >>> 1;
+			if(keys[parent] <= key) {
+				break;
+			}
+			place(i, heap[parent], keys[parent]);
+			i = parent;
+		}
+		place(i, id, key);
+	}
+
+	private void siftDown(int i, int id, double key) {
+		int half = size >>> 1;
+		while(i < half) {
+			int child = 2 * i + 1;
+			if(child + 1 < size && keys[child + 1] < keys[child]) {
+				child++;
+			}
+			if(key <= keys[child]) {
+				break;
+			}
+			place(i, heap[child], keys[child]);
+			i = child;
+		}
+		place(i, id, key);
+	}
+
+	private void place(int i, int id, double key) {
+		heap[i] = id;
+		keys[i] = key;
+		position[id] = i;
+	}
+}
@@ -0,0 +1,312 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import geography.GeographicPoint;
+
+/**
+ * Finds several meaningfully different routes between two points, for planners that want to offer
+ * alternatives to the single shortest path returned by dijkstra and aStarSearch.
+ *
+ * Two engines are available:
+ *   yen     - Yen's k shortest simple paths. Exact: path i is the i-th shortest loopless path. Every
+ *             spur search runs on the graph's pooled SearchState, so alternatives do not each bring
+ *             their own working arrays.
+ *   penalty - repeatedly run Dijkstra, multiplying the cost of every edge on the previous route by
+ *             a penalty factor. Not exact, but much faster on road networks, and tends to produce
+ *             routes that really are different rather than small detours off the best one.
+ *
+ * Either way a route is only returned if it shares no more than maxOverlap of its length with every
+ * route returned before it, and the search gives up when the time budget runs out.
+ * @author Adam Sickmiller
+ *
+ */
+public class KShortestPaths {
+	private final MapGraph graph;
+	private double maxOverlap = 0.8; //fraction of a route's length it may share with an earlier route
+	private long timeBudgetMillis = 1000;
+	private double penaltyFactor = 1.4;
+	private int maxIterationsPerRoute = 10; //candidate paths examined per requested route before giving up
+
+	/**
+	 * Create an engine for the given graph
+	 * @param graph the graph to search
+	 */
+	public KShortestPaths(MapGraph graph) {
+		this.graph = graph;
+	}
+
+	/**
+	 * Find up to k alternative routes using Yen's algorithm
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param k the number of routes wanted
+	 * @return up to k routes, shortest first. The first is always the shortest path. Empty if goal
+	 *   can not be reached
+	 */
+	public List<SearchHit> yen(GeographicPoint start, GeographicPoint goal, int k) {
+		int source = vertexId(start);
+		int target = vertexId(goal);
+		long deadline = deadline();
+		GraphIndex graphIndex = graph.getIndex();
+		SearchState state = graph.getSearchState();
+		state.ensureEdgeCapacity(graphIndex.getNumEdges());
+
+		List<int[]> shortest = new ArrayList<>(); //every path Yen has produced, in order
+		List<int[]> candidates = new ArrayList<>();
+		List<Double> candidateCosts = new ArrayList<>();
+		List<Route> accepted = new ArrayList<>();
+
+		state.reset(graphIndex.getNumVertices());
+		if(!graph.shortestPath(graphIndex, state, source, target, null, 0, null, false)) {
+			return new ArrayList<>();
+		}
+		int[] path = MapGraph.getPath(state.parent, target);
+		accept(graphIndex, path, accepted);
+		shortest.add(path);
+
+		int iterations = 0;
+		while(accepted.size() < k && iterations++ < k * maxIterationsPerRoute && System.nanoTime() < deadline) {
+			int[] previous = shortest.get(shortest.size() - 1);
+			double rootCost = 0;
+			for(int i = 0; i < previous.length - 1 && System.nanoTime() < deadline; i++) {
+				int spur = previous[i];
+				//block the next step of every known path that shares this root, so the spur must leave it.
+				//Paths are compared by their vertices, so every parallel edge of that step is blocked
+				List<Integer> blocked = new ArrayList<>();
+				for(int[] known: shortest) {
+					if(known.length > i + 1 && sharesPrefix(known, previous, i)) {
+						for(int e = graphIndex.firstOut(known[i]), end = graphIndex.firstOut(known[i] + 1); e < end; e++) {
+							if(graphIndex.head(e) == known[i + 1] && !state.isEdgeBlocked(e)) {
+								state.setEdgeBlocked(e, true);
+								blocked.add(e);
+							}
+						}
+					}
+				}
+				state.reset(graphIndex.getNumVertices());
+				for(int j = 0; j < i; j++) {
+					state.markSettled(previous[j]); //the spur may not loop back through the root
+				}
+				if(graph.shortestPath(graphIndex, state, spur, target, null, 0, null, true)) {
+					int[] spurPath = MapGraph.getPath(state.parent, target);
+					int[] candidate = new int[i + spurPath.length];
+					System.arraycopy(previous, 0, candidate, 0, i);
+					System.arraycopy(spurPath, 0, candidate, i, spurPath.length);
+					if(!containsPath(shortest, candidate) && !containsPath(candidates, candidate)) {
+						candidates.add(candidate);
+						candidateCosts.add(rootCost + state.dist[target]);
+					}
+				}
+				for(int e: blocked) {
+					state.setEdgeBlocked(e, false);
+				}
+				rootCost += graphIndex.length(edgeBetween(graphIndex, spur, previous[i + 1]));
+			}
+			if(candidates.isEmpty()) {
+				break; //there are no more simple paths
+			}
+			int best = 0;
+			for(int c = 1; c < candidates.size(); c++) {
+				if(candidateCosts.get(c) < candidateCosts.get(best)) {
+					best = c;
+				}
+			}
+			path = candidates.remove(best);
+			candidateCosts.remove(best);
+			shortest.add(path);
+			accept(graphIndex, path, accepted);
+		}
+		return toHits(graphIndex, accepted);
+	}
+
+	/**
+	 * Find up to k alternative routes using the penalty method
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param k the number of routes wanted
+	 * @return up to k routes, shortest first. The first is always the shortest path. Empty if goal
+	 *   can not be reached
+	 */
+	public List<SearchHit> penalty(GeographicPoint start, GeographicPoint goal, int k) {
+		int source = vertexId(start);
+		int target = vertexId(goal);
+		long deadline = deadline();
+		GraphIndex graphIndex = graph.getIndex();
+		SearchState state = graph.getSearchState();
+		state.ensureEdgeCapacity(graphIndex.getNumEdges());
+		double[] weights = state.weights;
+		for(int e = 0; e < graphIndex.getNumEdges(); e++) {
+			weights[e] = graphIndex.length(e);
+		}
+
+		List<Route> accepted = new ArrayList<>();
+		int iterations = 0;
+		while(accepted.size() < k && iterations++ < k * maxIterationsPerRoute
+				&& (accepted.isEmpty() || System.nanoTime() < deadline)) {
+			state.reset(graphIndex.getNumVertices());
+			if(!graph.shortestPath(graphIndex, state, source, target, DoubleColumn.wrap(weights), 0, null, false)) {
+				break;
+			}
+			int[] path = MapGraph.getPath(state.parent, target);
+			accept(graphIndex, path, accepted);
+			for(int i = 0; i < path.length - 1; i++) {
+				weights[edgeBetween(graphIndex, path[i], path[i + 1])] *= penaltyFactor;
+			}
+		}
+		Collections.sort(accepted, Comparator.comparingDouble(r -> r.length));
+		return toHits(graphIndex, accepted);
+	}
+
+	/** A candidate route with its edge positions sorted, for quick overlap checks */
+	private static class Route {
+		final int[] vertices;
+		final int[] sortedEdges;
+		final double length;
+
+		Route(int[] vertices, int[] sortedEdges, double length) {
+			this.vertices = vertices;
+			this.sortedEdges = sortedEdges;
+			this.length = length;
+		}
+	}
+
+	/** Add path to accepted unless it repeats, or overlaps too much with, a route already accepted */
+	private void accept(GraphIndex graphIndex, int[] path, List<Route> accepted) {
+		int[] edges = new int[path.length - 1];
+		double length = 0;
+		for(int i = 0; i < edges.length; i++) {
+			edges[i] = edgeBetween(graphIndex, path[i], path[i + 1]);
+			length += graphIndex.length(edges[i]);
+		}
+		int[] sortedEdges = edges.clone();
+		Arrays.sort(sortedEdges);
+		for(Route route: accepted) {
+			double shared = 0;
+			for(int e: sortedEdges) {
+				if(Arrays.binarySearch(route.sortedEdges, e) >= 0) {
+					shared += graphIndex.length(e);
+				}
+			}
+			if(Arrays.equals(route.vertices, path) || (length > 0 && shared / length > maxOverlap)) {
+				return;
+			}
+		}
+		accepted.add(new Route(path, sortedEdges, length));
+	}
+
+	private List<SearchHit> toHits(GraphIndex graphIndex, List<Route> routes) {
+		List<SearchHit> hits = new ArrayList<>(routes.size());
+		for(Route route: routes) {
+			List<GeographicPoint> points = new ArrayList<>(route.vertices.length);
+			for(int v: route.vertices) {
+				points.add(graphIndex.point(v));
+			}
+			hits.add(new SearchHit(points.get(0), points.get(points.size() - 1), route.length, points));
+		}
+		return hits;
+	}
+
+	/** Find the cheapest edge position from u to v */
+	private static int edgeBetween(GraphIndex graphIndex, int u, int v) {
+		int best = -1;
+		for(int e = graphIndex.firstOut(u), end = graphIndex.firstOut(u + 1); e < end; e++) {
+			if(graphIndex.head(e) == v && (best < 0 || graphIndex.length(e) < graphIndex.length(best))) {
+				best = e;
+			}
+		}
+		return best;
+	}
+
+	/** Check whether the first length + 1 vertices of two paths are the same */
+	private static boolean sharesPrefix(int[] a, int[] b, int length) {
+		for(int i = 0; i <= length; i++) {
+			if(a[i] != b[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean containsPath(List<int[]> paths, int[] path) {
+		for(int[] known: paths) {
+			if(Arrays.equals(known, path)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private int vertexId(GeographicPoint point) {
+		int id = graph.getVertexId(point);
+		if(id < 0) {
+			throw new IllegalArgumentException(point + " is not in mapgraph");
+		}
+		return id;
+	}
+
+	private long deadline() {
+		return System.nanoTime() + timeBudgetMillis * 1000000L;
+	}
+
+	public double getMaxOverlap() {
+		return maxOverlap;
+	}
+
+	/**
+	 * Set how similar routes may be
+	 * @param maxOverlap the largest fraction (0 to 1) of a route's length that may be shared with any
+	 *   route returned before it
+	 */
+	public void setMaxOverlap(double maxOverlap) {
+		if(maxOverlap < 0 || maxOverlap > 1) {
+			throw new IllegalArgumentException("maxOverlap must be between 0 and 1");
+		}
+		this.maxOverlap = maxOverlap;
+	}
+
+	public long getTimeBudgetMillis() {
+		return timeBudgetMillis;
+	}
+
+	/**
+	 * Set how long a query may run. The shortest route is always returned; alternatives are only
+	 * searched for while time remains
+	 * @param timeBudgetMillis wall clock budget per query, in milliseconds
+	 */
+	public void setTimeBudgetMillis(long timeBudgetMillis) {
+		this.timeBudgetMillis = timeBudgetMillis;
+	}
+
+	public double getPenaltyFactor() {
+		return penaltyFactor;
+	}
+
+	/**
+	 * Set how much more expensive an edge gets each time the penalty method routes over it
+	 * @param penaltyFactor a factor greater than 1
+	 */
+	public void setPenaltyFactor(double penaltyFactor) {
+		if(penaltyFactor <= 1) {
+			throw new IllegalArgumentException("penaltyFactor must be greater than 1");
+		}
+		this.penaltyFactor = penaltyFactor;
+	}
+
+	public int getMaxIterationsPerRoute() {
+		return maxIterationsPerRoute;
+	}
+
+	/**
+	 * Set how many candidate paths may be examined for each route asked for, before giving up on
+	 * finding routes that pass the overlap test
+	 * @param maxIterationsPerRoute a positive number
+	 */
+	public void setMaxIterationsPerRoute(int maxIterationsPerRoute) {
+		this.maxIterationsPerRoute = maxIterationsPerRoute;
+	}
+}
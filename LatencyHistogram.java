@@ -0,0 +1,104 @@
+package roadgraph;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with power-of-two microsecond buckets. Bucket i holds samples
+ * in the range [2^(i-1), 2^i) microseconds, so 40 buckets cover everything up to several days.
+ * Recording a sample is a couple of atomic increments and never allocates, so it can be called
+ * from every request thread.
+ * @author Adam Sickmiller
+ *
+ */
+public class LatencyHistogram {
+	private static final int BUCKETS = 40;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong totalMicros = new AtomicLong();
+	private final AtomicLong maxMicros = new AtomicLong();
+
+	/**
+	 * Record a single sample
+	 * @param nanos the measured latency, in nanoseconds
+	 */
+	public void record(long nanos) {
+		long micros = Math.max(0, nanos / 1000);
+		int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+		counts.incrementAndGet(bucket);
+		totalMicros.addAndGet(micros);
+		long max = maxMicros.get();
+		while(micros > max && !maxMicros.compareAndSet(max, micros)) {
+			max = maxMicros.get();
+		}
+	}
+
+	/**
+	 * Get the number of samples recorded so far
+	 * @return the sample count
+	 */
+	public long getCount() {
+		long count = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * Get the mean latency of all samples
+	 * @return mean latency in microseconds, or 0 if nothing has been recorded
+	 */
+	public double getMeanMicros() {
+		long count = getCount();
+		return count == 0 ? 0 : (double) totalMicros.get() / count;
+	}
+
+	/**
+	 * Get the largest latency recorded
+	 * @return max latency in microseconds
+	 */
+	public long getMaxMicros() {
+		return maxMicros.get();
+	}
+
+	/**
+	 * Estimate a percentile. The answer is the upper bound of the bucket that holds the
+	 * requested rank, so it is accurate to within a factor of two.
+	 * @param percentile a value between 0 and 100
+	 * @return estimated latency at that percentile, in microseconds
+	 */
+	public long getPercentileMicros(double percentile) {
+		long[] snapshot = new long[BUCKETS];
+		long count = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			count += snapshot[i];
+		}
+		if(count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(count * percentile / 100d);
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if(seen >= rank && snapshot[i] > 0) {
+				return Math.min(1L << i, getMaxMicros());
+			}
+		}
+		return getMaxMicros();
+	}
+
+	/**
+	 * Write a one line JSON summary of this histogram
+	 * @return JSON object with count, mean, p50, p90, p99 and max (all latencies in microseconds)
+	 */
+	public String toJson() {
+		return "{\"count\":" + getCount()
+			+ ",\"meanMicros\":" + Math.round(getMeanMicros())
+			+ ",\"p50Micros\":" + getPercentileMicros(50)
+			+ ",\"p90Micros\":" + getPercentileMicros(90)
+			+ ",\"p99Micros\":" + getPercentileMicros(99)
+			+ ",\"maxMicros\":" + getMaxMicros() + "}";
+	}
+}
@@ -0,0 +1,137 @@
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The road paths found while measuring a distance matrix, kept so a tour's legs can be turned into
+ * full geometry later without searching again.
+ *
+ * Every row search of a matrix leaves a shortest path tree from its source in SearchState.parent,
+ * and every column search a tree towards its target. Only the part of each tree that lies on the
+ * paths to the stops is kept, as two int arrays sorted by vertex id, so a cached row costs a few
+ * bytes per vertex on those paths rather than a copy of the search's working arrays. Legs are read
+ * out of the trees on demand.
+ *
+ * A cache belongs to one snapshot epoch. Paths in it describe that snapshot only.
+ * @author Adam Sickmiller
+ *
+ */
+class LegCache {
+	private final long epoch;
+	private final Map<Integer, PathTree> forward = new HashMap<>();	//trees rooted at a source, parents point back to it
+	private final Map<Integer, PathTree> backward = new HashMap<>(); //trees rooted at a target, parents point on to it
+
+	LegCache(long epoch) {
+		this.epoch = epoch;
+	}
+
+	long getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * Keep the paths from source to each settled target, read from a finished forward search
+	 * @param parent state.parent of the search
+	 * @param state the search state, to tell which targets were settled
+	 */
+	void recordForward(int source, int[] targets, int[] parent, SearchState state) {
+		forward.put(source, new PathTree(source, targets, parent, state));
+	}
+
+	/**
+	 * Keep the paths from each settled source to target, read from a finished backward search
+	 * @param parent state.parent of the search, the next vertex on the way to target
+	 * @param state the search state, to tell which sources were settled
+	 */
+	void recordBackward(int target, int[] sources, int[] parent, SearchState state) {
+		backward.put(target, new PathTree(target, sources, parent, state));
+	}
+
+	/**
+	 * Get a cached path
+	 * @return the vertex ids from start to goal, or null if no recorded search reached goal from start
+	 */
+	int[] path(int start, int goal) {
+		if(start == goal) {
+			return new int[] {start};
+		}
+		PathTree tree = forward.get(start);
+		int[] path = tree == null ? null : tree.walk(goal);
+		if(path != null) { //walked from goal back to start
+			for(int i = 0, j = path.length - 1; i < j; i++, j--) {
+				int t = path[i];
+				path[i] = path[j];
+				path[j] = t;
+			}
+			return path;
+		}
+		tree = backward.get(goal);
+		return tree == null ? null : tree.walk(start);
+	}
+
+	/**
+	 * Drop the trees rooted at a vertex, once it is no longer a stop
+	 * @param vertex the vertex id
+	 */
+	void forget(int vertex) {
+		forward.remove(vertex);
+		backward.remove(vertex);
+	}
+
+	/** The union of the tree paths from some leaves to a root, sorted by vertex id */
+	private static final class PathTree {
+		private final int root;
+		private final int[] vertices;
+		private final int[] next; //next vertex towards the root of each vertex
+
+		PathTree(int root, int[] leaves, int[] parent, SearchState state) {
+			this.root = root;
+			long[] pairs = new long[16];
+			int count = 0;
+			Set<Integer> kept = new HashSet<>(); //a vertex shared by several paths is kept once
+			for(int leaf: leaves) {
+				if(!state.isSettled(leaf)) {
+					continue;
+				}
+				for(int v = leaf; v != root && kept.add(v); v = parent[v]) {
+					if(count == pairs.length) {
+						pairs = Arrays.copyOf(pairs, count * 2);
+					}
+					pairs[count++] = (long) v << 32 | (parent[v] & 0xffffffffL);
+				}
+			}
+			Arrays.sort(pairs, 0, count);
+			vertices = new int[count];
+			next = new int[count];
+			for(int i = 0; i < count; i++) {
+				vertices[i] = (int) (pairs[i] >>> 32);
+				next[i] = (int) pairs[i];
+			}
+		}
+
+		/**
+		 * Follow the tree from a vertex to the root
+		 * @return the vertices from v to the root, or null if v is not in the tree
+		 */
+		int[] walk(int v) {
+			int length = 1;
+			for(int u = v; u != root; length++) {
+				int i = Arrays.binarySearch(vertices, u);
+				if(i < 0) {
+					return null;
+				}
+				u = next[i];
+			}
+			int[] path = new int[length];
+			path[0] = v;
+			for(int k = 1; k < length; k++) {
+				path[k] = next[Arrays.binarySearch(vertices, path[k - 1])];
+			}
+			return path;
+		}
+	}
+}
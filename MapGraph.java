@@ -9,15 +9,19 @@ package roadgraph;
 
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.PriorityQueue;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 import javax.xml.soap.Node;
@@ -34,18 +38,46 @@ import util.GraphLoader;
  *
  */
 public class MapGraph {
-	private HashMap<GeographicPoint, MapNode> verticesMap;  //a map relating points to mapnodes. all nodes are accessible
-															//through this map
-	private Map<Integer, Edge> edgeMap; //a map of all edges
-	private List<MapNode> visited; //a public and ordered list of visited nodes. Used only for testing.
+	private final GraphTable table; //every vertex and edge, as MapNodes and Edges or in off-heap columns
+	private volatile GraphIndex index; //array snapshot of the adjacency, rebuilt lazily after the graph changes
+	private long epoch; //epoch of the most recent snapshot
+	private final ThreadLocal<SearchState> searchStates = ThreadLocal.withInitial(this::takeSearchState);
+	private final Queue<SearchState> idleSearchStates = new ConcurrentLinkedQueue<>(); //handed back by threads done searching
+	private final AtomicInteger numIdleSearchStates = new AtomicInteger();
+	private Map<TravelTimeProfile, TravelTimeProfile> travelTimeProfiles; //one shared instance per distinct curve
+	private RoadAttributeTable roadAttributes; //road name and type of every edge, dictionary encoded
+	private volatile TrafficOverlay trafficOverlay; //live edge costs, created the first time they are used
+	private final boolean offHeap; //where the graph and its snapshots are kept
+	private int numEdges; //kept up to date by addEdge and removeEdge
+	private int[] outDegreeCounts = new int[8]; //number of vertices with each out-degree
+	private double minLatitude = Double.POSITIVE_INFINITY; //bounding box of every vertex
+	private double minLongitude = Double.POSITIVE_INFINITY;
+	private double maxLatitude = Double.NEGATIVE_INFINITY;
+	private double maxLongitude = Double.NEGATIVE_INFINITY;
 	/** 
 	 * Create a new empty MapGraph 
 	 */
 	public MapGraph()
 	{
-		verticesMap = new HashMap<GeographicPoint, MapNode>(); //initialize storage of vertices
-		edgeMap = new HashMap<Integer, Edge>();
-		visited = new ArrayList<MapNode>();
+		this(false);
+	}
+	
+	/** 
+	 * Create a new empty MapGraph, choosing where the graph is stored. Off the heap, the vertices and
+	 * edges, the searchable snapshot with all of its per edge columns and the road attribute columns
+	 * live in direct buffers, so a very large map does not count against the heap and does not
+	 * lengthen GC pauses. What stays on the heap grows with the number of distinct road names, types
+	 * and travel time profiles, not with the map. MapNodes and Edges are then made when one is asked
+	 * for, as copies that do not change the graph, and there is no edge map. Working memory built on
+	 * demand (components, the compressed graph, each thread's search state) is on the heap either way.
+	 * @param offHeap true to store the graph outside the Java heap, false for MapNodes, Edges and arrays
+	 */
+	public MapGraph(boolean offHeap)
+	{
+		this.offHeap = offHeap;
+		table = offHeap ? new OffHeapGraphTable(this::getIndex) : new NodeGraphTable();
+		travelTimeProfiles = new HashMap<TravelTimeProfile, TravelTimeProfile>();
+		roadAttributes = new RoadAttributeTable(offHeap);
 	}
 	
 	/**
@@ -54,7 +86,7 @@ public class MapGraph {
 	 */
 	public int getNumVertices()
 	{
-		return verticesMap.size();
+		return table.getNumVertices();
 	}
 	
 	/**
@@ -63,7 +95,7 @@ public class MapGraph {
 	 */
 	public Set<GeographicPoint> getVertices()
 	{
-		return verticesMap.keySet(); //each geographic point is stored as a key in the hashmap
+		return table.vertices();
 	}
 	
 	/**
@@ -72,12 +104,45 @@ public class MapGraph {
 	 */
 	public int getNumEdges()
 	{
-		Integer edgeCount = 0;
-		for(Entry<GeographicPoint, MapNode> e: verticesMap.entrySet()) { //look at every mapnode in hashmap
-			MapNode node = e.getValue();								 //and add the number of neighbors it has
-			edgeCount = edgeCount + node.getOutgoingNeighbors().size();  //to the edgecount
+		return numEdges; //counted as edges are added and removed, so this never scans the graph
+	}
+	
+	/**
+	 * Summarize this graph for monitoring: sizes, out-degree distribution, components, bounding box
+	 * and estimated memory use. Everything but the components comes from counters kept up to date as
+	 * the graph changes. The components are found once per snapshot, so asking again before the graph
+	 * changes does not scan it
+	 * @return a summary of the graph as it is now
+	 */
+	public GraphSummary getSummary() {
+		int maxDegree = 0;
+		for(int d = 0; d < outDegreeCounts.length; d++) {
+			maxDegree = outDegreeCounts[d] > 0 ? d : maxDegree;
+		}
+		int n = table.getNumVertices();
+		double[] boundingBox = n == 0 ? new double[] {Double.NaN, Double.NaN, Double.NaN, Double.NaN}
+				: new double[] {minLatitude, minLongitude, maxLatitude, maxLongitude};
+		GraphIndex graphIndex = getIndex();
+		TrafficOverlay overlay = trafficOverlay;
+		
+		Map<String, Long> memory = new LinkedHashMap<String, Long>();
+		table.estimateMemory(memory);
+		memory.put("roadAttributes", roadAttributes.estimateBytes());
+		memory.put("roadAttributesOffHeap", roadAttributes.estimateOffHeapBytes());
+		memory.put("snapshot", graphIndex.estimateHeapBytes());
+		memory.put("snapshotOffHeap", graphIndex.estimateOffHeapBytes());
+		memory.put("trafficOverlay", overlay == null ? 0L : 8L * overlay.capacity());
+		return new GraphSummary(n, numEdges, Arrays.copyOf(outDegreeCounts, maxDegree + 1),
+				graphIndex.getComponents(), boundingBox, memory);
+	}
+	
+	/** Move a vertex from one out-degree to another in the degree distribution */
+	private void changeOutDegree(int from, int to) {
+		if(to >= outDegreeCounts.length) {
+			outDegreeCounts = Arrays.copyOf(outDegreeCounts, Math.max(to + 1, outDegreeCounts.length * 2));
 		}
-		return edgeCount;
+		outDegreeCounts[from]--;
+		outDegreeCounts[to]++;
 	}
 
 	
@@ -95,13 +160,18 @@ public class MapGraph {
 			return false;
 		}
 		
-		if(verticesMap.containsKey(location)) { //check to see if we already have this vertex
+		if(table.vertexId(location) >= 0) { //check to see if we already have this vertex
 			return false;
 		}
 		
-		MapNode vertex = new MapNode(location); //create new MapNode to store information about the vertex
-		verticesMap.put(location, vertex);		//add this MapNode to this class's hashmap; set location to
-		return true;							//be the key
+		table.addVertex(location);
+		outDegreeCounts[0]++;
+		minLatitude = Math.min(minLatitude, location.getX());
+		maxLatitude = Math.max(maxLatitude, location.getX());
+		minLongitude = Math.min(minLongitude, location.getY());
+		maxLongitude = Math.max(maxLongitude, location.getY());
+		invalidateIndex();
+		return true;
 	}
 	
 	/**
@@ -119,26 +189,21 @@ public class MapGraph {
 	public void addEdge(GeographicPoint from, GeographicPoint to, String roadName,
 			String roadType, double length) throws IllegalArgumentException {
 
-		Edge edge = new Edge();		//instantiate a new Edge (like MapNode, this is a class I created for the assignment)
-		MapNode fromNode = null;
-		MapNode toNode = null;
-		
 		if(from == null || to == null || length < 0) {
 			throw new IllegalArgumentException("Both points must be non-null and length must be >= 0");
 		}
 		
-		fromNode = verticesMap.get(from); //get the nodes/vertexes in from this class
-		toNode = verticesMap.get(to);	  
+		int fromId = table.vertexId(from); //get the vertexes in from this class
+		int toId = table.vertexId(to);
 		
-		if(fromNode == null || toNode == null) {
+		if(fromId < 0 || toId < 0) {
 			throw new IllegalArgumentException("One or both of provided points have not been added to graph");
 		} else {
-			fromNode.addOutoingNeighbor(toNode);  //add the destination as a neighbor of the origin
-			edge.setBegin(fromNode); //setup the edge class with the 
-			edge.setEnd(toNode);	//information provided in this method
-			edge.setRoadType(roadType);
-			edge.setLength(length);
-			edgeMap.put(GraphUtility.generateHashMapKeyForEdge(fromNode, toNode), edge);
+			changeOutDegree(table.outDegree(fromId), table.outDegree(fromId) + 1);
+			numEdges++;
+			int id = roadAttributes.add(roadName, roadType); //keep the road name, encoded, for turn-by-turn output
+			table.addEdge(id, fromId, toId, length);
+			invalidateIndex();
 		}
 	}
 	
@@ -151,89 +216,113 @@ public class MapGraph {
 	 *   path from start to goal (including both start and goal).
 	 */
 	public List<GeographicPoint> bfs(GeographicPoint start, GeographicPoint goal) {
-		// Dummy variable for calling the search algorithms
-        Consumer<GeographicPoint> temp = (x) -> {};
-        return bfs(start, goal, temp);
+        Consumer<GeographicPoint> none = null; //no listener, so the search skips the hook
+        return bfs(start, goal, none);
 	}
 	
 	/** Find the path from start to goal using breadth first search
 	 * 
 	 * @param start The starting location
 	 * @param goal The goal location
-	 * @param nodeSearched A hook for visualization.  See assignment instructions for how to use it.
+	 * @param nodeSearched A hook for visualization.  See assignment instructions for how to use it. May be null
 	 * @return The list of intersections that form the shortest (unweighted)
 	 *   path from start to goal (including both start and goal).
 	 */
 	public List<GeographicPoint> bfs(GeographicPoint start, 
 			 					     GeographicPoint goal, Consumer<GeographicPoint> nodeSearched)
 	{		
-		if(!verticesMap.containsKey(start) || !verticesMap.containsKey(goal)) {
+		int source = table.vertexId(start);
+		int target = table.vertexId(goal);
+		if(source < 0 || target < 0) {
 			throw new IllegalArgumentException("Either start or goal is not in mapgraph");
 		}
 		
-		MapNode s = verticesMap.get(start); //get the start and
-		MapNode g = verticesMap.get(goal);  //goal map nodes
-		
-		Map<MapNode, MapNode> parentMap = makeParentMap(s, g, nodeSearched); //call the method that implements the BFS algorithm
-		
-		return getPath(parentMap, s, g);	
-		
+		GraphIndex graphIndex = getIndex();
+		return toPoints(graphIndex, searchStates.get(), bfs(graphIndex, source, target, nodeSearched));
 	}
 	
-	/**Given a parent map that links child (key) to parent(value), produce an ordered list showing the path
+	/** Find the path between two vertex ids using breadth first search. This is the array based
+	 * version of bfs for callers that already work with vertex ids. It allocates nothing per visited
+	 * vertex: the parent array, visited bitset and queue are reused between calls on the same thread.
 	 * 
-	 * @param parentMap map of children(key) to parents(value) mapnodes
-	 * @param start the beginning of the route
-	 * @param goal the end of the route
-	 * @return a list of geographic points representing nodes along the path
-	 */
-	private LinkedList<GeographicPoint> getPath(Map<MapNode, MapNode> parentMap, MapNode start, MapNode goal) {
-		LinkedList<GeographicPoint> path = new LinkedList<GeographicPoint>(); //this will hold the eventual path
-		//after creating the parentMap, retrace the steps from finish to start, this becomes the path
-		if(parentMap != null) { 
-			MapNode cur = goal;
-			path.addFirst(goal.getLocation());
-			while(!cur.equals(start)) {
-				path.addFirst(parentMap.get(cur).getLocation());
-				cur = parentMap.get(cur);
-			}
-		}
-		return path;
-		
+	 * @param start The id of the starting vertex
+	 * @param goal The id of the goal vertex
+	 * @param nodeSearched A hook for visualization, or null for none
+	 * @return the ids of the vertices on the shortest (unweighted) path, including start and goal,
+	 *   or an empty array if goal can not be reached from start. When the components of the graph
+	 *   rule a path out, the empty array is returned without searching
+	 */
+	public int[] bfs(int start, int goal, Consumer<GeographicPoint> nodeSearched) {
+		return bfs(getIndex(), start, goal, nodeSearched);
 	}
-
-	/** Given a start and goal, return a parent map showing the parents of all visited nodes
-	 * By looking at the goal node, the path could be reconstructed. However, this method does not do
-	 * this reconstruction
-	 * @param s Start MapNode representing the place in the mapgraph to start
-	 * @param g Goal MapNode representing the place in the mapgraph to seek out
-	 * @param nodeSearched used for visualization on the front end
-	 * @return Map<MapNode, MapNode> where the key is the each visited mapnode and the value is the parent of each visited mapnode
-	 */
-	private Map<MapNode, MapNode> makeParentMap(MapNode s, MapNode g, Consumer<GeographicPoint> nodeSearched) {
-		Map<MapNode, MapNode> parentMap = new HashMap<>();
-		Queue<MapNode> queue = new LinkedList<MapNode>();
-		Set<MapNode> visited = new HashSet<MapNode>();
+	
+	/** bfs on a given snapshot, filling in this thread's parent and parentEdge arrays */
+	private int[] bfs(GraphIndex graphIndex, int start, int goal, Consumer<GeographicPoint> nodeSearched) {
+		if(!graphIndex.getComponents().mayReach(start, goal)) {
+			return new int[0]; //no need to search the whole of start's component to find that out
+		}
+		SearchState state = searchStates.get();
+		state.reset(graphIndex.getNumVertices());
+		int[] parent = state.parent;
 		
-		//this is the breadth-first-search algorithm described in lecture this week
-		queue.add(s);
-		visited.add(s);
-		while(!queue.isEmpty()) {
-			MapNode curr = queue.remove();
-			if(curr.equals(g)) {
-				return parentMap;
+		state.enqueue(start);
+		state.markVisited(start);
+		parent[start] = start;
+		while(!state.isQueueEmpty()) {
+			int curr = state.dequeue();
+			if(curr == goal) {
+				return getPath(parent, goal);
 			}
-			for(MapNode neighbor: curr.getOutgoingNeighbors()) {
-				if(!visited.contains(neighbor)) {
-					visited.add(neighbor);
-					parentMap.put(neighbor, curr);
-					queue.add(neighbor);
-					nodeSearched.accept(neighbor.getLocation()); //visualization hook
+			for(int e = graphIndex.firstOut(curr), end = graphIndex.firstOut(curr + 1); e < end; e++) {
+				int neighbor = graphIndex.head(e);
+				if(!state.isVisited(neighbor) && !graphIndex.isBlocked(e)) {
+					state.markVisited(neighbor);
+					parent[neighbor] = curr;
+					state.parentEdge[neighbor] = e;
+					state.enqueue(neighbor);
+					if(nodeSearched != null) {
+						nodeSearched.accept(graphIndex.point(neighbor)); //visualization hook
+					}
 				}
 			}
 		}
-		return null; //if we have arrived this far, there was no possible path
-		
+		return new int[0]; //if we have arrived this far, there was no possible path
+	}
+	
+	/** Given a parent array filled in by a search, produce the ordered ids along the path
+	 * 
+	 * @param parent parent[v] is the vertex v was reached from. The vertices a search started from
+	 *   are their own parent
+	 * @param goal the end of the route
+	 * @return the vertex ids from the start of the search to goal
+	 */
+	static int[] getPath(int[] parent, int goal) {
+		int length = 1;
+		for(int v = goal; parent[v] != v; v = parent[v]) {
+			length++;
+		}
+		int[] path = new int[length];
+		for(int v = goal, i = length - 1; i >= 0; v = parent[v], i--) {
+			path[i] = v;
+		}
+		return path;
+	}
+	
+	/** Turn the vertex ids of a path found on a snapshot into points. The path and the edges the search
+	 * took are recorded in state, so getRoadNames and getRouteLength describe the same roads
+	 * 
+	 * @param path the ids along the path, as from getPath. May be empty
+	 * @return the points, in a new list the caller may change
+	 */
+	private static List<GeographicPoint> toPoints(GraphIndex graphIndex, SearchState state, int[] path) {
+		GeographicPoint[] points = new GeographicPoint[path.length];
+		for(int i = 0; i < path.length; i++) {
+			points[i] = graphIndex.point(path[i]);
+		}
+		if(path.length > 0) {
+			state.recordPath(graphIndex, path, points);
+		}
+		return new ArrayList<GeographicPoint>(Arrays.asList(points));
 	}
 
 	/** Find the path from start to goal using Dijkstra's algorithm
@@ -244,17 +333,15 @@ public class MapGraph {
 	 *   start to goal (including both start and goal).
 	 */
 	public List<GeographicPoint> dijkstra(GeographicPoint start, GeographicPoint goal) {
-		// Dummy variable for calling the search algorithms
-		// You do not need to change this method.
-        Consumer<GeographicPoint> temp = (x) -> {};
-        return dijkstra(start, goal, temp);
+        Consumer<GeographicPoint> none = null; //no listener, so the search skips the hook
+        return dijkstra(start, goal, none);
 	}
 	
 	/** Find the path from start to goal using Dijkstra's algorithm
 	 * 
 	 * @param start The starting location
 	 * @param goal The goal location
-	 * @param nodeSearched A hook for visualization.  See assignment instructions for how to use it.
+	 * @param nodeSearched A hook for visualization.  See assignment instructions for how to use it. May be null
 	 * @return The list of intersections that form the shortest path from 
 	 *   start to goal (including both start and goal).
 	 */
@@ -263,57 +350,65 @@ public class MapGraph {
 	{
 		// TODO: Implement this method in WEEK 3
 
-		if(!verticesMap.containsKey(start) || !verticesMap.containsKey(goal)) {
+		int source = table.vertexId(start);
+		int target = table.vertexId(goal);
+		if(source < 0 || target < 0) {
 			throw new IllegalArgumentException("both start and goal points must be present in graph");
 		}
 		
-		MapNode startNode = verticesMap.get(start);
-		MapNode goalNode = verticesMap.get(goal);
+		GraphIndex graphIndex = getIndex();
+		if(!graphIndex.getComponents().mayReach(source, target)) {
+			return new LinkedList<GeographicPoint>(); //different components, no path
+		}
 		
-		Map<MapNode, MapNode> parentMap = new HashMap<>();
-		parentMap = findPathWithDijkstra(startNode, goalNode, nodeSearched);
-		return getPath(parentMap, startNode, goalNode);
-	}
-
-	private Map<MapNode, MapNode> findPathWithDijkstra(MapNode startNode, MapNode goalNode, Consumer<GeographicPoint> nodeSearched) {
-		return findPathWithAstar(startNode, goalNode, true, nodeSearched);
+		return findPathWithAstar(graphIndex, source, target, true, nodeSearched);
 	}
 	
-	private Map<MapNode, MapNode> findPathWithAstar(MapNode startNode, MapNode goalNode, Boolean useDijkstraVariation, Consumer<GeographicPoint> nodeSearched) {
-		PriorityQueue<MapNode> pq = new PriorityQueue<>();
-		Set<MapNode> visited = new HashSet<>();
-		Map<MapNode, MapNode> parentMap = new HashMap<>();
+	/** The search behind dijkstra and aStarSearch. It runs on the array snapshot, so it sees a whole
+	 * batch from applyUpdates or none of it, and keeps distances, parents and the queue in this thread's
+	 * SearchState, indexed by vertex id. Nothing is stored on the nodes and nothing is boxed, so a search
+	 * allocates only the returned path, and searches on different threads do not interfere.
+	 */
+	private List<GeographicPoint> findPathWithAstar(GraphIndex graphIndex, int start, int target, boolean useDijkstraVariation, Consumer<GeographicPoint> nodeSearched) {
+		SearchState state = searchStates.get();
+		state.reset(graphIndex.getNumVertices());
+		int[] parent = state.parent;
+		double[] dist = state.dist;
+		IntMinHeap heap = state.heap;
+		state.clearSettledOrder(); //only the most recent search is kept, otherwise a long running graph grows without bound
+		double scale = useDijkstraVariation ? 0 : graphIndex.getStraightLineScale(); //keeps the estimate below any edited length
 		
-		startNode.setDistanceTraveled(0d);
-		pq.add(startNode);
-		while(!pq.isEmpty()) {
-			MapNode curr = pq.poll();
-			if(!visited.contains(curr)) {
-				visited.add(curr);
-				this.visited.add(curr);
-				if(curr.equals(goalNode)) {
-					for(Entry<GeographicPoint, MapNode> entry: verticesMap.entrySet()) {						
-						entry.getValue().clearDistances();
-					}
-					return parentMap;
+		state.markVisited(start);
+		parent[start] = start;
+		dist[start] = 0;
+		heap.insertOrDecrease(start, 0);
+		while(!heap.isEmpty()) {
+			int curr = heap.poll();
+			state.markSettled(curr);
+			state.recordSettled(curr);
+			if(curr == target) {
+				return toPoints(graphIndex, state, getPath(parent, target));
+			}
+			for(int e = graphIndex.firstOut(curr), end = graphIndex.firstOut(curr + 1); e < end; e++) {
+				int next = graphIndex.head(e);
+				if(state.isSettled(next) || graphIndex.isBlocked(e)) {
+					continue;
 				}
-				for(MapNode neighbor: curr.getOutgoingNeighbors()) {
-					if(!visited.contains(neighbor)) {
-						Edge e2 = edgeMap.get(GraphUtility.generateHashMapKeyForEdge(curr, neighbor));
-						Double predictedDistanceToDesination = useDijkstraVariation ? 0d : neighbor.getLocation().distance(goalNode.getLocation());
-						Double distanceTraveled = curr.getDistanceTraveled() + e2.getLength();
-						if(neighbor.getDistanceTraveled() == Double.POSITIVE_INFINITY || distanceTraveled < neighbor.getDistanceTraveled()) {
-							neighbor.setDistanceTraveled(curr.getDistanceTraveled() + e2.getLength());
-							neighbor.setPredictedDistanceToDestination(predictedDistanceToDesination);
-							parentMap.put(neighbor, curr);
-							pq.add(neighbor);
-							nodeSearched.accept(neighbor.getLocation());
-						}
+				double distanceTraveled = dist[curr] + graphIndex.length(e);
+				if(!state.isVisited(next) || distanceTraveled < dist[next]) {
+					state.markVisited(next);
+					dist[next] = distanceTraveled;
+					parent[next] = curr;
+					state.parentEdge[next] = e;
+					double predictedDistanceToDestination = scale == 0 ? 0 : scale * graphIndex.distance(next, target);
+					heap.insertOrDecrease(next, distanceTraveled + predictedDistanceToDestination);
+					if(nodeSearched != null) { //the same every time round, so the JIT takes the test out of the loop
+						nodeSearched.accept(graphIndex.point(next));
 					}
 				}
 			}
 		}
-		return null;  //if here, there is no path
+		return new LinkedList<GeographicPoint>();  //if here, there is no path
 	}
 
 	/** Find the path from start to goal using A-Star search
@@ -324,35 +419,782 @@ public class MapGraph {
 	 *   start to goal (including both start and goal).
 	 */
 	public List<GeographicPoint> aStarSearch(GeographicPoint start, GeographicPoint goal) {
-		// Dummy variable for calling the search algorithms
-        Consumer<GeographicPoint> temp = (x) -> {};
-        return aStarSearch(start, goal, temp);
+        Consumer<GeographicPoint> none = null; //no listener, so the search skips the hook
+        return aStarSearch(start, goal, none);
 	}
 	
 	/** Find the path from start to goal using A-Star search
 	 * 
 	 * @param start The starting location
 	 * @param goal The goal location
-	 * @param nodeSearched A hook for visualization.  See assignment instructions for how to use it.
+	 * @param nodeSearched A hook for visualization.  See assignment instructions for how to use it. May be null
 	 * @return The list of intersections that form the shortest path from 
 	 *   start to goal (including both start and goal).
 	 */
 	public List<GeographicPoint> aStarSearch(GeographicPoint start, 
 											 GeographicPoint goal, Consumer<GeographicPoint> nodeSearched)
 	{
-		if(!verticesMap.containsKey(start) || !verticesMap.containsKey(goal)) {
+		int source = table.vertexId(start);
+		int target = table.vertexId(goal);
+		if(source < 0 || target < 0) {
 			throw new IllegalArgumentException("both start and goal points must be present in graph");
 		}
 		
-		MapNode startNode = verticesMap.get(start);
-		MapNode goalNode = verticesMap.get(goal);
+		GraphIndex graphIndex = getIndex();
+		if(!graphIndex.getComponents().mayReach(source, target)) {
+			return new LinkedList<GeographicPoint>(); //different components, no path
+		}
 		
-		Map<MapNode, MapNode> parentMap = new HashMap<>();
-		parentMap = findPathWithAstar(startNode, goalNode, false, nodeSearched);
+		return findPathWithAstar(graphIndex, source, target, false, nodeSearched);
+	}
+
+	/** Find the target closest to any of the given sources, using one multi-source search instead of
+	 * one search per source. Useful for questions like "which of these depots is closest to this stop".
+	 * 
+	 * @param sources the possible starting points
+	 * @param target the goal
+	 * @return the winning source, its distance and path to target, or null if no source can reach target
+	 */
+	public SearchHit nearestSource(Collection<GeographicPoint> sources, GeographicPoint target) {
+		List<SearchHit> hits = multiSearch(sources, Collections.singletonList(target), 1);
+		return hits.isEmpty() ? null : hits.get(0);
+	}
+	
+	/** Find which of the given targets is closest to source, using one search that stops as soon as
+	 * the first target is settled.
+	 * 
+	 * @param source the starting point
+	 * @param targets the possible goals
+	 * @return the winning target, its distance and path from source, or null if no target can be reached
+	 */
+	public SearchHit nearestTarget(GeographicPoint source, Collection<GeographicPoint> targets) {
+		List<SearchHit> hits = multiSearch(Collections.singletonList(source), targets, 1);
+		return hits.isEmpty() ? null : hits.get(0);
+	}
+	
+	/** Run a single Dijkstra search seeded with every source at distance 0 and stop as soon as k of the
+	 * targets have been settled. Each hit records which source its path starts from, so the answer to
+	 * N separate searches comes out of one.
+	 * 
+	 * @param sources the points to start from. All must be in the graph
+	 * @param targets the points to look for. All must be in the graph
+	 * @param k the number of targets to find
+	 * @return up to k hits, closest first. There are fewer than k hits only if fewer targets are reachable
+	 * @throws IllegalArgumentException if a point is not in the graph or k is less than 1
+	 */
+	public List<SearchHit> multiSearch(Collection<GeographicPoint> sources, Collection<GeographicPoint> targets, int k) {
+		if(k < 1) {
+			throw new IllegalArgumentException("k must be at least 1");
+		}
+		int[] sourceIds = toVertexIds(sources);
+		int[] targetIds = toVertexIds(targets);
+		
+		GraphIndex graphIndex = getIndex();
+		SearchState state = searchStates.get();
+		int[] found = multiSearch(graphIndex, state, sourceIds, targetIds, k);
 		
-		return getPath(parentMap, startNode, goalNode);
+		List<SearchHit> hits = new ArrayList<SearchHit>(found.length);
+		for(int target: found) {
+			int[] path = getPath(state.parent, target);
+			List<GeographicPoint> points = new ArrayList<GeographicPoint>(path.length);
+			for(int v: path) {
+				points.add(graphIndex.point(v));
+			}
+			hits.add(new SearchHit(points.get(0), graphIndex.point(target), state.dist[target], points));
+		}
+		return hits;
+	}
+	
+	/** Find the road distance between every ordered pair of points. Each row comes from a single
+	 * one-to-many search that stops once every point is settled, instead of one search per pair.
+	 * 
+	 * @param points the points to measure between. All must be in the graph
+	 * @return matrix[i][j] is the length of the shortest route from point i to point j in km,
+	 *   Double.POSITIVE_INFINITY if there is none. The diagonal is 0
+	 * @throws IllegalArgumentException if a point is not in the graph
+	 */
+	public double[][] distanceMatrix(List<GeographicPoint> points) {
+		return distanceMatrix(points, null);
 	}
 	
+	/** Find the road distance between every ordered pair of points, keeping the paths found in a cache
+	 * 
+	 * @param legs where to keep the paths, or null. Paths are only kept if the cache is for the current epoch
+	 * @return see distanceMatrix(List)
+	 */
+	double[][] distanceMatrix(List<GeographicPoint> points, LegCache legs) {
+		int[] ids = toVertexIds(points);
+		GraphIndex graphIndex = getIndex();
+		SearchState state = searchStates.get();
+		boolean record = legs != null && legs.getEpoch() == graphIndex.getEpoch();
+		double[][] matrix = new double[ids.length][ids.length];
+		for(int i = 0; i < ids.length; i++) {
+			multiSearch(graphIndex, state, new int[] {ids[i]}, ids, ids.length);
+			if(record) {
+				legs.recordForward(ids[i], ids, state.parent, state);
+			}
+			for(int j = 0; j < ids.length; j++) {
+				matrix[i][j] = i == j ? 0 : state.isSettled(ids[j]) ? state.dist[ids[j]] : Double.POSITIVE_INFINITY;
+			}
+		}
+		return matrix;
+	}
+	
+	/** Find the road distance from a single source to every target, with one search that stops once
+	 * every target is settled. This is one row of distanceMatrix(...).
+	 * 
+	 * @param source the point to measure from. Must be in the graph
+	 * @param targets the points to measure to. All must be in the graph
+	 * @return row[j] is the length of the shortest route from source to targets.get(j) in km,
+	 *   Double.POSITIVE_INFINITY if there is none
+	 * @throws IllegalArgumentException if a point is not in the graph
+	 */
+	public double[] distanceRow(GeographicPoint source, List<GeographicPoint> targets) {
+		return distanceRow(source, targets, null);
+	}
+	
+	/** Find the road distance from a single source to every target, keeping the paths found in a cache
+	 * 
+	 * @param legs where to keep the paths, or null. Paths are only kept if the cache is for the current epoch
+	 * @return see distanceRow(GeographicPoint, List)
+	 */
+	double[] distanceRow(GeographicPoint source, List<GeographicPoint> targets, LegCache legs) {
+		int sourceId = toVertexIds(Collections.singletonList(source))[0];
+		int[] ids = toVertexIds(targets);
+		GraphIndex graphIndex = getIndex();
+		SearchState state = searchStates.get();
+		multiSearch(graphIndex, state, new int[] {sourceId}, ids, ids.length);
+		if(legs != null && legs.getEpoch() == graphIndex.getEpoch()) {
+			legs.recordForward(sourceId, ids, state.parent, state);
+		}
+		double[] row = new double[ids.length];
+		for(int j = 0; j < ids.length; j++) {
+			row[j] = state.isSettled(ids[j]) ? state.dist[ids[j]] : Double.POSITIVE_INFINITY;
+		}
+		return row;
+	}
+	
+	/** Find the road distance from every source to a single target, with one search run backwards from
+	 * the target over incoming edges that stops once every source is settled. Together with
+	 * distanceMatrix(...) rows this adds a point to an existing matrix without rebuilding it.
+	 * 
+	 * @param sources the points to measure from. All must be in the graph
+	 * @param target the point to measure to. Must be in the graph
+	 * @return column[i] is the length of the shortest route from sources.get(i) to target in km,
+	 *   Double.POSITIVE_INFINITY if there is none
+	 * @throws IllegalArgumentException if a point is not in the graph
+	 */
+	public double[] distanceColumn(List<GeographicPoint> sources, GeographicPoint target) {
+		return distanceColumn(sources, target, null);
+	}
+	
+	/** Find the road distance from every source to a single target, keeping the paths found in a cache
+	 * 
+	 * @param legs where to keep the paths, or null. Paths are only kept if the cache is for the current epoch
+	 * @return see distanceColumn(List, GeographicPoint)
+	 */
+	double[] distanceColumn(List<GeographicPoint> sources, GeographicPoint target, LegCache legs) {
+		int[] ids = toVertexIds(sources);
+		int targetId = toVertexIds(Collections.singletonList(target))[0];
+		GraphIndex graphIndex = getIndex();
+		SearchState state = searchStates.get();
+		reverseSearch(graphIndex, state, targetId, ids);
+		if(legs != null && legs.getEpoch() == graphIndex.getEpoch()) {
+			legs.recordBackward(targetId, ids, state.parent, state);
+		}
+		double[] column = new double[ids.length];
+		for(int i = 0; i < ids.length; i++) {
+			column[i] = state.isSettled(ids[i]) ? state.dist[ids[i]] : Double.POSITIVE_INFINITY;
+		}
+		return column;
+	}
+	
+	/** Dijkstra's search run backwards from target over incoming edges, stopping once every source is
+	 * settled. On return state.dist holds the distance from each settled vertex to target, and
+	 * state.parent the next vertex on its way there.
+	 */
+	void reverseSearch(GraphIndex graphIndex, SearchState state, int target, int[] sources) {
+		state.reset(graphIndex.getNumVertices());
+		GraphIndex.Incoming incoming = graphIndex.getIncoming();
+		int[] parent = state.parent;
+		double[] dist = state.dist;
+		IntMinHeap heap = state.heap;
+		
+		int wanted = 0;
+		for(int source: sources) {
+			if(!state.isTarget(source)) {
+				state.markTarget(source);
+				wanted++;
+			}
+		}
+		state.markVisited(target);
+		parent[target] = target;
+		dist[target] = 0;
+		heap.insertOrDecrease(target, 0);
+		while(!heap.isEmpty() && wanted > 0) {
+			int curr = heap.poll();
+			state.markSettled(curr);
+			if(state.isTarget(curr)) {
+				wanted--;
+			}
+			for(int i = incoming.firstIn(curr), end = incoming.firstIn(curr + 1); i < end; i++) {
+				int neighbor = incoming.tail(i);
+				int e = incoming.edge(i);
+				if(state.isSettled(neighbor) || graphIndex.isBlocked(e)) {
+					continue;
+				}
+				double distance = dist[curr] + graphIndex.length(e);
+				if(!state.isVisited(neighbor) || distance < dist[neighbor]) {
+					state.markVisited(neighbor);
+					dist[neighbor] = distance;
+					parent[neighbor] = curr;
+					heap.insertOrDecrease(neighbor, distance);
+				}
+			}
+		}
+	}
+	
+	/** The array based multi-source, multi-target Dijkstra search. On return state.parent and state.dist
+	 * hold the shortest path tree for every settled vertex.
+	 * 
+	 * @return the ids of the targets that were settled, closest first
+	 */
+	int[] multiSearch(GraphIndex graphIndex, SearchState state, int[] sources, int[] targets, int k) {
+		state.reset(graphIndex.getNumVertices());
+		int[] parent = state.parent;
+		double[] dist = state.dist;
+		IntMinHeap heap = state.heap;
+		
+		int wanted = 0;
+		for(int target: targets) {
+			if(!state.isTarget(target)) {
+				state.markTarget(target);
+				wanted++;
+			}
+		}
+		wanted = Math.min(wanted, k);
+		for(int source: sources) {
+			state.markVisited(source);
+			parent[source] = source;
+			dist[source] = 0;
+			heap.insertOrDecrease(source, 0);
+		}
+		
+		int[] found = new int[wanted];
+		int numFound = 0;
+		while(!heap.isEmpty() && numFound < wanted) {
+			int curr = heap.poll();
+			state.markSettled(curr);
+			if(state.isTarget(curr)) {
+				found[numFound++] = curr;
+			}
+			for(int e = graphIndex.firstOut(curr), end = graphIndex.firstOut(curr + 1); e < end; e++) {
+				int neighbor = graphIndex.head(e);
+				if(state.isSettled(neighbor) || graphIndex.isBlocked(e)) {
+					continue;
+				}
+				double distance = dist[curr] + graphIndex.length(e);
+				if(!state.isVisited(neighbor) || distance < dist[neighbor]) {
+					state.markVisited(neighbor);
+					dist[neighbor] = distance;
+					parent[neighbor] = curr;
+					heap.insertOrDecrease(neighbor, distance);
+				}
+			}
+		}
+		return numFound == wanted ? found : Arrays.copyOf(found, numFound);
+	}
+	
+	/** Point to point Dijkstra or A* search on the array snapshot, used by the profile aware searches and
+	 * by searches that need to bend the rules, such as the alternative route engine. The caller resets
+	 * state first and may mark vertices as settled beforehand to keep the search away from them.
+	 * 
+	 * @param weights the cost of each edge position, or null to use road lengths. Edges costing
+	 *   Double.POSITIVE_INFINITY are never used
+	 * @param heuristicScale 0 for Dijkstra. Otherwise A* is used, estimating the remaining cost as the
+	 *   straight line distance to target times this scale, which must not overestimate any real cost.
+	 *   Edge lengths may be set below the straight line, so the scale should include
+	 *   graphIndex.getStraightLineScale()
+	 * @param overlay live traffic costs that replace the edge costs, or null to use weights as they are
+	 * @param useBlockedEdges if true, edges blocked in state are skipped
+	 * @return true if target was reached, in which case the path can be read from state.parent and
+	 *   its cost from state.dist
+	 */
+	boolean shortestPath(GraphIndex graphIndex, SearchState state, int source, int target,
+			DoubleColumn weights, double heuristicScale, TrafficOverlay overlay, boolean useBlockedEdges) {
+		int[] parent = state.parent;
+		double[] dist = state.dist;
+		IntMinHeap heap = state.heap;
+		
+		state.markVisited(source);
+		parent[source] = source;
+		dist[source] = 0;
+		heap.insertOrDecrease(source, 0);
+		while(!heap.isEmpty()) {
+			int curr = heap.poll();
+			state.markSettled(curr);
+			if(curr == target) {
+				return true;
+			}
+			for(int e = graphIndex.firstOut(curr), end = graphIndex.firstOut(curr + 1); e < end; e++) {
+				int neighbor = graphIndex.head(e);
+				if(state.isSettled(neighbor) || (useBlockedEdges && state.isEdgeBlocked(e))) {
+					continue;
+				}
+				double weight = weights == null ? graphIndex.length(e) : weights.get(e);
+				if(overlay != null && weight != Double.POSITIVE_INFINITY) {
+					weight = overlay.cost(graphIndex.edgeId(e), weight); //lock-free read of the live cost
+				}
+				if(weight == Double.POSITIVE_INFINITY) {
+					continue;
+				}
+				double distance = dist[curr] + weight;
+				if(!state.isVisited(neighbor) || distance < dist[neighbor]) {
+					state.markVisited(neighbor);
+					dist[neighbor] = distance;
+					parent[neighbor] = curr;
+					state.parentEdge[neighbor] = e;
+					double estimate = heuristicScale == 0 ? 0 : heuristicScale * graphIndex.distance(neighbor, target);
+					heap.insertOrDecrease(neighbor, distance + estimate);
+				}
+			}
+		}
+		return false;
+	}
+	
+	/** Get this thread's reusable search state */
+	SearchState getSearchState() {
+		return searchStates.get();
+	}
+	
+	/**
+	 * Hand this thread's search state back so another thread can reuse it. Short lived threads, such
+	 * as the virtual thread RoutingServer starts for each request, call this when they are done, so
+	 * the O(V) working arrays are allocated once per concurrent search instead of once per thread.
+	 * The thread is given a state again if it searches later; getVisited then no longer describes
+	 * its last search. At most one idle state per processor is kept
+	 */
+	void releaseSearchState() {
+		SearchState state = searchStates.get();
+		searchStates.remove();
+		if(numIdleSearchStates.incrementAndGet() <= Runtime.getRuntime().availableProcessors()) {
+			idleSearchStates.offer(state);
+		} else {
+			numIdleSearchStates.decrementAndGet(); //enough are kept already, let this one be collected
+		}
+	}
+	
+	/**
+	 * Wrap tasks for the threads of a pool made for one parallel build, such as a matrix build: each
+	 * thread hands its search state back when its task is done, so the next build's new threads reuse
+	 * those arrays instead of allocating their own. Only for threads that will not search again, never
+	 * for the calling thread, which may still hold its state
+	 * @param tasks the tasks to run on the pool
+	 * @return the wrapped tasks, in the same order
+	 */
+	<T> List<Callable<T>> releasingSearchStates(List<? extends Callable<T>> tasks) {
+		List<Callable<T>> wrapped = new ArrayList<>(tasks.size());
+		for(Callable<T> task: tasks) {
+			wrapped.add(() -> {
+				try {
+					return task.call();
+				} finally {
+					releaseSearchState();
+				}
+			});
+		}
+		return wrapped;
+	}
+	
+	/** The first search state of a thread: an idle one if any was handed back, otherwise a new one */
+	private SearchState takeSearchState() {
+		SearchState state = idleSearchStates.poll();
+		if(state == null) {
+			return new SearchState();
+		}
+		numIdleSearchStates.decrementAndGet();
+		return state;
+	}
+	
+	/** Look up the vertex id of every point
+	 * @throws IllegalArgumentException if any point is not in the graph
+	 */
+	private int[] toVertexIds(Collection<GeographicPoint> points) {
+		int[] ids = new int[points.size()];
+		int i = 0;
+		for(GeographicPoint point: points) {
+			ids[i] = getVertexId(point);
+			if(ids[i++] < 0) {
+				throw new IllegalArgumentException(point + " is not in mapgraph");
+			}
+		}
+		return ids;
+	}
+
+	/** Find the quickest route from start to goal when leaving at the given time, using the travel
+	 * time profiles of the edges and A* with a lower bound on the remaining travel time.
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param departureSeconds when to leave, in seconds since midnight
+	 * @return the route and its arrival times, or null if goal can not be reached
+	 */
+	public TimedRoute fastestRoute(GeographicPoint start, GeographicPoint goal, double departureSeconds) {
+		return fastestRoute(start, goal, departureSeconds, false);
+	}
+	
+	/** Find the quickest route from start to goal when leaving at the given time, using the travel
+	 * time profiles of the edges. Each edge is costed at the time it is entered, so the same road can
+	 * be quick at night and slow in the rush hour. Where a jam clears faster than it could be driven
+	 * through, the route waits for it at the start of the road, so leaving later never arrives sooner
+	 * and the search can settle each vertex once.
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param departureSeconds when to leave, in seconds since midnight
+	 * @param useDijkstraVariation true to search without the A* estimate
+	 * @return the route and its arrival times, or null if goal can not be reached
+	 */
+	public TimedRoute fastestRoute(GeographicPoint start, GeographicPoint goal, double departureSeconds,
+			boolean useDijkstraVariation) {
+		int source = table.vertexId(start);
+		int target = table.vertexId(goal);
+		if(source < 0 || target < 0) {
+			throw new IllegalArgumentException("both start and goal points must be present in graph");
+		}
+		GraphIndex graphIndex = getIndex();
+		if(!graphIndex.getComponents().mayReach(source, target)) {
+			return null;
+		}
+		SearchState state = searchStates.get();
+		state.reset(graphIndex.getNumVertices());
+		int[] parent = state.parent;
+		double[] arrival = state.dist;
+		IntMinHeap heap = state.heap;
+		double scale = useDijkstraVariation ? 0 : graphIndex.getStraightLineScale();
+		
+		state.markVisited(source);
+		parent[source] = source;
+		arrival[source] = departureSeconds;
+		heap.insertOrDecrease(source, departureSeconds);
+		while(!heap.isEmpty()) {
+			int curr = heap.poll();
+			state.markSettled(curr);
+			if(curr == target) {
+				int[] path = getPath(parent, target);
+				List<GeographicPoint> points = new ArrayList<GeographicPoint>(path.length);
+				double[] times = new double[path.length];
+				for(int i = 0; i < path.length; i++) {
+					points.add(graphIndex.point(path[i]));
+					times[i] = arrival[path[i]];
+				}
+				return new TimedRoute(points, times);
+			}
+			for(int e = graphIndex.firstOut(curr), end = graphIndex.firstOut(curr + 1); e < end; e++) {
+				int neighbor = graphIndex.head(e);
+				if(state.isSettled(neighbor) || graphIndex.isBlocked(e)) {
+					continue;
+				}
+				double time = arrival[curr] + graphIndex.travelTime(e, arrival[curr]);
+				if(!state.isVisited(neighbor) || time < arrival[neighbor]) {
+					state.markVisited(neighbor);
+					arrival[neighbor] = time;
+					parent[neighbor] = curr;
+					double estimate = scale == 0 ? 0
+							: graphIndex.minTravelTime(scale * graphIndex.distance(neighbor, target));
+					heap.insertOrDecrease(neighbor, time + estimate);
+				}
+			}
+		}
+		return null; //if here, there is no path
+	}
+	
+	/** Give one edge a time of day travel time profile. Edges given the same curve share one profile.
+	 * 
+	 * @param from The starting point of the edge
+	 * @param to The ending point of the edge
+	 * @param times seconds since midnight of each breakpoint, increasing
+	 * @param multipliers the free-flow travel time multiplier at each breakpoint
+	 * @throws IllegalArgumentException if there is no edge from from to to, or the profile is invalid
+	 */
+	public void setTravelTimeProfile(GeographicPoint from, GeographicPoint to, double[] times, double[] multipliers) {
+		TravelTimeProfile profile = internProfile(new TravelTimeProfile(times, multipliers));
+		int[] ids = edgesBetween(from, to);
+		if(ids.length == 0) {
+			throw new IllegalArgumentException("No edge from " + from + " to " + to);
+		}
+		for(int id: ids) {
+			table.setProfile(id, profile);
+		}
+		invalidateIndex();
+	}
+	
+	/** Give every edge of a road type the same time of day travel time profile
+	 * 
+	 * @param roadType the road type, as passed to addEdge
+	 * @param times seconds since midnight of each breakpoint, increasing
+	 * @param multipliers the free-flow travel time multiplier at each breakpoint
+	 * @return the number of edges changed
+	 */
+	public int setTravelTimeProfile(String roadType, double[] times, double[] multipliers) {
+		TravelTimeProfile profile = internProfile(new TravelTimeProfile(times, multipliers));
+		int changed = 0;
+		for(int id = 0; id < table.getNumEdgeIds(); id++) {
+			if(!table.isRemoved(id) && roadType.equals(roadAttributes.getRoadType(id))) {
+				table.setProfile(id, profile);
+				changed++;
+			}
+		}
+		invalidateIndex();
+		return changed;
+	}
+	
+	/** Return the shared instance of a profile, so that identical curves are only stored once */
+	private TravelTimeProfile internProfile(TravelTimeProfile profile) {
+		synchronized(travelTimeProfiles) {
+			TravelTimeProfile shared = travelTimeProfiles.putIfAbsent(profile, profile);
+			return shared == null ? profile : shared;
+		}
+	}
+	
+	/** Find up to k meaningfully different routes from start to goal, using the penalty method with
+	 * default settings. Use KShortestPaths directly for exact k shortest paths (Yen) or to change the
+	 * overlap threshold and time budget.
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param k the number of routes wanted
+	 * @return up to k routes, shortest first
+	 */
+	public List<SearchHit> alternativeRoutes(GeographicPoint start, GeographicPoint goal, int k) {
+		return new KShortestPaths(this).penalty(start, goal, k);
+	}
+
+	/** Given a route returned by one of the search methods, return the name of the road taken for each
+	 * step, for turn-by-turn directions. If the route is the one the most recent search on this thread
+	 * returned, the roads that search took are named, as they were on the snapshot it searched, even if
+	 * the graph has changed since. Otherwise, where two points are joined by several open roads, the
+	 * shortest is used.
+	 *
+	 * @param route an ordered list of points, where each point has an edge to the point after it
+	 * @return one road name per step, so route.size() - 1 names. A step on an unnamed road gives null
+	 * @throws IllegalArgumentException if two adjacent points on the route are not joined by an open edge
+	 */
+	public List<String> getRoadNames(List<GeographicPoint> route) {
+		int[] edgeIds = new int[Math.max(0, route.size() - 1)];
+		routeEdges(route, edgeIds);
+		List<String> roadNames = new ArrayList<String>(edgeIds.length);
+		for(int id: edgeIds) {
+			roadNames.add(roadAttributes.getRoadName(id));
+		}
+		return roadNames;
+	}
+
+	/** Given a route returned by one of the search methods, return the total road length of that route.
+	 * Like getRoadNames, the edges the most recent search on this thread took are used if it returned
+	 * this route, otherwise the shortest open edge of each step
+	 *
+	 * @param route an ordered list of points, where each point has an edge to the point after it
+	 * @return the sum of the lengths of all edges along the route, in km. An empty route has length 0
+	 * @throws IllegalArgumentException if two adjacent points on the route are not joined by an open edge
+	 */
+	public double getRouteLength(List<GeographicPoint> route) {
+		return routeEdges(route, new int[Math.max(0, route.size() - 1)]);
+	}
+	
+	/** Find the edge taken at each step of a route, see getRoadNames
+	 * @param edgeIds filled in with the edge id of each step
+	 * @return the length of the route, in km
+	 * @throws IllegalArgumentException if two adjacent points are not joined by an open edge
+	 */
+	private double routeEdges(List<GeographicPoint> route, int[] edgeIds) {
+		SearchState state = searchStates.get();
+		double length = 0;
+		if(state.isRecordedPath(route)) {
+			for(int i = 0; i < edgeIds.length; i++) {
+				edgeIds[i] = state.pathEdgeIds[i];
+				length += state.pathLengths[i];
+			}
+			return length;
+		}
+		GraphIndex graphIndex = getIndex();
+		for(int i = 0; i < edgeIds.length; i++) {
+			int v = table.vertexId(route.get(i));
+			int w = table.vertexId(route.get(i + 1));
+			int best = -1;
+			if(v >= 0 && w >= 0) {
+				for(int e = graphIndex.firstOut(v), end = graphIndex.firstOut(v + 1); e < end; e++) {
+					if(graphIndex.head(e) == w && !graphIndex.isBlocked(e)
+							&& (best < 0 || graphIndex.length(e) < graphIndex.length(best))) {
+						best = e;
+					}
+				}
+			}
+			if(best < 0) {
+				throw new IllegalArgumentException("No open edge between " + route.get(i) + " and " + route.get(i + 1));
+			}
+			edgeIds[i] = graphIndex.edgeId(best);
+			length += graphIndex.length(best);
+		}
+		return length;
+	}
+
+	/** Find the path from start to goal using Dijkstra's algorithm, on either the base edge lengths or the
+	 * live costs in the traffic overlay
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param useLiveWeights true to cost edges with the traffic overlay, false for base lengths
+	 * @return The list of intersections that form the shortest path from start to goal (including both
+	 *   start and goal), or an empty list if there is none
+	 */
+	public List<GeographicPoint> dijkstra(GeographicPoint start, GeographicPoint goal, boolean useLiveWeights) {
+		return useLiveWeights ? findPathWithLiveWeights(start, goal, true) : dijkstra(start, goal);
+	}
+	
+	/** Find the path from start to goal using A-Star search, on either the base edge lengths or the
+	 * live costs in the traffic overlay
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param useLiveWeights true to cost edges with the traffic overlay, false for base lengths
+	 * @return The list of intersections that form the shortest path from start to goal (including both
+	 *   start and goal), or an empty list if there is none
+	 */
+	public List<GeographicPoint> aStarSearch(GeographicPoint start, GeographicPoint goal, boolean useLiveWeights) {
+		return useLiveWeights ? findPathWithLiveWeights(start, goal, false) : aStarSearch(start, goal);
+	}
+	
+	private List<GeographicPoint> findPathWithLiveWeights(GeographicPoint start, GeographicPoint goal,
+			boolean useDijkstraVariation) {
+		int source = table.vertexId(start);
+		int target = table.vertexId(goal);
+		if(source < 0 || target < 0) {
+			throw new IllegalArgumentException("both start and goal points must be present in graph");
+		}
+		GraphIndex graphIndex = getIndex();
+		if(!graphIndex.getComponents().mayReach(source, target)) {
+			return new ArrayList<GeographicPoint>();
+		}
+		TrafficOverlay overlay = getTrafficOverlay();
+		SearchState state = searchStates.get();
+		state.reset(graphIndex.getNumVertices());
+		if(shortestPath(graphIndex, state, source, target, null,
+				useDijkstraVariation ? 0 : overlay.getMinRatio() * graphIndex.getStraightLineScale(), overlay, false)) {
+			return toPoints(graphIndex, state, getPath(state.parent, target));
+		}
+		return new ArrayList<GeographicPoint>();
+	}
+	
+	/** Find the path from start to goal using Dijkstra's algorithm on the compressed version of this graph,
+	 * where dead-end side streets are pruned and the vertices that only describe the curve of a road are
+	 * folded into single edges. The search settles only the vertices that are left, and the route is expanded
+	 * back to every intersection afterwards, so the answer is the same as dijkstra's. 
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @return The list of intersections that form the shortest path from start to goal (including both
+	 *   start and goal), or an empty list if there is none
+	 */
+	public List<GeographicPoint> dijkstraCompressed(GeographicPoint start, GeographicPoint goal) {
+		Consumer<GeographicPoint> none = null;
+		return dijkstraCompressed(start, goal, none);
+	}
+	
+	/** Find the path from start to goal using Dijkstra's algorithm on the compressed version of this graph
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param nodeSearched A hook for visualization, called only for the vertices the compressed search settles.
+	 *   May be null
+	 * @return The list of intersections that form the shortest path from start to goal (including both
+	 *   start and goal), or an empty list if there is none
+	 */
+	public List<GeographicPoint> dijkstraCompressed(GeographicPoint start, GeographicPoint goal,
+			Consumer<GeographicPoint> nodeSearched) {
+		int source = table.vertexId(start);
+		int target = table.vertexId(goal);
+		if(source < 0 || target < 0) {
+			throw new IllegalArgumentException("both start and goal points must be present in graph");
+		}
+		GraphIndex graphIndex = getIndex();
+		List<GeographicPoint> points = new ArrayList<GeographicPoint>();
+		if(!graphIndex.getComponents().mayReach(source, target)) {
+			return points;
+		}
+		SearchState state = searchStates.get();
+		int[] path = graphIndex.getCompressed().shortestPath(source, target, state, nodeSearched);
+		if(path == null) { //both ends in the same dead-end tree, the full graph is searched instead
+			state.reset(graphIndex.getNumVertices());
+			path = shortestPath(graphIndex, state, source, target, null, 0, null, false)
+					? getPath(state.parent, target) : new int[0];
+		}
+		for(int v: path) {
+			points.add(graphIndex.point(v));
+		}
+		return points;
+	}
+	
+	/**
+	 * Check whether this graph keeps its snapshots outside the Java heap
+	 * @return the choice made when the graph was constructed
+	 */
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+	
+	/**
+	 * Get the compressed version of this graph that dijkstraCompressed searches
+	 * @return the compressed graph of the current snapshot
+	 */
+	public CompressedGraph getCompressedGraph() {
+		return getIndex().getCompressed();
+	}
+	
+	/** Find the path from start to goal using Dijkstra's algorithm, costing roads with a routing profile
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param profile how to cost each road type, for example RoutingProfile.BIKE
+	 * @return The list of intersections that form the cheapest path from start to goal under the
+	 *   profile (including both start and goal), or an empty list if there is none
+	 */
+	public List<GeographicPoint> dijkstra(GeographicPoint start, GeographicPoint goal, RoutingProfile profile) {
+		return findPathWithProfile(start, goal, profile, true);
+	}
+	
+	/** Find the path from start to goal using A-Star search, costing roads with a routing profile
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param profile how to cost each road type, for example RoutingProfile.BIKE
+	 * @return The list of intersections that form the cheapest path from start to goal under the
+	 *   profile (including both start and goal), or an empty list if there is none
+	 */
+	public List<GeographicPoint> aStarSearch(GeographicPoint start, GeographicPoint goal, RoutingProfile profile) {
+		return findPathWithProfile(start, goal, profile, false);
+	}
+	
+	private List<GeographicPoint> findPathWithProfile(GeographicPoint start, GeographicPoint goal,
+			RoutingProfile profile, boolean useDijkstraVariation) {
+		int source = table.vertexId(start);
+		int target = table.vertexId(goal);
+		if(source < 0 || target < 0) {
+			throw new IllegalArgumentException("both start and goal points must be present in graph");
+		}
+		GraphIndex graphIndex = getIndex();
+		if(!graphIndex.getComponents().mayReach(source, target)) {
+			return new ArrayList<GeographicPoint>();
+		}
+		SearchState state = searchStates.get();
+		state.reset(graphIndex.getNumVertices());
+		if(shortestPath(graphIndex, state, source, target, graphIndex.weights(profile),
+				useDijkstraVariation ? 0 : profile.getMinMultiplier() * graphIndex.getStraightLineScale(), null, false)) {
+			return toPoints(graphIndex, state, getPath(state.parent, target));
+		}
+		return new ArrayList<GeographicPoint>();
+	}
+
 	public static void main(String[] args)
 	{
 		System.out.print("Making a new map...");
@@ -410,15 +1252,347 @@ public class MapGraph {
 		List<GeographicPoint> route2 = theMap.aStarSearch(start,end);
 	}
 
+	/**
+	 * Get the nodes settled by the most recent dijkstra or aStarSearch made on this thread, in the
+	 * order they were settled. The search only records vertex ids, the nodes are looked up here.
+	 * Used for testing
+	 * @return the settled nodes
+	 */
 	public List<MapNode> getVisited() {
+		List<MapNode> visited = new ArrayList<MapNode>();
+		for(int v: searchStates.get().getSettledOrder()) {
+			visited.add(table.node(v));
+		}
 		return visited;
 	}
 
+	/**
+	 * Check, without searching, whether there might be a path from start to goal. A false answer is
+	 * certain, a true answer means a search is needed to be sure (unless start and goal are in the same
+	 * strongly connected component). The components are worked out once per snapshot, so call this or
+	 * getComponentId once after loading a map to keep that work out of the first query
+	 * @param start the starting location
+	 * @param goal the goal location
+	 * @return false if no path from start to goal can exist
+	 * @throws IllegalArgumentException if either point is not in the graph
+	 */
+	public boolean mayReach(GeographicPoint start, GeographicPoint goal) {
+		int source = table.vertexId(start);
+		int target = table.vertexId(goal);
+		if(source < 0 || target < 0) {
+			throw new IllegalArgumentException("both start and goal points must be present in graph");
+		}
+		return mayReach(source, target);
+	}
+	
+	private boolean mayReach(int start, int goal) {
+		return getIndex().getComponents().mayReach(start, goal);
+	}
+	
+	/**
+	 * Get the strongly connected component of a location. Two locations with the same component id
+	 * can each be reached from the other
+	 * @param location a point in the graph
+	 * @return a component id between 0 and getNumComponents() - 1
+	 * @throws IllegalArgumentException if the point is not in the graph
+	 */
+	public int getComponentId(GeographicPoint location) {
+		int v = table.vertexId(location);
+		if(v < 0) {
+			throw new IllegalArgumentException("No vertex at " + location);
+		}
+		return getIndex().getComponents().componentOf(v);
+	}
+	
+	/**
+	 * Get the number of strongly connected components, ignoring blocked edges
+	 * @return the component count
+	 */
+	public int getNumComponents() {
+		return getIndex().getComponents().getNumComponents();
+	}
+	
+	/**
+	 * Get the id of the vertex at a location
+	 * @param location a point in the graph
+	 * @return the vertex id, or -1 if the point is not in the graph
+	 */
+	public int getVertexId(GeographicPoint location) {
+		return table.vertexId(location);
+	}
+	
+	/**
+	 * Get the node with the given id
+	 * @param id a vertex id between 0 and getNumVertices() - 1
+	 * @return the MapNode with that id. In a graph stored off the heap this is a new MapNode on every
+	 *   call, a copy of the graph as it is now whose edges are read from the current snapshot
+	 */
+	public MapNode getNode(int id) {
+		return table.node(id);
+	}
+	
+	/**
+	 * Get the array snapshot of this graph's adjacency, building it if the graph has changed
+	 * since the last snapshot was taken
+	 * @return the current GraphIndex
+	 */
+	public GraphIndex getIndex() {
+		GraphIndex current = index;
+		if(current == null) {
+			synchronized(this) {
+				current = index;
+				if(current == null) {
+					current = new GraphIndex(table, roadAttributes, ++epoch, offHeap);
+					index = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Get the live traffic overlay of this graph, creating it the first time, and making it larger if
+	 * edges have been added since it was created
+	 * @return the overlay, with room for every edge id
+	 */
+	public TrafficOverlay getTrafficOverlay() {
+		TrafficOverlay current = trafficOverlay;
+		if(current == null) {
+			synchronized(this) {
+				current = trafficOverlay;
+				if(current == null) {
+					current = new TrafficOverlay(table.getNumEdgeIds());
+					trafficOverlay = current;
+				}
+			}
+		}
+		if(current.capacity() < table.getNumEdgeIds()) {
+			current.ensureCapacity(table.getNumEdgeIds()); //grows in place, so writers holding it lose nothing
+		}
+		return current;
+	}
+	
+	/**
+	 * Set live costs for many edges at once, without locking. Searches asked to use live weights see
+	 * each cost as soon as it is written
+	 * @param edgeIds the Edge ids, see Edge.getId
+	 * @param costs the live cost of each edge, in the same unit as its length. Double.NaN goes back to
+	 *   the base length
+	 */
+	public void applyLiveCosts(int[] edgeIds, double[] costs) {
+		double[] baseLengths = new double[edgeIds.length];
+		for(int i = 0; i < edgeIds.length; i++) {
+			baseLengths[i] = baseLength(edgeIds[i]);
+		}
+		getTrafficOverlay().applyBatch(edgeIds, costs, baseLengths);
+	}
+	
+	/**
+	 * Set live costs for many edges from measured speeds. An edge moving at the default speed for its
+	 * road type costs its length, one moving at half that speed costs twice its length
+	 * @param edgeIds the Edge ids, see Edge.getId
+	 * @param speedsKmh the measured speed on each edge. 0 means the road is at a standstill
+	 */
+	public void applyLiveSpeeds(int[] edgeIds, double[] speedsKmh) {
+		if(edgeIds.length != speedsKmh.length) {
+			throw new IllegalArgumentException("edgeIds and speedsKmh must be the same length");
+		}
+		double[] costs = new double[edgeIds.length];
+		double[] baseLengths = new double[edgeIds.length];
+		for(int i = 0; i < edgeIds.length; i++) {
+			baseLengths[i] = baseLength(edgeIds[i]);
+			costs[i] = speedsKmh[i] <= 0 ? Double.POSITIVE_INFINITY
+					: baseLengths[i] * TravelTimeProfile.defaultSpeedKmh(roadAttributes.getRoadType(edgeIds[i])) / speedsKmh[i];
+		}
+		getTrafficOverlay().applyBatch(edgeIds, costs, baseLengths);
+	}
+	
+	/**
+	 * Get an edge by id
+	 * @param id an Edge id
+	 * @return the Edge. In a graph stored off the heap this is a new Edge on every call, a copy of the
+	 *   edge as it is now
+	 * @throws IllegalArgumentException if there is no edge with that id
+	 */
+	public Edge getEdge(int id) {
+		return table.edge(checkEdgeId(id));
+	}
+	
+	/** Get the length of an edge, blocked or not, without making an Edge
+	 * @throws IllegalArgumentException if there is no edge with that id
+	 */
+	private double baseLength(int id) {
+		return table.length(checkEdgeId(id));
+	}
+	
+	private int checkEdgeId(int id) {
+		if(id < 0 || id >= table.getNumEdgeIds()) {
+			throw new IllegalArgumentException("No edge with id " + id);
+		}
+		return id;
+	}
+	
+	/**
+	 * Give every vertex a new id. Searches run on ids, so storing neighboring intersections under nearby
+	 * ids makes them far more cache friendly; see VertexOrdering for orders that do that. The adjacency
+	 * arrays and every per-vertex array are rebuilt in the new order with the next snapshot. Edge ids do
+	 * not change. Vertex ids held by callers, for example from getVertexId, are stale afterwards
+	 * @param order order[newId] is the current id of the vertex that gets newId
+	 * @throws IllegalArgumentException if order is not a permutation of the vertex ids
+	 */
+	public synchronized void renumberVertices(int[] order) {
+		int n = table.getNumVertices();
+		if(order.length != n) {
+			throw new IllegalArgumentException("order must have one entry per vertex");
+		}
+		boolean[] seen = new boolean[n];
+		for(int v: order) {
+			if(v < 0 || v >= n || seen[v]) {
+				throw new IllegalArgumentException("order is not a permutation of the vertex ids");
+			}
+			seen[v] = true;
+		}
+		table.renumber(order);
+		invalidateIndex();
+	}
+	
+	/**
+	 * Throw away the current snapshot after a change to the topology. The next search builds a new one.
+	 * Searches already running keep the snapshot they started with
+	 */
+	private synchronized void invalidateIndex() {
+		index = null;
+	}
+	
+	/**
+	 * Get the epoch of the latest snapshot of this graph. It goes up every time a batch of updates is
+	 * applied or the graph is rebuilt after its topology changed
+	 * @return the current epoch
+	 */
+	public long getEpoch() {
+		return getIndex().getEpoch();
+	}
+	
+	/**
+	 * Apply a batch of edge length changes and road closures in one step. Searches that are already
+	 * running carry on against the snapshot they started with; searches started afterwards see the
+	 * whole batch. The snapshot is not rebuilt: a copy sharing all topology arrays is published
+	 * with only the edge costs, and any per-profile weights already worked out, patched. Every
+	 * search runs on a snapshot, so none of them sees part of a batch. In a graph stored on the
+	 * heap the Edge objects are changed in place, so code reading them directly may.
+	 * @param update the batch to apply
+	 * @return the epoch of the snapshot that includes the batch
+	 * @throws IllegalArgumentException if a change names points with no edge between them. No part of
+	 *   the batch is applied in that case
+	 */
+	public synchronized long applyUpdates(GraphUpdate update) {
+		List<int[]> targets = new ArrayList<int[]>(update.size());
+		int numChanged = 0;
+		for(GraphUpdate.Change change: update.getChanges()) { //check the whole batch before changing anything
+			int[] ids = edgesBetween(change.from, change.to);
+			if(ids.length == 0) {
+				throw new IllegalArgumentException("No edge from " + change.from + " to " + change.to);
+			}
+			targets.add(ids);
+			numChanged += ids.length;
+		}
+		int[] changed = new int[numChanged];
+		numChanged = 0;
+		for(int i = 0; i < targets.size(); i++) {
+			GraphUpdate.Change change = update.getChanges().get(i);
+			for(int id: targets.get(i)) {
+				if(change.kind == GraphUpdate.Kind.SET_LENGTH) {
+					table.setLength(id, change.length);
+				} else {
+					table.setBlocked(id, change.kind == GraphUpdate.Kind.BLOCK);
+				}
+				changed[numChanged++] = id;
+			}
+		}
+		GraphIndex current = index;
+		if(current != null) {
+			index = current.withChangedEdges(changed, table);
+			epoch = index.getEpoch();
+		}
+		return getEpoch();
+	}
+	
+	/** Set the length of the edges from one point to another. See applyUpdates
+	 * @return the new epoch
+	 */
+	public long setEdgeLength(GeographicPoint from, GeographicPoint to, double length) {
+		GraphUpdate update = new GraphUpdate();
+		update.setLength(from, to, length);
+		return applyUpdates(update);
+	}
+	
+	/** Block or unblock the edges from one point to another. See applyUpdates
+	 * @return the new epoch
+	 */
+	public long setEdgeBlocked(GeographicPoint from, GeographicPoint to, boolean blocked) {
+		GraphUpdate update = new GraphUpdate();
+		if(blocked) {
+			update.block(from, to);
+		} else {
+			update.unblock(from, to);
+		}
+		return applyUpdates(update);
+	}
+	
+	/** Remove every edge from one point to another. This changes the topology, so the snapshot is rebuilt
+	 * the next time it is needed
+	 * @param from The starting point of the edge
+	 * @param to The ending point of the edge
+	 * @return the number of edges removed
+	 */
+	public synchronized int removeEdge(GeographicPoint from, GeographicPoint to) {
+		int[] ids = edgesBetween(from, to);
+		for(int id: ids) {
+			table.remove(id);
+		}
+		if(ids.length > 0) {
+			int degree = table.outDegree(table.vertexId(from));
+			changeOutDegree(degree + ids.length, degree);
+			numEdges -= ids.length;
+			invalidateIndex();
+		}
+		return ids.length;
+	}
+	
+	/** Find every edge from one point to another
+	 * @return their edge ids, in the order they were added
+	 */
+	private int[] edgesBetween(GeographicPoint from, GeographicPoint to) {
+		int v = table.vertexId(from);
+		int w = table.vertexId(to);
+		return v < 0 || w < 0 ? new int[0] : table.edgesBetween(v, w);
+	}
+	
+	/**
+	 * Get the dictionary encoded road names and types of every edge
+	 * @return the road attribute table, indexed by edge id
+	 */
+	public RoadAttributeTable getRoadAttributes() {
+		return roadAttributes;
+	}
+
+	/**
+	 * Get the node of every vertex, by location
+	 * @return the map. In a graph stored off the heap it is a new copy on every call, holding MapNodes
+	 *   made for it, see getNode
+	 */
 	public HashMap<GeographicPoint, MapNode> getVerticesMap() {
-		return verticesMap;
+		return table.verticesMap();
 	}
 
+	/**
+	 * Get the edges by the key GraphUtility.generateHashMapKeyForEdge gives their two ends. Edges in
+	 * both directions between two points share a key, which holds the one added last
+	 * @return the map
+	 * @throws UnsupportedOperationException if the graph is stored off the heap, where MapNodes are
+	 *   made on request and so can not be keyed on
+	 */
 	public Map<Integer, Edge> getEdgeMap() {
-		return edgeMap;
+		return table.edgeMap();
 	}
 }
@@ -3,9 +3,14 @@ package roadgraph;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -93,6 +98,45 @@ public class MapGraphTester {
 		assertEquals("Should have two edges", 2, mapGraph.getNumEdges());
 	}
 	
+	@Test
+	public void roadAttributes() {
+		GeographicPoint location1 = new GeographicPoint(1.5, 1.2);
+		GeographicPoint location2 = new GeographicPoint(1.1, 3.1);
+		GeographicPoint location3 = new GeographicPoint(1.7, 0.2);
+		mapGraph.addVertex(location1);
+		mapGraph.addVertex(location2);
+		mapGraph.addVertex(location3);
+		mapGraph.addEdge(location1, location2, "Jahns Road", new String("residential"), 5);
+		mapGraph.addEdge(location2, location3, "Elm Street", new String("residential"), 5);
+		
+		RoadAttributeTable table = mapGraph.getRoadAttributes();
+		assertEquals("Two edges recorded", 2, table.getNumEdges());
+		assertEquals("One distinct road type", 1, table.getNumRoadTypes());
+		assertEquals("Two distinct road names", 2, table.getNumRoadNames());
+		int first = mapGraph.getNode(0).getOutgoingEdges().get(0).getId();
+		int second = mapGraph.getNode(1).getOutgoingEdges().get(0).getId();
+		assertEquals("Edges share one road type code", table.getRoadTypeCode(first), table.getRoadTypeCode(second));
+		assertEquals("Road type read through its code", "residential", table.getRoadType(second));
+		
+		List<String> names = mapGraph.getRoadNames(Arrays.asList(location1, location2, location3));
+		assertEquals("Turn by turn names", Arrays.asList("Jahns Road", "Elm Street"), names);
+		
+		//a route is described by the edges its search took, on the snapshot it searched
+		mapGraph.addEdge(location1, location2, "Bypass", "residential", 3);
+		List<GeographicPoint> path = mapGraph.dijkstra(location1, location3);
+		mapGraph.setEdgeBlocked(location1, location2, true);
+		assertEquals(Arrays.asList("Bypass", "Elm Street"), mapGraph.getRoadNames(path));
+		assertEquals("Both roads removed", 2, mapGraph.removeEdge(location1, location2));
+		assertEquals("A removed edge does not spoil a route found before", 8, mapGraph.getRouteLength(path), 1e-9);
+		mapGraph.bfs(location2, location3);
+		try {
+			mapGraph.getRoadNames(path);
+			fail("Once another search has run the route is looked up again, and its first road is gone");
+		} catch(IllegalArgumentException iae) {
+			assertNotNull(iae);
+		}
+	}
+	
 	@Test
 	public void testBFS() {
 		System.out.println("Creating map...");
@@ -124,6 +168,68 @@ public class MapGraphTester {
 		}
 	}
 	
+	@Test
+	public void testBFSByIdAndUnreachable() {
+		MapGraph map = new MapGraph();
+		GraphLoader.loadRoadMap("data/testdata/pleasantridgetestdata.map", map);
+		GeographicPoint start = new GeographicPoint(1.0, -1.0);
+		GeographicPoint goal = new GeographicPoint(3.0, 1.0);
+		int[] ids = map.bfs(map.getVertexId(start), map.getVertexId(goal), (x) -> {});
+		assertEquals("Path should have four vertices", 4, ids.length);
+		assertEquals("Path should begin at start", start, map.getNode(ids[0]).getLocation());
+		assertEquals("Path should end at goal", goal, map.getNode(ids[3]).getLocation());
+		
+		//repeated searches on the same thread reuse their state and must not see the previous search
+		assertEquals("Same path on second search", 4, map.bfs(start, goal).size());
+		assertEquals("Path to self is just start", 1, map.bfs(goal, goal).size());
+		
+		GeographicPoint island = new GeographicPoint(9.0, 9.0);
+		map.addVertex(island);
+		assertTrue("No path to an unconnected vertex", map.bfs(start, island).isEmpty());
+	}
+	
+	@Test
+	public void searchEventStream() {
+		MapGraph grid = oneWayGrid(new MapGraph(), 20);
+		GeographicPoint start = gridPoint(0, 0);
+		GeographicPoint goal = gridPoint(19, 13);
+		List<GeographicPoint> direct = new ArrayList<>();
+		List<GeographicPoint> path = grid.aStarSearch(start, goal, direct::add);
+		assertEquals("No hook finds the same path", path, grid.aStarSearch(start, goal));
+		
+		//a ring of 8 wraps many times over, so the search has to wait for the listener
+		List<GeographicPoint> streamed = new ArrayList<>();
+		SearchEventStream stream = new SearchEventStream(point -> {
+			streamed.add(point);
+			Thread.yield();
+		}, 5);
+		assertEquals(path, grid.aStarSearch(start, goal, stream));
+		stream.awaitDelivered();
+		assertEquals("Every vertex in the order the search found it", direct, streamed);
+		assertEquals(direct.size(), stream.getDelivered());
+		grid.dijkstra(start, goal, stream);
+		stream.close();
+		assertTrue(stream.getDelivered() > direct.size());
+		assertEquals(stream.getDelivered(), streamed.size());
+		try {
+			stream.accept(start);
+			fail("A closed stream takes no more events");
+		} catch(IllegalStateException ise) {
+			assertNotNull(ise);
+		}
+		
+		SearchEventStream failing = new SearchEventStream(point -> {
+			throw new IllegalArgumentException("Listener failure");
+		});
+		grid.aStarSearch(start, goal, failing);
+		try {
+			failing.close();
+			fail("Check that the listener's failure is passed on");
+		} catch(IllegalStateException ise) {
+			assertTrue(ise.getCause() instanceof IllegalArgumentException);
+		}
+	}
+	
 	@Test
 	public void testDijkstra() {
 		System.out.println("Creating map...");
@@ -231,6 +337,524 @@ public class MapGraphTester {
 		}
 	}
 	
+	@Test
+	public void multiSourceAndTarget() {
+		MapGraph map = new MapGraph();
+		GraphLoader.loadRoadMap("data/testdata/simpletest.map", map);
+		
+		GeographicPoint stop = new GeographicPoint(8.0, -1.0);
+		GeographicPoint farDepot = new GeographicPoint(1.0, 1.0);
+		GeographicPoint nearDepot = new GeographicPoint(5.0, 1.0);
+		SearchHit hit = map.nearestSource(Arrays.asList(farDepot, nearDepot), stop);
+		assertEquals("Closest depot should win", nearDepot, hit.getSource());
+		assertEquals("Path should start at winning depot", nearDepot, hit.getPath().get(0));
+		assertEquals("Path should end at stop", stop, hit.getPath().get(hit.getPath().size() - 1));
+		assertEquals("Distance should match path length", map.getRouteLength(hit.getPath()), hit.getDistance(), 1e-9);
+		
+		GeographicPoint near = new GeographicPoint(4.0, 1.0);
+		GeographicPoint mid = new GeographicPoint(6.5, 0.0);
+		List<SearchHit> hits = map.multiSearch(Arrays.asList(farDepot), Arrays.asList(stop, mid, near), 2);
+		assertEquals("Should stop after two targets", 2, hits.size());
+		assertEquals("Closest target first", near, hits.get(0).getTarget());
+		assertEquals("Second closest target second", mid, hits.get(1).getTarget());
+		
+		map.addVertex(new GeographicPoint(9.0, 9.0));
+		assertNull("Unconnected target has no nearest source",
+				map.nearestSource(Arrays.asList(farDepot), new GeographicPoint(9.0, 9.0)));
+	}
+	
+	@Test
+	public void alternativeRoutes() {
+		MapGraph map = new MapGraph();
+		GraphLoader.loadRoadMap("data/testdata/simpletest.map", map);
+		GeographicPoint start = new GeographicPoint(1.0, 1.0);
+		GeographicPoint goal = new GeographicPoint(8.0, -1.0);
+		
+		KShortestPaths engine = new KShortestPaths(map);
+		engine.setMaxOverlap(1.0);
+		List<SearchHit> yen = engine.yen(start, goal, 3);
+		assertEquals("Should find three routes", 3, yen.size());
+		assertEquals("First route is the shortest path", map.dijkstra(start, goal), yen.get(0).getPath());
+		for(int i = 1; i < yen.size(); i++) {
+			assertTrue("Routes should be in order of length", yen.get(i - 1).getDistance() <= yen.get(i).getDistance());
+			assertFalse("Routes should differ", yen.get(i - 1).getPath().equals(yen.get(i).getPath()));
+		}
+		
+		//a parallel road between the same points is the same route, so the real alternative is still found
+		MapGraph parallel = new MapGraph();
+		GeographicPoint a = new GeographicPoint(0, 0);
+		GeographicPoint b = new GeographicPoint(0, 1);
+		GeographicPoint c = new GeographicPoint(0, 2);
+		parallel.addVertex(a);
+		parallel.addVertex(b);
+		parallel.addVertex(c);
+		parallel.addEdge(a, b, "Main Street", "residential", 1);
+		parallel.addEdge(a, b, "Service Road", "residential", 2);
+		parallel.addEdge(b, c, "Main Street", "residential", 1);
+		parallel.addEdge(a, c, "Ring Road", "residential", 5);
+		KShortestPaths parallelEngine = new KShortestPaths(parallel);
+		parallelEngine.setMaxOverlap(1.0);
+		List<SearchHit> twoRoutes = parallelEngine.yen(a, c, 2);
+		assertEquals(2, twoRoutes.size());
+		assertEquals(Arrays.asList(a, b, c), twoRoutes.get(0).getPath());
+		assertEquals(Arrays.asList(a, c), twoRoutes.get(1).getPath());
+		
+		List<SearchHit> penalty = map.alternativeRoutes(start, goal, 2);
+		assertEquals("Penalty method should find two routes", 2, penalty.size());
+		assertEquals("First route is the shortest path", map.dijkstra(start, goal), penalty.get(0).getPath());
+		assertFalse("Routes should differ", penalty.get(0).getPath().equals(penalty.get(1).getPath()));
+	}
+	
+	@Test
+	public void travelTimeRouting() {
+		MapGraph map = new MapGraph();
+		GraphLoader.loadRoadMap("data/testdata/simpletest.map", map);
+		GeographicPoint start = new GeographicPoint(4.0, 1.0);
+		GeographicPoint goal = new GeographicPoint(8.0, -1.0);
+		GeographicPoint mid = new GeographicPoint(5.0, 1.0);
+		double eightAm = 8 * 3600;
+		
+		TimedRoute night = map.fastestRoute(start, goal, 0);
+		assertEquals("Free-flow route is the shortest path", map.dijkstra(start, goal), night.getPath());
+		assertEquals("Departure is kept", 0, night.getDepartureTime(), 1e-9);
+		
+		//make the road through (5,1) crawl through the working day only
+		double[] times = {0, 7 * 3600, eightAm, 18 * 3600};
+		double[] jam = {1, 1, 20, 1};
+		map.setTravelTimeProfile(start, mid, times, jam);
+		map.setTravelTimeProfile(mid, new GeographicPoint(6.5, 0.0), times, jam);
+		TravelTimeProfile first = null;
+		for(Edge edge: map.getNode(map.getVertexId(start)).getOutgoingEdges()) {
+			first = edge.getEnd().getLocation().equals(mid) ? edge.getTravelTimeProfile() : first;
+		}
+		for(Edge edge: map.getNode(map.getVertexId(mid)).getOutgoingEdges()) {
+			if(edge.getEnd().getLocation().equals(new GeographicPoint(6.5, 0.0))) {
+				assertTrue("Identical curves should share one profile", first == edge.getTravelTimeProfile());
+			}
+		}
+		
+		TimedRoute rush = map.fastestRoute(start, goal, eightAm);
+		assertFalse("Rush hour route should avoid the jam", rush.getPath().contains(mid));
+		assertTrue("Route at night still uses it", map.fastestRoute(start, goal, 0).getPath().contains(mid));
+		
+		TimedRoute rushDijkstra = map.fastestRoute(start, goal, eightAm, true);
+		assertEquals("A* and Dijkstra should agree", rushDijkstra.getTravelTime(), rush.getTravelTime(), 1e-6);
+		
+		//the jam clears far faster than the road can be driven, so waiting for it beats entering it
+		double clearRoad = map.fastestRoute(start, mid, 0).getTravelTime();
+		double early = map.fastestRoute(start, mid, eightAm).getArrivalTime();
+		assertEquals("Wait for the jam to clear at 6pm", 18 * 3600 + clearRoad, early, 1e-6);
+		assertTrue("Leaving later never arrives sooner", early <= map.fastestRoute(start, mid, eightAm + 1800).getArrivalTime());
+	}
+	
+	@Test
+	public void routingProfiles() {
+		GeographicPoint a = new GeographicPoint(0.0, 0.0);
+		GeographicPoint b = new GeographicPoint(0.0, 0.1);
+		GeographicPoint c = new GeographicPoint(0.05, 0.05);
+		mapGraph.addVertex(a);
+		mapGraph.addVertex(b);
+		mapGraph.addVertex(c);
+		mapGraph.addEdge(a, b, "Highway 1", "motorway", a.distance(b));
+		mapGraph.addEdge(a, c, "Side St", "residential", a.distance(c));
+		mapGraph.addEdge(c, b, "Side St", "residential", c.distance(b));
+		mapGraph.addEdge(b, a, "Highway 1", "motorway", b.distance(a));
+		
+		assertEquals("Car takes the motorway", 2, mapGraph.aStarSearch(a, b, RoutingProfile.CAR).size());
+		assertEquals("Bike may not use the motorway", 3, mapGraph.aStarSearch(a, b, RoutingProfile.BIKE).size());
+		assertEquals("Avoid highways stays off it", 3, mapGraph.dijkstra(a, b, RoutingProfile.AVOID_HIGHWAYS).size());
+		assertEquals("Switching back needs no rebuild", 2, mapGraph.dijkstra(a, b, RoutingProfile.CAR).size());
+		assertEquals("Car can go back on the motorway", 2, mapGraph.aStarSearch(b, a, RoutingProfile.CAR).size());
+		assertTrue("Bike can't go back, the only way is the motorway",
+				mapGraph.aStarSearch(b, a, RoutingProfile.BIKE).isEmpty());
+	}
+	
+	@Test
+	public void incrementalUpdates() {
+		MapGraph map = new MapGraph();
+		GraphLoader.loadRoadMap("data/testdata/simpletest.map", map);
+		GeographicPoint start = new GeographicPoint(1.0, 1.0);
+		GeographicPoint goal = new GeographicPoint(8.0, -1.0);
+		GeographicPoint mid = new GeographicPoint(5.0, 1.0);
+		GeographicPoint before = new GeographicPoint(4.0, 1.0);
+		assertTrue("Shortest path goes through (5,1)", map.dijkstra(start, goal, RoutingProfile.CAR).contains(mid));
+		
+		GraphIndex inFlight = map.getIndex();
+		GraphUpdate closure = new GraphUpdate();
+		closure.block(before, mid);
+		closure.setLength(new GeographicPoint(4.0, 2.0), new GeographicPoint(7.0, 3.0), 1000);
+		long epoch = map.applyUpdates(closure);
+		
+		assertEquals("Batch makes one new epoch", inFlight.getEpoch() + 1, epoch);
+		assertTrue("Topology arrays are shared, not rebuilt", inFlight.getNumEdges() == map.getIndex().getNumEdges());
+		assertFalse("A search holding the old snapshot does not see the closure",
+				inFlight.isBlocked(firstEdge(inFlight, map.getVertexId(before), map.getVertexId(mid))));
+		assertFalse("New searches avoid the closed road", map.bfs(start, goal).contains(mid));
+		assertFalse("Patched profile weights avoid it too", map.dijkstra(start, goal, RoutingProfile.CAR).contains(mid));
+		assertFalse("Plain search avoids it too", map.aStarSearch(start, goal).contains(mid));
+		assertTrue("Lengthened road is avoided", map.aStarSearch(start, goal, RoutingProfile.CAR)
+				.contains(new GeographicPoint(4.0, -1.0)));
+		
+		map.setEdgeBlocked(before, mid, false);
+		assertTrue("Reopened road is used again", map.dijkstra(start, goal).contains(mid));
+		StronglyConnectedComponents components = map.getIndex().getComponents();
+		map.setEdgeLength(before, mid, 2);
+		assertTrue("A length change keeps the components", components == map.getIndex().getComponents());
+		
+		assertEquals("Removing an edge", 1, map.removeEdge(before, mid));
+		assertFalse("Removed road is gone", map.bfs(start, goal).contains(mid));
+		Edge back = map.getEdgeMap().get(GraphUtility.generateHashMapKeyForEdge(
+				map.getNode(map.getVertexId(before)), map.getNode(map.getVertexId(mid))));
+		assertTrue("The road coming back keeps its shared key", back != null && back.getBegin().getLocation().equals(mid));
+		
+		try {
+			GraphUpdate bad = new GraphUpdate();
+			bad.block(start, goal);
+			map.applyUpdates(bad);
+			fail("Should not accept a change to an edge that does not exist");
+		} catch(IllegalArgumentException iae) {
+			assertNotNull(iae);
+		}
+	}
+	
+	@Test
+	public void aStarAfterShortening() {
+		//the road straight to goal is found first unless the estimate allows for the shortened detour
+		MapGraph map = new MapGraph();
+		GeographicPoint start = new GeographicPoint(0, 0);
+		GeographicPoint goal = new GeographicPoint(0, 0.02);
+		GeographicPoint detour = new GeographicPoint(0.05, 0.01);
+		map.addVertex(start);
+		map.addVertex(goal);
+		map.addVertex(detour);
+		map.addEdge(start, goal, "Direct", "residential", start.distance(goal));
+		map.addEdge(start, detour, "Tunnel", "residential", start.distance(detour));
+		map.addEdge(detour, goal, "Tunnel", "residential", detour.distance(goal));
+		assertEquals(Arrays.asList(start, goal), map.aStarSearch(start, goal));
+		
+		map.setEdgeLength(start, detour, 0.1);
+		map.setEdgeLength(detour, goal, 0.1);
+		List<GeographicPoint> expected = Arrays.asList(start, detour, goal);
+		assertEquals(expected, map.dijkstra(start, goal));
+		assertEquals("A* stays admissible", expected, map.aStarSearch(start, goal));
+		assertEquals(0.2, map.getRouteLength(map.aStarSearch(start, goal)), 1e-9);
+		assertEquals(expected, map.aStarSearch(start, goal, RoutingProfile.CAR));
+		assertEquals(expected, map.aStarSearch(start, goal, true));
+	}
+	
+	private static int firstEdge(GraphIndex graphIndex, int from, int to) {
+		for(int e = graphIndex.firstOut(from); e < graphIndex.firstOut(from + 1); e++) {
+			if(graphIndex.head(e) == to) {
+				return e;
+			}
+		}
+		return -1;
+	}
+	
+	@Test
+	public void liveTrafficOverlay() {
+		MapGraph map = new MapGraph();
+		GraphLoader.loadRoadMap("data/testdata/simpletest.map", map);
+		GeographicPoint start = new GeographicPoint(1.0, 1.0);
+		GeographicPoint goal = new GeographicPoint(8.0, -1.0);
+		GeographicPoint mid = new GeographicPoint(5.0, 1.0);
+		
+		int jammed = -1;
+		for(Edge edge: map.getNode(map.getVertexId(new GeographicPoint(4.0, 1.0))).getOutgoingEdges()) {
+			jammed = edge.getEnd().getLocation().equals(mid) ? edge.getId() : jammed;
+		}
+		map.applyLiveSpeeds(new int[] {jammed}, new double[] {1});
+		assertEquals("One update applied", 1, map.getTrafficOverlay().getUpdatesApplied());
+		
+		assertTrue("Base weights still use the jammed road", map.dijkstra(start, goal, false).contains(mid));
+		assertFalse("Live weights avoid it", map.dijkstra(start, goal, true).contains(mid));
+		assertEquals("A* with live weights agrees with Dijkstra", map.dijkstra(start, goal, true),
+				map.aStarSearch(start, goal, true));
+		
+		map.applyLiveCosts(new int[] {jammed}, new double[] {Double.NaN});
+		assertTrue("Cleared live cost goes back to base", map.aStarSearch(start, goal, true).contains(mid));
+		assertEquals("Two updates applied", 2, map.getTrafficOverlay().getUpdatesApplied());
+		
+		TrafficOverlay held = map.getTrafficOverlay(); //as a writer part way through a batch would
+		held.applyBatch(new int[] {jammed}, new double[] {50}, new double[] {100});
+		GeographicPoint far = new GeographicPoint(9.0, 9.0);
+		map.addVertex(far);
+		for(int i = 0; i < 10000; i++) {
+			map.addEdge(mid, far, "new", "residential", 1); //more edge ids than the overlay has room for
+		}
+		assertTrue("The overlay grows in place", held == map.getTrafficOverlay() && held.capacity() >= map.getNumEdges());
+		assertEquals("Costs written before growing are kept", 50, held.cost(jammed, 1), 0);
+		assertEquals("The lowered bound is kept", 0.5, held.getMinRatio(), 0);
+	}
+	
+	@Test
+	public void componentsFailFast() {
+		MapGraph map = new MapGraph();
+		GeographicPoint a = new GeographicPoint(1.0, 1.0);
+		GeographicPoint b = new GeographicPoint(1.0, 2.0);
+		GeographicPoint c = new GeographicPoint(1.0, 3.0);
+		GeographicPoint island = new GeographicPoint(5.0, 5.0);
+		for(GeographicPoint p: Arrays.asList(a, b, c, island)) {
+			map.addVertex(p);
+		}
+		map.addEdge(a, b, "main", "residential", 1);
+		map.addEdge(b, a, "main", "residential", 1);
+		map.addEdge(b, c, "oneway", "residential", 1); //c can be reached but can not get back
+		
+		assertEquals("a and b together, c and island on their own", 3, map.getNumComponents());
+		assertEquals(map.getComponentId(a), map.getComponentId(b));
+		assertTrue(map.getComponentId(a) != map.getComponentId(c));
+		assertTrue("Down the one-way street is possible", map.mayReach(a, c));
+		assertEquals(Arrays.asList(a, b, c), map.dijkstra(a, c));
+		assertFalse("Back up the one-way street is not", map.mayReach(c, a));
+		assertFalse("Nothing reaches the island", map.mayReach(a, island));
+		
+		int[] searched = {0};
+		Consumer<GeographicPoint> countSearched = (x) -> searched[0]++;
+		assertTrue(map.bfs(c, a, countSearched).isEmpty());
+		assertTrue(map.dijkstra(a, island, countSearched).isEmpty());
+		assertTrue(map.aStarSearch(island, b, countSearched).isEmpty());
+		assertEquals("Unreachable goals are rejected without searching", 0, searched[0]);
+		
+		map.addEdge(c, a, "back", "residential", 1);
+		assertEquals("A new edge joins the components", 2, map.getNumComponents());
+		assertEquals(Arrays.asList(c, a), map.bfs(c, a));
+	}
+	
+	@Test
+	public void compressedGraph() {
+		//a square of four junctions, each side a curving road of five points, with a cul-de-sac off one corner
+		//and a one-way side
+		MapGraph map = new MapGraph();
+		GeographicPoint[] corners = {new GeographicPoint(0, 0), new GeographicPoint(0, 6),
+				new GeographicPoint(6, 6), new GeographicPoint(6, 0)};
+		for(GeographicPoint corner: corners) {
+			map.addVertex(corner);
+		}
+		for(int side = 0; side < 4; side++) {
+			GeographicPoint prev = corners[side];
+			GeographicPoint end = corners[(side + 1) % 4];
+			for(int i = 1; i <= 6; i++) {
+				GeographicPoint next = i == 6 ? end : new GeographicPoint(
+						prev.getX() + (end.getX() - corners[side].getX()) / 6, prev.getY() + (end.getY() - corners[side].getY()) / 6 + 0.01);
+				map.addVertex(next);
+				map.addEdge(prev, next, "side" + side, "residential", 1);
+				if(side != 2) {
+					map.addEdge(next, prev, "side" + side, "residential", 1);
+				}
+				prev = next;
+			}
+		}
+		map.addEdge(corners[0], corners[2], "diagonal", "residential", 20);
+		map.addEdge(corners[2], corners[0], "diagonal", "residential", 20);
+		GeographicPoint prev = corners[0];
+		for(int i = 1; i <= 3; i++) {
+			GeographicPoint next = new GeographicPoint(-i, -i);
+			map.addVertex(next);
+			map.addEdge(prev, next, "culdesac", "residential", 1);
+			map.addEdge(next, prev, "culdesac", "residential", 1);
+			prev = next;
+		}
+		
+		CompressedGraph compressed = map.getCompressedGraph();
+		assertEquals("The cul-de-sac is pruned", 3, compressed.getNumPrunedVertices());
+		assertEquals("The curves, and the corner with no diagonal, are folded into edges", 21,
+				compressed.getNumChainVertices());
+		assertEquals("Only the junctions are searched", 3, compressed.getNumSearchVertices());
+		
+		List<GeographicPoint> all = new ArrayList<GeographicPoint>(map.getVertices());
+		for(GeographicPoint start: all) {
+			for(GeographicPoint goal: all) {
+				List<GeographicPoint> expected = map.dijkstra(start, goal);
+				List<GeographicPoint> actual = map.dijkstraCompressed(start, goal);
+				assertEquals("Same route length from " + start + " to " + goal,
+						map.getRouteLength(expected), map.getRouteLength(actual), 1e-9);
+				assertEquals(expected.isEmpty(), actual.isEmpty());
+			}
+		}
+		
+		int[] settled = {0, 0};
+		map.dijkstra(new GeographicPoint(-3, -3), corners[2], (x) -> settled[0]++);
+		map.dijkstraCompressed(new GeographicPoint(-3, -3), corners[2], (x) -> settled[1]++);
+		assertTrue("Compressed search settles fewer vertices, " + settled[1] + " against " + settled[0],
+				settled[1] * 3 <= settled[0]);
+		
+		MapGraph simple = new MapGraph();
+		GraphLoader.loadRoadMap("data/testdata/simpletest.map", simple);
+		for(GeographicPoint start: simple.getVertices()) {
+			for(GeographicPoint goal: simple.getVertices()) {
+				assertEquals(simple.getRouteLength(simple.dijkstra(start, goal)),
+						simple.getRouteLength(simple.dijkstraCompressed(start, goal)), 1e-9);
+			}
+		}
+	}
+	
+	@Test
+	public void renumberVertices() {
+		GraphLoader.loadRoadMap("data/testdata/simpletest.map", mapGraph);
+		GeographicPoint start = new GeographicPoint(1.0, 1.0);
+		GeographicPoint goal = new GeographicPoint(8.0, -1.0);
+		List<GeographicPoint> route = mapGraph.dijkstra(start, goal);
+		List<GeographicPoint> bfsRoute = mapGraph.bfs(start, goal);
+		
+		for(int[] order: Arrays.asList(VertexOrdering.hilbert(mapGraph.getIndex()),
+				VertexOrdering.cuthillMcKee(mapGraph.getIndex()))) {
+			mapGraph.renumberVertices(order);
+			for(int id = 0; id < mapGraph.getNumVertices(); id++) {
+				assertEquals("Ids are dense after renumbering", id, mapGraph.getNode(id).getId());
+				assertEquals(mapGraph.getNode(id).getLocation(), mapGraph.getIndex().point(id));
+			}
+			assertEquals("Same route after renumbering", route, mapGraph.dijkstra(start, goal, RoutingProfile.CAR));
+			assertEquals(route, mapGraph.dijkstra(start, goal));
+			assertEquals(bfsRoute, mapGraph.bfs(start, goal));
+		}
+		
+		try {
+			mapGraph.renumberVertices(new int[mapGraph.getNumVertices()]);
+			fail("An order that repeats ids is rejected");
+		} catch(IllegalArgumentException iae) {
+			//expected
+		}
+	}
+	
+	@Test
+	public void offHeapStorage() {
+		MapGraph offHeap = new MapGraph(true);
+		GraphLoader.loadRoadMap("data/testdata/simpletest.map", offHeap);
+		GraphLoader.loadRoadMap("data/testdata/simpletest.map", mapGraph);
+		assertTrue(offHeap.getIndex().isOffHeap());
+		assertFalse(mapGraph.getIndex().isOffHeap());
+		
+		for(GeographicPoint start: mapGraph.getVertices()) {
+			for(GeographicPoint goal: mapGraph.getVertices()) {
+				assertEquals(mapGraph.bfs(start, goal), offHeap.bfs(start, goal));
+				assertEquals(mapGraph.dijkstra(start, goal, RoutingProfile.CAR), offHeap.dijkstra(start, goal, RoutingProfile.CAR));
+				assertEquals(mapGraph.aStarSearch(start, goal, RoutingProfile.CAR), offHeap.aStarSearch(start, goal, RoutingProfile.CAR));
+			}
+		}
+		
+		GeographicPoint start = new GeographicPoint(1.0, 1.0);
+		GeographicPoint goal = new GeographicPoint(8.0, -1.0);
+		for(GeographicPoint point: mapGraph.getVertices()) {
+			assertTrue(offHeap.getVertices().contains(point));
+			assertEquals(mapGraph.getVertexId(point), offHeap.getVertexId(point));
+			MapNode node = mapGraph.getNode(mapGraph.getVertexId(point));
+			MapNode copy = offHeap.getVerticesMap().get(point);
+			assertEquals(node.getLocation(), copy.getLocation());
+			assertEquals("Nodes made on request find their edges in the snapshot",
+					node.getOutgoingEdges().size(), copy.getOutgoingEdges().size());
+			for(int i = 0; i < node.getOutgoingEdges().size(); i++) {
+				assertEquals(node.getOutgoingEdges().get(i).getId(), copy.getOutgoingEdges().get(i).getId());
+				assertEquals(node.getOutgoingNeighbors().get(i).getLocation(), copy.getOutgoingNeighbors().get(i).getLocation());
+			}
+		}
+		assertEquals(mapGraph.getEdge(3).getEnd().getLocation(), offHeap.getEdge(3).getEnd().getLocation());
+		assertEquals(mapGraph.getEdge(3).getLength(), offHeap.getEdge(3).getLength(), 0);
+		try {
+			offHeap.getEdgeMap();
+			fail("Nodes made on request can not key an edge map");
+		} catch(UnsupportedOperationException uoe) {
+			//expected
+		}
+		
+		for(MapGraph graph: new MapGraph[] {mapGraph, offHeap}) {
+			graph.setTravelTimeProfile(start, new GeographicPoint(4.0, 1.0), new double[] {0, 8 * 3600}, new double[] {1, 3});
+			graph.setEdgeBlocked(new GeographicPoint(4.0, 1.0), new GeographicPoint(5.0, 1.0), true);
+			graph.setEdgeLength(new GeographicPoint(4.0, -1.0), new GeographicPoint(8.0, -1.0), 7);
+			assertEquals(1, graph.removeEdge(new GeographicPoint(7.0, 3.0), new GeographicPoint(8.0, -1.0)));
+			graph.renumberVertices(VertexOrdering.hilbert(graph.getIndex()));
+		}
+		assertTrue("An update copies the off-heap lengths", offHeap.getIndex().isOffHeap());
+		assertFalse(offHeap.dijkstra(start, goal, RoutingProfile.CAR).contains(new GeographicPoint(5.0, 1.0)));
+		assertEquals(mapGraph.getNumEdges(), offHeap.getNumEdges());
+		List<GeographicPoint> points = new ArrayList<GeographicPoint>(mapGraph.getVertices());
+		for(GeographicPoint point: points) {
+			assertEquals(mapGraph.getVertexId(point), offHeap.getVertexId(point));
+			assertEquals(mapGraph.aStarSearch(start, point), offHeap.aStarSearch(start, point));
+			assertEquals(mapGraph.aStarSearch(point, goal, RoutingProfile.BIKE), offHeap.aStarSearch(point, goal, RoutingProfile.BIKE));
+			TimedRoute heapRoute = mapGraph.fastestRoute(start, point, 7.5 * 3600);
+			TimedRoute offHeapRoute = offHeap.fastestRoute(start, point, 7.5 * 3600);
+			assertEquals(heapRoute == null, offHeapRoute == null);
+			if(heapRoute != null) {
+				assertEquals(heapRoute.getPath(), offHeapRoute.getPath());
+			}
+			double[] heapColumn = mapGraph.distanceColumn(points, point);
+			double[] offHeapColumn = offHeap.distanceColumn(points, point);
+			for(int i = 0; i < points.size(); i++) {
+				assertEquals(heapColumn[i], offHeapColumn[i], 1e-9);
+			}
+		}
+		
+		GraphSummary summary = offHeap.getSummary();
+		assertEquals("Nothing that grows with the map is on the heap", 0, (long) summary.getMemoryBytes().get("snapshot"));
+		assertTrue(summary.getMemoryBytes().get("snapshotOffHeap") > 0);
+		assertTrue(summary.getMemoryBytes().get("tableOffHeap") > 0);
+		assertTrue(summary.getMemoryBytes().get("roadAttributesOffHeap") > 0);
+		assertFalse(summary.getMemoryBytes().containsKey("nodes"));
+	}
+	
+	@Test
+	public void nodeSearchState() {
+		GraphLoader.loadRoadMap("data/testdata/simpletest.map", mapGraph);
+		MapNode node = mapGraph.getNode(0);
+		MapNode sameLocation = new MapNode(node.getLocation(), 0);
+		assertFalse("Nodes are only equal to themselves", node.equals(sameLocation));
+		assertTrue(node.equals(mapGraph.getNode(0)));
+		
+		GeographicPoint start = new GeographicPoint(1.0, 1.0);
+		GeographicPoint goal = new GeographicPoint(8.0, -1.0);
+		List<GeographicPoint> first = mapGraph.dijkstra(start, goal);
+		assertEquals("Searches leave nothing behind", first, mapGraph.dijkstra(start, goal));
+		assertEquals("A second search gives the same answer", first, mapGraph.aStarSearch(start, goal));
+		
+		//a thread that is done searching hands its state to the next thread, as a request does
+		SearchState state = mapGraph.getSearchState();
+		mapGraph.releaseSearchState();
+		SearchState[] reused = new SearchState[1];
+		Thread next = new Thread(() -> {
+			reused[0] = mapGraph.getSearchState();
+			mapGraph.dijkstra(start, goal);
+			mapGraph.releaseSearchState();
+		});
+		next.start();
+		try {
+			next.join();
+		} catch(InterruptedException ie) {
+			fail("Interrupted");
+		}
+		assertTrue("The released state is reused", state == reused[0]);
+		assertEquals(first, mapGraph.dijkstra(start, goal));
+	}
+	
+	@Test
+	public void graphSummary() {
+		GraphLoader.loadRoadMap("data/testdata/simpletest.map", mapGraph);
+		GraphSummary summary = mapGraph.getSummary();
+		assertEquals(9, summary.getNumVertices());
+		assertEquals(mapGraph.getNumEdges(), summary.getNumEdges());
+		int vertices = 0;
+		int edges = 0;
+		int[] outDegreeCounts = summary.getOutDegreeCounts();
+		for(int d = 0; d < outDegreeCounts.length; d++) {
+			vertices += outDegreeCounts[d];
+			edges += d * outDegreeCounts[d];
+		}
+		assertEquals("Every vertex has a degree", 9, vertices);
+		assertEquals("Degrees add up to the edge count", summary.getNumEdges(), edges);
+		assertEquals(summary.getNumVertices(), summary.getLargestWeakComponentSize());
+		assertEquals(-1.0, summary.getMinLongitude(), 0);
+		assertEquals(8.0, summary.getMaxLatitude(), 0);
+		assertTrue(summary.getTotalMemoryBytes() > 0);
+		assertTrue(summary.toJson().startsWith("{\"vertices\":9,"));
+		
+		int removed = mapGraph.removeEdge(new GeographicPoint(4.0, 1.0), new GeographicPoint(5.0, 1.0));
+		assertEquals("Removing edges updates the counter", summary.getNumEdges() - removed, mapGraph.getNumEdges());
+		assertEquals(summary.getNumEdges() - removed, mapGraph.getSummary().getNumEdges());
+		
+		assertEquals("An empty graph has no bounding box", "null",
+				new MapGraph().getSummary().toJson().replaceAll(".*boundingBox\":\\[(\\w+),.*", "$1"));
+	}
+	
 	@Test
 	public void testAStarPath() {
 		System.out.println("Creating map...");
@@ -298,4 +922,45 @@ public class MapGraphTester {
 			assertNotNull("Second argument is not in mapgraph", iae);
 		}
 	}
+	
+	/**
+	 * Build a size by size grid into an empty graph. Inner streets are one-way, alternating
+	 * direction from one street to the next; the border and every tenth street run both ways, so
+	 * every intersection can reach every other. Shared with SalesmanMapGraphTester
+	 */
+	static <G extends MapGraph> G oneWayGrid(G graph, int size) {
+		for(int r = 0; r < size; r++) {
+			for(int c = 0; c < size; c++) {
+				graph.addVertex(gridPoint(r, c));
+			}
+		}
+		for(int r = 0; r < size; r++) {
+			for(int c = 0; c < size; c++) {
+				if(c + 1 < size) { //along row r
+					boolean both = r == 0 || r == size - 1 || r % 10 == 0;
+					gridStreet(graph, gridPoint(r, c), gridPoint(r, c + 1), both, r % 2 == 0);
+				}
+				if(r + 1 < size) { //along column c
+					boolean both = c == 0 || c == size - 1 || c % 10 == 0;
+					gridStreet(graph, gridPoint(r, c), gridPoint(r + 1, c), both, c % 2 == 0);
+				}
+			}
+		}
+		return graph;
+	}
+	
+	/** The intersection of oneWayGrid at row r and column c, 0.001 degrees from its neighbors */
+	static GeographicPoint gridPoint(int r, int c) {
+		return new GeographicPoint(r * 0.001, c * 0.001);
+	}
+	
+	private static void gridStreet(MapGraph graph, GeographicPoint a, GeographicPoint b, boolean both,
+			boolean forward) {
+		if(both || forward) {
+			graph.addEdge(a, b, "grid", "residential", a.distance(b));
+		}
+		if(both || !forward) {
+			graph.addEdge(b, a, "grid", "residential", a.distance(b));
+		}
+	}
 }
@@ -8,23 +8,18 @@ import geography.GeographicPoint;
 /**
  * This class describes a single node/vertex on the MapGraph. The primary purpose of this class
  * is to relate a given location to a given set of neighbors.
+ * 
+ * A graph has exactly one node per location, so nodes use identity equality: HashMap and HashSet
+ * lookups never compare neighbor lists. Searches keep their distances in per-thread arrays indexed
+ * by node id, never on the node.
  * @author Adam Sickmiller
  *
  */
-public class MapNode implements Comparable<MapNode> {
+public class MapNode {
 	private GeographicPoint location; //the geographic location of this node
+	private int id = -1; //dense index of this node in its graph, assigned by MapGraph.addVertex
 	private List<MapNode> outgoingNeighbors; //all neighors accessible from this node
-	private Double distanceTraveled = Double.POSITIVE_INFINITY; //in some search algorithms, we need to keep track of distance
-									 //traveled to get to this node
-	private Double predictedDistanceToDestination = 0d;
-	
-	public Double getDistanceTraveled() {
-		return distanceTraveled;
-	}
-
-	public void setDistanceTraveled(Double distanceTraveled) {
-		this.distanceTraveled = distanceTraveled;
-	}
+	private List<Edge> outgoingEdges; //the edge to each neighbor, in the same order as outgoingNeighbors
 
 	/**
 	 * Create a single node by providing a GeographicPoint location
@@ -33,6 +28,17 @@ public class MapNode implements Comparable<MapNode> {
 	public MapNode(GeographicPoint location) {
 		this.location = location;
 		outgoingNeighbors = new ArrayList<MapNode>();
+		outgoingEdges = new ArrayList<Edge>();
+	}
+	
+	/**
+	 * Create a single node with a dense id, as used by the array based searches in MapGraph
+	 * @param location the longitude/latitude of this node
+	 * @param id the index of this node in its graph
+	 */
+	public MapNode(GeographicPoint location, int id) {
+		this(location);
+		this.id = id;
 	}
 	
 	/**
@@ -43,6 +49,14 @@ public class MapNode implements Comparable<MapNode> {
 		outgoingNeighbors.add(neighbor);
 	}
 	
+	/**
+	 * Add the edge leading to a neighbor. Edges are kept in the same order as the neighbors they lead to
+	 * @param edge to be added
+	 */
+	public void addOutgoingEdge(Edge edge) {
+		outgoingEdges.add(edge);
+	}
+	
 	//everything below are getters and setters for variables
 	
 	/** Get the latitude/longitude of this node
@@ -53,6 +67,22 @@ public class MapNode implements Comparable<MapNode> {
 		return location;
 	}
 	
+	/** Get the dense id of this node. Ids run from 0 to the number of vertices in the graph - 1
+	 * 
+	 * @return the id of this node, or -1 if it was not created by a MapGraph
+	 */
+	public int getId() {
+		return id;
+	}
+	
+	/** Give this node a new dense id, when MapGraph renumbers its vertices
+	 * 
+	 * @param id the new index of this node in its graph
+	 */
+	void setId(int id) {
+		this.id = id;
+	}
+	
 	/** Set the latitude/longitude of this node
 	 * 
 	 * @param GeographicPoint with lat/lon information
@@ -69,6 +99,14 @@ public class MapNode implements Comparable<MapNode> {
 		return outgoingNeighbors;
 	}
 	
+	/** Get the edges leading out of this node, in the same order as getOutgoingNeighbors()
+	 * 
+	 * @return list of Edges starting at this node
+	 */
+	public List<Edge> getOutgoingEdges() {
+		return outgoingEdges;
+	}
+	
 	/** Set a complete list of all neighbors accessible from this node
 	 * 
 	 * @param list of MapNodes of all neighbors accessible from this node
@@ -76,64 +114,4 @@ public class MapNode implements Comparable<MapNode> {
 	public void setOutgoingNeighbors(List<MapNode> outgoingNeighbors) {
 		this.outgoingNeighbors = outgoingNeighbors;
 	}
-
-	@Override
-	public int compareTo(MapNode other) {
-		if(this.getDistanceTraveled() + this.getPredictedDistanceToDestination()
-			< other.getDistanceTraveled() + other.getPredictedDistanceToDestination()) {
-			return -1;
-		}
-		
-		if(this.getDistanceTraveled() + this.getPredictedDistanceToDestination()
-			> other.getDistanceTraveled() + other.getPredictedDistanceToDestination()) {
-			return 1;
-		}
-		
-		return 0;
-	}
-
-	@Override
-	public boolean equals(Object obj) {
-		if (this == obj)
-			return true;
-		if (obj == null)
-			return false;
-		if (getClass() != obj.getClass())
-			return false;
-		MapNode other = (MapNode) obj;
-		if (distanceTraveled == null) {
-			if (other.distanceTraveled != null)
-				return false;
-		} else if (!distanceTraveled.equals(other.distanceTraveled))
-			return false;
-		if (location == null) {
-			if (other.location != null)
-				return false;
-		} else if (!location.equals(other.location))
-			return false;
-		if (outgoingNeighbors == null) {
-			if (other.outgoingNeighbors != null)
-				return false;
-		} else if (!outgoingNeighbors.equals(other.outgoingNeighbors))
-			return false;
-		if (predictedDistanceToDestination == null) {
-			if (other.predictedDistanceToDestination != null)
-				return false;
-		} else if (!predictedDistanceToDestination.equals(other.predictedDistanceToDestination))
-			return false;
-		return true;
-	}
-
-	public Double getPredictedDistanceToDestination() {
-		return predictedDistanceToDestination;
-	}
-
-	public void setPredictedDistanceToDestination(Double predictedDistanceToDestination) {
-		this.predictedDistanceToDestination = predictedDistanceToDestination;
-	}
-	
-	public void clearDistances() {
-		this.predictedDistanceToDestination = 0d;
-		this.distanceTraveled = Double.POSITIVE_INFINITY;
-	}
 }
@@ -0,0 +1,69 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import geography.GeographicPoint;
+
+/**
+ * A salesman tour with the full road geometry of every leg, for drawing it on a map or giving
+ * turn-by-turn directions. See SalesmanMapGraph.materializeRoute.
+ * @author Adam Sickmiller
+ *
+ */
+public class MaterializedTour {
+	private final List<TourLeg> legs;
+
+	public MaterializedTour(List<TourLeg> legs) {
+		this.legs = Collections.unmodifiableList(legs);
+	}
+
+	/**
+	 * Get the legs
+	 * @return one leg per pair of consecutive stops, in driving order
+	 */
+	public List<TourLeg> getLegs() {
+		return legs;
+	}
+
+	/**
+	 * Get the stops in the order they are visited
+	 * @return the first stop, then the end of every leg. A tour ends where it starts
+	 */
+	public List<GeographicPoint> getStops() {
+		List<GeographicPoint> stops = new ArrayList<>(legs.size() + 1);
+		for(TourLeg leg: legs) {
+			if(stops.isEmpty()) {
+				stops.add(leg.getFrom());
+			}
+			stops.add(leg.getTo());
+		}
+		return stops;
+	}
+
+	/**
+	 * Get the whole tour as one road path
+	 * @return every intersection driven through, with the stop joining two legs listed once
+	 */
+	public List<GeographicPoint> getPath() {
+		List<GeographicPoint> path = new ArrayList<>();
+		for(TourLeg leg: legs) {
+			List<GeographicPoint> points = leg.getPath();
+			path.addAll(path.isEmpty() ? points : points.subList(Math.min(1, points.size()), points.size()));
+		}
+		return path;
+	}
+
+	/**
+	 * Get the road distance of the whole tour
+	 * @return the sum of the leg lengths, in km
+	 */
+	public double getLength() {
+		double length = 0;
+		for(TourLeg leg: legs) {
+			length += leg.getLength();
+		}
+		return length;
+	}
+}
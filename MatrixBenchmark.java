@@ -0,0 +1,88 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import geography.GeographicPoint;
+import util.GraphLoader;
+
+/**
+ * Compares DistanceMatrixBuilder with and without its bounds, on stops spread over the whole map
+ * and on stops packed into one corner of it, as for deliveries in a single district. For each it
+ * prints the vertices settled and pruned, the entries finished from their bounds, and the time
+ * taken on one thread and on every processor. Each pruned build is checked against the plain one.
+ *
+ * Usage: MatrixBenchmark [mapFile] [stops]
+ * @author Adam Sickmiller
+ *
+ */
+public class MatrixBenchmark {
+
+	public static void main(String[] args) {
+		String mapFile = args.length > 0 ? args[0] : "data/maps/utc.map";
+		int stopCount = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+		System.out.print("Loading " + mapFile + "...");
+		MapGraph graph = new MapGraph();
+		GraphLoader.loadRoadMap(mapFile, graph);
+		System.out.println("DONE. " + graph.getNumVertices() + " vertices, " + graph.getNumEdges() + " edges");
+
+		List<GeographicPoint> vertices = new ArrayList<>(graph.getVertices());
+		Collections.shuffle(vertices, new Random(42));
+		double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for(GeographicPoint point: vertices) {
+			minX = Math.min(minX, point.getX());
+			maxX = Math.max(maxX, point.getX());
+			minY = Math.min(minY, point.getY());
+			maxY = Math.max(maxY, point.getY());
+		}
+		List<GeographicPoint> corner = new ArrayList<>();
+		for(GeographicPoint point: vertices) {
+			if(corner.size() < stopCount && point.getX() < minX + (maxX - minX) * 0.4
+					&& point.getY() < minY + (maxY - minY) * 0.4) {
+				corner.add(point);
+			}
+		}
+
+		report("spread", graph, vertices.subList(0, Math.min(stopCount, vertices.size())));
+		report("corner", graph, corner);
+	}
+
+	/** Build the matrix of the stops plainly and with the bounds, on one thread and on all of them */
+	private static void report(String name, MapGraph graph, List<GeographicPoint> stops) {
+		int processors = Runtime.getRuntime().availableProcessors();
+		System.out.println(name + ": " + stops.size() + " stops");
+		DistanceMatrixBuilder builder = new DistanceMatrixBuilder(graph);
+		for(int round = 0; round < 2; round++) { //the first round warms up the JIT
+			builder.setThreads(1);
+			builder.setPruning(false);
+			double[][] plain = builder.build(stops);
+			long plainSettled = builder.getSettledVertices();
+			long plainMillis = builder.getBuildMillis();
+			builder.setPruning(true);
+			double[][] pruned = builder.build(stops);
+			long prunedMillis = builder.getBuildMillis();
+			for(int i = 0; i < plain.length; i++) {
+				for(int j = 0; j < plain.length; j++) {
+					if(Math.abs(plain[i][j] - pruned[i][j]) > 1e-9) {
+						throw new IllegalStateException("Entry " + i + ", " + j + " differs: " + plain[i][j]
+								+ " and " + pruned[i][j]);
+					}
+				}
+			}
+			if(round == 0) {
+				continue;
+			}
+			System.out.printf("  plain:   %,12d settled %8d ms%n", plainSettled, plainMillis);
+			System.out.printf("  bounded: %,12d settled %8d ms, %,d pruned, %,d entries from bounds, %d%% less work%n",
+					builder.getSettledVertices(), prunedMillis, builder.getPrunedVertices(),
+					builder.getBoundedEntries(), Math.round(100 - builder.getSettledVertices() * 100.0 / plainSettled));
+			builder.setThreads(processors);
+			builder.build(stops);
+			System.out.printf("  bounded on %d threads: %8d ms%n", processors, builder.getBuildMillis());
+		}
+	}
+}
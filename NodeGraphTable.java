@@ -0,0 +1,221 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import geography.GeographicPoint;
+
+/**
+ * A graph table of MapNode and Edge objects on the heap, found through a HashMap from location to
+ * node. Nodes and edges are the same objects every time they are asked for, and changing an Edge
+ * changes the table, though searches only see it in the next snapshot.
+ * @author Adam Sickmiller
+ *
+ */
+class NodeGraphTable implements GraphTable {
+	private final HashMap<GeographicPoint, MapNode> verticesMap = new HashMap<GeographicPoint, MapNode>();
+	private final Map<Integer, Edge> edgeMap = new HashMap<Integer, Edge>();
+	private List<MapNode> nodes = new ArrayList<MapNode>(); //every node, indexed by its id
+	private final List<Edge> edges = new ArrayList<Edge>(); //every edge ever added, indexed by its id
+	private final BitSet removed = new BitSet();
+
+	@Override
+	public int getNumVertices() {
+		return nodes.size();
+	}
+
+	@Override
+	public int vertexId(GeographicPoint location) {
+		MapNode node = verticesMap.get(location);
+		return node == null ? -1 : node.getId();
+	}
+
+	@Override
+	public double latitude(int v) {
+		return nodes.get(v).getLocation().getX();
+	}
+
+	@Override
+	public double longitude(int v) {
+		return nodes.get(v).getLocation().getY();
+	}
+
+	@Override
+	public GeographicPoint location(int v) {
+		return nodes.get(v).getLocation();
+	}
+
+	@Override
+	public int addVertex(GeographicPoint location) {
+		MapNode vertex = new MapNode(location, nodes.size());
+		verticesMap.put(location, vertex);
+		nodes.add(vertex);
+		return vertex.getId();
+	}
+
+	@Override
+	public Set<GeographicPoint> vertices() {
+		return verticesMap.keySet();
+	}
+
+	@Override
+	public int outDegree(int v) {
+		return nodes.get(v).getOutgoingEdges().size();
+	}
+
+	@Override
+	public void renumber(int[] order) {
+		List<MapNode> renumbered = new ArrayList<MapNode>(order.length);
+		for(int newId = 0; newId < order.length; newId++) {
+			MapNode node = nodes.get(order[newId]);
+			node.setId(newId);
+			renumbered.add(node);
+		}
+		nodes = renumbered;
+	}
+
+	@Override
+	public MapNode node(int v) {
+		return nodes.get(v);
+	}
+
+	@Override
+	public HashMap<GeographicPoint, MapNode> verticesMap() {
+		return verticesMap;
+	}
+
+	@Override
+	public int getNumEdgeIds() {
+		return edges.size();
+	}
+
+	@Override
+	public void addEdge(int id, int from, int to, double length) {
+		MapNode fromNode = nodes.get(from);
+		MapNode toNode = nodes.get(to);
+		Edge edge = new Edge();
+		fromNode.addOutoingNeighbor(toNode); //add the destination as a neighbor of the origin
+		fromNode.addOutgoingEdge(edge);
+		edge.setBegin(fromNode);
+		edge.setEnd(toNode);
+		edge.setId(id);
+		edge.setLength(length);
+		edges.add(edge);
+		edgeMap.put(GraphUtility.generateHashMapKeyForEdge(fromNode, toNode), edge);
+	}
+
+	@Override
+	public int from(int id) {
+		return edges.get(id).getBegin().getId();
+	}
+
+	@Override
+	public int to(int id) {
+		return edges.get(id).getEnd().getId();
+	}
+
+	@Override
+	public double length(int id) {
+		return edges.get(id).getLength();
+	}
+
+	@Override
+	public void setLength(int id, double length) {
+		edges.get(id).setLength(length);
+	}
+
+	@Override
+	public boolean isBlocked(int id) {
+		return edges.get(id).isBlocked();
+	}
+
+	@Override
+	public void setBlocked(int id, boolean blocked) {
+		edges.get(id).setBlocked(blocked);
+	}
+
+	@Override
+	public boolean isRemoved(int id) {
+		return removed.get(id);
+	}
+
+	@Override
+	public void remove(int id) {
+		Edge edge = edges.get(id);
+		MapNode fromNode = edge.getBegin();
+		int i = fromNode.getOutgoingEdges().indexOf(edge);
+		fromNode.getOutgoingEdges().remove(i);
+		fromNode.getOutgoingNeighbors().remove(i);
+		removed.set(id);
+		//the key is the same in both directions, so hand it to whichever edge addEdge would have left there
+		Integer key = GraphUtility.generateHashMapKeyForEdge(fromNode, edge.getEnd());
+		if(edgeMap.get(key) == edge) {
+			Edge latest = latestEdge(fromNode, edge.getEnd(), latestEdge(edge.getEnd(), fromNode, null));
+			if(latest == null) {
+				edgeMap.remove(key);
+			} else {
+				edgeMap.put(key, latest);
+			}
+		}
+	}
+
+	/** The edge from one node to another with the highest id, or best if that is higher */
+	private static Edge latestEdge(MapNode from, MapNode to, Edge best) {
+		for(Edge edge: from.getOutgoingEdges()) {
+			if(edge.getEnd() == to && (best == null || edge.getId() > best.getId())) {
+				best = edge;
+			}
+		}
+		return best;
+	}
+
+	@Override
+	public TravelTimeProfile profile(int id) {
+		return edges.get(id).getTravelTimeProfile();
+	}
+
+	@Override
+	public void setProfile(int id, TravelTimeProfile profile) {
+		edges.get(id).setTravelTimeProfile(profile);
+	}
+
+	@Override
+	public Edge edge(int id) {
+		return edges.get(id);
+	}
+
+	@Override
+	public int[] edgesBetween(int from, int to) {
+		List<Edge> outgoing = nodes.get(from).getOutgoingEdges();
+		int[] ids = new int[outgoing.size()];
+		int count = 0;
+		for(Edge edge: outgoing) {
+			if(edge.getEnd().getId() == to) {
+				ids[count++] = edge.getId();
+			}
+		}
+		return Arrays.copyOf(ids, count);
+	}
+
+	@Override
+	public Map<Integer, Edge> edgeMap() {
+		return edgeMap;
+	}
+
+	//rough per-object sizes, assuming a 12 byte header and compressed references
+	@Override
+	public void estimateMemory(Map<String, Long> memory) {
+		int n = nodes.size();
+		long live = edges.size() - removed.cardinality();
+		memory.put("nodes", 128L * n + 8L * live); //MapNode, its two ArrayLists, a neighbor and an edge reference per edge
+		memory.put("locations", 32L * n); //GeographicPoint
+		memory.put("edges", 52L * edges.size()); //Edge and its slot in the id list
+		memory.put("verticesMap", 40L * n);
+		memory.put("edgeMap", 56L * edgeMap.size()); //map entry and boxed Integer key
+	}
+}
@@ -0,0 +1,90 @@
+package roadgraph;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import geography.GeographicPoint;
+import util.GraphLoader;
+
+/**
+ * Measures the plain dijkstra and aStarSearch: mean query latency and bytes allocated per
+ * query. Allocation is read from the JVM's per-thread allocation counter, which HotSpot based JVMs
+ * provide; elsewhere it is reported as unavailable. aStarSearch is also timed with each kind of
+ * nodeSearched hook, to show what a listener costs on the search thread and behind a
+ * SearchEventStream.
+ *
+ * Usage: NodeSearchBenchmark [mapFile] [queries]
+ * @author Adam Sickmiller
+ *
+ */
+public class NodeSearchBenchmark {
+
+	public static void main(String[] args) {
+		String mapFile = args.length > 0 ? args[0] : "data/maps/utc.map";
+		int queries = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+		System.out.print("Loading " + mapFile + "...");
+		MapGraph graph = new MapGraph();
+		GraphLoader.loadRoadMap(mapFile, graph);
+		System.out.println("DONE. " + graph.getNumVertices() + " vertices, " + graph.getNumEdges() + " edges");
+
+		List<GeographicPoint> vertices = new ArrayList<>(graph.getVertices());
+		Random random = new Random(42);
+		GeographicPoint[][] pairs = new GeographicPoint[queries][];
+		for(int i = 0; i < queries; i++) {
+			pairs[i] = new GeographicPoint[] {vertices.get(random.nextInt(vertices.size())),
+					vertices.get(random.nextInt(vertices.size()))};
+		}
+
+		for(int round = 0; round < 3; round++) { //the first rounds warm up the JIT
+			boolean last = round == 2;
+			measure("dijkstra", pairs, last, pair -> graph.dijkstra(pair[0], pair[1]));
+			measure("aStarSearch", pairs, last, pair -> graph.aStarSearch(pair[0], pair[1]));
+		}
+
+		//what the nodeSearched hook costs aStarSearch: none, a no-op, a listener on the search thread
+		//and the same listener behind a SearchEventStream
+		long[] seen = new long[1];
+		Consumer<GeographicPoint> listener = point -> seen[0] += Double.doubleToRawLongBits(point.getX()) & 1;
+		SearchEventStream stream = new SearchEventStream(listener);
+		for(int round = 0; round < 3; round++) {
+			boolean last = round == 2;
+			measure("aStarSearch, no hook", pairs, last, pair -> graph.aStarSearch(pair[0], pair[1]));
+			measure("aStarSearch, no-op hook", pairs, last, pair -> graph.aStarSearch(pair[0], pair[1], x -> {}));
+			measure("aStarSearch, direct listener", pairs, last, pair -> graph.aStarSearch(pair[0], pair[1], listener));
+			measure("aStarSearch, streamed listener", pairs, last, pair -> graph.aStarSearch(pair[0], pair[1], stream));
+			stream.awaitDelivered();
+		}
+		stream.close();
+		System.out.println("stream: " + stream.getDelivered() + " events in " + stream.getBatches() + " batches");
+	}
+
+	/** Run every query once and print the mean latency and allocation */
+	private static void measure(String name, GeographicPoint[][] pairs, boolean print,
+			Consumer<GeographicPoint[]> query) {
+		long bytesBefore = allocatedBytes();
+		long startTime = System.nanoTime();
+		for(GeographicPoint[] pair: pairs) {
+			query.accept(pair);
+		}
+		long nanos = System.nanoTime() - startTime;
+		long bytes = allocatedBytes() - bytesBefore;
+		if(print) {
+			System.out.println(name + ": " + nanos / 1000 / pairs.length + " micros per query, "
+					+ (bytesBefore < 0 ? "allocation unavailable" : bytes / pairs.length + " bytes allocated per query"));
+		}
+	}
+
+	/** Get the bytes allocated by this thread so far, or -1 if the JVM can not tell */
+	private static long allocatedBytes() {
+		try {
+			com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+			return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+		} catch(ClassCastException | NoClassDefFoundError e) {
+			return -1;
+		}
+	}
+}
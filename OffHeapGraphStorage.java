@@ -0,0 +1,224 @@
+package roadgraph;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Graph storage in direct buffers, outside the Java heap. The garbage collector sees a handful of
+ * buffer objects however large the map is, so GC pauses do not grow with the graph. The memory is
+ * limited by -XX:MaxDirectMemorySize rather than -Xmx, and is released when the snapshot that owns
+ * it is collected.
+ *
+ * Coordinates are stored as two doubles per vertex. A single buffer is limited to 2GB, which allows
+ * about 268 million edges.
+ * @author Adam Sickmiller
+ *
+ */
+class OffHeapGraphStorage implements GraphStorage {
+	private final IntBuffer firstOut;
+	private final IntBuffer head;
+	private final DoubleBuffer length;
+	private final DoubleBuffer coordinates; //latitude and longitude of vertex v at 2v and 2v + 1
+	private final IntBuffer edgeIds;
+	private final ShortBuffer roadTypeCodes;
+	private final IntBuffer profileCodes;
+	private final IntBuffer positionOfEdge;
+
+	OffHeapGraphStorage(int numVertices, int numEdges, int numEdgeIds) {
+		this(allocate(4L * (numVertices + 1)).asIntBuffer(), allocate(4L * numEdges).asIntBuffer(),
+				allocate(8L * numEdges).asDoubleBuffer(), allocate(16L * numVertices).asDoubleBuffer(),
+				allocate(4L * numEdges).asIntBuffer(), allocate(2L * numEdges).asShortBuffer(),
+				allocate(4L * numEdges).asIntBuffer(), allocate(4L * numEdgeIds).asIntBuffer());
+		for(int id = 0; id < numEdgeIds; id++) {
+			positionOfEdge.put(id, -1);
+		}
+	}
+
+	private OffHeapGraphStorage(IntBuffer firstOut, IntBuffer head, DoubleBuffer length, DoubleBuffer coordinates,
+			IntBuffer edgeIds, ShortBuffer roadTypeCodes, IntBuffer profileCodes, IntBuffer positionOfEdge) {
+		this.firstOut = firstOut;
+		this.head = head;
+		this.length = length;
+		this.coordinates = coordinates;
+		this.edgeIds = edgeIds;
+		this.roadTypeCodes = roadTypeCodes;
+		this.profileCodes = profileCodes;
+		this.positionOfEdge = positionOfEdge;
+	}
+
+	/**
+	 * Allocate a direct buffer in the machine's own byte order, so reads need no byte swapping
+	 * @param bytes the size of the buffer
+	 * @return a buffer of zeros
+	 * @throws IllegalArgumentException if bytes is more than one buffer can hold
+	 */
+	static ByteBuffer allocate(long bytes) {
+		if(bytes > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Graph too large for off-heap storage: " + bytes + " bytes in one buffer");
+		}
+		return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+	}
+
+	@Override
+	public int firstOut(int v) {
+		return firstOut.get(v);
+	}
+
+	@Override
+	public void setFirstOut(int v, int e) {
+		firstOut.put(v, e);
+	}
+
+	@Override
+	public int head(int e) {
+		return head.get(e);
+	}
+
+	@Override
+	public void setHead(int e, int v) {
+		head.put(e, v);
+	}
+
+	@Override
+	public double length(int e) {
+		return length.get(e);
+	}
+
+	@Override
+	public void setLength(int e, double length) {
+		this.length.put(e, length);
+	}
+
+	@Override
+	public double latitude(int v) {
+		return coordinates.get(2 * v);
+	}
+
+	@Override
+	public double longitude(int v) {
+		return coordinates.get(2 * v + 1);
+	}
+
+	@Override
+	public void setCoordinates(int v, double latitude, double longitude) {
+		coordinates.put(2 * v, latitude);
+		coordinates.put(2 * v + 1, longitude);
+	}
+
+	@Override
+	public int edgeId(int e) {
+		return edgeIds.get(e);
+	}
+
+	@Override
+	public void setEdgeId(int e, int edgeId) {
+		edgeIds.put(e, edgeId);
+	}
+
+	@Override
+	public short roadTypeCode(int e) {
+		return roadTypeCodes.get(e);
+	}
+
+	@Override
+	public void setRoadTypeCode(int e, short code) {
+		roadTypeCodes.put(e, code);
+	}
+
+	@Override
+	public int profileCode(int e) {
+		return profileCodes.get(e);
+	}
+
+	@Override
+	public void setProfileCode(int e, int code) {
+		profileCodes.put(e, code);
+	}
+
+	@Override
+	public int positionOfEdge(int edgeId) {
+		return positionOfEdge.get(edgeId);
+	}
+
+	@Override
+	public void setPositionOfEdge(int edgeId, int e) {
+		positionOfEdge.put(edgeId, e);
+	}
+
+	@Override
+	public DoubleColumn newDoubleColumn(int size) {
+		return new Doubles(allocate(8L * size).asDoubleBuffer());
+	}
+
+	@Override
+	public IntColumn newIntColumn(int size) {
+		return new Ints(allocate(4L * size).asIntBuffer());
+	}
+
+	@Override
+	public GraphStorage withCopiedLengths() {
+		DoubleBuffer copy = allocate(8L * length.capacity()).asDoubleBuffer();
+		copy.put(length.duplicate()); //absolute gets and puts elsewhere, so the positions are always 0
+		return new OffHeapGraphStorage(firstOut, head, copy, coordinates, edgeIds, roadTypeCodes, profileCodes,
+				positionOfEdge);
+	}
+
+	@Override
+	public long estimateBytes() {
+		return 4L * firstOut.capacity() + 8L * coordinates.capacity() + 22L * head.capacity()
+				+ 4L * positionOfEdge.capacity();
+	}
+
+	@Override
+	public boolean isOffHeap() {
+		return true;
+	}
+
+	/** A column of doubles in a direct buffer */
+	private static final class Doubles implements DoubleColumn {
+		private final DoubleBuffer values;
+
+		Doubles(DoubleBuffer values) {
+			this.values = values;
+		}
+
+		@Override
+		public double get(int i) {
+			return values.get(i);
+		}
+
+		@Override
+		public void set(int i, double value) {
+			values.put(i, value);
+		}
+
+		@Override
+		public DoubleColumn copy() {
+			DoubleBuffer copy = allocate(8L * values.capacity()).asDoubleBuffer();
+			copy.put(values.duplicate());
+			return new Doubles(copy);
+		}
+	}
+
+	/** A column of ints in a direct buffer */
+	private static final class Ints implements IntColumn {
+		private final IntBuffer values;
+
+		Ints(IntBuffer values) {
+			this.values = values;
+		}
+
+		@Override
+		public int get(int i) {
+			return values.get(i);
+		}
+
+		@Override
+		public void set(int i, int value) {
+			values.put(i, value);
+		}
+	}
+}
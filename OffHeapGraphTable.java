@@ -0,0 +1,401 @@
+package roadgraph;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+import geography.GeographicPoint;
+
+/**
+ * A graph table in direct buffers, outside the Java heap: two doubles per vertex for its location,
+ * an open addressing hash table from location to vertex id, and columns indexed by edge id for the
+ * ends, length, blocked and removed flags and travel time profile of every edge. The buffers double
+ * in size as the graph grows. On the heap there is only the list of distinct travel time profiles.
+ *
+ * MapNodes and Edges are made when one is asked for. They are copies of the graph as it is at that
+ * moment: changing one does not change the graph. A node finds its outgoing edges in the graph's
+ * current snapshot, the first time they are asked for, and so do edgesBetween and with it
+ * MapGraph.applyUpdates and removeEdge: after a change to the topology they wait for a new
+ * snapshot to be built.
+ * @author Adam Sickmiller
+ *
+ */
+class OffHeapGraphTable implements GraphTable {
+	private static final int INITIAL_CAPACITY = 16;
+	private static final byte BLOCKED = 1;
+	private static final byte REMOVED = 2;
+
+	private final Supplier<GraphIndex> snapshot; //the graph's current snapshot, for the edges of a node
+	private DoubleBuffer coordinates = OffHeapGraphStorage.allocate(16L * INITIAL_CAPACITY).asDoubleBuffer();
+	private IntBuffer outDegrees = OffHeapGraphStorage.allocate(4L * INITIAL_CAPACITY).asIntBuffer();
+	private IntBuffer slots = OffHeapGraphStorage.allocate(8L * INITIAL_CAPACITY).asIntBuffer(); //vertex id + 1, 0 if empty
+	private int numVertices;
+	private IntBuffer from = OffHeapGraphStorage.allocate(4L * INITIAL_CAPACITY).asIntBuffer();
+	private IntBuffer to = OffHeapGraphStorage.allocate(4L * INITIAL_CAPACITY).asIntBuffer();
+	private DoubleBuffer lengths = OffHeapGraphStorage.allocate(8L * INITIAL_CAPACITY).asDoubleBuffer();
+	private ByteBuffer flags = OffHeapGraphStorage.allocate(INITIAL_CAPACITY);
+	private IntBuffer profileCodes = OffHeapGraphStorage.allocate(4L * INITIAL_CAPACITY).asIntBuffer();
+	private int numEdgeIds;
+	private final List<TravelTimeProfile> profiles = new ArrayList<TravelTimeProfile>(); //each distinct profile once
+	private final Map<TravelTimeProfile, Integer> profileCodesByProfile = new IdentityHashMap<TravelTimeProfile, Integer>();
+
+	/**
+	 * Create an empty table
+	 * @param snapshot gives the graph's current snapshot, which MapNodes read their edges from
+	 */
+	OffHeapGraphTable(Supplier<GraphIndex> snapshot) {
+		this.snapshot = snapshot;
+		profiles.add(TravelTimeProfile.FREE_FLOW); //code 0, so a new edge needs no lookup
+		profileCodesByProfile.put(TravelTimeProfile.FREE_FLOW, 0);
+	}
+
+	@Override
+	public int getNumVertices() {
+		return numVertices;
+	}
+
+	@Override
+	public int vertexId(GeographicPoint location) {
+		if(location == null) {
+			return -1;
+		}
+		int slot = slotOf(location.getX(), location.getY());
+		return slots.get(slot) - 1;
+	}
+
+	/** Find the slot holding a location, or the empty slot where it would go */
+	private int slotOf(double latitude, double longitude) {
+		long latitudeBits = Double.doubleToLongBits(latitude); //compared as bits, as GeographicPoint.equals does
+		long longitudeBits = Double.doubleToLongBits(longitude);
+		long bits = latitudeBits * 31 + longitudeBits;
+		int hash = (int) (bits ^ (bits >>> 32)) * 0x9E3779B9;
+		int mask = slots.capacity() - 1;
+		for(int slot = (hash ^ (hash >>> 16)) & mask; ; slot = (slot + 1) & mask) {
+			int v = slots.get(slot) - 1;
+			if(v < 0 || (Double.doubleToLongBits(latitude(v)) == latitudeBits
+					&& Double.doubleToLongBits(longitude(v)) == longitudeBits)) {
+				return slot;
+			}
+		}
+	}
+
+	@Override
+	public double latitude(int v) {
+		return coordinates.get(2 * v);
+	}
+
+	@Override
+	public double longitude(int v) {
+		return coordinates.get(2 * v + 1);
+	}
+
+	@Override
+	public GeographicPoint location(int v) {
+		checkVertex(v);
+		return new GeographicPoint(latitude(v), longitude(v));
+	}
+
+	@Override
+	public int addVertex(GeographicPoint location) {
+		int v = numVertices;
+		if(v == outDegrees.capacity()) {
+			coordinates = grow(coordinates, 4 * v);
+			outDegrees = grow(outDegrees, 2 * v);
+		}
+		coordinates.put(2 * v, location.getX());
+		coordinates.put(2 * v + 1, location.getY());
+		numVertices++;
+		if(2 * numVertices > slots.capacity()) { //keep the table at most half full, so probes stay short
+			rehash(2 * slots.capacity());
+		} else {
+			slots.put(slotOf(location.getX(), location.getY()), v + 1);
+		}
+		return v;
+	}
+
+	/** Put every vertex into a new, empty hash table of the given size */
+	private void rehash(int capacity) {
+		slots = OffHeapGraphStorage.allocate(4L * capacity).asIntBuffer();
+		for(int v = 0; v < numVertices; v++) {
+			slots.put(slotOf(latitude(v), longitude(v)), v + 1);
+		}
+	}
+
+	@Override
+	public Set<GeographicPoint> vertices() {
+		return new AbstractSet<GeographicPoint>() {
+			@Override
+			public int size() {
+				return numVertices;
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return o instanceof GeographicPoint && vertexId((GeographicPoint) o) >= 0;
+			}
+
+			@Override
+			public Iterator<GeographicPoint> iterator() {
+				return new VertexIterator<GeographicPoint>(OffHeapGraphTable.this::location);
+			}
+		};
+	}
+
+	@Override
+	public int outDegree(int v) {
+		return outDegrees.get(v);
+	}
+
+	@Override
+	public void renumber(int[] order) {
+		int[] newIdOf = new int[numVertices];
+		DoubleBuffer renumbered = OffHeapGraphStorage.allocate(8L * coordinates.capacity()).asDoubleBuffer();
+		IntBuffer degrees = OffHeapGraphStorage.allocate(4L * outDegrees.capacity()).asIntBuffer();
+		for(int newId = 0; newId < numVertices; newId++) {
+			int v = order[newId];
+			newIdOf[v] = newId;
+			renumbered.put(2 * newId, latitude(v));
+			renumbered.put(2 * newId + 1, longitude(v));
+			degrees.put(newId, outDegrees.get(v));
+		}
+		coordinates = renumbered;
+		outDegrees = degrees;
+		for(int id = 0; id < numEdgeIds; id++) {
+			from.put(id, newIdOf[from.get(id)]);
+			to.put(id, newIdOf[to.get(id)]);
+		}
+		rehash(slots.capacity());
+	}
+
+	@Override
+	public MapNode node(int v) {
+		checkVertex(v);
+		return new LazyNode(v);
+	}
+
+	@Override
+	public HashMap<GeographicPoint, MapNode> verticesMap() {
+		HashMap<GeographicPoint, MapNode> map = new HashMap<GeographicPoint, MapNode>(numVertices * 2);
+		for(int v = 0; v < numVertices; v++) {
+			map.put(location(v), node(v));
+		}
+		return map;
+	}
+
+	@Override
+	public int getNumEdgeIds() {
+		return numEdgeIds;
+	}
+
+	@Override
+	public void addEdge(int id, int from, int to, double length) {
+		if(id == this.from.capacity()) {
+			this.from = grow(this.from, 2 * id);
+			this.to = grow(this.to, 2 * id);
+			lengths = grow(lengths, 2 * id);
+			profileCodes = grow(profileCodes, 2 * id);
+			ByteBuffer grown = OffHeapGraphStorage.allocate(2 * id);
+			grown.put(flags.duplicate());
+			flags = grown;
+		}
+		this.from.put(id, from);
+		this.to.put(id, to);
+		lengths.put(id, length);
+		outDegrees.put(from, outDegrees.get(from) + 1);
+		numEdgeIds++;
+	}
+
+	@Override
+	public int from(int id) {
+		return from.get(id);
+	}
+
+	@Override
+	public int to(int id) {
+		return to.get(id);
+	}
+
+	@Override
+	public double length(int id) {
+		return lengths.get(id);
+	}
+
+	@Override
+	public void setLength(int id, double length) {
+		lengths.put(id, length);
+	}
+
+	@Override
+	public boolean isBlocked(int id) {
+		return (flags.get(id) & BLOCKED) != 0;
+	}
+
+	@Override
+	public void setBlocked(int id, boolean blocked) {
+		flags.put(id, (byte) (blocked ? flags.get(id) | BLOCKED : flags.get(id) & ~BLOCKED));
+	}
+
+	@Override
+	public boolean isRemoved(int id) {
+		return (flags.get(id) & REMOVED) != 0;
+	}
+
+	@Override
+	public void remove(int id) {
+		flags.put(id, (byte) (flags.get(id) | REMOVED));
+		outDegrees.put(from(id), outDegrees.get(from(id)) - 1);
+	}
+
+	@Override
+	public TravelTimeProfile profile(int id) {
+		return profiles.get(profileCodes.get(id));
+	}
+
+	@Override
+	public void setProfile(int id, TravelTimeProfile profile) {
+		TravelTimeProfile shared = profile == null ? TravelTimeProfile.FREE_FLOW : profile;
+		Integer code = profileCodesByProfile.get(shared);
+		if(code == null) {
+			code = profiles.size();
+			profiles.add(shared);
+			profileCodesByProfile.put(shared, code);
+		}
+		profileCodes.put(id, code);
+	}
+
+	@Override
+	public Edge edge(int id) {
+		return edge(id, new LazyNode(from(id)));
+	}
+
+	/** Make an Edge with the attributes an edge id has now */
+	private Edge edge(int id, MapNode begin) {
+		Edge edge = new Edge();
+		edge.setId(id);
+		edge.setLength(length(id));
+		edge.setBlocked(isBlocked(id));
+		edge.setTravelTimeProfile(profile(id));
+		edge.setBegin(begin);
+		edge.setEnd(new LazyNode(to(id)));
+		return edge;
+	}
+
+	/** Found in the snapshot, so after a change to the topology this waits for a new one to be built */
+	@Override
+	public int[] edgesBetween(int from, int to) {
+		GraphIndex graphIndex = snapshot.get();
+		int[] ids = new int[graphIndex.firstOut(from + 1) - graphIndex.firstOut(from)];
+		int count = 0;
+		for(int e = graphIndex.firstOut(from), end = graphIndex.firstOut(from + 1); e < end; e++) {
+			if(graphIndex.head(e) == to) {
+				ids[count++] = graphIndex.edgeId(e);
+			}
+		}
+		return Arrays.copyOf(ids, count);
+	}
+
+	/**
+	 * Nodes are made on request, so no two calls give the same node and there is nothing to key an
+	 * edge map on
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public Map<Integer, Edge> edgeMap() {
+		throw new UnsupportedOperationException("An off-heap graph keeps no edge map, use getEdge or the snapshot");
+	}
+
+	@Override
+	public void estimateMemory(Map<String, Long> memory) {
+		memory.put("tableOffHeap", 8L * coordinates.capacity() + 4L * outDegrees.capacity() + 4L * slots.capacity()
+				+ 21L * from.capacity()); //from, to, length, flags and profile code per edge id
+	}
+
+	private void checkVertex(int v) {
+		if(v < 0 || v >= numVertices) {
+			throw new IndexOutOfBoundsException("No vertex with id " + v);
+		}
+	}
+
+	/** Copy a buffer into a larger one */
+	private static DoubleBuffer grow(DoubleBuffer buffer, int capacity) {
+		DoubleBuffer grown = OffHeapGraphStorage.allocate(8L * capacity).asDoubleBuffer();
+		grown.put(buffer.duplicate()); //absolute gets and puts elsewhere, so the positions are always 0
+		return grown;
+	}
+
+	/** Copy a buffer into a larger one */
+	private static IntBuffer grow(IntBuffer buffer, int capacity) {
+		IntBuffer grown = OffHeapGraphStorage.allocate(4L * capacity).asIntBuffer();
+		grown.put(buffer.duplicate());
+		return grown;
+	}
+
+	/** Goes through the vertices in id order, making something for each */
+	private final class VertexIterator<T> implements Iterator<T> {
+		private final IntFunction<T> make;
+		private int next;
+
+		VertexIterator(IntFunction<T> make) {
+			this.make = make;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next < numVertices;
+		}
+
+		@Override
+		public T next() {
+			if(next >= numVertices) {
+				throw new NoSuchElementException();
+			}
+			return make.apply(next++);
+		}
+	}
+
+	/** A MapNode made on request, which fills in its outgoing edges from the snapshot when first asked */
+	private final class LazyNode extends MapNode {
+		private boolean loaded;
+
+		LazyNode(int v) {
+			super(new GeographicPoint(latitude(v), longitude(v)), v);
+		}
+
+		@Override
+		public List<MapNode> getOutgoingNeighbors() {
+			load();
+			return super.getOutgoingNeighbors();
+		}
+
+		@Override
+		public List<Edge> getOutgoingEdges() {
+			load();
+			return super.getOutgoingEdges();
+		}
+
+		private void load() {
+			if(loaded) {
+				return;
+			}
+			loaded = true;
+			GraphIndex graphIndex = snapshot.get();
+			for(int e = graphIndex.firstOut(getId()), end = graphIndex.firstOut(getId() + 1); e < end; e++) {
+				Edge edge = edge(graphIndex.edgeId(e), this);
+				addOutoingNeighbor(edge.getEnd());
+				addOutgoingEdge(edge);
+			}
+		}
+	}
+}
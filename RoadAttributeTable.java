@@ -0,0 +1,196 @@
+package roadgraph;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary encoded road names and road types for every edge in a MapGraph. Each distinct name
+ * and type String is stored once; per edge only a short type code and an int name code are kept,
+ * in two columns indexed by edge id. Maps repeat the same few road types and street names across
+ * thousands of edges, so this is much smaller than a String (or two) per edge. In a graph stored
+ * off the heap the two columns are direct buffers too.
+ * @author Adam Sickmiller
+ *
+ */
+public class RoadAttributeTable {
+	private final List<String> types = new ArrayList<>();	   //road type of each type code
+	private final Map<String, Short> typeCodes = new HashMap<>();
+	private final List<String> names = new ArrayList<>();	   //road name of each name code
+	private final Map<String, Integer> nameCodes = new HashMap<>();
+
+	private final boolean offHeap; //where the two columns are kept
+	private ShortBuffer edgeTypes; //type code of each edge id, -1 for none
+	private IntBuffer edgeNames;   //name code of each edge id, -1 for none
+	private int numEdges;
+
+	/**
+	 * Create an empty table with its columns on the heap
+	 */
+	public RoadAttributeTable() {
+		this(false);
+	}
+
+	/**
+	 * Create an empty table
+	 * @param offHeap true to keep the two per edge columns in direct buffers, outside the Java heap.
+	 *   The dictionaries of distinct names and types stay on the heap either way
+	 */
+	RoadAttributeTable(boolean offHeap) {
+		this.offHeap = offHeap;
+		edgeTypes = allocate(32).asShortBuffer();
+		edgeNames = allocate(64).asIntBuffer();
+	}
+
+	/**
+	 * Record the attributes of a new edge
+	 * @param roadName the name of the road, may be null
+	 * @param roadType the type of the road, may be null
+	 * @return the id of the new edge. Ids are handed out in order starting at 0
+	 * @throws IllegalStateException if there are more distinct road types than fit in a short
+	 */
+	public int add(String roadName, String roadType) {
+		if(numEdges == edgeTypes.capacity()) {
+			ShortBuffer types = allocate(4L * numEdges).asShortBuffer();
+			types.put(edgeTypes.duplicate()); //absolute gets and puts elsewhere, so the positions are always 0
+			edgeTypes = types;
+			IntBuffer names = allocate(8L * numEdges).asIntBuffer();
+			names.put(edgeNames.duplicate());
+			edgeNames = names;
+		}
+		edgeTypes.put(numEdges, typeCode(roadType));
+		edgeNames.put(numEdges, nameCode(roadName));
+		return numEdges++;
+	}
+
+	public int getNumEdges() {
+		return numEdges;
+	}
+
+	/**
+	 * Get the number of distinct road types. Type codes run from 0 to this number - 1
+	 * @return the number of road types
+	 */
+	public int getNumRoadTypes() {
+		return types.size();
+	}
+
+	/**
+	 * Get the number of distinct road names. Name codes run from 0 to this number - 1
+	 * @return the number of road names
+	 */
+	public int getNumRoadNames() {
+		return names.size();
+	}
+
+	/**
+	 * Get the road type code of an edge
+	 * @param edgeId an edge id
+	 * @return the type code, or -1 if the edge has no road type
+	 */
+	public short getRoadTypeCode(int edgeId) {
+		checkEdge(edgeId);
+		return edgeTypes.get(edgeId);
+	}
+
+	/**
+	 * Get the road name code of an edge
+	 * @param edgeId an edge id
+	 * @return the name code, or -1 if the edge has no name
+	 */
+	public int getRoadNameCode(int edgeId) {
+		checkEdge(edgeId);
+		return edgeNames.get(edgeId);
+	}
+
+	public String getRoadType(int edgeId) {
+		return roadTypeOf(getRoadTypeCode(edgeId));
+	}
+
+	public String getRoadName(int edgeId) {
+		int code = getRoadNameCode(edgeId);
+		return code < 0 ? null : names.get(code);
+	}
+
+	/**
+	 * Decode a road type code
+	 * @param code a code from getRoadTypeCode
+	 * @return the road type, or null for -1
+	 */
+	public String roadTypeOf(short code) {
+		return code < 0 ? null : types.get(code);
+	}
+
+	/**
+	 * Estimate the heap used by this table, in bytes. Counts the two columns, unless they are off
+	 * the heap, and the characters of each distinct String, not the fixed overhead of the
+	 * dictionaries themselves
+	 * @return estimated size in bytes
+	 */
+	public long estimateBytes() {
+		long bytes = offHeap ? 0 : columnBytes();
+		for(String type: types) {
+			bytes += 40 + type.length() * 2;
+		}
+		for(String name: names) {
+			bytes += 40 + name.length() * 2;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Estimate the memory this table's columns take outside the Java heap
+	 * @return estimated size in bytes, 0 unless the columns are off the heap
+	 */
+	public long estimateOffHeapBytes() {
+		return offHeap ? columnBytes() : 0;
+	}
+
+	private long columnBytes() {
+		return 2L * edgeTypes.capacity() + 4L * edgeNames.capacity();
+	}
+
+	/** Allocate a column buffer where this table keeps its columns */
+	private ByteBuffer allocate(long bytes) {
+		return offHeap ? OffHeapGraphStorage.allocate(bytes) : ByteBuffer.allocate((int) bytes);
+	}
+
+	private short typeCode(String roadType) {
+		if(roadType == null) {
+			return -1;
+		}
+		Short code = typeCodes.get(roadType);
+		if(code == null) {
+			if(types.size() > Short.MAX_VALUE) {
+				throw new IllegalStateException("Too many distinct road types");
+			}
+			code = (short) types.size();
+			types.add(roadType);
+			typeCodes.put(roadType, code);
+		}
+		return code;
+	}
+
+	private int nameCode(String roadName) {
+		if(roadName == null) {
+			return -1;
+		}
+		Integer code = nameCodes.get(roadName);
+		if(code == null) {
+			code = names.size();
+			names.add(roadName);
+			nameCodes.put(roadName, code);
+		}
+		return code;
+	}
+
+	private void checkEdge(int edgeId) {
+		if(edgeId < 0 || edgeId >= numEdges) {
+			throw new IllegalArgumentException("No edge with id " + edgeId);
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package roadgraph;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import geography.GeographicPoint;
+import util.GraphLoader;
+
+/**
+ * A small load generator for RoutingServer, meant for testing on a single box. It loads a map,
+ * starts a RoutingServer on a free local port (the "stand-in" for a deployed server), then fires
+ * random /route requests at it from several client threads and prints client side latency
+ * together with the server's own /stats.
+ *
+ * Usage: RoutingLoadClient [mapFile] [clientThreads] [requestsPerThread] [queueCapacity]
+ * @author Adam Sickmiller
+ *
+ */
+public class RoutingLoadClient {
+	private final String baseUrl;
+	private final List<GeographicPoint> vertices;
+	private final LatencyHistogram latencies = new LatencyHistogram();
+	private final AtomicLong ok = new AtomicLong();
+	private final AtomicLong busy = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	/**
+	 * Create a client for a running server
+	 * @param baseUrl for example "http://localhost:8080"
+	 * @param vertices the points to pick random route endpoints from
+	 */
+	public RoutingLoadClient(String baseUrl, List<GeographicPoint> vertices) {
+		this.baseUrl = baseUrl;
+		this.vertices = vertices;
+	}
+
+	/**
+	 * Send requests from several threads and wait until all of them are answered
+	 * @param threads number of client threads
+	 * @param requestsPerThread number of requests each thread sends, one after another
+	 * @param seed seed for picking route endpoints, so runs can be repeated
+	 * @throws InterruptedException if interrupted while waiting for the client threads
+	 */
+	public void run(int threads, int requestsPerThread, long seed) throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(threads);
+		AtomicInteger threadNumber = new AtomicInteger();
+		for(int t = 0; t < threads; t++) {
+			Thread thread = new Thread(() -> {
+				Random random = new Random(seed + threadNumber.getAndIncrement());
+				try {
+					for(int i = 0; i < requestsPerThread; i++) {
+						GeographicPoint from = vertices.get(random.nextInt(vertices.size()));
+						GeographicPoint to = vertices.get(random.nextInt(vertices.size()));
+						send("/route?from=" + RoutingServer.formatPoint(from) + "&to=" + RoutingServer.formatPoint(to));
+					}
+				} finally {
+					done.countDown();
+				}
+			});
+			thread.start();
+		}
+		done.await();
+	}
+
+	/** Send a single request and record how long it took and how it went */
+	private void send(String pathAndQuery) {
+		long startTime = System.nanoTime();
+		try {
+			HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + pathAndQuery).openConnection();
+			int status = connection.getResponseCode();
+			try(InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+				while(in != null && in.read() != -1) {
+					//drain the body so the connection can be reused
+				}
+			}
+			if(status == 200) {
+				ok.incrementAndGet();
+			} else if(status == 503) {
+				busy.incrementAndGet();
+			} else {
+				failed.incrementAndGet();
+			}
+		} catch(IOException ioe) {
+			failed.incrementAndGet();
+		} finally {
+			latencies.record(System.nanoTime() - startTime);
+		}
+	}
+
+	public LatencyHistogram getLatencies() {
+		return latencies;
+	}
+
+	public long getOkCount() {
+		return ok.get();
+	}
+
+	public long getBusyCount() {
+		return busy.get();
+	}
+
+	public long getFailedCount() {
+		return failed.get();
+	}
+
+	/** Fetch a page from the server as a String */
+	private String fetch(String pathAndQuery) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + pathAndQuery).openConnection();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		try(InputStream in = connection.getInputStream()) {
+			byte[] buffer = new byte[4096];
+			for(int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+				body.write(buffer, 0, read);
+			}
+		}
+		return new String(body.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	public static void main(String[] args) throws Exception {
+		String mapFile = args.length > 0 ? args[0] : "data/maps/utc.map";
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		int requestsPerThread = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+		int queueCapacity = args.length > 3 ? Integer.parseInt(args[3]) : RoutingServer.DEFAULT_QUEUE_CAPACITY;
+
+		System.out.print("Loading " + mapFile + "...");
+		MapGraph graph = new SalesmanMapGraph();
+		GraphLoader.loadRoadMap(mapFile, graph);
+		System.out.println("DONE. " + graph.getNumVertices() + " vertices, " + graph.getNumEdges() + " edges");
+
+		RoutingServer server = new RoutingServer(graph, 0, queueCapacity);
+		server.start();
+		try {
+			RoutingLoadClient client = new RoutingLoadClient("http://localhost:" + server.getPort(),
+					new ArrayList<>(graph.getVertices()));
+			long startTime = System.nanoTime();
+			client.run(threads, requestsPerThread, 42);
+			double seconds = (System.nanoTime() - startTime) / 1e9;
+
+			System.out.println("Requests: " + (threads * requestsPerThread) + " in " + seconds + "s ("
+					+ Math.round(threads * requestsPerThread / seconds) + " req/s)");
+			System.out.println("ok=" + client.getOkCount() + " busy=" + client.getBusyCount() + " failed=" + client.getFailedCount());
+			System.out.println("Client latency: " + client.getLatencies().toJson());
+			System.out.println("Server stats: " + client.fetch("/stats"));
+		} finally {
+			server.stop(1);
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package roadgraph;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A named way of costing roads by their type, such as "car" or "bike". A profile maps each road
+ * type to a multiplier on the road's length; Double.POSITIVE_INFINITY means the road type may not
+ * be used at all. Road types the profile does not mention get the default multiplier.
+ *
+ * Profiles are immutable. The first time a profile is used against a graph, the graph works out
+ * one cost per edge and keeps that array, so searches read a flat double[] instead of looking up
+ * road type strings on every relaxation, and switching profiles between queries costs nothing.
+ * @author Adam Sickmiller
+ *
+ */
+public class RoutingProfile {
+	public static final double EXCLUDED = Double.POSITIVE_INFINITY;
+
+	/** Costs roads by their default free-flow travel time, scaled so a motorway costs its length */
+	public static final RoutingProfile CAR = new RoutingProfile("car", 100 / TravelTimeProfile.defaultSpeedKmh(null),
+			carMultipliers());
+	/** Like car, but keeps off residential and small roads where it can and never uses living streets */
+	public static final RoutingProfile TRUCK = new RoutingProfile("truck", CAR.defaultMultiplier, truckMultipliers());
+	/** Shortest distance, never on motorways or trunk roads, preferring quiet roads over main ones */
+	public static final RoutingProfile BIKE = new RoutingProfile("bike", 1, bikeMultipliers());
+	/** Like car, but never uses motorways or trunk roads */
+	public static final RoutingProfile AVOID_HIGHWAYS = new RoutingProfile("avoid-highways", CAR.defaultMultiplier,
+			avoidHighwayMultipliers());
+
+	private final String name;
+	private final double defaultMultiplier;
+	private final Map<String, Double> multipliers;
+	private final double minMultiplier;
+
+	/**
+	 * Create a profile
+	 * @param name the name of the profile
+	 * @param defaultMultiplier the multiplier for road types not in multipliers
+	 * @param multipliers multiplier for each road type, or EXCLUDED for road types that may not be used
+	 * @throws IllegalArgumentException if any multiplier is not greater than 0
+	 */
+	public RoutingProfile(String name, double defaultMultiplier, Map<String, Double> multipliers) {
+		double min = defaultMultiplier;
+		for(double multiplier: multipliers.values()) {
+			min = Math.min(min, multiplier);
+		}
+		if(!(min > 0)) {
+			throw new IllegalArgumentException("multipliers must be greater than 0");
+		}
+		this.name = name;
+		this.defaultMultiplier = defaultMultiplier;
+		this.multipliers = Collections.unmodifiableMap(new HashMap<>(multipliers));
+		this.minMultiplier = min;
+	}
+
+	/**
+	 * Look up one of the built in profiles by name
+	 * @param name one of "car", "truck", "bike" or "avoid-highways"
+	 * @return the profile
+	 * @throws IllegalArgumentException if there is no profile with that name
+	 */
+	public static RoutingProfile forName(String name) {
+		for(RoutingProfile profile: new RoutingProfile[] {CAR, TRUCK, BIKE, AVOID_HIGHWAYS}) {
+			if(profile.name.equals(name)) {
+				return profile;
+			}
+		}
+		throw new IllegalArgumentException("Unknown routing profile " + name);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get the cost multiplier for a road type
+	 * @param roadType the road type, as passed to MapGraph.addEdge
+	 * @return the multiplier, or EXCLUDED if this profile may not use the road type
+	 */
+	public double getMultiplier(String roadType) {
+		Double multiplier = roadType == null ? null : multipliers.get(roadType);
+		return multiplier == null ? defaultMultiplier : multiplier;
+	}
+
+	/**
+	 * Get the smallest multiplier of any road type. Scaling straight line distance by this keeps
+	 * the A* estimate admissible under this profile
+	 * @return the smallest multiplier
+	 */
+	public double getMinMultiplier() {
+		return minMultiplier;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	private static Map<String, Double> carMultipliers() {
+		Map<String, Double> multipliers = new HashMap<>();
+		for(String roadType: new String[] {"motorway", "motorway_link", "trunk", "trunk_link", "primary",
+				"secondary", "tertiary", "residential", "unclassified", "service", "living_street"}) {
+			multipliers.put(roadType, 100 / TravelTimeProfile.defaultSpeedKmh(roadType));
+		}
+		return multipliers;
+	}
+
+	private static Map<String, Double> truckMultipliers() {
+		Map<String, Double> multipliers = carMultipliers();
+		multipliers.put("residential", multipliers.get("residential") * 3);
+		multipliers.put("service", multipliers.get("service") * 2);
+		multipliers.put("living_street", EXCLUDED);
+		return multipliers;
+	}
+
+	private static Map<String, Double> bikeMultipliers() {
+		Map<String, Double> multipliers = new HashMap<>();
+		multipliers.put("motorway", EXCLUDED);
+		multipliers.put("motorway_link", EXCLUDED);
+		multipliers.put("trunk", EXCLUDED);
+		multipliers.put("trunk_link", EXCLUDED);
+		multipliers.put("primary", 1.5);
+		multipliers.put("secondary", 1.2);
+		multipliers.put("cycleway", 0.8);
+		return multipliers;
+	}
+
+	private static Map<String, Double> avoidHighwayMultipliers() {
+		Map<String, Double> multipliers = carMultipliers();
+		multipliers.put("motorway", EXCLUDED);
+		multipliers.put("motorway_link", EXCLUDED);
+		multipliers.put("trunk", EXCLUDED);
+		multipliers.put("trunk_link", EXCLUDED);
+		return multipliers;
+	}
+}
@@ -0,0 +1,337 @@
+package roadgraph;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import geography.GeographicPoint;
+
+/**
+ * An optional, embedded HTTP front end for a MapGraph. It only uses the JDK's built in
+ * com.sun.net.httpserver, so nothing else needs to be on the classpath.
+ *
+ * Endpoints (all GET, all answer JSON, points are written as "lat,lon"):
+ *   /route?from=lat,lon&to=lat,lon[&algorithm=astar|dijkstra|bfs]  shortest path, its length and the
+ *          name of the road taken for each step. Add
+ *          [&profile=car|truck|bike|avoid-highways] to cost roads with a RoutingProfile
+ *   /matrix?points=lat,lon;lat,lon;...                               road distance between every pair of points
+ *   /tour?origin=lat,lon&stops=lat,lon;lat,lon;...                   greedy salesman tour (SalesmanMapGraph only)
+ *   /stats                                                           latency histograms, admission counters and
+ *                                                                    the graph's summary (see MapGraph.getSummary)
+ *
+ * Each request runs on its own thread: a virtual thread when the JVM supports them (Java 21+),
+ * otherwise a thread from a fixed pool with one per processor. A search keeps its working arrays
+ * in a SearchState, which the request hands back to the graph when it is done, so the next request
+ * reuses those arrays instead of allocating them again. Requests to every endpoint, /stats
+ * included, first pass a bounded admission queue. When more than queueCapacity requests are
+ * already admitted the new request is answered right away with 503, so a burst of traffic can't
+ * pile up unbounded work behind the graph.
+ *
+ * Every endpoint only reads the graph, so any number of requests run at once. Tours use
+ * SalesmanMapGraph.bestPathGreedy(origin, destinations), which leaves the graph's own origin,
+ * destinations and suggested route alone.
+ * @author Adam Sickmiller
+ *
+ */
+public class RoutingServer {
+	public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+	private final MapGraph graph;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final int queueCapacity;
+
+	private final AtomicInteger admitted = new AtomicInteger(); //requests admitted but not finished
+	private final AtomicLong rejected = new AtomicLong();		//requests turned away with 503
+	private final Map<String, LatencyHistogram> histograms = new HashMap<>();
+
+	/**
+	 * Create a server for the given graph, listening on the given port. The server does not accept
+	 * requests until start() is called.
+	 * @param graph the graph to answer queries against. Tours are only available for a SalesmanMapGraph
+	 * @param port the port to listen on, or 0 to pick any free port
+	 * @param queueCapacity the most requests that may be admitted at once
+	 * @throws IOException if the port can not be bound
+	 */
+	public RoutingServer(MapGraph graph, int port, int queueCapacity) throws IOException {
+		if(graph == null || queueCapacity < 1) {
+			throw new IllegalArgumentException("graph must be non-null and queueCapacity must be >= 1");
+		}
+		this.graph = graph;
+		this.queueCapacity = queueCapacity;
+		this.executor = newRequestExecutor();
+		this.server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.setExecutor(executor);
+		register("/route", this::route);
+		register("/matrix", this::matrix);
+		register("/tour", this::tour);
+		register("/stats", query -> statsJson()); //the summary may find the components of a new snapshot, so it is admitted too
+	}
+
+	/**
+	 * Start accepting requests
+	 */
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stop accepting requests, give in-flight requests up to the given delay to finish and release the port
+	 * @param delaySeconds how long to wait for in-flight requests
+	 */
+	public void stop(int delaySeconds) {
+		server.stop(delaySeconds);
+		executor.shutdown();
+		try {
+			executor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+		} catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Get the port this server is listening on. Useful when the server was created with port 0
+	 * @return the bound port
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Get the latency histogram for one of the endpoints
+	 * @param path the endpoint, for example "/route"
+	 * @return the histogram, or null if there is no such endpoint
+	 */
+	public LatencyHistogram getHistogram(String path) {
+		return histograms.get(path);
+	}
+
+	/**
+	 * Get the number of requests that were turned away because the admission queue was full
+	 * @return the count of rejected requests
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	/** A request handler that produces a JSON body from the parsed query string */
+	private interface QueryHandler {
+		String handle(Map<String, String> query);
+	}
+
+	/** Wire an endpoint up to admission control, latency tracking and error handling */
+	private void register(String path, QueryHandler handler) {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histograms.put(path, histogram);
+		server.createContext(path, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				if(admitted.incrementAndGet() > queueCapacity) { //backpressure: refuse instead of queueing
+					admitted.decrementAndGet();
+					rejected.incrementAndGet();
+					respond(exchange, 503, "{\"error\":\"server busy\"}");
+					return;
+				}
+				long startTime = System.nanoTime();
+				int status = 200;
+				String body;
+				try {
+					body = handler.handle(parseQuery(exchange.getRequestURI()));
+				} catch(IllegalArgumentException iae) {
+					status = 400;
+					body = "{\"error\":" + quote(iae.getMessage()) + "}";
+				} catch(UnsupportedOperationException uoe) {
+					status = 501;
+					body = "{\"error\":" + quote(uoe.getMessage()) + "}";
+				} catch(RuntimeException re) {
+					status = 500;
+					body = "{\"error\":" + quote(String.valueOf(re)) + "}";
+				} finally {
+					histogram.record(System.nanoTime() - startTime);
+					graph.releaseSearchState(); //the thread is done searching, let the next request reuse its arrays
+					admitted.decrementAndGet();
+				}
+				respond(exchange, status, body);
+			}
+		});
+	}
+
+	/** Answer /route */
+	private String route(Map<String, String> query) {
+		GeographicPoint from = parsePoint(require(query, "from"));
+		GeographicPoint to = parsePoint(require(query, "to"));
+		String algorithm = query.getOrDefault("algorithm", "astar");
+		RoutingProfile profile = query.containsKey("profile") ? RoutingProfile.forName(query.get("profile")) : null;
+		List<GeographicPoint> path;
+		List<String> roads;
+		double length;
+		if(algorithm.equals("astar")) {
+			path = profile == null ? graph.aStarSearch(from, to) : graph.aStarSearch(from, to, profile);
+		} else if(algorithm.equals("dijkstra")) {
+			path = profile == null ? graph.dijkstra(from, to) : graph.dijkstra(from, to, profile);
+		} else if(algorithm.equals("bfs")) {
+			path = graph.bfs(from, to);
+		} else {
+			throw new IllegalArgumentException("Unknown algorithm " + algorithm);
+		}
+		length = path.isEmpty() ? -1 : graph.getRouteLength(path);
+		roads = graph.getRoadNames(path);
+		StringBuilder sb = new StringBuilder("{\"found\":").append(!path.isEmpty()).append(",\"length\":").append(length)
+			.append(",\"path\":").append(pointsJson(path)).append(",\"roads\":[");
+		for(int i = 0; i < roads.size(); i++) {
+			sb.append(i == 0 ? "" : ",").append(roads.get(i) == null ? "null" : quote(roads.get(i)));
+		}
+		return sb.append("]}").toString();
+	}
+
+	/** Answer /matrix. Unreachable pairs are reported as -1 */
+	private String matrix(Map<String, String> query) {
+		List<GeographicPoint> points = parsePoints(require(query, "points"));
+		StringBuilder sb = new StringBuilder("{\"points\":").append(pointsJson(points)).append(",\"distances\":[");
+		double[][] distances = graph.distanceMatrix(points);
+		for(int i = 0; i < points.size(); i++) {
+			sb.append(i == 0 ? "[" : ",[");
+			for(int j = 0; j < points.size(); j++) {
+				double distance = distances[i][j] == Double.POSITIVE_INFINITY ? -1 : distances[i][j];
+				sb.append(j == 0 ? "" : ",").append(distance);
+			}
+			sb.append("]");
+		}
+		return sb.append("]}").toString();
+	}
+
+	/** Answer /tour */
+	private String tour(Map<String, String> query) {
+		if(!(graph instanceof SalesmanMapGraph)) {
+			throw new UnsupportedOperationException("Tours need the server to be created with a SalesmanMapGraph");
+		}
+		GeographicPoint origin = parsePoint(require(query, "origin"));
+		List<GeographicPoint> stops = parsePoints(require(query, "stops"));
+		if(!graph.getVertices().contains(origin) || !graph.getVertices().containsAll(stops)) {
+			throw new IllegalArgumentException("origin and all stops must be present in graph");
+		}
+		List<GeographicPoint> tour = ((SalesmanMapGraph) graph).bestPathGreedy(origin, stops);
+		return "{\"tour\":" + pointsJson(tour) + "}";
+	}
+
+	/** Build the /stats body */
+	private String statsJson() {
+		StringBuilder sb = new StringBuilder("{\"admitted\":").append(admitted.get())
+			.append(",\"rejected\":").append(rejected.get())
+			.append(",\"queueCapacity\":").append(queueCapacity)
+			.append(",\"graph\":").append(graph.getSummary().toJson());
+		for(Map.Entry<String, LatencyHistogram> entry: histograms.entrySet()) {
+			sb.append(",").append(quote(entry.getKey())).append(":").append(entry.getValue().toJson());
+		}
+		return sb.append("}").toString();
+	}
+
+	/**
+	 * Create the executor that runs each request on a new virtual thread. Virtual threads are looked
+	 * up reflectively so that this class still compiles and runs on JVMs older than Java 21, which
+	 * get one platform thread per processor instead, kept for the life of the server
+	 */
+	private static ExecutorService newRequestExecutor() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = Class.forName("java.lang.Thread$Builder$OfVirtual").getMethod("name", String.class, long.class)
+					.invoke(builder, "routing-", 1L);
+			Object factory = Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+			return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+					.invoke(null, factory);
+		} catch(ReflectiveOperationException roe) {
+			AtomicInteger count = new AtomicInteger();
+			return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), task -> {
+				Thread thread = new Thread(task, "routing-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try(OutputStream os = exchange.getResponseBody()) {
+			os.write(bytes);
+		}
+	}
+
+	private static Map<String, String> parseQuery(URI uri) {
+		Map<String, String> query = new HashMap<>();
+		String raw = uri.getQuery();
+		if(raw != null) {
+			for(String pair: raw.split("&")) {
+				int eq = pair.indexOf('=');
+				if(eq > 0) {
+					query.put(pair.substring(0, eq), pair.substring(eq + 1));
+				}
+			}
+		}
+		return query;
+	}
+
+	private static String require(Map<String, String> query, String name) {
+		String value = query.get(name);
+		if(value == null || value.isEmpty()) {
+			throw new IllegalArgumentException("Missing query parameter " + name);
+		}
+		return value;
+	}
+
+	/** Parse "lat,lon" */
+	static GeographicPoint parsePoint(String text) {
+		String[] parts = text.split(",");
+		if(parts.length != 2) {
+			throw new IllegalArgumentException("Points must be written as lat,lon but got " + text);
+		}
+		try {
+			return new GeographicPoint(Double.parseDouble(parts[0].trim()), Double.parseDouble(parts[1].trim()));
+		} catch(NumberFormatException nfe) {
+			throw new IllegalArgumentException("Points must be written as lat,lon but got " + text);
+		}
+	}
+
+	/** Parse "lat,lon;lat,lon;..." */
+	static List<GeographicPoint> parsePoints(String text) {
+		List<GeographicPoint> points = new ArrayList<>();
+		for(String point: text.split(";")) {
+			points.add(parsePoint(point));
+		}
+		return points;
+	}
+
+	/** Write "lat,lon" for use in a query string */
+	static String formatPoint(GeographicPoint point) {
+		return point.getX() + "," + point.getY();
+	}
+
+	private static String pointsJson(List<GeographicPoint> points) {
+		StringBuilder sb = new StringBuilder("[");
+		for(int i = 0; i < points.size(); i++) {
+			sb.append(i == 0 ? "[" : ",[").append(points.get(i).getX()).append(",").append(points.get(i).getY()).append("]");
+		}
+		return sb.append("]").toString();
+	}
+
+	private static String quote(String text) {
+		return "\"" + String.valueOf(text).replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+}
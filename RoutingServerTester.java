@@ -0,0 +1,72 @@
+package roadgraph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import util.GraphLoader;
+
+public class RoutingServerTester {
+	RoutingServer server;
+	
+	@Before
+	public void setup() throws IOException {
+		SalesmanMapGraph map = new SalesmanMapGraph();
+		GraphLoader.loadRoadMap("data/testdata/simpletest.map", map);
+		server = new RoutingServer(map, 0, 4);
+		server.start();
+	}
+	
+	@After
+	public void teardown() {
+		server.stop(0);
+	}
+	
+	@Test
+	public void route() throws IOException {
+		String body = get("/route?from=1.0,1.0&to=8.0,-1.0", 200);
+		assertTrue("Route should be found", body.contains("\"found\":true"));
+		assertTrue("Route should end at goal", body.contains("[8.0,-1.0]]"));
+		assertTrue("Route should name the roads taken", body.contains("\"roads\":[\""));
+		assertEquals("One request should be recorded", 1, server.getHistogram("/route").getCount());
+		
+		get("/route?from=1.0,1.0", 400);
+		get("/route?from=1.0,1.0&to=8.0,-1.0&algorithm=nope", 400);
+		
+		String stats = get("/stats", 200);
+		assertTrue("Stats should include the graph summary", stats.contains("\"graph\":{\"vertices\":9,"));
+		assertTrue("Stats are admitted and timed like any other query", stats.contains("\"/stats\":"));
+	}
+	
+	@Test
+	public void matrixAndTour() throws IOException {
+		String matrix = get("/matrix?points=1.0,1.0;4.0,1.0", 200);
+		assertTrue("Diagonal should be zero", matrix.contains("[[0.0,"));
+		
+		String tour = get("/tour?origin=1.0,1.0&stops=4.0,1.0;8.0,-1.0", 200);
+		assertTrue("Tour should start at origin and visit 4,1 first", tour.contains("[[1.0,1.0],[4.0,1.0]"));
+	}
+	
+	private String get(String pathAndQuery, int expectedStatus) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.getPort()
+				+ pathAndQuery).openConnection();
+		assertEquals("Unexpected status for " + pathAndQuery, expectedStatus, connection.getResponseCode());
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		try(InputStream in = expectedStatus < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+			byte[] buffer = new byte[4096];
+			for(int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+				body.write(buffer, 0, read);
+			}
+		}
+		return body.toString("UTF-8");
+	}
+}
@@ -1,8 +1,8 @@
 package roadgraph;
 
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
 
 import geography.GeographicPoint;
 
@@ -20,8 +20,19 @@ public class SalesmanMapGraph extends MapGraph {
 	private List<GeographicPoint> destinations;
 	private List<GeographicPoint> suggestedRoute;
 	private GeographicPoint origin;
+	private TourMatrix tourMatrix; //distances between the stops of suggestedRoute, kept for insertStop and removeStop
+	private int[] tourOrder;	   //suggestedRoute as indices into tourMatrix, starting with the origin
 	
 	public SalesmanMapGraph() {
+		this(false);
+	}
+	
+	/** Create an empty graph, choosing where its searchable snapshot is stored. See MapGraph(boolean)
+	 * 
+	 * @param offHeap true to store snapshots outside the Java heap
+	 */
+	public SalesmanMapGraph(boolean offHeap) {
+		super(offHeap);
 		destinations = new ArrayList<>();
 		suggestedRoute = new ArrayList<>();
 	}
@@ -37,8 +48,10 @@ public class SalesmanMapGraph extends MapGraph {
 	 * 
 	 */
 	public boolean addOrigin(GeographicPoint origin) { 
-		if(this.getVerticesMap().containsKey(origin)) {
+		if(this.getVertices().contains(origin)) {
 			this.origin = origin;
+			suggestedRoute = new ArrayList<>();
+			tourMatrix = null;
 			return true;
 		} else {
 			throw new IllegalArgumentException("Origin must be a known destination in the vertices map");
@@ -46,86 +59,262 @@ public class SalesmanMapGraph extends MapGraph {
 	}
 	
 	/** Add a destination that must be reached by the 'traveling salesman.' One or more destinations should be
-	 * added so that other methods can return something meaningful for the class instance
+	 * added so that other methods can return something meaningful for the class instance. To add a stop to
+	 * a route that has already been planned, use insertStop instead
 	 * 
 	 * @param destination - one of the destinations for the salesman 
 	 * @return - true if the destination has been successfully added to the list of destinations
+	 * @throws IllegalArgumentException if the destination is not in the graph, or if an origin has been added
+	 * and the destination is not in the same strongly connected component, so the salesman could not get there
+	 * and back
 	 */
 	public boolean addDestination(GeographicPoint destination) {
-		if(this.getVerticesMap().containsKey(destination)) {
-			return destinations.add(destination);
-		} else {
+		checkDestination(destination);
+		return destinations.add(destination);
+	}
+	
+	/** Throw IllegalArgumentException if the salesman can not visit destination */
+	private void checkDestination(GeographicPoint destination) {
+		if(!this.getVertices().contains(destination)) {
 			throw new IllegalArgumentException("Destination must be a known destination in the vertices map");
 		}
+		if(origin != null && getComponentId(origin) != getComponentId(destination)) {
+			throw new IllegalArgumentException("Destination " + destination + " can not be reached from origin "
+					+ origin + " and back");
+		}
 	}
 	
 	/** Using the list of destinations added to this class instance, return a reasonable path from the specified
 	 * origin to all destinations and then back to the origin. The path returned will be based on a "greedy"
-	 * approach. This means that 
-	 * @param origin the GeographicPoint where we start and end. Must exist in vertices map
+	 * approach. This means that each next stop is the closest destination not yet visited. The route is
+	 * planned again from scratch on every call, and it becomes the route that insertStop and removeStop update
 	 * @return List<GeographicPoint> showing the path of destinations, in the order that they should be visited
 	 **/
 	public List<GeographicPoint> bestPathGreedy() {
-		if(destinations.contains(origin)) {
-			destinations.remove(origin);
-		}		
-		suggestedRoute.add(origin);
-		
-		//each destination must visit all non-visited destinations
-		GeographicPoint curr = origin;
-		GeographicPoint closest = null; //this is where we store the destination closest to curr
-		while(destinations.size() > 0) {
-			Double minDistance = Double.POSITIVE_INFINITY;
-			for(GeographicPoint dest: destinations) { //go through all possible destinations from current point
-				//determine distance to each destination from curr					
-				List<GeographicPoint> route = findRouteBetween(curr, dest);
-				Double distance = sumEdges(route);
-				if(distance < minDistance) {
-					closest = dest; //this is the closest to curr so far
-					minDistance = distance;
+		suggestedRoute = bestPathGreedy(origin, destinations);
+		tourMatrix = null;
+		return new ArrayList<>(suggestedRoute);
+	}
+	
+	/** Add a stop to the current route without planning it again: measure the distances between the new
+	 * stop and the stops already on the route (one search each way), insert it where it adds the least
+	 * distance, then repair the route with 2-opt and or-opt. The stop is also added to the destinations.
+	 * If no route has been planned yet, a greedy route through the destinations is planned first
+	 * 
+	 * @param stop the stop to add. Adding a stop that is already on the route changes nothing
+	 * @return the updated route, starting and ending at the origin
+	 * @throws IllegalStateException if no origin has been added
+	 * @throws IllegalArgumentException if the stop is not in the graph or can not be reached from the origin and back
+	 */
+	public List<GeographicPoint> insertStop(GeographicPoint stop) {
+		checkDestination(stop);
+		ensureTour();
+		if(!destinations.contains(stop)) {
+			destinations.add(stop);
+		}
+		if(tourMatrix.indexOf(stop) < 0) {
+			int added = tourMatrix.add(stop);
+			double[][] costs = tourMatrix.costs();
+			int n = tourOrder.length;
+			int at = 1;
+			double cheapest = Double.POSITIVE_INFINITY;
+			for(int i = 0; i < n; i++) { //between tourOrder[i] and the stop after it
+				int before = tourOrder[i];
+				int after = tourOrder[(i + 1) % n];
+				double extra = costs[before][added] + costs[added][after] - costs[before][after];
+				if(extra < cheapest) {
+					cheapest = extra;
+					at = i + 1;
 				}
 			}
-			suggestedRoute.add(closest);  //add closest location to suggest route
-			destinations.remove(closest); //remove it from possible destinations
-			curr = closest;	//begin searching from the closest in next iteration
-		}		
-		suggestedRoute.add(origin); //return home
-		return suggestedRoute;
+			int[] inserted = new int[n + 1];
+			System.arraycopy(tourOrder, 0, inserted, 0, at);
+			inserted[at] = added;
+			System.arraycopy(tourOrder, at, inserted, at + 1, n - at);
+			tourOrder = inserted;
+			TourSearch.localSearch(costs, tourOrder, null);
+			suggestedRoute = routeOf(tourOrder);
+		}
+		return new ArrayList<>(suggestedRoute);
 	}
 	
-	/** Find the route between two geographic points using the astar search algorithm
+	/** Remove a stop from the current route and from the destinations without planning the route again:
+	 * the stops on either side of it are joined, and the route is repaired with 2-opt and or-opt. No
+	 * search is run
 	 * 
-	 * @param start The GeographicPoint from which to start
-	 * @param end The GeographiPoint destination
-	 * @return a list of GeographicPoints representing ordered hops along the route
+	 * @param stop the stop to remove
+	 * @return the updated route, starting and ending at the origin
+	 * @throws IllegalStateException if no origin has been added
+	 * @throws IllegalArgumentException if stop is the origin
 	 */
-	private List<GeographicPoint> findRouteBetween(GeographicPoint start, GeographicPoint end) {
-		return aStarSearch(start, end);
+	public List<GeographicPoint> removeStop(GeographicPoint stop) {
+		if(stop != null && stop.equals(origin)) {
+			throw new IllegalArgumentException("The origin can not be removed from the route");
+		}
+		ensureTour();
+		while(destinations.remove(stop)) {
+			//the stop may have been added more than once
+		}
+		int removed = tourMatrix.indexOf(stop);
+		if(removed >= 0) {
+			int last = tourMatrix.size() - 1;
+			int[] remaining = new int[tourOrder.length - 1];
+			int length = 0;
+			for(int index: tourOrder) {
+				if(index != removed) {
+					remaining[length++] = index == last ? removed : index; //the last stop takes the removed one's index
+				}
+			}
+			tourMatrix.remove(removed);
+			tourOrder = remaining;
+			TourSearch.localSearch(tourMatrix.costs(), tourOrder, null);
+			suggestedRoute = routeOf(tourOrder);
+		}
+		return new ArrayList<>(suggestedRoute);
 	}
 	
-	/** Given a route, return the total distance of that route
+	/** Get the current route with the full road path of every leg. The legs are read from the paths found
+	 * while measuring the route's distance matrix, so no leg is searched for again. If no route has been
+	 * planned yet, a greedy route through the destinations is planned first
 	 * 
-	 * @param route - an ordered list of geographic points representing a route.  an edge must exist
-	 * between each point and points adjacent to it.
-	 * @returns Double - sum of the distance between all edges on the route 
-	 * @throws IllegalArgumentException if there is not a valid path between adjacent points on the list
+	 * @return the route, leg by leg, starting and ending at the origin
+	 * @throws IllegalStateException if no origin has been added
 	 */
-	private Double sumEdges(List<GeographicPoint> route) {
-		Map<GeographicPoint, MapNode> verticesMap = getVerticesMap();		
-		Map<Integer, Edge> edgeMap = getEdgeMap();
-		Double sum = 0d;
-		for(int i = 0; i < route.size() - 1; i++) {
-			MapNode cur = verticesMap.get(route.get(i));
-			MapNode nex = verticesMap.get(route.get(i + 1));
-			Edge e = edgeMap.get(GraphUtility.generateHashMapKeyForEdge(cur, nex));
-			if(e == null) {
-				throw new IllegalArgumentException("Route passed to this method must be an *ordered* list of"
-						+ " points, where each point has an edge between it and its neighbors");
-			} else {
-				Double edgeLength = cur.getLocation().distance(nex.getLocation());
-				sum = sum + edgeLength;
-			}
+	public MaterializedTour materializeRoute() {
+		ensureTour();
+		List<TourLeg> legs = new ArrayList<>(tourOrder.length);
+		double[][] costs = tourMatrix.costs();
+		for(int i = 0; i < tourOrder.length; i++) {
+			int from = tourOrder[i];
+			int to = tourOrder[(i + 1) % tourOrder.length];
+			List<GeographicPoint> path = tourMatrix.leg(from, to);
+			legs.add(new TourLeg(tourMatrix.point(from), tourMatrix.point(to), path, costs[from][to], getRoadNames(path)));
+		}
+		return new MaterializedTour(legs);
+	}
+	
+	/** Make sure the current route and its distance matrix exist and match the graph. If no route has been
+	 * planned, a greedy one is. If the graph has changed since the distances were measured, they are measured
+	 * again and the route, kept in its order, is repaired with 2-opt and or-opt
+	 */
+	private void ensureTour() {
+		if(origin == null) {
+			throw new IllegalStateException("An origin must be added before the route can be changed");
+		}
+		if(tourMatrix != null && !tourMatrix.isStale()) {
+			return;
+		}
+		if(suggestedRoute.isEmpty()) {
+			suggestedRoute = bestPathGreedy(origin, destinations);
 		}
-		return sum;
+		List<GeographicPoint> stops = new ArrayList<>(new LinkedHashSet<>(suggestedRoute)); //each stop once, origin first
+		tourMatrix = new TourMatrix(this, stops);
+		tourOrder = new int[stops.size()];
+		for(int i = 0; i < tourOrder.length; i++) {
+			tourOrder[i] = i;
+		}
+		if(TourSearch.localSearch(tourMatrix.costs(), tourOrder, null)) {
+			suggestedRoute = routeOf(tourOrder);
+		}
+	}
+	
+	/** Turn a tour of matrix indices into a route that returns to the origin */
+	private List<GeographicPoint> routeOf(int[] order) {
+		List<GeographicPoint> route = new ArrayList<>(order.length + 1);
+		for(int index: order) {
+			route.add(tourMatrix.point(index));
+		}
+		route.add(origin);
+		return route;
+	}
+	
+	/** Return a reasonable path from the given origin to all given destinations and then back to the origin,
+	 * using the same "greedy" approach as bestPathGreedy(). Unlike bestPathGreedy(), this method does not read
+	 * or change the origin and destinations stored on this instance, so it can be used to answer one-off
+	 * requests against a shared graph.
+	 * @param origin the GeographicPoint where we start and end. Must exist in vertices map
+	 * @param destinations the destinations to visit. The list passed in is not modified
+	 * @return List<GeographicPoint> showing the path of destinations, in the order that they should be visited
+	 */
+	public List<GeographicPoint> bestPathGreedy(GeographicPoint origin, List<GeographicPoint> destinations) {
+		List<GeographicPoint> remaining = new ArrayList<>(destinations);
+		List<GeographicPoint> route = new ArrayList<>();
+		while(remaining.remove(origin)) {
+			//origin is visited at the start and end anyway
+		}
+		route.add(origin);
+		
+		//each destination must visit all non-visited destinations
+		GeographicPoint curr = origin;
+		while(remaining.size() > 0) {
+			//a single search from curr that stops at the first destination it settles finds the closest
+			//destination, instead of running one search per remaining destination
+			SearchHit closest = nearestTarget(curr, remaining);
+			if(closest == null) {
+				throw new IllegalStateException("None of " + remaining + " can be reached from " + curr);
+			}
+			route.add(closest.getTarget());  //add closest location to suggest route
+			remaining.remove(closest.getTarget()); //remove it from possible destinations
+			curr = closest.getTarget();	//begin searching from the closest in next iteration
+		}		
+		route.add(origin); //return home
+		return route;
+	}
+	
+	/** Return a short path from the given origin to all given destinations and back, searching on several
+	 * threads for the whole time budget instead of building the single greedy tour. Like
+	 * bestPathGreedy(origin, destinations) this does not read or change the origin and destinations stored
+	 * on this instance. See TourSearch for the heuristics used and for more settings.
+	 * @param origin the GeographicPoint where we start and end. Must exist in vertices map
+	 * @param destinations the destinations to visit. The list passed in is not modified
+	 * @param timeBudgetMillis how long to search, in milliseconds
+	 * @return List<GeographicPoint> showing the path of destinations, in the order that they should be visited
+	 * @throws IllegalArgumentException if a destination can not be reached from origin and back
+	 */
+	public List<GeographicPoint> bestPathMultiStart(GeographicPoint origin, List<GeographicPoint> destinations,
+			long timeBudgetMillis) {
+		TourSearch search = new TourSearch(this);
+		search.setTimeBudgetMillis(timeBudgetMillis);
+		return search.solve(origin, destinations);
+	}
+	
+	/** Return a short path from the given origin to all given destinations and back, for more destinations
+	 * than a full distance matrix can hold. The destinations are split into clusters of about clusterSize
+	 * stops by their coordinates, each cluster is searched on its own thread and the cluster routes are
+	 * joined and repaired where they meet. Like bestPathGreedy(origin, destinations) this does not read or
+	 * change the origin and destinations stored on this instance. See ClusteredTourSearch for more settings.
+	 * @param origin the GeographicPoint where we start and end. Must exist in vertices map
+	 * @param destinations the destinations to visit. The list passed in is not modified
+	 * @param clusterSize how many stops each cluster should hold
+	 * @param timeBudgetMillis how long to search the clusters, in milliseconds, all together
+	 * @return List<GeographicPoint> showing the path of destinations, in the order that they should be visited
+	 * @throws IllegalArgumentException if a destination can not be reached from origin and back
+	 */
+	public List<GeographicPoint> bestPathClustered(GeographicPoint origin, List<GeographicPoint> destinations,
+			int clusterSize, long timeBudgetMillis) {
+		ClusteredTourSearch search = new ClusteredTourSearch(this);
+		search.setClusterSize(clusterSize);
+		search.setTimeBudgetMillis(timeBudgetMillis);
+		return search.solve(origin, destinations);
+	}
+	
+	/** Return a short path from the given origin to all given destinations and back without measuring the
+	 * distance between every pair of destinations: only each destination's nearest few by road are found,
+	 * with searches that stop once they have been reached, and the route is built and improved from
+	 * those. Like bestPathGreedy(origin, destinations) this does not read or change the origin and
+	 * destinations stored on this instance. See SparseTourSearch for the heuristics used.
+	 * @param origin the GeographicPoint where we start and end. Must exist in vertices map
+	 * @param destinations the destinations to visit. The list passed in is not modified
+	 * @param candidates how many nearest destinations to find for each destination
+	 * @param timeBudgetMillis how long to improve the route, in milliseconds
+	 * @return List<GeographicPoint> showing the path of destinations, in the order that they should be visited
+	 * @throws IllegalArgumentException if a destination can not be reached from origin and back
+	 */
+	public List<GeographicPoint> bestPathSparse(GeographicPoint origin, List<GeographicPoint> destinations,
+			int candidates, long timeBudgetMillis) {
+		SparseTourSearch search = new SparseTourSearch(this);
+		search.setCandidates(candidates);
+		search.setTimeBudgetMillis(timeBudgetMillis);
+		return search.solve(origin, destinations);
 	}
 }
@@ -1,12 +1,18 @@
 package roadgraph;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -69,6 +75,27 @@ public class SalesmanMapGraphTester {
 		}
 	}
 	
+	@Test
+	public void addUnreachableDestination() {
+		GeographicPoint origin = new GeographicPoint(1.5, 1.2);
+		GeographicPoint neighbor = new GeographicPoint(1.1, 3.1);
+		GeographicPoint island = new GeographicPoint(7.7, 7.7);
+		smMapGraph.addVertex(origin);
+		smMapGraph.addVertex(neighbor);
+		smMapGraph.addVertex(island);
+		smMapGraph.addEdge(origin, neighbor, "main", "residential", 1);
+		smMapGraph.addEdge(neighbor, origin, "main", "residential", 1);
+		smMapGraph.addOrigin(origin);
+		
+		assertTrue(smMapGraph.addDestination(neighbor));
+		try {
+			smMapGraph.addDestination(island);
+			Assert.fail("The island can not be reached from the origin");
+		} catch(IllegalArgumentException iae) {
+			assertTrue(iae.getMessage().contains("can not be reached"));
+		}
+	}
+	
 	@Test
 	public void addVertex() {
 		GeographicPoint location1 = new GeographicPoint(1.5, 1.2);
@@ -105,4 +132,398 @@ public class SalesmanMapGraphTester {
 				destination1, bestRoute.get(1));
 		
 	}
+	
+	@Test
+	public void vehicleRouting() {
+		GraphLoader.loadRoadMap("data/testdata/simpletest.map", smMapGraph);
+		GeographicPoint depot = new GeographicPoint(1.0, 1.0);
+		List<Vehicle> vehicles = new ArrayList<>();
+		vehicles.add(new Vehicle("small", depot, 2));
+		vehicles.add(new Vehicle("large", depot, 3));
+		List<DeliveryStop> stops = new ArrayList<>();
+		stops.add(new DeliveryStop(new GeographicPoint(4.0, 1.0), 1));
+		stops.add(new DeliveryStop(new GeographicPoint(6.5, 0.0), 1));
+		stops.add(new DeliveryStop(new GeographicPoint(8.0, -1.0), 1, 0, 24 * 3600, 600));
+		stops.add(new DeliveryStop(new GeographicPoint(7.0, 3.0), 1));
+		stops.add(new DeliveryStop(new GeographicPoint(4.0, -1.0), 1));
+		DeliveryStop tooEarly = new DeliveryStop(new GeographicPoint(4.0, 2.0), 0, 0, 60, 0); //over 300 km from the depot
+		stops.add(tooEarly);
+		
+		VehicleRoutingSolver solver = new VehicleRoutingSolver(smMapGraph);
+		solver.setTimeBudgetMillis(200);
+		solver.setThreads(2);
+		VrpSolution solution = solver.solve(vehicles, stops);
+		
+		assertEquals("One route per vehicle", 2, solution.getRoutes().size());
+		assertEquals("Only the stop whose window closes too soon is left out", 1, solution.getUnassigned().size());
+		assertTrue(solution.getUnassigned().contains(tooEarly));
+		int served = 0;
+		double total = 0;
+		for(int v = 0; v < vehicles.size(); v++) {
+			VehicleRoute route = solution.getRoutes().get(v);
+			assertEquals(vehicles.get(v), route.getVehicle());
+			assertTrue("Load must fit the vehicle", route.getLoad() <= vehicles.get(v).getCapacity());
+			for(int i = 0; i < route.getStops().size(); i++) {
+				DeliveryStop stop = route.getStops().get(i);
+				assertTrue(route.getServiceStartSeconds(i) >= stop.getEarliestSeconds());
+				assertTrue(route.getServiceStartSeconds(i) <= stop.getLatestSeconds());
+			}
+			served += route.getStops().size();
+			total += route.getDistance();
+		}
+		assertEquals(5, served);
+		assertEquals(total, solution.getTotalDistance(), 1e-9);
+		
+		solver.setTimeBudgetMillis(0);
+		VrpSolution quick = solver.solve(vehicles, stops);
+		assertEquals("No time budget still plans every stop it can", 1, quick.getUnassigned().size());
+		assertTrue(quick.getTotalDistance() < Double.POSITIVE_INFINITY);
+		
+		double[][] matrix = smMapGraph.distanceMatrix(Arrays.asList(depot, new GeographicPoint(4.0, 1.0)));
+		assertEquals(0, matrix[0][0], 0);
+		assertEquals(depot.distance(new GeographicPoint(4.0, 1.0)), matrix[0][1], 1e-6);
+	}
+	
+	@Test
+	public void multiStartTour() {
+		GraphLoader.loadRoadMap("data/testdata/simpletest.map", smMapGraph);
+		GeographicPoint start = new GeographicPoint(1.0, 1.0);
+		List<GeographicPoint> stops = Arrays.asList(new GeographicPoint(8.0, -1.0), new GeographicPoint(4.0, 2.0),
+				new GeographicPoint(6.5, 0.0), new GeographicPoint(4.0, -1.0), new GeographicPoint(7.0, 3.0));
+		List<GeographicPoint> greedy = smMapGraph.bestPathGreedy(start, stops);
+		List<GeographicPoint> tour = smMapGraph.bestPathMultiStart(start, stops, 100);
+		assertEquals(start, tour.get(0));
+		assertEquals(start, tour.get(tour.size() - 1));
+		assertEquals(stops.size() + 2, tour.size());
+		assertTrue(tour.containsAll(stops));
+		assertTrue("Never longer than the greedy tour", tourLength(tour) <= tourLength(greedy) + 1e-9);
+		
+		//on a random one-way matrix: a valid tour, no longer than 2-opt on nearest neighbor, same tour for the same seed
+		Random random = new Random(7);
+		double[][] matrix = new double[40][40];
+		for(int i = 0; i < 40; i++) {
+			for(int j = 0; j < 40; j++) {
+				matrix[i][j] = i == j ? 0 : 1 + random.nextInt(100);
+			}
+		}
+		TourSearch search = new TourSearch(smMapGraph);
+		search.setThreads(3);
+		search.setMaxKicks(200);
+		search.setTimeBudgetMillis(60000);
+		int[] order = search.solve(matrix);
+		assertEquals(0, order[0]);
+		int[] sorted = order.clone();
+		Arrays.sort(sorted);
+		for(int i = 0; i < 40; i++) {
+			assertEquals(i, sorted[i]);
+		}
+		int[] nearest = TourSearch.nearestNeighbor(matrix, 0);
+		TourSearch.twoOpt(matrix, nearest);
+		assertTrue(TourSearch.tourCost(matrix, order) <= TourSearch.tourCost(matrix, nearest));
+		assertTrue(Arrays.equals(order, search.solve(matrix)));
+	}
+	
+	@Test
+	public void clusteredTour() {
+		GraphLoader.loadRoadMap("data/testdata/simpletest.map", smMapGraph);
+		GeographicPoint start = new GeographicPoint(1.0, 1.0);
+		List<GeographicPoint> stops = Arrays.asList(new GeographicPoint(8.0, -1.0), new GeographicPoint(4.0, 2.0),
+				new GeographicPoint(6.5, 0.0), new GeographicPoint(4.0, -1.0), new GeographicPoint(7.0, 3.0));
+		List<GeographicPoint> tour = smMapGraph.bestPathClustered(start, stops, 2, 100);
+		assertEquals(start, tour.get(0));
+		assertEquals(start, tour.get(tour.size() - 1));
+		assertEquals(stops.size() + 2, tour.size());
+		assertTrue(tour.containsAll(stops));
+		
+		//a one-way grid split into many clusters: every stop exactly once, origin at both ends
+		MapGraph grid = MapGraphTester.oneWayGrid(new MapGraph(), 20);
+		List<GeographicPoint> vertices = new ArrayList<>(grid.getVertices());
+		Collections.shuffle(vertices, new Random(11));
+		ClusteredTourSearch search = new ClusteredTourSearch(grid);
+		search.setClusterSize(15);
+		search.setThreads(2);
+		search.setTimeBudgetMillis(200);
+		List<GeographicPoint> route = search.solve(vertices.get(0), vertices.subList(1, 120));
+		assertEquals(121, route.size());
+		assertEquals(vertices.get(0), route.get(0));
+		assertEquals(vertices.get(0), route.get(120));
+		assertEquals(120, new HashSet<>(route).size());
+		assertTrue(route.containsAll(vertices.subList(0, 120)));
+		
+		try {
+			search.setClusterSize(1);
+			fail("A cluster must hold at least two stops");
+		} catch(IllegalArgumentException iae) {
+			//expected
+		}
+	}
+	
+	@Test
+	public void sparseCandidates() {
+		SalesmanMapGraph grid = MapGraphTester.oneWayGrid(new SalesmanMapGraph(), 20);
+		List<GeographicPoint> stops = new ArrayList<>(grid.getVertices());
+		Collections.shuffle(stops, new Random(13));
+		stops = stops.subList(0, 150);
+		double[][] matrix = grid.distanceMatrix(stops);
+		
+		//each stop keeps its k nearest stops by road, nearest first, and any other leg is measured on demand
+		CandidateGraph candidates = new CandidateGraph(grid, stops, 6, 2);
+		for(int i = 0; i < stops.size(); i++) {
+			double[] row = matrix[i].clone();
+			Arrays.sort(row); //row[0] is the stop itself
+			assertEquals(6, candidates.count(i));
+			for(int r = 0; r < 6; r++) {
+				assertEquals(row[r + 1], candidates.cost(i, r), 1e-9);
+				assertEquals(matrix[i][candidates.neighbor(i, r)], candidates.cost(i, r), 1e-9);
+			}
+			int j = (i * 37 + 11) % stops.size();
+			assertEquals(matrix[i][j], candidates.distance(i, j), 1e-9);
+		}
+		
+		List<GeographicPoint> greedy = grid.bestPathGreedy(stops.get(0), stops.subList(1, 150));
+		List<GeographicPoint> tour = grid.bestPathSparse(stops.get(0), stops.subList(1, 150), 8, 60000);
+		assertEquals(151, tour.size());
+		assertEquals(stops.get(0), tour.get(0));
+		assertEquals(stops.get(0), tour.get(150));
+		assertEquals(150, new HashSet<>(tour).size());
+		double sparseLength = 0;
+		double greedyLength = 0;
+		for(int i = 0; i < 150; i++) {
+			sparseLength += matrix[stops.indexOf(tour.get(i))][stops.indexOf(tour.get(i + 1))];
+			greedyLength += matrix[stops.indexOf(greedy.get(i))][stops.indexOf(greedy.get(i + 1))];
+		}
+		assertTrue(sparseLength + " should beat the greedy " + greedyLength, sparseLength < greedyLength);
+	}
+	
+	@Test
+	public void boundedMatrixBuild() {
+		MapGraph grid = MapGraphTester.oneWayGrid(new MapGraph(), 30);
+		List<GeographicPoint> stops = new ArrayList<>();
+		for(GeographicPoint point: grid.getVertices()) {
+			if(point.getX() < 0.012 && point.getY() < 0.012) { //a corner of the grid, so the far side can be pruned
+				stops.add(point);
+			}
+		}
+		Collections.shuffle(stops, new Random(5));
+		stops.add(stops.get(3)); //a repeat
+		double[][] expected = grid.distanceMatrix(stops);
+		
+		DistanceMatrixBuilder builder = new DistanceMatrixBuilder(grid);
+		builder.setThreads(1);
+		builder.setPruning(false);
+		double[][] plain = builder.build(stops);
+		long plainSettled = builder.getSettledVertices();
+		assertEquals(0, builder.getPrunedVertices());
+		builder.setPruning(true);
+		double[][] pruned = builder.build(stops);
+		assertTrue("pruning should settle fewer vertices", builder.getSettledVertices() < plainSettled);
+		assertTrue(builder.getPrunedVertices() > 0);
+		builder.setThreads(2);
+		double[][] parallel = builder.build(stops);
+		for(int i = 0; i < stops.size(); i++) {
+			for(int j = 0; j < stops.size(); j++) {
+				assertEquals(expected[i][j], plain[i][j], 1e-9);
+				assertEquals(expected[i][j], pruned[i][j], 1e-9);
+				assertEquals(expected[i][j], parallel[i][j], 1e-9);
+			}
+		}
+		assertEquals(0, pruned[3][stops.size() - 1], 0);
+		
+		try {
+			builder.setThreads(0);
+			fail("Check that the thread count is validated");
+		} catch(IllegalArgumentException iae) {
+		}
+	}
+	
+	/** Length of a tour on the road network, leg by leg */
+	private double tourLength(List<GeographicPoint> tour) {
+		double[][] matrix = smMapGraph.distanceMatrix(tour);
+		double length = 0;
+		for(int i = 0; i < tour.size() - 1; i++) {
+			length += matrix[i][i + 1];
+		}
+		return length;
+	}
+	
+	@Test
+	public void incrementalStops() {
+		GraphLoader.loadRoadMap("data/testdata/simpletest.map", smMapGraph);
+		GeographicPoint start = new GeographicPoint(1.0, 1.0);
+		GeographicPoint far = new GeographicPoint(8.0, -1.0);
+		GeographicPoint near = new GeographicPoint(4.0, 1.0);
+		smMapGraph.addOrigin(start);
+		smMapGraph.addDestination(near);
+		smMapGraph.addDestination(far);
+		List<GeographicPoint> planned = smMapGraph.bestPathGreedy();
+		assertEquals("Planning twice gives the same route", planned, smMapGraph.bestPathGreedy());
+		assertEquals(4, planned.size());
+		
+		GeographicPoint added = new GeographicPoint(6.5, 0.0);
+		List<GeographicPoint> route = smMapGraph.insertStop(added);
+		assertEquals(5, route.size());
+		assertEquals(start, route.get(0));
+		assertEquals(start, route.get(4));
+		assertTrue(route.containsAll(Arrays.asList(near, far, added)));
+		assertEquals("Inserting a stop already on the route changes nothing", route, smMapGraph.insertStop(added));
+		
+		route = smMapGraph.insertStop(new GeographicPoint(7.0, 3.0));
+		assertEquals(6, route.size());
+		route = smMapGraph.removeStop(far);
+		assertEquals(5, route.size());
+		assertFalse(route.contains(far));
+		assertEquals(start, route.get(0));
+		assertEquals(start, route.get(4));
+		
+		//the updated route is no longer than one planned from scratch through the same stops
+		List<GeographicPoint> replanned = smMapGraph.bestPathGreedy();
+		assertEquals(5, replanned.size());
+		assertTrue(tourLength(route) <= tourLength(replanned) + 1e-9);
+		
+		try {
+			smMapGraph.removeStop(start);
+			fail("The origin can not be removed");
+		} catch(IllegalArgumentException iae) {
+			//expected
+		}
+	}
+	
+	@Test
+	public void materializeRoute() {
+		GraphLoader.loadRoadMap("data/testdata/simpletest.map", smMapGraph);
+		GeographicPoint start = new GeographicPoint(1.0, 1.0);
+		smMapGraph.addOrigin(start);
+		smMapGraph.addDestination(new GeographicPoint(8.0, -1.0));
+		smMapGraph.addDestination(new GeographicPoint(4.0, 2.0));
+		smMapGraph.bestPathGreedy();
+		smMapGraph.insertStop(new GeographicPoint(7.0, 3.0)); //a leg measured by a row and column update
+		
+		MaterializedTour tour = smMapGraph.materializeRoute();
+		assertEquals(4, tour.getLegs().size());
+		assertEquals(start, tour.getStops().get(0));
+		assertEquals(start, tour.getStops().get(4));
+		for(TourLeg leg: tour.getLegs()) {
+			List<GeographicPoint> expected = smMapGraph.dijkstra(leg.getFrom(), leg.getTo());
+			assertEquals(leg.getFrom(), leg.getPath().get(0));
+			assertEquals(leg.getTo(), leg.getPath().get(leg.getPath().size() - 1));
+			assertEquals(smMapGraph.getRouteLength(expected), leg.getLength(), 1e-9);
+			assertEquals(smMapGraph.getRouteLength(expected), smMapGraph.getRouteLength(leg.getPath()), 1e-9);
+			assertEquals(leg.getPath().size() - 1, leg.getRoadNames().size());
+		}
+		List<GeographicPoint> path = tour.getPath();
+		assertEquals(start, path.get(0));
+		assertEquals(start, path.get(path.size() - 1));
+		assertEquals(tour.getLength(), smMapGraph.getRouteLength(path), 1e-9);
+	}
+	
+	@Test
+	public void tourLowerBound() {
+		//against brute force on small random one-way matrices: the bound never passes the optimum
+		Random random = new Random(3);
+		for(int round = 0; round < 5; round++) {
+			double[][] matrix = new double[7][7];
+			for(int i = 0; i < 7; i++) {
+				for(int j = 0; j < 7; j++) {
+					matrix[i][j] = i == j ? 0 : 1 + random.nextInt(50);
+				}
+			}
+			double optimum = shortestTour(matrix, new int[] {0, 1, 2, 3, 4, 5, 6}, 1);
+			double bound = new HeldKarpBound(matrix).compute(() -> Double.POSITIVE_INFINITY, () -> false, b -> {}, 1000);
+			assertTrue("bound " + bound + " must not exceed the optimum " + optimum, bound <= optimum + 1e-9);
+			assertTrue(bound > 0);
+		}
+		
+		GraphLoader.loadRoadMap("data/testdata/simpletest.map", smMapGraph);
+		GeographicPoint start = new GeographicPoint(1.0, 1.0);
+		List<GeographicPoint> stops = Arrays.asList(new GeographicPoint(8.0, -1.0), new GeographicPoint(4.0, 2.0),
+				new GeographicPoint(6.5, 0.0), new GeographicPoint(4.0, -1.0), new GeographicPoint(7.0, 3.0));
+		TourSearch search = new TourSearch(smMapGraph);
+		search.setThreads(2);
+		search.setTimeBudgetMillis(60000);
+		search.setTargetGap(0.25);
+		long startTime = System.nanoTime();
+		TourSolution solution = search.solveWithBound(start, stops);
+		assertTrue("Stops once the gap is small enough", System.nanoTime() - startTime < 30000000000L);
+		assertTrue(solution.getLowerBound() > 0);
+		assertTrue(solution.getLowerBound() <= solution.getLength() + 1e-9);
+		assertTrue(solution.getGap() <= 0.25);
+		assertEquals(tourLength(solution.getRoute()), solution.getLength(), 1e-9);
+		
+		search.setTimeBudgetMillis(100);
+		TourSolution greedy = search.evaluate(smMapGraph.bestPathGreedy(start, stops));
+		assertEquals(tourLength(greedy.getRoute()), greedy.getLength(), 1e-9);
+		assertTrue(greedy.getLowerBound() <= solution.getLength() + 1e-9);
+		assertTrue(greedy.getGap() >= 0);
+		try {
+			search.evaluate(Arrays.asList(start, new GeographicPoint(8.0, -1.0)));
+			fail("A route that does not come back to its first stop can not be evaluated");
+		} catch(IllegalArgumentException iae) {
+			//expected
+		}
+	}
+	
+	@Test
+	public void asymmetricLocalSearch() {
+		//random one-way matrices: every move keeps a tour from stop 0 and never makes it longer
+		Random random = new Random(5);
+		for(int round = 0; round < 20; round++) {
+			int n = 4 + random.nextInt(30);
+			double[][] matrix = new double[n][n];
+			for(int i = 0; i < n; i++) {
+				for(int j = 0; j < n; j++) {
+					matrix[i][j] = i == j ? 0 : 1 + random.nextInt(100);
+				}
+			}
+			int[][] candidates = TourSearch.nearestCandidates(matrix, 8);
+			int[] start = TourSearch.nearestNeighbor(matrix, 0);
+			int[] twoOpt = start.clone();
+			TourSearch.twoOpt(matrix, twoOpt);
+			int[] orOpt = start.clone();
+			TourSearch.orOpt(matrix, orOpt);
+			int[] exchanged = start.clone();
+			TourSearch.segmentExchange(matrix, exchanged, candidates);
+			int[] local = twoOpt.clone();
+			TourSearch.localSearch(matrix, local, candidates);
+			for(int[] tour: new int[][] {orOpt, exchanged, local}) {
+				assertEquals(0, tour[0]);
+				int[] sorted = tour.clone();
+				Arrays.sort(sorted);
+				for(int i = 0; i < n; i++) {
+					assertEquals(i, sorted[i]);
+				}
+				assertTrue(TourSearch.tourCost(matrix, tour) <= TourSearch.tourCost(matrix, start) + 1e-9);
+			}
+			assertTrue(TourSearch.tourCost(matrix, local) <= TourSearch.tourCost(matrix, twoOpt) + 1e-9);
+		}
+		
+		//a run that is only cheap in its own direction is moved, not reversed
+		double[][] oneWay = new double[5][5];
+		for(double[] row: oneWay) {
+			Arrays.fill(row, 10);
+		}
+		for(int i = 0; i < 5; i++) {
+			oneWay[i][i] = 0;
+			oneWay[i][(i + 1) % 5] = 1; //the cheap loop is 0 1 2 3 4
+		}
+		int[] tour = {0, 3, 1, 2, 4};
+		TourSearch.localSearch(oneWay, tour, TourSearch.nearestCandidates(oneWay, 4));
+		assertArrayEquals(new int[] {0, 1, 2, 3, 4}, tour);
+	}
+	
+	/** Length of the shortest tour that keeps order[0 .. fixed - 1] and tries every order of the rest */
+	private double shortestTour(double[][] matrix, int[] order, int fixed) {
+		if(fixed == order.length) {
+			return TourSearch.tourCost(matrix, order);
+		}
+		double best = Double.POSITIVE_INFINITY;
+		for(int i = fixed; i < order.length; i++) {
+			int t = order[fixed];
+			order[fixed] = order[i];
+			order[i] = t;
+			best = Math.min(best, shortestTour(matrix, order, fixed + 1));
+			order[i] = order[fixed];
+			order[fixed] = t;
+		}
+		return best;
+	}
 }
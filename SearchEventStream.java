@@ -0,0 +1,182 @@
+package roadgraph;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import geography.GeographicPoint;
+
+/**
+ * Hands the vertices a search reports through its nodeSearched hook to a listener on another
+ * thread, so a slow listener, such as one drawing every vertex on a map, does not slow the search
+ * down. Pass the stream as the hook: for each vertex the search only stores the point in a ring
+ * buffer and moves a counter forward. A consumer thread takes everything written since it last
+ * looked as one batch and calls the listener with each point, in the order the search found them.
+ *
+ * If the listener falls a whole ring behind, the search waits for it, so no vertex is lost. Only
+ * one thread at a time may report to a stream. close() delivers what is left and stops the
+ * consumer thread.
+ * @author Adam Sickmiller
+ *
+ */
+public class SearchEventStream implements Consumer<GeographicPoint>, AutoCloseable {
+	private static final int DEFAULT_CAPACITY = 1 << 14;
+	private static final long IDLE_NANOS = 100000; //how long the consumer sleeps when the ring is empty
+
+	private final Consumer<GeographicPoint> listener;
+	private final GeographicPoint[] ring;
+	private final int mask;
+	private final AtomicLong written = new AtomicLong();   //events put in the ring by the search
+	private final AtomicLong delivered = new AtomicLong(); //events handed to the listener
+	private long head;		  //the search's own copy of written
+	private long deliveredSeen; //the search's last look at delivered, read again only when the ring seems full
+	private final Thread consumer;
+	private volatile boolean closed;
+	private volatile Throwable failure; //the first exception the listener threw
+	private volatile long batches; //written by the consumer thread only
+
+	/**
+	 * Start a stream with room for 16384 events
+	 * @param listener called on the consumer thread with every vertex the search reports
+	 */
+	public SearchEventStream(Consumer<GeographicPoint> listener) {
+		this(listener, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Start a stream
+	 * @param listener called on the consumer thread with every vertex the search reports
+	 * @param capacity how many events may wait for the listener, rounded up to a power of two
+	 * @throws IllegalArgumentException if listener is null or capacity is less than 1
+	 */
+	public SearchEventStream(Consumer<GeographicPoint> listener, int capacity) {
+		if(listener == null) {
+			throw new IllegalArgumentException("listener must not be null");
+		}
+		if(capacity < 1 || capacity > 1 << 30) {
+			throw new IllegalArgumentException("capacity must be between 1 and 2^30");
+		}
+		this.listener = listener;
+		int size = Integer.highestOneBit(capacity);
+		ring = new GeographicPoint[size < capacity ? size << 1 : size];
+		mask = ring.length - 1;
+		consumer = new Thread(this::consume, "search-events");
+		consumer.setDaemon(true);
+		consumer.start();
+	}
+
+	/**
+	 * Report a vertex. Called by the search, it returns as soon as the point is in the ring
+	 * @param point the vertex the search reached
+	 * @throws IllegalStateException if the stream is closed
+	 */
+	@Override
+	public void accept(GeographicPoint point) {
+		if(closed) {
+			throw new IllegalStateException("The stream is closed");
+		}
+		if(head - deliveredSeen == ring.length) {
+			deliveredSeen = delivered.get();
+			while(head - deliveredSeen == ring.length) { //the listener is a whole ring behind
+				if(closed) {
+					throw new IllegalStateException("The stream is closed");
+				}
+				LockSupport.unpark(consumer);
+				Thread.yield();
+				deliveredSeen = delivered.get();
+			}
+		}
+		ring[(int) head & mask] = point;
+		written.lazySet(++head); //the point is stored before the consumer can see the new count
+	}
+
+	/**
+	 * Wait until the listener has been called with every vertex reported so far, such as when a
+	 * search has finished and its drawing should be complete
+	 * @throws IllegalStateException if the listener threw, or the wait was interrupted
+	 */
+	public void awaitDelivered() {
+		long target = written.get();
+		while(delivered.get() < target) {
+			if(!consumer.isAlive()) {
+				break;
+			}
+			LockSupport.unpark(consumer);
+			LockSupport.parkNanos(IDLE_NANOS);
+			if(Thread.interrupted()) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for the listener");
+			}
+		}
+		checkFailure();
+	}
+
+	/**
+	 * Deliver the events still in the ring, then stop the consumer thread
+	 * @throws IllegalStateException if the listener threw, or the wait was interrupted
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		LockSupport.unpark(consumer);
+		try {
+			consumer.join();
+		} catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while closing the stream", ie);
+		}
+		checkFailure();
+	}
+
+	/**
+	 * Get how many events the listener has been called with
+	 * @return the count so far
+	 */
+	public long getDelivered() {
+		return delivered.get();
+	}
+
+	/**
+	 * Get how many batches the consumer thread has taken from the ring. With a fast search and
+	 * a steady listener this is far below getDelivered()
+	 * @return the count so far
+	 */
+	public long getBatches() {
+		return batches;
+	}
+
+	/** The consumer thread: take what the search has written, hand it over, sleep when there is none */
+	private void consume() {
+		long taken = 0;
+		while(true) {
+			long available = written.get();
+			if(available == taken) {
+				if(closed && written.get() == taken) {
+					return;
+				}
+				LockSupport.parkNanos(this, IDLE_NANOS);
+				continue;
+			}
+			for(; taken < available; taken++) {
+				GeographicPoint point = ring[(int) taken & mask];
+				ring[(int) taken & mask] = null; //a delivered point is not kept reachable by the stream
+				if(failure == null) { //after a failure the events are only drained, so the search never waits
+					try {
+						listener.accept(point);
+					} catch(Throwable t) {
+						failure = t;
+					}
+				}
+			}
+			batches++;
+			delivered.lazySet(taken);
+		}
+	}
+
+	/** Pass on the listener's first exception to the thread using the stream */
+	private void checkFailure() {
+		if(failure != null) {
+			throw new IllegalStateException("The listener failed", failure);
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package roadgraph;
+
+import java.util.List;
+
+import geography.GeographicPoint;
+
+/**
+ * One answer from a multi-source / multi-target search: which source reached which target,
+ * how far apart they are, and the path between them.
+ * @author Adam Sickmiller
+ *
+ */
+public class SearchHit {
+	private final GeographicPoint source;
+	private final GeographicPoint target;
+	private final double distance;
+	private final List<GeographicPoint> path;
+
+	public SearchHit(GeographicPoint source, GeographicPoint target, double distance, List<GeographicPoint> path) {
+		this.source = source;
+		this.target = target;
+		this.distance = distance;
+		this.path = path;
+	}
+
+	/**
+	 * Get the source the winning path starts from
+	 * @return one of the sources passed to the search
+	 */
+	public GeographicPoint getSource() {
+		return source;
+	}
+
+	/**
+	 * Get the target this hit reached
+	 * @return one of the targets passed to the search
+	 */
+	public GeographicPoint getTarget() {
+		return target;
+	}
+
+	/**
+	 * Get the road distance from source to target
+	 * @return the length of the path, in km
+	 */
+	public double getDistance() {
+		return distance;
+	}
+
+	/**
+	 * Get the path from source to target
+	 * @return the points on the path, including source and target
+	 */
+	public List<GeographicPoint> getPath() {
+		return path;
+	}
+
+	@Override
+	public String toString() {
+		return source + " -> " + target + " (" + distance + " km)";
+	}
+}
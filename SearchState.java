@@ -0,0 +1,175 @@
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.List;
+
+import geography.GeographicPoint;
+
+/**
+ * Reusable working memory for the array based searches in MapGraph. One instance is kept per
+ * thread and grown when the graph grows, so a search allocates nothing per visited vertex:
+ * parents are an int[], the visited set is a bitset packed into a long[], the BFS queue is
+ * an int ring buffer and Dijkstra uses an IntMinHeap. dist[v] is only meaningful once v has
+ * been marked visited, which saves clearing it between searches.
+ * @author Adam Sickmiller
+ *
+ */
+class SearchState {
+	int[] parent = new int[0];	//parent[v] is the vertex v was reached from
+	int[] parentEdge = new int[0]; //parentEdge[v] is the edge position v was reached by
+	long[] visited = new long[0]; //bit v is set once v has been reached
+	long[] settled = new long[0]; //bit v is set once v's shortest distance is final
+	long[] targets = new long[0]; //bit v is set if v is a target of the current search
+	double[] dist = new double[0]; //best known distance to each reached vertex
+	final IntMinHeap heap = new IntMinHeap();
+	double[] weights = new double[0]; //per edge costs for searches that adjust weights, such as the penalty method
+	long[] blockedEdges = new long[0]; //bit e is set if edge position e may not be used
+	private int[] settledOrder = new int[16]; //vertices in the order the last dijkstra or aStarSearch settled them
+	private int numSettledOrder;
+	GeographicPoint[] pathPoints; //the path the most recent search returned, null until a search records one
+	int[] pathEdgeIds;			 //the id of the edge taken at each step of pathPoints
+	double[] pathLengths;		   //and its length on the snapshot the search ran on
+	private int[] queue = new int[1]; //ring buffer, length is always a power of two
+	private int queueHead;
+	private int queueTail;
+
+	/**
+	 * Make room for a graph with the given number of vertices and clear anything left over from
+	 * the previous search
+	 * @param numVertices the number of vertices in the graph about to be searched
+	 */
+	void reset(int numVertices) {
+		int words = (numVertices + 63) >>> 6;
+		if(parent.length < numVertices) {
+			parent = new int[numVertices];
+			parentEdge = new int[numVertices];
+			dist = new double[numVertices];
+			visited = new long[words];
+			settled = new long[words];
+			targets = new long[words];
+			queue = new int[Integer.highestOneBit(Math.max(1, numVertices)) << 1]; //always larger than numVertices
+		} else {
+			Arrays.fill(visited, 0, words, 0L);
+			Arrays.fill(settled, 0, words, 0L);
+			Arrays.fill(targets, 0, words, 0L);
+		}
+		heap.reset(numVertices);
+		pathPoints = null; //a new search, so the path on record is no longer the most recent
+		queueHead = 0;
+		queueTail = 0;
+	}
+
+	/**
+	 * Make sure the per edge arrays can hold the given number of edges. Unlike reset(), this does not
+	 * clear anything: callers own the contents of weights and blockedEdges
+	 * @param numEdges the number of edges in the graph about to be searched
+	 */
+	void ensureEdgeCapacity(int numEdges) {
+		if(weights.length < numEdges) {
+			weights = new double[numEdges];
+			blockedEdges = new long[(numEdges + 63) >>> 6];
+		}
+	}
+
+	boolean isEdgeBlocked(int e) {
+		return (blockedEdges[e >>> 6] & (1L << e)) != 0;
+	}
+
+	void setEdgeBlocked(int e, boolean blocked) {
+		if(blocked) {
+			blockedEdges[e >>> 6] |= 1L << e;
+		} else {
+			blockedEdges[e >>> 6] &= ~(1L << e);
+		}
+	}
+
+	/**
+	 * Keep the path a search is about to return and the edges it took, so the route can later be
+	 * described from the same edges on the same snapshot
+	 * @param path the vertex ids along the path, whose parentEdge entries the search filled in
+	 * @param points the points of those vertices
+	 */
+	void recordPath(GraphIndex graphIndex, int[] path, GeographicPoint[] points) {
+		pathEdgeIds = new int[path.length - 1];
+		pathLengths = new double[path.length - 1];
+		for(int i = 1; i < path.length; i++) {
+			int e = parentEdge[path[i]];
+			pathEdgeIds[i - 1] = graphIndex.edgeId(e);
+			pathLengths[i - 1] = graphIndex.length(e);
+		}
+		pathPoints = points;
+	}
+
+	/**
+	 * Check whether a route is the path recorded by the most recent search
+	 * @param route the points of a route
+	 * @return true if recordPath was called since the last reset() with the same points
+	 */
+	boolean isRecordedPath(List<GeographicPoint> route) {
+		if(pathPoints == null || pathPoints.length != route.size()) {
+			return false;
+		}
+		int i = 0;
+		for(GeographicPoint point: route) {
+			if(!pathPoints[i++].equals(point)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Start recording a new search's settled vertices. Unlike the rest, they are kept across reset() */
+	void clearSettledOrder() {
+		numSettledOrder = 0;
+	}
+
+	void recordSettled(int v) {
+		if(numSettledOrder == settledOrder.length) {
+			settledOrder = Arrays.copyOf(settledOrder, numSettledOrder * 2);
+		}
+		settledOrder[numSettledOrder++] = v;
+	}
+
+	int[] getSettledOrder() {
+		return Arrays.copyOf(settledOrder, numSettledOrder);
+	}
+
+	boolean isVisited(int v) {
+		return (visited[v >>> 6] & (1L << v)) != 0;
+	}
+
+	void markVisited(int v) {
+		visited[v >>> 6] |= 1L << v;
+	}
+
+	boolean isSettled(int v) {
+		return (settled[v >>> 6] & (1L << v)) != 0;
+	}
+
+	void markSettled(int v) {
+		settled[v >>> 6] |= 1L << v;
+	}
+
+	boolean isTarget(int v) {
+		return (targets[v >>> 6] & (1L << v)) != 0;
+	}
+
+	void markTarget(int v) {
+		targets[v >>> 6] |= 1L << v;
+	}
+
+	void enqueue(int v) {
+		queue[queueTail] = v;
+		queueTail = (queueTail + 1) & (queue.length - 1);
+	}
+
+	int dequeue() {
+		int v = queue[queueHead];
+		queueHead = (queueHead + 1) & (queue.length - 1);
+		return v;
+	}
+
+	boolean isQueueEmpty() {
+		return queueHead == queueTail;
+	}
+}
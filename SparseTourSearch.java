@@ -0,0 +1,330 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import geography.GeographicPoint;
+
+/**
+ * Plans salesman tours through thousands of stops without a distance matrix. TourSearch prices every
+ * move on the full matrix, which needs stops squared entries and one search per stop that runs until
+ * every other stop is settled. This engine works on a CandidateGraph instead, each stop's k nearest
+ * stops by road, found by searches that stop after k stops:
+ *
+ *   construct - greedy edge over the candidate legs, shortest first: a leg is taken when its start
+ *               has no way out yet, its end no way in, and it closes no loop. That leaves a set of
+ *               paths, which are chained from the origin's path on, each one's end joined to the
+ *               nearest start of a path not yet used, found by one search that stops at it
+ *   improve   - 2-opt, only where the first new leg goes to a candidate and only on segments of
+ *               up to MAX_REVERSAL stops, and or-opt: take runs of one to three stops out of the
+ *               tour and insert them again in front of one of the last stop's candidates, in the
+ *               same direction. Both repeat as long as they make the tour shorter or until the time
+ *               budget runs out
+ *
+ * Legs are priced in the direction they are driven, so one-way streets are handled like in
+ * TourSearch. Memory grows with stops * k, plus the few legs outside the candidate lists the
+ * heuristics had to measure.
+ * @author Adam Sickmiller
+ *
+ */
+public class SparseTourSearch {
+	private static final int MAX_RUN = 3;		  //longest run of stops or-opt moves
+	private static final int MAX_REVERSAL = 1000; //longest segment 2-opt reverses, each of its legs is priced
+
+	private final MapGraph graph;
+	private int candidates = 10;
+	private long timeBudgetMillis = 1000;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int extraSearches;
+
+	/**
+	 * Create an engine for the given graph
+	 * @param graph the graph the tour stops are on
+	 */
+	public SparseTourSearch(MapGraph graph) {
+		this.graph = graph;
+	}
+
+	/**
+	 * Set how many nearest stops each stop keeps as candidates
+	 * @param candidates the number of candidates, 10 by default
+	 */
+	public void setCandidates(int candidates) {
+		if(candidates < 1) {
+			throw new IllegalArgumentException("candidates must be at least 1");
+		}
+		this.candidates = candidates;
+	}
+
+	/**
+	 * Set how long or-opt may keep improving the tour
+	 * @param timeBudgetMillis the time budget in milliseconds. Finding the candidates and building the
+	 *   first tour is not counted
+	 */
+	public void setTimeBudgetMillis(long timeBudgetMillis) {
+		if(timeBudgetMillis < 0) {
+			throw new IllegalArgumentException("timeBudgetMillis must be >= 0");
+		}
+		this.timeBudgetMillis = timeBudgetMillis;
+	}
+
+	/**
+	 * Set how many threads find the candidates
+	 * @param threads the number of threads, one by default per processor
+	 */
+	public void setThreads(int threads) {
+		if(threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1");
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * Get how many legs outside the candidate lists the last solve had to measure, each with one
+	 * more search
+	 * @return the number of extra searches
+	 */
+	public int getExtraSearches() {
+		return extraSearches;
+	}
+
+	/**
+	 * Find a short tour from origin through every destination and back to origin
+	 * @param origin where the tour starts and ends
+	 * @param destinations the stops to visit. Repeats and the origin itself are visited once
+	 * @return the stops in the order they should be visited, starting and ending with origin
+	 * @throws IllegalArgumentException if a point is not in the graph, or a destination is not in the
+	 *   origin's strongly connected component, so no tour could visit it and come back
+	 */
+	public List<GeographicPoint> solve(GeographicPoint origin, List<GeographicPoint> destinations) {
+		TourSearch search = new TourSearch(graph);
+		List<GeographicPoint> stops = search.stopsOf(origin, destinations);
+		if(stops.size() <= 3) {
+			extraSearches = 0;
+			return search.solve(origin, destinations);
+		}
+		CandidateGraph candidateGraph = new CandidateGraph(graph, stops, candidates, threads);
+		int[] tour = greedyEdge(candidateGraph);
+		long deadline = System.nanoTime() + timeBudgetMillis * 1000000;
+		boolean improved = true;
+		while(improved && System.nanoTime() < deadline) {
+			improved = twoOpt(candidateGraph, tour, deadline);
+			improved |= orOpt(candidateGraph, tour, deadline);
+		}
+		extraSearches = candidateGraph.getExtraSearches();
+
+		List<GeographicPoint> route = new ArrayList<>(tour.length + 1);
+		for(int stop: tour) {
+			route.add(stops.get(stop));
+		}
+		route.add(origin);
+		return route;
+	}
+
+	/**
+	 * Build a tour from the shortest candidate legs, then chain the paths they form
+	 * @return the stops in visiting order, starting with stop 0
+	 */
+	static int[] greedyEdge(CandidateGraph candidateGraph) {
+		int n = candidateGraph.size();
+		int[] next = new int[n];
+		int[] previous = new int[n];
+		int[] root = new int[n];
+		for(int i = 0; i < n; i++) {
+			next[i] = previous[i] = -1;
+			root[i] = i;
+		}
+		for(int leg: candidateGraph.legsByCost()) {
+			int from = candidateGraph.legStart(leg);
+			int to = candidateGraph.legEnd(leg);
+			if(next[from] < 0 && previous[to] < 0) {
+				int a = TourSearch.find(root, from);
+				int b = TourSearch.find(root, to);
+				if(a != b) { //joining two paths, not closing one into a loop
+					next[from] = to;
+					previous[to] = from;
+					root[a] = b;
+				}
+			}
+		}
+
+		Map<Integer, Integer> startOf = new HashMap<>(); //vertex id of the first stop of each unused path
+		for(int i = 0; i < n; i++) {
+			if(previous[i] < 0) {
+				startOf.put(candidateGraph.vertexId(i), i);
+			}
+		}
+		int first = 0;
+		while(previous[first] >= 0) {
+			first = previous[first];
+		}
+		startOf.remove(candidateGraph.vertexId(first));
+		int[] tour = new int[n];
+		int length = 0;
+		MapGraph graph = candidateGraph.getGraph();
+		SearchState state = graph.getSearchState();
+		for(int stop = first; ; ) {
+			for(; stop >= 0; stop = next[stop]) {
+				tour[length++] = stop;
+			}
+			if(startOf.isEmpty()) {
+				break;
+			}
+			int[] starts = new int[startOf.size()];
+			int s = 0;
+			for(int id: startOf.keySet()) {
+				starts[s++] = id;
+			}
+			int[] found = graph.multiSearch(candidateGraph.getIndex(), state,
+					new int[] {candidateGraph.vertexId(tour[length - 1])}, starts, 1);
+			if(found.length == 0) { //unreachable, which stopsOf rules out for stops in one component
+				throw new IllegalStateException("No path from " + tour[length - 1] + " to the remaining stops");
+			}
+			stop = startOf.remove(found[0]);
+		}
+
+		int[] rotated = new int[n]; //start at stop 0, the origin
+		int at = 0;
+		while(tour[at] != 0) {
+			at++;
+		}
+		for(int i = 0; i < n; i++) {
+			rotated[i] = tour[(at + i) % n];
+		}
+		return rotated;
+	}
+
+	/**
+	 * Apply improving 2-opt moves until there are none or the deadline passes. For the leg from a to
+	 * the stop after it, each candidate c of a that comes later in the tour is tried as a's new
+	 * successor, by reversing the stops from a's successor to c. A candidate that comes earlier would
+	 * need the leg from c to a instead, which is tried from c's own candidates. Candidates are sorted,
+	 * so the search for a stops at the first one that is no shorter than the leg it would replace. A
+	 * reversed segment is driven the other way, so its legs are priced again, one-way streets included
+	 * @param tour the stops in visiting order, starting with stop 0, which never moves
+	 * @param deadline System.nanoTime() to stop at
+	 * @return true if the tour changed
+	 */
+	static boolean twoOpt(CandidateGraph candidateGraph, int[] tour, long deadline) {
+		int n = tour.length;
+		int[] position = new int[n];
+		for(int p = 0; p < n; p++) {
+			position[tour[p]] = p;
+		}
+		boolean changed = false;
+		boolean improved = true;
+		while(improved && System.nanoTime() < deadline) {
+			improved = false;
+			for(int i = 0; i < n && System.nanoTime() < deadline; i++) {
+				int a = tour[i];
+				double removedFirst = candidateGraph.distance(a, tour[(i + 1) % n]);
+				for(int r = 0; r < candidateGraph.count(a); r++) {
+					if(removedFirst - candidateGraph.cost(a, r) <= 1e-9) {
+						break; //the rest are no shorter
+					}
+					int from = i + 1; //reverse tour[from .. to], so a stays at i and is followed by c
+					int to = position[candidateGraph.neighbor(a, r)];
+					if(to - from < 1 || to - from >= MAX_REVERSAL) {
+						continue; //c already follows a, comes before it, or is too far on
+					}
+					if(reversalGain(candidateGraph, tour, from, to) > 1e-9) {
+						for(; from < to; from++, to--) {
+							int t = tour[from];
+							tour[from] = tour[to];
+							tour[to] = t;
+							position[tour[from]] = from;
+							position[tour[to]] = to;
+						}
+						improved = changed = true;
+						removedFirst = candidateGraph.distance(a, tour[(i + 1) % n]);
+					}
+				}
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Price reversing tour[from .. to]: the legs into and out of the segment change ends, and every
+	 * leg inside it is driven the other way. Every inner leg is priced, even once the gain so far is
+	 * not positive, since on a one-way street the way back can be shorter and win the move back.
+	 * MAX_REVERSAL keeps that work bounded
+	 * @return how much shorter the tour gets, or a number no larger than 0 if it does not
+	 */
+	private static double reversalGain(CandidateGraph candidateGraph, int[] tour, int from, int to) {
+		int n = tour.length;
+		int before = tour[from - 1];
+		int after = tour[(to + 1) % n];
+		double gain = candidateGraph.distance(before, tour[from]) + candidateGraph.distance(tour[to], after)
+				- candidateGraph.distance(before, tour[to]) - candidateGraph.distance(tour[from], after);
+		for(int p = from; p < to; p++) {
+			gain += candidateGraph.distance(tour[p], tour[p + 1]) - candidateGraph.distance(tour[p + 1], tour[p]);
+		}
+		return gain;
+	}
+
+	/**
+	 * Apply improving or-opt moves until there are none or the deadline passes. A run of one to
+	 * three stops is moved in front of one of its last stop's candidates, keeping its direction.
+	 * Only when the legs that are already known promise a gain is the one new leg into the run
+	 * priced, which may take a search
+	 * @param tour the stops in visiting order, starting with stop 0, which never moves
+	 * @param deadline System.nanoTime() to stop at
+	 * @return true if the tour changed
+	 */
+	static boolean orOpt(CandidateGraph candidateGraph, int[] tour, long deadline) {
+		int n = tour.length;
+		int[] position = new int[n];
+		for(int p = 0; p < n; p++) {
+			position[tour[p]] = p;
+		}
+		boolean changed = false;
+		boolean improved = true;
+		while(improved && System.nanoTime() < deadline) {
+			improved = false;
+			for(int s = 1; s < n && System.nanoTime() < deadline; s++) {
+				for(int length = 1; length <= MAX_RUN && s + length - 1 < n && length < n - 2; length++) {
+					int e = s + length - 1;
+					int first = tour[s];
+					int last = tour[e];
+					int before = tour[s - 1];
+					int after = tour[(e + 1) % n];
+					double removeGain = candidateGraph.distance(before, first) + candidateGraph.distance(last, after)
+							- candidateGraph.distance(before, after);
+					if(removeGain <= 1e-9) {
+						continue;
+					}
+					int bestAt = -1;
+					double bestGain = 1e-9;
+					for(int r = 0; r < candidateGraph.count(last); r++) {
+						int b = candidateGraph.neighbor(last, r);
+						int at = (position[b] - 1 + n) % n; //the run goes between tour[at] and b
+						if((position[b] >= s && position[b] <= e) || (at >= s && at <= e)) {
+							continue; //inside the run, or where it already is
+						}
+						int a = tour[at];
+						double known = candidateGraph.cost(last, r) - candidateGraph.distance(a, b);
+						if(removeGain - known <= bestGain) {
+							continue; //the leg from a into the run can only make it worse
+						}
+						double gain = removeGain - known - candidateGraph.distance(a, first);
+						if(gain > bestGain) {
+							bestGain = gain;
+							bestAt = at;
+						}
+					}
+					if(bestAt >= 0) {
+						TourSearch.moveRun(tour, s, e, bestAt, false);
+						for(int p = Math.min(s, bestAt + 1); p <= Math.max(e, bestAt); p++) {
+							position[tour[p]] = p;
+						}
+						improved = changed = true;
+					}
+				}
+			}
+		}
+		return changed;
+	}
+}
@@ -0,0 +1,222 @@
+package roadgraph;
+
+import java.util.Arrays;
+
+/**
+ * The strongly connected components of a GraphIndex, ignoring blocked edges. Two vertices are in
+ * the same strong component if each can be reached from the other. The components are found with
+ * an iterative version of Tarjan's algorithm that keeps its own stack in int arrays, so a long road
+ * can not overflow the call stack.
+ *
+ * Tarjan's algorithm finishes a component only after every component it can reach, so if goal can
+ * be reached from start then componentOf(goal) <= componentOf(start). Together with the weak
+ * components (connected when edge directions are ignored) this answers most "is there no path"
+ * questions in constant time, without a search. See mayReach.
+ * @author Adam Sickmiller
+ *
+ */
+public class StronglyConnectedComponents {
+	private final int[] componentOf;	 //strong component of each vertex id
+	private final int[] componentSize;	 //number of vertices in each strong component
+	private final int[] weakComponentOf; //weak component of each vertex id
+	private final int numWeakComponents;
+	private final int largestComponent;
+	private final int largestWeakComponent;
+
+	/**
+	 * Find the components of a snapshot
+	 * @param graphIndex the snapshot to analyse
+	 */
+	StronglyConnectedComponents(GraphIndex graphIndex) {
+		int n = graphIndex.getNumVertices();
+		componentOf = new int[n];
+		int[] order = new int[n]; //visiting order of each vertex, -1 for not yet visited
+		int[] low = new int[n];
+		int[] stack = new int[n]; //vertices whose component is not yet known
+		boolean[] onStack = new boolean[n];
+		int[] callVertex = new int[n]; //stands in for the recursion
+		int[] callEdge = new int[n];
+		Arrays.fill(order, -1);
+		int visited = 0;
+		int numComponents = 0;
+		int sp = 0;
+		for(int root = 0; root < n; root++) {
+			if(order[root] != -1) {
+				continue;
+			}
+			int cp = 0;
+			order[root] = low[root] = visited++;
+			stack[sp++] = root;
+			onStack[root] = true;
+			callVertex[cp] = root;
+			callEdge[cp++] = graphIndex.firstOut(root);
+			while(cp > 0) {
+				int v = callVertex[cp - 1];
+				int e = callEdge[cp - 1];
+				if(e < graphIndex.firstOut(v + 1)) {
+					callEdge[cp - 1]++;
+					if(graphIndex.isBlocked(e)) {
+						continue;
+					}
+					int w = graphIndex.head(e);
+					if(order[w] == -1) {
+						order[w] = low[w] = visited++;
+						stack[sp++] = w;
+						onStack[w] = true;
+						callVertex[cp] = w;
+						callEdge[cp++] = graphIndex.firstOut(w);
+					} else if(onStack[w]) {
+						low[v] = Math.min(low[v], order[w]);
+					}
+				} else {
+					cp--;
+					if(low[v] == order[v]) { //v is the root of a component, everything above it on the stack is in it
+						int w;
+						do {
+							w = stack[--sp];
+							onStack[w] = false;
+							componentOf[w] = numComponents;
+						} while(w != v);
+						numComponents++;
+					}
+					if(cp > 0) {
+						int parent = callVertex[cp - 1];
+						low[parent] = Math.min(low[parent], low[v]);
+					}
+				}
+			}
+		}
+		componentSize = new int[numComponents];
+		for(int v = 0; v < n; v++) {
+			componentSize[componentOf[v]]++;
+		}
+
+		//weak components with union-find, linking the strong components across every open edge
+		int[] root = new int[numComponents];
+		for(int c = 0; c < numComponents; c++) {
+			root[c] = c;
+		}
+		for(int v = 0; v < n; v++) {
+			for(int e = graphIndex.firstOut(v), end = graphIndex.firstOut(v + 1); e < end; e++) {
+				if(!graphIndex.isBlocked(e)) {
+					int a = find(root, componentOf[v]);
+					int b = find(root, componentOf[graphIndex.head(e)]);
+					root[Math.max(a, b)] = Math.min(a, b);
+				}
+			}
+		}
+		int[] weakId = new int[numComponents];
+		int numWeak = 0;
+		for(int c = 0; c < numComponents; c++) {
+			int r = find(root, c);
+			weakId[c] = r == c ? numWeak++ : weakId[r]; //a root is always smaller than the components under it
+		}
+		numWeakComponents = numWeak;
+		weakComponentOf = new int[n];
+		int[] weakSize = new int[numWeak];
+		for(int v = 0; v < n; v++) {
+			weakComponentOf[v] = weakId[componentOf[v]];
+			weakSize[weakComponentOf[v]]++;
+		}
+		int largest = 0;
+		for(int size: componentSize) {
+			largest = Math.max(largest, size);
+		}
+		largestComponent = largest;
+		largest = 0;
+		for(int size: weakSize) {
+			largest = Math.max(largest, size);
+		}
+		largestWeakComponent = largest;
+	}
+
+	/** Find the root of a union-find tree, halving the path on the way */
+	private static int find(int[] root, int c) {
+		while(root[c] != c) {
+			root[c] = root[root[c]];
+			c = root[c];
+		}
+		return c;
+	}
+
+	/**
+	 * Get the number of strongly connected components
+	 * @return the component count. A graph where every vertex can reach every other has 1
+	 */
+	public int getNumComponents() {
+		return componentSize.length;
+	}
+
+	/**
+	 * Get the strong component of a vertex
+	 * @param v a vertex id
+	 * @return a component id between 0 and getNumComponents() - 1
+	 */
+	public int componentOf(int v) {
+		return componentOf[v];
+	}
+
+	/**
+	 * Get the number of vertices in a strong component
+	 * @param component a component id
+	 * @return the size of the component
+	 */
+	public int getComponentSize(int component) {
+		return componentSize[component];
+	}
+
+	/**
+	 * Get the size of the largest strong component
+	 * @return the number of vertices in it, 0 for an empty graph
+	 */
+	public int getLargestComponentSize() {
+		return largestComponent;
+	}
+
+	/**
+	 * Get the size of the largest weak component
+	 * @return the number of vertices in it, 0 for an empty graph
+	 */
+	public int getLargestWeakComponentSize() {
+		return largestWeakComponent;
+	}
+
+	/**
+	 * Get the number of weakly connected components, the pieces of the graph when edge directions
+	 * are ignored
+	 * @return the weak component count
+	 */
+	public int getNumWeakComponents() {
+		return numWeakComponents;
+	}
+
+	/**
+	 * Get the weak component of a vertex
+	 * @param v a vertex id
+	 * @return a weak component id between 0 and getNumWeakComponents() - 1
+	 */
+	public int weakComponentOf(int v) {
+		return weakComponentOf[v];
+	}
+
+	/**
+	 * Check whether two vertices can each reach the other
+	 * @param a a vertex id
+	 * @param b a vertex id
+	 * @return true if a and b are in the same strong component
+	 */
+	public boolean isStronglyConnected(int a, int b) {
+		return componentOf[a] == componentOf[b];
+	}
+
+	/**
+	 * Check, without searching, whether there might be a path from start to goal
+	 * @param start a vertex id
+	 * @param goal a vertex id
+	 * @return false if there is certainly no path. true if start and goal are in the same strong
+	 *   component, or if the components alone can not rule a path out
+	 */
+	public boolean mayReach(int start, int goal) {
+		return componentOf[goal] <= componentOf[start] && weakComponentOf[start] == weakComponentOf[goal];
+	}
+}
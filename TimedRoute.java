@@ -0,0 +1,53 @@
+package roadgraph;
+
+import java.util.List;
+
+import geography.GeographicPoint;
+
+/**
+ * The result of a travel time search: the route and when each point on it is reached.
+ * @author Adam Sickmiller
+ *
+ */
+public class TimedRoute {
+	private final List<GeographicPoint> path;
+	private final double[] arrivalTimes;
+
+	public TimedRoute(List<GeographicPoint> path, double[] arrivalTimes) {
+		this.path = path;
+		this.arrivalTimes = arrivalTimes;
+	}
+
+	/**
+	 * Get the route
+	 * @return the points on the route, including start and goal
+	 */
+	public List<GeographicPoint> getPath() {
+		return path;
+	}
+
+	/**
+	 * Get the time each point on the route is reached
+	 * @param i a position on the path
+	 * @return seconds since midnight of the departure day. The first entry is the departure time
+	 */
+	public double getArrivalTime(int i) {
+		return arrivalTimes[i];
+	}
+
+	public double getDepartureTime() {
+		return arrivalTimes[0];
+	}
+
+	public double getArrivalTime() {
+		return arrivalTimes[arrivalTimes.length - 1];
+	}
+
+	/**
+	 * Get the total travel time
+	 * @return seconds from departure to arrival
+	 */
+	public double getTravelTime() {
+		return getArrivalTime() - getDepartureTime();
+	}
+}
@@ -0,0 +1,127 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import geography.GeographicPoint;
+
+/**
+ * Compares tour improvement on a synthetic grid city where most streets are one-way, like a
+ * Manhattan street plan: rows and columns alternate direction, and only the border ring and every
+ * tenth street run both ways. Such a map makes the road distance from a to b differ from the
+ * distance from b to a for most pairs of stops.
+ *
+ * Starting from the same nearest neighbor tours it prints the length and time of
+ * - 2-opt priced on the symmetrized matrix (the mean of both directions), as a solver that assumes
+ *   symmetric distances would see it,
+ * - 2-opt priced exactly in the driving direction,
+ * - TourSearch.localSearch, 2-opt with or-opt and segment exchange.
+ * Every tour is measured on the real one-way matrix.
+ *
+ * Usage: TourBenchmark [gridSize] [stops] [rounds]
+ * @author Adam Sickmiller
+ *
+ */
+public class TourBenchmark {
+	private static final double SPACING = 0.001; //degrees between neighboring intersections, about 100 m
+
+	public static void main(String[] args) {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 60;
+		int stopCount = args.length > 1 ? Integer.parseInt(args[1]) : 150;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		MapGraph graph = oneWayGrid(size);
+		System.out.println("One-way grid: " + graph.getNumVertices() + " vertices, " + graph.getNumEdges() + " edges");
+
+		Random random = new Random(42);
+		List<GeographicPoint> vertices = new ArrayList<>(graph.getVertices());
+		double[] totals = new double[4];
+		long[] times = new long[4];
+		double asymmetric = 0;
+		for(int round = 0; round < rounds; round++) {
+			Collections.shuffle(vertices, random);
+			double[][] matrix = graph.distanceMatrix(vertices.subList(0, stopCount));
+			int n = matrix.length;
+			double[][] symmetric = new double[n][n];
+			int pairs = 0;
+			for(int i = 0; i < n; i++) {
+				for(int j = 0; j < n; j++) {
+					symmetric[i][j] = (matrix[i][j] + matrix[j][i]) / 2;
+					if(i < j && Math.abs(matrix[i][j] - matrix[j][i]) > 1e-9) {
+						pairs++;
+					}
+				}
+			}
+			asymmetric += pairs / (n * (n - 1) / 2.0);
+			int[] start = TourSearch.nearestNeighbor(matrix, 0);
+			totals[0] += TourSearch.tourCost(matrix, start);
+
+			int[] tour = start.clone();
+			long time = System.nanoTime();
+			TourSearch.twoOpt(symmetric, tour);
+			times[1] += System.nanoTime() - time;
+			totals[1] += TourSearch.tourCost(matrix, tour);
+
+			tour = start.clone();
+			time = System.nanoTime();
+			TourSearch.twoOpt(matrix, tour);
+			times[2] += System.nanoTime() - time;
+			totals[2] += TourSearch.tourCost(matrix, tour);
+
+			tour = start.clone();
+			time = System.nanoTime();
+			TourSearch.localSearch(matrix, tour, TourSearch.nearestCandidates(matrix, 8));
+			times[3] += System.nanoTime() - time;
+			totals[3] += TourSearch.tourCost(matrix, tour);
+		}
+		System.out.println(stopCount + " stops, " + Math.round(asymmetric / rounds * 100)
+				+ "% of pairs differ by direction, mean over " + rounds + " rounds:");
+		String[] names = {"nearest neighbor", "2-opt, symmetrized", "2-opt, one-way", "2-opt + or-opt + exchange"};
+		for(int k = 0; k < names.length; k++) {
+			System.out.printf("  %-26s %8.2f km %8d ms%n", names[k], totals[k] / rounds, times[k] / 1000000 / rounds);
+		}
+	}
+
+	/**
+	 * Build a size by size grid whose inner streets are one-way, alternating direction from one
+	 * street to the next. The border and every tenth street run both ways, so every intersection can
+	 * reach every other
+	 */
+	static MapGraph oneWayGrid(int size) {
+		MapGraph graph = new MapGraph();
+		GeographicPoint[][] at = new GeographicPoint[size][size];
+		for(int r = 0; r < size; r++) {
+			for(int c = 0; c < size; c++) {
+				at[r][c] = new GeographicPoint(r * SPACING, c * SPACING);
+				graph.addVertex(at[r][c]);
+			}
+		}
+		for(int r = 0; r < size; r++) {
+			for(int c = 0; c < size; c++) {
+				if(c + 1 < size) { //along row r
+					boolean both = r == 0 || r == size - 1 || r % 10 == 0;
+					street(graph, at[r][c], at[r][c + 1], "row " + r, both, r % 2 == 0);
+				}
+				if(r + 1 < size) { //along column c
+					boolean both = c == 0 || c == size - 1 || c % 10 == 0;
+					street(graph, at[r][c], at[r + 1][c], "column " + c, both, c % 2 == 0);
+				}
+			}
+		}
+		return graph;
+	}
+
+	/** Add one block of street, both ways or only the way forward says */
+	private static void street(MapGraph graph, GeographicPoint a, GeographicPoint b, String name,
+			boolean both, boolean forward) {
+		double length = a.distance(b);
+		if(both || forward) {
+			graph.addEdge(a, b, name, "residential", length);
+		}
+		if(both || !forward) {
+			graph.addEdge(b, a, name, "residential", length);
+		}
+	}
+}
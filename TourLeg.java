@@ -0,0 +1,60 @@
+package roadgraph;
+
+import java.util.List;
+
+import geography.GeographicPoint;
+
+/**
+ * One leg of a MaterializedTour: the road path between two consecutive stops, its length and the
+ * road taken at each step.
+ * @author Adam Sickmiller
+ *
+ */
+public class TourLeg {
+	private final GeographicPoint from;
+	private final GeographicPoint to;
+	private final List<GeographicPoint> path;
+	private final double length;
+	private final List<String> roadNames;
+
+	public TourLeg(GeographicPoint from, GeographicPoint to, List<GeographicPoint> path, double length,
+			List<String> roadNames) {
+		this.from = from;
+		this.to = to;
+		this.path = path;
+		this.length = length;
+		this.roadNames = roadNames;
+	}
+
+	public GeographicPoint getFrom() {
+		return from;
+	}
+
+	public GeographicPoint getTo() {
+		return to;
+	}
+
+	/**
+	 * Get the road path of the leg
+	 * @return the intersections from getFrom() to getTo(), both included
+	 */
+	public List<GeographicPoint> getPath() {
+		return path;
+	}
+
+	/**
+	 * Get the road distance of the leg
+	 * @return the length of the path, in km
+	 */
+	public double getLength() {
+		return length;
+	}
+
+	/**
+	 * Get the roads the leg follows
+	 * @return roadNames.get(i) is the road from path point i to path point i + 1
+	 */
+	public List<String> getRoadNames() {
+		return roadNames;
+	}
+}
@@ -0,0 +1,154 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import geography.GeographicPoint;
+
+/**
+ * A road distance matrix over the stops of a tour that can grow and shrink one stop at a time.
+ * Adding a stop runs one forward search for its row and one backward search for its column, so the
+ * cost of an update does not grow with the square of the number of stops. Removing a stop moves the
+ * last stop into its place and runs no search at all.
+ *
+ * The paths those searches find are kept in a LegCache, so the road path of any leg can be read
+ * back with leg(i, j) without searching again.
+ *
+ * The matrix remembers the epoch of the graph snapshot it was measured on. Once the graph has
+ * changed, isStale() tells the owner to measure it again.
+ * @author Adam Sickmiller
+ *
+ */
+class TourMatrix {
+	private final MapGraph graph;
+	private final List<GeographicPoint> points;
+	private final Map<GeographicPoint, Integer> indexOf = new HashMap<>();
+	private double[][] costs; //square, with room to grow. Only the first size() rows and columns are used
+	private final long epoch;
+	private final LegCache legs;
+
+	/**
+	 * Measure the distances between the given points
+	 * @param graph the graph the points are on
+	 * @param points the stops, with no repeats
+	 */
+	TourMatrix(MapGraph graph, List<GeographicPoint> points) {
+		this.graph = graph;
+		this.epoch = graph.getIndex().getEpoch();
+		this.legs = new LegCache(epoch);
+		this.points = new ArrayList<>(points);
+		for(int i = 0; i < points.size(); i++) {
+			indexOf.put(points.get(i), i);
+		}
+		double[][] measured = graph.distanceMatrix(points, legs);
+		costs = new double[Math.max(8, points.size() * 2)][];
+		for(int i = 0; i < costs.length; i++) {
+			costs[i] = new double[costs.length];
+			if(i < measured.length) {
+				System.arraycopy(measured[i], 0, costs[i], 0, measured.length);
+			}
+		}
+	}
+
+	int size() {
+		return points.size();
+	}
+
+	GeographicPoint point(int i) {
+		return points.get(i);
+	}
+
+	/**
+	 * Get the index of a stop
+	 * @return the index, or -1 if the point is not a stop of this matrix
+	 */
+	int indexOf(GeographicPoint point) {
+		Integer i = indexOf.get(point);
+		return i == null ? -1 : i;
+	}
+
+	/**
+	 * Get the distances. The array is updated in place as stops come and go, and replaced when it grows
+	 * @return costs[i][j], the distance from stop i to stop j, for i and j below size()
+	 */
+	double[][] costs() {
+		return costs;
+	}
+
+	/**
+	 * Check whether the graph has changed since the distances were measured
+	 * @return true if the matrix should be measured again
+	 */
+	boolean isStale() {
+		return graph.getIndex().getEpoch() != epoch;
+	}
+
+	/**
+	 * Add a stop, measuring its row and column
+	 * @param point the new stop. Must be in the graph and not already a stop
+	 * @return the index of the new stop, the old size()
+	 */
+	int add(GeographicPoint point) {
+		int n = points.size();
+		double[] row = graph.distanceRow(point, points, legs);
+		double[] column = graph.distanceColumn(points, point, legs);
+		if(n == costs.length) {
+			double[][] grown = new double[n * 2][n * 2];
+			for(int i = 0; i < n; i++) {
+				System.arraycopy(costs[i], 0, grown[i], 0, n);
+			}
+			costs = grown;
+		}
+		for(int i = 0; i < n; i++) {
+			costs[n][i] = row[i];
+			costs[i][n] = column[i];
+		}
+		costs[n][n] = 0;
+		points.add(point);
+		indexOf.put(point, n);
+		return n;
+	}
+
+	/**
+	 * Remove a stop. The last stop takes its index
+	 * @param index the stop to remove
+	 */
+	void remove(int index) {
+		int last = points.size() - 1;
+		indexOf.remove(points.get(index));
+		legs.forget(graph.getVertexId(points.get(index)));
+		if(index != last) {
+			for(int i = 0; i < last; i++) {
+				costs[index][i] = costs[last][i];
+				costs[i][index] = costs[i][last];
+			}
+			costs[index][index] = 0;
+			points.set(index, points.get(last));
+			indexOf.put(points.get(index), index);
+		}
+		points.remove(last);
+	}
+
+	/**
+	 * Get the road path of a leg, from the paths kept when the distances were measured. Only if the
+	 * path was never found, because the graph changed in between, is a new search run
+	 * @param i the stop the leg starts at
+	 * @param j the stop the leg ends at
+	 * @return the points from stop i to stop j, both included. Empty if there is no path
+	 */
+	List<GeographicPoint> leg(int i, int j) {
+		GraphIndex graphIndex = graph.getIndex();
+		int[] path = graphIndex.getEpoch() == epoch
+				? legs.path(graph.getVertexId(points.get(i)), graph.getVertexId(points.get(j))) : null;
+		if(path == null) {
+			return graph.dijkstra(points.get(i), points.get(j));
+		}
+		List<GeographicPoint> leg = new ArrayList<>(path.length);
+		for(int v: path) {
+			leg.add(graphIndex.point(v));
+		}
+		return leg;
+	}
+}
@@ -0,0 +1,904 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import geography.GeographicPoint;
+
+/**
+ * Searches for short salesman tours on many threads at once. SalesmanMapGraph.bestPathGreedy builds
+ * one nearest neighbor tour from the origin; this engine keeps building and improving tours until
+ * its time budget runs out and returns the best one any thread found.
+ *
+ * Each worker repeats the same cycle with its own random generator:
+ *   construct - a tour from one of three heuristics, taken in turn:
+ *               nearest neighbor   - from a random first stop (worker 0 starts its first tour at the
+ *                                    origin, the tour bestPathGreedy returns)
+ *               greedy edge        - add the shortest legs that keep every stop at one way in and one
+ *                                    way out and close no early loop, choosing among each stop's
+ *                                    nearest candidates with a little random noise
+ *               Christofides-style - a minimum spanning tree, its odd-degree stops matched greedily,
+ *                                    walked as an Euler tour and shortcut past repeated stops
+ *   improve   - 2-opt, or-opt and segment exchange (see localSearch) until no move shortens the tour
+ *   perturb   - iterated local search: a random double-bridge kick followed by 2-opt, kept when it
+ *               is no longer. After KICKS_PER_START kicks without progress the worker starts over
+ *
+ * Tours are compared on the road distance matrix, which need not be symmetric: one-way streets
+ * make A to B and B to A different legs. Every move is priced on the legs as they are driven after
+ * it, reversed segments included, and or-opt and segment exchange never reverse anything, so they
+ * work as well on one-way streets as on two-way ones. Workers publish every
+ * improvement to a shared best tour held in an AtomicReference, swapped in with compare-and-set so
+ * no worker ever waits for another.
+ *
+ * Worker w is seeded with seed + w. With setMaxKicks the work a worker does no longer depends on
+ * the clock, so the same seed, thread count and kick limit always give the same tour.
+ *
+ * solveWithBound also runs a HeldKarpBound on one more thread while the workers search. Each side
+ * feeds the other: the bound sizes its steps by the best tour so far, and as soon as the best tour
+ * is within the target gap of the bound every worker stops, so no CPU is spent on a tour that is
+ * already known to be good enough.
+ * @author Adam Sickmiller
+ *
+ */
+public class TourSearch {
+	private static final int KICKS_PER_START = 50; //kicks without improvement before a worker starts over
+	private static final int CANDIDATES = 8;		//nearest stops the greedy edge construction considers
+	private static final double NOISE = 0.1;		//most a greedy edge leg is scaled up by at random
+	private static final int BOUND_STEPS = 2000;	//most subgradient steps the lower bound takes
+
+	private final MapGraph graph;
+	private long timeBudgetMillis = 1000;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private long seed = 42;
+	private long maxKicks = Long.MAX_VALUE;
+	private double targetGap = 0;
+
+	/**
+	 * Create an engine for the given graph
+	 * @param graph the graph the tour stops are on
+	 */
+	public TourSearch(MapGraph graph) {
+		this.graph = graph;
+	}
+
+	/**
+	 * Set how long a search may run
+	 * @param timeBudgetMillis the time budget in milliseconds. Every worker builds and improves at
+	 *   least one tour, however small the budget
+	 */
+	public void setTimeBudgetMillis(long timeBudgetMillis) {
+		if(timeBudgetMillis < 0) {
+			throw new IllegalArgumentException("timeBudgetMillis must be >= 0");
+		}
+		this.timeBudgetMillis = timeBudgetMillis;
+	}
+
+	/**
+	 * Set how many workers search side by side
+	 * @param threads the number of threads, one by default per processor
+	 */
+	public void setThreads(int threads) {
+		if(threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1");
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * Set the seed of the random choices, so runs can be repeated
+	 * @param seed the seed of worker 0. Worker w uses seed + w
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Limit the number of kicks each worker makes, so a search stops on its own before the time
+	 * budget runs out and gives the same tour every time
+	 * @param maxKicks the kicks per worker, unlimited by default
+	 */
+	public void setMaxKicks(long maxKicks) {
+		if(maxKicks < 0) {
+			throw new IllegalArgumentException("maxKicks must be >= 0");
+		}
+		this.maxKicks = maxKicks;
+	}
+
+	/**
+	 * Set how close to the lower bound a tour must be for solveWithBound to stop early
+	 * @param targetGap the largest acceptable (length - bound) / bound. 0 by default, which stops
+	 *   only when a tour is proven optimal
+	 */
+	public void setTargetGap(double targetGap) {
+		if(!(targetGap >= 0)) {
+			throw new IllegalArgumentException("targetGap must be >= 0");
+		}
+		this.targetGap = targetGap;
+	}
+
+	/**
+	 * Find a short tour from origin through every destination and back to origin
+	 * @param origin where the tour starts and ends
+	 * @param destinations the stops to visit. Repeats and the origin itself are visited once
+	 * @return the stops in the order they should be visited, starting and ending with origin
+	 * @throws IllegalArgumentException if a point is not in the graph, or a destination is not in the
+	 *   origin's strongly connected component, so no tour could visit it and come back
+	 */
+	public List<GeographicPoint> solve(GeographicPoint origin, List<GeographicPoint> destinations) {
+		List<GeographicPoint> stops = stopsOf(origin, destinations);
+		return routeOf(stops, search(matrixOf(stops), false).order());
+	}
+
+	/**
+	 * Find a short tour like solve, and a lower bound on the length of any tour through the same
+	 * stops, worked out on one more thread at the same time. The search stops as soon as its best
+	 * tour is within the target gap of the bound, or when the time budget runs out
+	 * @param origin where the tour starts and ends
+	 * @param destinations the stops to visit. Repeats and the origin itself are visited once
+	 * @return the tour, its length and the lower bound
+	 * @throws IllegalArgumentException see solve
+	 */
+	public TourSolution solveWithBound(GeographicPoint origin, List<GeographicPoint> destinations) {
+		List<GeographicPoint> stops = stopsOf(origin, destinations);
+		Progress progress = search(matrixOf(stops), true);
+		return new TourSolution(routeOf(stops, progress.order()), progress.getBestCost(), progress.getBound());
+	}
+
+	/**
+	 * Work out a lower bound for a tour that was planned some other way, such as
+	 * SalesmanMapGraph.bestPathGreedy, to see how far from optimal it may be. Uses the time budget
+	 * @param route the tour, starting and ending at the same stop
+	 * @return the tour, its road length and the lower bound
+	 * @throws IllegalArgumentException if the route is empty or does not end where it starts, a stop
+	 *   is not in the graph, or a stop is not in the first stop's strongly connected component
+	 */
+	public TourSolution evaluate(List<GeographicPoint> route) {
+		if(route.isEmpty() || !route.get(0).equals(route.get(route.size() - 1))) {
+			throw new IllegalArgumentException("The route must start and end at the same stop");
+		}
+		List<GeographicPoint> stops = stopsOf(route.get(0), route);
+		Map<GeographicPoint, Integer> index = new HashMap<>();
+		for(int i = 0; i < stops.size(); i++) {
+			index.put(stops.get(i), i);
+		}
+		double[][] matrix = matrixOf(stops);
+		double length = 0;
+		for(int i = 0; i < route.size() - 1; i++) {
+			length += matrix[index.get(route.get(i))][index.get(route.get(i + 1))];
+		}
+		final double upperBound = length;
+		long deadline = System.nanoTime() + timeBudgetMillis * 1000000;
+		double bound = new HeldKarpBound(matrix).compute(() -> upperBound, () -> System.nanoTime() > deadline,
+				b -> {}, BOUND_STEPS);
+		return new TourSolution(route, length, Math.max(0, bound));
+	}
+
+	/** The origin followed by every other stop once, after checking a tour can visit them all */
+	List<GeographicPoint> stopsOf(GeographicPoint origin, List<GeographicPoint> destinations) {
+		Set<GeographicPoint> unique = new LinkedHashSet<>();
+		unique.add(origin);
+		unique.addAll(destinations);
+		List<GeographicPoint> stops = new ArrayList<>(unique);
+		int component = graph.getComponentId(origin);
+		for(GeographicPoint stop: stops) {
+			if(graph.getComponentId(stop) != component) {
+				throw new IllegalArgumentException("Destination " + stop + " can not be reached from origin "
+						+ origin + " and back");
+			}
+		}
+		return stops;
+	}
+
+	/** Measure the stops with a DistanceMatrixBuilder on this search's threads */
+	private double[][] matrixOf(List<GeographicPoint> stops) {
+		DistanceMatrixBuilder builder = new DistanceMatrixBuilder(graph);
+		builder.setThreads(threads);
+		return builder.build(stops);
+	}
+
+	/** Turn a tour of stop indices into a route that returns to the first stop */
+	private static List<GeographicPoint> routeOf(List<GeographicPoint> stops, int[] tour) {
+		List<GeographicPoint> route = new ArrayList<>(tour.length + 1);
+		for(int stop: tour) {
+			route.add(stops.get(stop));
+		}
+		route.add(stops.get(0));
+		return route;
+	}
+
+	/**
+	 * Find a short tour over a distance matrix
+	 * @param matrix matrix[i][j] is the cost of going from stop i to stop j. Every entry must be finite
+	 * @return the stops in visiting order, starting with stop 0. The leg back to stop 0 is implied
+	 */
+	int[] solve(double[][] matrix) {
+		return search(matrix, false).order();
+	}
+
+	/** Run the workers, and the lower bound if asked, until the budget runs out or the gap is small enough */
+	private Progress search(double[][] matrix, boolean withBound) {
+		int n = matrix.length;
+		Progress progress = new Progress();
+		if(n <= 3) {
+			int[] tour = new int[n];
+			for(int i = 0; i < n; i++) {
+				tour[i] = i;
+			}
+			if(n == 3 && tourCost(matrix, new int[] {0, 2, 1}) < tourCost(matrix, tour)) {
+				tour = new int[] {0, 2, 1}; //the only other order, when the legs are not symmetric
+			}
+			progress.offer(tour, tourCost(matrix, tour), 0);
+			progress.improveBound(tourCost(matrix, tour)); //every order was tried, so this is optimal
+			return progress;
+		}
+		long deadline = System.nanoTime() + timeBudgetMillis * 1000000;
+		List<Callable<Void>> tasks = new ArrayList<>(threads + 1);
+		int[][] candidates = nearestCandidates(matrix, CANDIDATES); //shared, read-only
+		for(int w = 0; w < threads; w++) {
+			tasks.add(new Worker(matrix, candidates, w, progress, deadline));
+		}
+		if(withBound) {
+			HeldKarpBound bound = new HeldKarpBound(matrix);
+			tasks.add(() -> {
+				bound.compute(progress::getBestCost, () -> progress.done || System.nanoTime() > deadline,
+						progress::improveBound, BOUND_STEPS);
+				return null;
+			});
+		}
+		if(tasks.size() == 1) {
+			((Worker) tasks.get(0)).call();
+		} else {
+			ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+			try {
+				for(Future<Void> future: executor.invokeAll(tasks)) {
+					future.get();
+				}
+			} catch(InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while searching for a tour", ie);
+			} catch(ExecutionException ee) {
+				throw new IllegalStateException("A tour search failed", ee.getCause());
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+		return progress;
+	}
+
+	/**
+	 * Get the cost of driving a tour and returning to its first stop
+	 * @param matrix the leg costs
+	 * @param tour the stops in order
+	 * @return the sum of the legs, including the one back to the start
+	 */
+	static double tourCost(double[][] matrix, int[] tour) {
+		double cost = 0;
+		for(int i = 0; i < tour.length; i++) {
+			cost += matrix[tour[i]][tour[(i + 1) % tour.length]];
+		}
+		return cost;
+	}
+
+	/** An immutable tour and its cost, as shared between workers */
+	private static final class Tour {
+		final int[] order;
+		final double cost;
+		final int worker; //the worker that found it, so ties are broken the same way on every run
+
+		Tour(int[] order, double cost, int worker) {
+			this.order = order;
+			this.cost = cost;
+			this.worker = worker;
+		}
+
+		boolean isBetterThan(Tour other) {
+			return other == null || cost < other.cost || (cost == other.cost && worker < other.worker);
+		}
+	}
+
+	/**
+	 * What the workers and the lower bound share: the best tour, the best bound and whether to stop.
+	 * Both are replaced with compare-and-set, so no thread ever waits for another
+	 */
+	private final class Progress {
+		final AtomicReference<Tour> best = new AtomicReference<>();
+		private final AtomicLong boundBits = new AtomicLong(Double.doubleToLongBits(Double.NEGATIVE_INFINITY));
+		volatile boolean done; //the best tour is close enough to the bound
+
+		int[] order() {
+			return best.get().order;
+		}
+
+		double getBestCost() {
+			Tour current = best.get();
+			return current == null ? Double.POSITIVE_INFINITY : current.cost;
+		}
+
+		/** Get the best lower bound so far, 0 if none has been found */
+		double getBound() {
+			return Math.max(0, Double.longBitsToDouble(boundBits.get()));
+		}
+
+		/** Replace the best tour if this one is better, retrying if another worker got there first */
+		void offer(int[] order, double cost, int worker) {
+			Tour current = best.get();
+			Tour candidate = new Tour(order.clone(), cost, worker);
+			while(candidate.isBetterThan(current)) {
+				if(best.compareAndSet(current, candidate)) {
+					checkGap();
+					return;
+				}
+				current = best.get();
+			}
+		}
+
+		/** Raise the bound if this one is higher */
+		void improveBound(double bound) {
+			long current = boundBits.get();
+			while(bound > Double.longBitsToDouble(current)) {
+				if(boundBits.compareAndSet(current, Double.doubleToLongBits(bound))) {
+					checkGap();
+					return;
+				}
+				current = boundBits.get();
+			}
+		}
+
+		private void checkGap() {
+			double cost = getBestCost();
+			double bound = Double.longBitsToDouble(boundBits.get());
+			if(cost <= bound || (bound > 0 && (cost - bound) / bound <= targetGap)) {
+				done = true;
+			}
+		}
+	}
+
+	/** One thread of the search */
+	private final class Worker implements Callable<Void> {
+		private final double[][] matrix;
+		private final int[][] candidates;
+		private final int number;
+		private final Progress progress;
+		private final long deadline;
+		private final Random random;
+
+		Worker(double[][] matrix, int[][] candidates, int number, Progress progress, long deadline) {
+			this.matrix = matrix;
+			this.candidates = candidates;
+			this.number = number;
+			this.progress = progress;
+			this.deadline = deadline;
+			this.random = new Random(seed + number);
+		}
+
+		@Override
+		public Void call() {
+			long kicks = 0;
+			for(int start = 0; ; start++) {
+				int[] tour;
+				switch((number + start) % 3) {
+				case 0:
+					tour = nearestNeighbor(matrix, number == 0 && start == 0 ? 0 : random.nextInt(matrix.length));
+					break;
+				case 1:
+					tour = greedyEdge(matrix, candidates, random);
+					break;
+				default:
+					tour = christofides(matrix, random);
+					break;
+				}
+				localSearch(matrix, tour, candidates);
+				double cost = tourCost(matrix, tour);
+				progress.offer(tour, cost, number);
+				for(int stale = 0; stale < KICKS_PER_START; stale++) {
+					if(kicks++ >= maxKicks || progress.done || System.nanoTime() > deadline) {
+						return null;
+					}
+					int[] kicked = doubleBridge(tour, random);
+					localSearch(matrix, kicked, candidates);
+					double kickedCost = tourCost(matrix, kicked);
+					if(kickedCost <= cost) {
+						stale = kickedCost < cost ? -1 : stale;
+						tour = kicked;
+						cost = kickedCost;
+						progress.offer(tour, cost, number);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Build a tour by always driving to the closest stop not yet visited
+	 * @param first the stop to start from
+	 * @return the tour, turned so it starts with stop 0
+	 */
+	static int[] nearestNeighbor(double[][] matrix, int first) {
+		int n = matrix.length;
+		int[] tour = new int[n];
+		boolean[] visited = new boolean[n];
+		tour[0] = first;
+		visited[first] = true;
+		for(int i = 1; i < n; i++) {
+			int from = tour[i - 1];
+			int closest = -1;
+			for(int j = 0; j < n; j++) {
+				if(!visited[j] && (closest < 0 || matrix[from][j] < matrix[from][closest])) {
+					closest = j;
+				}
+			}
+			tour[i] = closest;
+			visited[closest] = true;
+		}
+		return startAtZero(tour);
+	}
+
+	/**
+	 * Build a tour from the shortest legs: consider each stop's CANDIDATES nearest stops, shortest
+	 * leg first, and keep a leg if neither end is already used that way and it closes no loop. The
+	 * pieces left over are then chained, the end of each to the closest start of an unused piece
+	 */
+	static int[] greedyEdge(double[][] matrix, int[][] candidates, Random random) {
+		int n = matrix.length;
+		int k = candidates[0].length;
+		long[] legs = new long[n * k]; //scaled cost in the high bits, leg number in the low 32
+		int[] target = new int[n * k];
+		for(int from = 0; from < n; from++) {
+			for(int c = 0; c < k; c++) {
+				int leg = from * k + c;
+				target[leg] = candidates[from][c];
+				float noisy = (float) (matrix[from][target[leg]] * (1 + NOISE * random.nextDouble()));
+				legs[leg] = (long) Float.floatToIntBits(noisy) << 32 | leg; //ordered like the float for costs >= 0
+			}
+		}
+		Arrays.sort(legs);
+
+		int[] next = new int[n];
+		int[] previous = new int[n];
+		Arrays.fill(next, -1);
+		Arrays.fill(previous, -1);
+		int[] root = new int[n]; //union-find over the pieces, so no leg closes a loop
+		for(int i = 0; i < n; i++) {
+			root[i] = i;
+		}
+		for(long key: legs) {
+			int leg = (int) key;
+			int from = leg / k;
+			int to = target[leg];
+			if(next[from] < 0 && previous[to] < 0 && find(root, from) != find(root, to)) {
+				next[from] = to;
+				previous[to] = from;
+				root[find(root, from)] = find(root, to);
+			}
+		}
+
+		//chain the pieces: from the end of the current piece, drive to the closest piece start
+		int[] tour = new int[n];
+		boolean[] used = new boolean[n];
+		int length = 0;
+		int head = 0;
+		while(previous[head] >= 0) {
+			head = previous[head];
+		}
+		while(length < n) {
+			for(int v = head; v >= 0; v = next[v]) {
+				tour[length++] = v;
+				used[v] = true;
+			}
+			int tail = tour[length - 1];
+			head = -1;
+			for(int v = 0; v < n; v++) {
+				if(!used[v] && previous[v] < 0 && (head < 0 || matrix[tail][v] < matrix[tail][head])) {
+					head = v;
+				}
+			}
+			if(head < 0) {
+				break;
+			}
+		}
+		return startAtZero(tour);
+	}
+
+	/**
+	 * Find the closest stops to drive to from each stop
+	 * @param k how many to keep per stop
+	 * @return candidates[i] lists the min(k, n - 1) stops with the cheapest legs from stop i, cheapest first
+	 */
+	static int[][] nearestCandidates(double[][] matrix, int k) {
+		int n = matrix.length;
+		k = Math.min(k, n - 1);
+		int[][] candidates = new int[n][k];
+		long[] keys = new long[n - 1];
+		for(int i = 0; i < n; i++) {
+			int count = 0;
+			for(int j = 0; j < n; j++) {
+				if(j != i) {
+					keys[count++] = (long) Float.floatToIntBits((float) matrix[i][j]) << 32 | j;
+				}
+			}
+			Arrays.sort(keys);
+			for(int c = 0; c < k; c++) {
+				candidates[i][c] = (int) keys[c];
+			}
+		}
+		return candidates;
+	}
+
+	/**
+	 * Build a tour in the manner of Christofides on the average of the two directions of each leg:
+	 * take a minimum spanning tree, pair up its odd-degree stops greedily instead of with a minimum
+	 * matching, walk the result as an Euler tour from a random stop and skip stops already visited.
+	 * Both directions of the walk are priced and the cheaper one returned
+	 */
+	static int[] christofides(double[][] matrix, Random random) {
+		int n = matrix.length;
+		//Prim's algorithm on the dense matrix
+		int[] parent = new int[n];
+		double[] closest = new double[n];
+		boolean[] inTree = new boolean[n];
+		Arrays.fill(closest, Double.POSITIVE_INFINITY);
+		closest[0] = 0;
+		parent[0] = -1;
+		int[] degree = new int[n];
+		List<int[]> edges = new ArrayList<>(n * 3 / 2);
+		for(int added = 0; added < n; added++) {
+			int v = -1;
+			for(int u = 0; u < n; u++) {
+				if(!inTree[u] && (v < 0 || closest[u] < closest[v])) {
+					v = u;
+				}
+			}
+			inTree[v] = true;
+			if(parent[v] >= 0) {
+				edges.add(new int[] {parent[v], v});
+				degree[v]++;
+				degree[parent[v]]++;
+			}
+			for(int u = 0; u < n; u++) {
+				double w = (matrix[v][u] + matrix[u][v]) / 2;
+				if(!inTree[u] && w < closest[u]) {
+					closest[u] = w;
+					parent[u] = v;
+				}
+			}
+		}
+
+		//match the odd-degree stops, each in a random order to its closest unmatched partner
+		List<Integer> odd = new ArrayList<>();
+		for(int v = 0; v < n; v++) {
+			if(degree[v] % 2 == 1) {
+				odd.add(v);
+			}
+		}
+		Collections.shuffle(odd, random);
+		boolean[] matched = new boolean[n];
+		for(int a: odd) {
+			if(matched[a]) {
+				continue;
+			}
+			int partner = -1;
+			for(int b: odd) {
+				if(b != a && !matched[b] && (partner < 0 || matrix[a][b] + matrix[b][a] < matrix[a][partner] + matrix[partner][a])) {
+					partner = b;
+				}
+			}
+			matched[a] = matched[partner] = true;
+			edges.add(new int[] {a, partner});
+		}
+
+		//Hierholzer's algorithm over the tree plus matching, every vertex now has even degree
+		int[] first = new int[n + 1];
+		for(int[] e: edges) {
+			first[e[0] + 1]++;
+			first[e[1] + 1]++;
+		}
+		for(int v = 0; v < n; v++) {
+			first[v + 1] += first[v];
+		}
+		int[] fill = Arrays.copyOf(first, n);
+		int[] other = new int[2 * edges.size()];
+		int[] edgeOf = new int[2 * edges.size()];
+		for(int e = 0; e < edges.size(); e++) {
+			int a = edges.get(e)[0];
+			int b = edges.get(e)[1];
+			other[fill[a]] = b;
+			edgeOf[fill[a]++] = e;
+			other[fill[b]] = a;
+			edgeOf[fill[b]++] = e;
+		}
+		boolean[] edgeUsed = new boolean[edges.size()];
+		int[] cursor = Arrays.copyOf(first, n);
+		int[] stack = new int[edges.size() + 1];
+		int sp = 0;
+		stack[sp++] = random.nextInt(n);
+		int[] walk = new int[n];
+		boolean[] seen = new boolean[n];
+		int length = 0;
+		while(sp > 0) {
+			int v = stack[sp - 1];
+			while(cursor[v] < first[v + 1] && edgeUsed[edgeOf[cursor[v]]]) {
+				cursor[v]++;
+			}
+			if(cursor[v] == first[v + 1]) {
+				sp--;
+				if(!seen[v]) { //shortcut past stops the walk has already passed through
+					seen[v] = true;
+					walk[length++] = v;
+				}
+			} else {
+				edgeUsed[edgeOf[cursor[v]]] = true;
+				stack[sp++] = other[cursor[v]];
+			}
+		}
+
+		int[] forward = startAtZero(walk);
+		int[] backward = new int[n];
+		backward[0] = forward[0];
+		for(int i = 1; i < n; i++) {
+			backward[i] = forward[n - i];
+		}
+		return tourCost(matrix, backward) < tourCost(matrix, forward) ? backward : forward;
+	}
+
+	/** Find the root of a union-find tree, halving the path on the way */
+	static int find(int[] root, int v) {
+		while(root[v] != v) {
+			root[v] = root[root[v]];
+			v = root[v];
+		}
+		return v;
+	}
+
+	/** Turn a tour so it starts with stop 0, keeping the direction it is driven in */
+	static int[] startAtZero(int[] tour) {
+		int n = tour.length;
+		int at = 0;
+		while(tour[at] != 0) {
+			at++;
+		}
+		int[] turned = new int[n];
+		for(int i = 0; i < n; i++) {
+			turned[i] = tour[(at + i) % n];
+		}
+		return turned;
+	}
+
+	/**
+	 * Apply improving 2-opt moves until there are none: reverse the stops between two legs so the
+	 * two legs are replaced by two others. The reversed part is priced as driven backwards, kept
+	 * up to date as the segment grows, so each candidate move costs constant time even when the
+	 * matrix is not symmetric. The first stop never moves
+	 * @return true if the tour changed
+	 */
+	static boolean twoOpt(double[][] matrix, int[] tour) {
+		int n = tour.length;
+		boolean changed = false;
+		boolean improved = true;
+		while(improved) {
+			improved = false;
+			for(int i = 0; i < n - 2; i++) {
+				int a = tour[i];
+				int first = tour[i + 1];
+				double forward = 0;	 //cost of driving tour[i + 1 .. j] as it is
+				double backward = 0; //cost of driving it reversed
+				for(int j = i + 2; j < n; j++) {
+					forward += matrix[tour[j - 1]][tour[j]];
+					backward += matrix[tour[j]][tour[j - 1]];
+					int last = tour[j];
+					int b = tour[(j + 1) % n];
+					double before = matrix[a][first] + forward + matrix[last][b];
+					double after = matrix[a][last] + backward + matrix[first][b];
+					if(after < before - 1e-9) {
+						reverse(tour, i + 1, j);
+						improved = changed = true;
+						first = tour[i + 1];
+						forward = backward = 0;
+						for(int p = i + 2; p <= j; p++) { //re-price the reversed segment for the rest of the scan
+							forward += matrix[tour[p - 1]][tour[p]];
+							backward += matrix[tour[p]][tour[p - 1]];
+						}
+					}
+				}
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Improve a tour with 2-opt, or-opt and segment exchange, one after the other, until none of
+	 * them finds a shorter tour. The first stop never moves
+	 * @param candidates each stop's nearest stops, from nearestCandidates, or null to skip segment
+	 *   exchange, the one move that needs them
+	 * @return true if the tour changed
+	 */
+	static boolean localSearch(double[][] matrix, int[] tour, int[][] candidates) {
+		boolean changed = false;
+		boolean improved = true;
+		while(improved) {
+			improved = twoOpt(matrix, tour);
+			improved |= orOpt(matrix, tour);
+			improved |= candidates != null && segmentExchange(matrix, tour, candidates);
+			changed |= improved;
+		}
+		return changed;
+	}
+
+	/**
+	 * Apply improving or-opt moves until there are none: take a run of one to three consecutive
+	 * stops out of the tour and put it back between two other stops, in the same direction or
+	 * reversed, whichever is cheaper. Kept in its direction, the run is driven exactly as before,
+	 * so on one-way streets or-opt finds moves 2-opt must pay a whole reversal for
+	 * @return true if the tour changed
+	 */
+	static boolean orOpt(double[][] matrix, int[] tour) {
+		int n = tour.length;
+		boolean changed = false;
+		boolean improved = true;
+		while(improved) {
+			improved = false;
+			for(int length = 1; length <= 3 && length < n - 1; length++) {
+				for(int s = 1; s + length - 1 < n; s++) {
+					int e = s + length - 1;
+					int first = tour[s];
+					int last = tour[e];
+					int before = tour[s - 1];
+					int after = tour[(e + 1) % n];
+					double forward = 0;	 //the run driven as it is
+					double backward = 0; //the run driven reversed
+					for(int p = s; p < e; p++) {
+						forward += matrix[tour[p]][tour[p + 1]];
+						backward += matrix[tour[p + 1]][tour[p]];
+					}
+					double removeGain = matrix[before][first] + matrix[last][after] + forward - matrix[before][after];
+					int bestAt = -1;
+					boolean bestReversed = false;
+					double bestGain = 1e-9;
+					for(int p = 0; p < n; p++) { //put the run between tour[p] and the stop after it
+						if(p >= s - 1 && p <= e) {
+							continue; //next to or inside the run
+						}
+						int a = tour[p];
+						int b = tour[(p + 1) % n];
+						double keep = removeGain - (matrix[a][first] + forward + matrix[last][b] - matrix[a][b]);
+						double flip = removeGain - (matrix[a][last] + backward + matrix[first][b] - matrix[a][b]);
+						if(keep > bestGain) {
+							bestGain = keep;
+							bestAt = p;
+							bestReversed = false;
+						}
+						if(flip > bestGain) {
+							bestGain = flip;
+							bestAt = p;
+							bestReversed = true;
+						}
+					}
+					if(bestAt >= 0) {
+						moveRun(tour, s, e, bestAt, bestReversed);
+						improved = changed = true;
+					}
+				}
+			}
+		}
+		return changed;
+	}
+
+	/** Move tour[s .. e] to just after the stop now at position at, which is outside the run */
+	static void moveRun(int[] tour, int s, int e, int at, boolean reversed) {
+		int length = e - s + 1;
+		int[] run = Arrays.copyOfRange(tour, s, e + 1);
+		if(reversed) {
+			reverse(run, 0, length - 1);
+		}
+		if(at > e) { //shift the stops between the run and the new place back
+			System.arraycopy(tour, e + 1, tour, s, at - e);
+			System.arraycopy(run, 0, tour, at - length + 1, length);
+		} else { //shift them forward
+			System.arraycopy(tour, at + 1, tour, at + 1 + length, s - at - 1);
+			System.arraycopy(run, 0, tour, at + 1, length);
+		}
+	}
+
+	/**
+	 * Apply improving segment exchanges until there are none. This is the 3-opt move that keeps
+	 * every segment in its direction: cut the legs after positions i, j and k and swap the two
+	 * segments between them, so A [i+1 .. j] [j+1 .. k] C becomes A [j+1 .. k] [i+1 .. j] C. Only
+	 * exchanges whose first new leg, from tour[i] to tour[j + 1], goes to one of tour[i]'s nearest
+	 * candidates and is shorter than the leg it replaces are tried, which keeps the move close to
+	 * O(n^2) per pass instead of O(n^3)
+	 * @return true if the tour changed
+	 */
+	static boolean segmentExchange(double[][] matrix, int[] tour, int[][] candidates) {
+		int n = tour.length;
+		int[] position = new int[n];
+		boolean changed = false;
+		boolean improved = true;
+		while(improved) {
+			improved = false;
+			for(int p = 0; p < n; p++) {
+				position[tour[p]] = p;
+			}
+			search:
+			for(int i = 0; i < n - 2; i++) {
+				int a = tour[i];
+				double removedFirst = matrix[a][tour[i + 1]];
+				for(int c: candidates[a]) {
+					int j = position[c] - 1; //tour[j + 1] is the candidate
+					if(j <= i || j >= n - 1 || matrix[a][c] >= removedFirst) {
+						continue;
+					}
+					double gainFirst = removedFirst - matrix[a][c];
+					for(int k = j + 1; k < n; k++) {
+						int next = tour[(k + 1) % n];
+						double removed = matrix[tour[j]][tour[j + 1]] + matrix[tour[k]][next];
+						double added = matrix[tour[k]][tour[i + 1]] + matrix[tour[j]][next];
+						if(gainFirst + removed - added > 1e-9) {
+							int[] swapped = new int[k - i];
+							System.arraycopy(tour, j + 1, swapped, 0, k - j);
+							System.arraycopy(tour, i + 1, swapped, k - j, j - i);
+							System.arraycopy(swapped, 0, tour, i + 1, k - i);
+							improved = changed = true;
+							break search; //positions have moved, start the pass again
+						}
+					}
+				}
+			}
+		}
+		return changed;
+	}
+
+	/** Reverse tour[from .. to] in place */
+	private static void reverse(int[] tour, int from, int to) {
+		while(from < to) {
+			int t = tour[from];
+			tour[from++] = tour[to];
+			tour[to--] = t;
+		}
+	}
+
+	/**
+	 * Cut the tour into four parts A B C D after the first stop and reconnect them as A C B D. No
+	 * part is reversed, and 2-opt can not easily undo the kick
+	 */
+	static int[] doubleBridge(int[] tour, Random random) {
+		int n = tour.length;
+		if(n < 5) {
+			return tour.clone();
+		}
+		int[] cuts = new int[3];
+		do {
+			for(int c = 0; c < 3; c++) {
+				cuts[c] = 1 + random.nextInt(n - 1);
+			}
+			Arrays.sort(cuts);
+		} while(cuts[0] == cuts[1] || cuts[1] == cuts[2]);
+		int[] kicked = new int[n];
+		int length = 0;
+		for(int i = 0; i < cuts[0]; i++) {
+			kicked[length++] = tour[i];
+		}
+		for(int i = cuts[1]; i < cuts[2]; i++) {
+			kicked[length++] = tour[i];
+		}
+		for(int i = cuts[0]; i < cuts[1]; i++) {
+			kicked[length++] = tour[i];
+		}
+		for(int i = cuts[2]; i < n; i++) {
+			kicked[length++] = tour[i];
+		}
+		return kicked;
+	}
+}
@@ -0,0 +1,64 @@
+package roadgraph;
+
+import java.util.List;
+
+import geography.GeographicPoint;
+
+/**
+ * A salesman tour together with a lower bound on the length of any tour through the same stops,
+ * so it is known how far from the best possible tour it can be. See TourSearch.solveWithBound.
+ * @author Adam Sickmiller
+ *
+ */
+public class TourSolution {
+	private final List<GeographicPoint> route;
+	private final double length;
+	private final double lowerBound;
+
+	public TourSolution(List<GeographicPoint> route, double length, double lowerBound) {
+		this.route = route;
+		this.length = length;
+		this.lowerBound = lowerBound;
+	}
+
+	/**
+	 * Get the tour
+	 * @return the stops in the order they should be visited, starting and ending at the origin
+	 */
+	public List<GeographicPoint> getRoute() {
+		return route;
+	}
+
+	/**
+	 * Get the road distance of the tour
+	 * @return the length in km
+	 */
+	public double getLength() {
+		return length;
+	}
+
+	/**
+	 * Get the lower bound
+	 * @return a length no tour through the same stops can be shorter than, in km
+	 */
+	public double getLowerBound() {
+		return lowerBound;
+	}
+
+	/**
+	 * Get the optimality gap: how much longer the tour is than the lower bound, as a share of the bound.
+	 * The tour is at most this much longer than the shortest possible one
+	 * @return (length - lowerBound) / lowerBound, 0 when the tour is proven optimal
+	 */
+	public double getGap() {
+		if(length <= lowerBound) {
+			return 0;
+		}
+		return lowerBound > 0 ? (length - lowerBound) / lowerBound : Double.POSITIVE_INFINITY;
+	}
+
+	@Override
+	public String toString() {
+		return route + " " + length + "km, lower bound " + lowerBound + "km";
+	}
+}
@@ -0,0 +1,155 @@
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live edge costs from traffic data, kept separate from the graph's base edge lengths. Costs are
+ * stored as the bits of a double in an AtomicLongArray indexed by Edge id, so thousands of updates
+ * a second can be written while searches read them, without either side taking a lock. A search
+ * may see some updates of a batch and not others; unlike MapGraph.applyUpdates there is no
+ * snapshot, which is what keeps updates this cheap.
+ *
+ * Costs are in the same unit as edge lengths: a road at its free-flow speed costs its length, a
+ * road at half that speed costs twice its length. Edges with no live cost use their base length.
+ *
+ * The costs are kept in fixed size chunks. Making room for more edges adds chunks and never copies
+ * a cost, so a writer that is part way through a batch while the overlay grows loses nothing.
+ * @author Adam Sickmiller
+ *
+ */
+public class TrafficOverlay {
+	private static final long NO_LIVE_COST = Double.doubleToRawLongBits(Double.NaN);
+	private static final int CHUNK_BITS = 13;
+	private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+	private volatile AtomicLongArray[] chunks; //live cost of each edge id, NaN for none. Chunks are never replaced
+	private final LongAdder updatesApplied = new LongAdder();
+	private final AtomicLong minRatioBits = new AtomicLong(Double.doubleToRawLongBits(1)); //lowest live cost / length seen
+
+	/**
+	 * Create an overlay with no live costs
+	 * @param numEdges the number of edge ids to make room for
+	 */
+	public TrafficOverlay(int numEdges) {
+		chunks = new AtomicLongArray[0];
+		ensureCapacity(numEdges);
+	}
+
+	/**
+	 * Make room for more edge ids, after edges have been added to the graph. Costs already set,
+	 * and any being set while this runs, are kept
+	 * @param numEdges the number of edge ids to make room for
+	 */
+	synchronized void ensureCapacity(int numEdges) {
+		AtomicLongArray[] current = chunks;
+		int needed = (numEdges + CHUNK_MASK) >>> CHUNK_BITS;
+		if(needed <= current.length) {
+			return;
+		}
+		AtomicLongArray[] grown = Arrays.copyOf(current, needed); //the same chunk objects, only more of them
+		for(int c = current.length; c < needed; c++) {
+			grown[c] = new AtomicLongArray(1 << CHUNK_BITS);
+			for(int i = 0; i <= CHUNK_MASK; i++) {
+				grown[c].set(i, NO_LIVE_COST);
+			}
+		}
+		chunks = grown;
+	}
+
+	/**
+	 * Get the number of edge ids this overlay has room for
+	 * @return the capacity
+	 */
+	public int capacity() {
+		return chunks.length << CHUNK_BITS;
+	}
+
+	/**
+	 * Get the cost a search should use for an edge
+	 * @param edgeId the Edge id
+	 * @param baseLength the edge's length, used if there is no live cost
+	 * @return the live cost if there is one, otherwise baseLength
+	 */
+	public double cost(int edgeId, double baseLength) {
+		long bits = chunks[edgeId >>> CHUNK_BITS].get(edgeId & CHUNK_MASK);
+		return bits == NO_LIVE_COST ? baseLength : Double.longBitsToDouble(bits);
+	}
+
+	/**
+	 * Check whether an edge has a live cost
+	 * @param edgeId the Edge id
+	 * @return true if a live cost is set
+	 */
+	public boolean hasLiveCost(int edgeId) {
+		return chunks[edgeId >>> CHUNK_BITS].get(edgeId & CHUNK_MASK) != NO_LIVE_COST;
+	}
+
+	/**
+	 * Set the live costs of many edges. Each edge is written atomically, the batch as a whole is not
+	 * @param edgeIds the Edge ids
+	 * @param costs the live cost of each edge, or Double.NaN to go back to the base length
+	 * @param baseLengths the base length of each edge, used to keep A* estimates admissible
+	 * @throws IllegalArgumentException if the arrays differ in length or a cost is negative
+	 */
+	public void applyBatch(int[] edgeIds, double[] costs, double[] baseLengths) {
+		if(edgeIds.length != costs.length || edgeIds.length != baseLengths.length) {
+			throw new IllegalArgumentException("edgeIds, costs and baseLengths must be the same length");
+		}
+		double minRatio = Double.POSITIVE_INFINITY;
+		for(int i = 0; i < edgeIds.length; i++) {
+			if(costs[i] < 0) {
+				throw new IllegalArgumentException("Live costs must be >= 0");
+			}
+			if(baseLengths[i] > 0 && costs[i] == costs[i]) {
+				minRatio = Math.min(minRatio, costs[i] / baseLengths[i]);
+			}
+		}
+		lowerMinRatio(minRatio); //before the costs, so a reader never sees a cost below the bound
+		AtomicLongArray[] current = chunks;
+		for(int i = 0; i < edgeIds.length; i++) {
+			current[edgeIds[i] >>> CHUNK_BITS].set(edgeIds[i] & CHUNK_MASK,
+					Double.isNaN(costs[i]) ? NO_LIVE_COST : Double.doubleToRawLongBits(costs[i]));
+		}
+		updatesApplied.add(edgeIds.length);
+	}
+
+	/**
+	 * Drop every live cost, so all edges use their base lengths again
+	 */
+	public void clear() {
+		for(AtomicLongArray chunk: chunks) {
+			for(int i = 0; i <= CHUNK_MASK; i++) {
+				chunk.set(i, NO_LIVE_COST);
+			}
+		}
+	}
+
+	/**
+	 * Get the number of single edge updates applied since this overlay was created
+	 * @return the update count
+	 */
+	public long getUpdatesApplied() {
+		return updatesApplied.sum();
+	}
+
+	/**
+	 * Get the lowest ratio of live cost to base length ever applied, capped at 1. Scaling straight
+	 * line distance by this keeps A* admissible with live costs. It never goes back up, so it may be
+	 * lower than it needs to be, which only makes A* explore a little more
+	 * @return the ratio
+	 */
+	public double getMinRatio() {
+		return Double.longBitsToDouble(minRatioBits.get());
+	}
+
+	private void lowerMinRatio(double ratio) {
+		long current = minRatioBits.get();
+		while(ratio < Double.longBitsToDouble(current)
+				&& !minRatioBits.compareAndSet(current, Double.doubleToRawLongBits(ratio))) {
+			current = minRatioBits.get();
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package roadgraph;
+
+import java.util.Arrays;
+
+/**
+ * A travel time profile for a road: a piecewise-linear function from time of day to a multiplier
+ * on the free-flow travel time of the road. A multiplier of 1 means traffic moves at the road's
+ * free-flow speed, 2 means it takes twice as long. The function repeats every day, and between the
+ * last and first breakpoint it wraps around midnight.
+ *
+ * A steep enough drop in the multiplier means leaving later can get a driver there sooner. Search
+ * needs the opposite, that nobody overtakes by leaving later, so travelTime lets the driver wait
+ * at the start of the road when that is quicker, as they would in a car park.
+ *
+ * Profiles are immutable and stored as two primitive arrays. MapGraph interns them, so every edge
+ * with the same curve shares a single instance rather than its own copy.
+ * @author Adam Sickmiller
+ *
+ */
+public class TravelTimeProfile {
+	public static final double SECONDS_PER_DAY = 24 * 60 * 60;
+
+	/** A profile that is 1 all day, used by edges that have no profile of their own */
+	public static final TravelTimeProfile FREE_FLOW = new TravelTimeProfile(new float[] {0}, new float[] {1});
+
+	private final float[] times;	   //breakpoints, seconds since midnight, strictly increasing
+	private final float[] multipliers; //multiplier at each breakpoint
+	private final float minMultiplier;
+	private final double steepestDrop; //largest fall of the multiplier per second, 0 if it never falls
+
+	/**
+	 * Create a profile from breakpoints
+	 * @param times seconds since midnight of each breakpoint, strictly increasing and less than a day
+	 * @param multipliers the travel time multiplier at each breakpoint, each greater than 0
+	 * @throws IllegalArgumentException if the arrays are empty, differ in length or hold invalid values
+	 */
+	public TravelTimeProfile(double[] times, double[] multipliers) {
+		this(toFloats(times), toFloats(multipliers));
+	}
+
+	private TravelTimeProfile(float[] times, float[] multipliers) {
+		if(times.length == 0 || times.length != multipliers.length) {
+			throw new IllegalArgumentException("times and multipliers must be non-empty and the same length");
+		}
+		float min = Float.POSITIVE_INFINITY;
+		double drop = 0;
+		for(int i = 0; i < times.length; i++) {
+			if(times[i] < 0 || times[i] >= SECONDS_PER_DAY || (i > 0 && times[i] <= times[i - 1])) {
+				throw new IllegalArgumentException("times must be increasing and within one day");
+			}
+			if(!(multipliers[i] > 0)) {
+				throw new IllegalArgumentException("multipliers must be greater than 0");
+			}
+			min = Math.min(min, multipliers[i]);
+		}
+		for(int i = 0; i < times.length && times.length > 1; i++) {
+			int next = (i + 1) % times.length; //the last segment wraps around midnight
+			double span = next > i ? times[next] - times[i] : times[next] + SECONDS_PER_DAY - times[i];
+			drop = Math.max(drop, (multipliers[i] - multipliers[next]) / span);
+		}
+		this.times = times;
+		this.multipliers = multipliers;
+		this.minMultiplier = min;
+		this.steepestDrop = drop;
+	}
+
+	/**
+	 * Get the travel time multiplier at a given time
+	 * @param seconds time in seconds since midnight of the departure day. Values past one day wrap around
+	 * @return the multiplier, interpolated between the breakpoints either side of the given time
+	 */
+	public double multiplierAt(double seconds) {
+		int n = times.length;
+		if(n == 1) {
+			return multipliers[0];
+		}
+		double t = seconds % SECONDS_PER_DAY;
+		if(t < 0) {
+			t += SECONDS_PER_DAY;
+		}
+		int i = Arrays.binarySearch(times, (float) t);
+		if(i >= 0) {
+			return multipliers[i];
+		}
+		int after = -i - 1; //first breakpoint later than t
+		int before = after - 1;
+		double beforeTime = before < 0 ? times[n - 1] - SECONDS_PER_DAY : times[before];
+		double afterTime = after == n ? times[0] + SECONDS_PER_DAY : times[after];
+		double beforeValue = multipliers[before < 0 ? n - 1 : before];
+		double afterValue = multipliers[after == n ? 0 : after];
+		return beforeValue + (afterValue - beforeValue) * (t - beforeTime) / (afterTime - beforeTime);
+	}
+
+	/**
+	 * Get the time it takes to drive a road with this profile when reaching it at the given time,
+	 * counting any wait at its start that gets the driver to the end sooner. The result never lets
+	 * a later arrival at the road leave it earlier, which the label-setting search relies on.
+	 * @param freeFlowSeconds the road's travel time at a multiplier of 1
+	 * @param departureSeconds when the driver reaches the road, in seconds since midnight
+	 * @return seconds from reaching the road to reaching its end
+	 */
+	public double travelTime(double freeFlowSeconds, double departureSeconds) {
+		double best = departureSeconds + freeFlowSeconds * multiplierAt(departureSeconds);
+		if(freeFlowSeconds * steepestDrop <= 1) { //falls slower than time passes, so waiting never helps
+			return best - departureSeconds;
+		}
+		//the arrival time is piecewise linear in the time of leaving, so its minimum over the next
+		//day is either leaving now or leaving at a breakpoint
+		double dayStart = Math.floor(departureSeconds / SECONDS_PER_DAY) * SECONDS_PER_DAY;
+		for(int i = 0; i < times.length; i++) {
+			double leave = dayStart + times[i];
+			if(leave <= departureSeconds) {
+				leave += SECONDS_PER_DAY;
+			}
+			best = Math.min(best, leave + freeFlowSeconds * multipliers[i]);
+		}
+		return best - departureSeconds;
+	}
+
+	/**
+	 * Get the lowest multiplier anywhere in the day, which A* uses to keep its estimate admissible
+	 * @return the smallest multiplier
+	 */
+	public double getMinMultiplier() {
+		return minMultiplier;
+	}
+
+	/**
+	 * Get the free-flow speed normally assumed for a type of road, used when an edge has no speed
+	 * of its own
+	 * @param roadType the road type as given to MapGraph.addEdge, such as "residential"
+	 * @return a speed in km/h
+	 */
+	public static double defaultSpeedKmh(String roadType) {
+		if(roadType == null) {
+			return 40;
+		}
+		switch(roadType) {
+			case "motorway": return 100;
+			case "motorway_link": return 60;
+			case "trunk": return 80;
+			case "trunk_link": return 50;
+			case "primary": return 60;
+			case "secondary": return 50;
+			case "tertiary": return 40;
+			case "residential": return 30;
+			case "unclassified": return 30;
+			case "service": return 20;
+			case "living_street": return 10;
+			default: return 40;
+		}
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Arrays.hashCode(times) + Arrays.hashCode(multipliers);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null || getClass() != obj.getClass())
+			return false;
+		TravelTimeProfile other = (TravelTimeProfile) obj;
+		return Arrays.equals(times, other.times) && Arrays.equals(multipliers, other.multipliers);
+	}
+
+	private static float[] toFloats(double[] values) {
+		float[] floats = new float[values.length];
+		for(int i = 0; i < values.length; i++) {
+			floats[i] = (float) values[i];
+		}
+		return floats;
+	}
+}
@@ -0,0 +1,72 @@
+package roadgraph;
+
+import geography.GeographicPoint;
+
+/**
+ * One vehicle of a fleet planned by VehicleRoutingSolver: where it starts and ends its shift, how
+ * much it can carry and when it is on the road.
+ * @author Adam Sickmiller
+ *
+ */
+public class Vehicle {
+	private final String name;
+	private final GeographicPoint depot;
+	private final int capacity;
+	private final double shiftStartSeconds;
+	private final double shiftEndSeconds;
+
+	/**
+	 * Create a vehicle that is available all day
+	 * @param name a label for the vehicle, used in toString
+	 * @param depot where the vehicle starts and ends its route. Must be in the graph it is planned on
+	 * @param capacity the total demand the vehicle can carry
+	 */
+	public Vehicle(String name, GeographicPoint depot, int capacity) {
+		this(name, depot, capacity, 0, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Create a vehicle with a shift
+	 * @param name a label for the vehicle, used in toString
+	 * @param depot where the vehicle starts and ends its route. Must be in the graph it is planned on
+	 * @param capacity the total demand the vehicle can carry
+	 * @param shiftStartSeconds when the vehicle leaves the depot
+	 * @param shiftEndSeconds when the vehicle must be back at the depot
+	 * @throws IllegalArgumentException if depot is null, capacity is negative or the shift ends before it starts
+	 */
+	public Vehicle(String name, GeographicPoint depot, int capacity, double shiftStartSeconds, double shiftEndSeconds) {
+		if(depot == null || capacity < 0 || !(shiftStartSeconds <= shiftEndSeconds)) {
+			throw new IllegalArgumentException("depot must be non-null, capacity must be >= 0 and the shift must not end before it starts");
+		}
+		this.name = name;
+		this.depot = depot;
+		this.capacity = capacity;
+		this.shiftStartSeconds = shiftStartSeconds;
+		this.shiftEndSeconds = shiftEndSeconds;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public GeographicPoint getDepot() {
+		return depot;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public double getShiftStartSeconds() {
+		return shiftStartSeconds;
+	}
+
+	public double getShiftEndSeconds() {
+		return shiftEndSeconds;
+	}
+
+	@Override
+	public String toString() {
+		return name + "@" + depot;
+	}
+}
@@ -0,0 +1,79 @@
+package roadgraph;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The plan for one vehicle in a VrpSolution: the stops it visits in order, when service starts at
+ * each of them and how far it drives from leaving its depot to getting back.
+ * @author Adam Sickmiller
+ *
+ */
+public class VehicleRoute {
+	private final Vehicle vehicle;
+	private final List<DeliveryStop> stops;
+	private final double[] serviceStartSeconds;
+	private final double returnSeconds;
+	private final double distance;
+	private final int load;
+
+	VehicleRoute(Vehicle vehicle, List<DeliveryStop> stops, double[] serviceStartSeconds, double returnSeconds,
+			double distance, int load) {
+		this.vehicle = vehicle;
+		this.stops = Collections.unmodifiableList(stops);
+		this.serviceStartSeconds = serviceStartSeconds;
+		this.returnSeconds = returnSeconds;
+		this.distance = distance;
+		this.load = load;
+	}
+
+	public Vehicle getVehicle() {
+		return vehicle;
+	}
+
+	/**
+	 * Get the stops in the order they are visited
+	 * @return the stops, not including the depot. Empty if the vehicle stays at its depot
+	 */
+	public List<DeliveryStop> getStops() {
+		return stops;
+	}
+
+	/**
+	 * Get when service starts at a stop, after any wait for its window to open
+	 * @param i the position of the stop in getStops()
+	 * @return the time in seconds
+	 */
+	public double getServiceStartSeconds(int i) {
+		return serviceStartSeconds[i];
+	}
+
+	/**
+	 * Get when the vehicle is back at its depot
+	 * @return the time in seconds, the shift start if the route is empty
+	 */
+	public double getReturnSeconds() {
+		return returnSeconds;
+	}
+
+	/**
+	 * Get the road distance driven
+	 * @return the length of the route in km, depot to depot
+	 */
+	public double getDistance() {
+		return distance;
+	}
+
+	/**
+	 * Get the total demand of the stops on the route
+	 * @return the load the vehicle leaves the depot with
+	 */
+	public int getLoad() {
+		return load;
+	}
+
+	@Override
+	public String toString() {
+		return vehicle + " " + stops + " " + distance + "km";
+	}
+}
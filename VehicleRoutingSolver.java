@@ -0,0 +1,613 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import geography.GeographicPoint;
+
+/**
+ * Plans routes for a fleet of vehicles that share the stops of a delivery round: the vehicle
+ * routing problem with capacities and time windows, on the road distances of a MapGraph.
+ *
+ * Every depot and stop is put into one distance matrix with MapGraph.distanceMatrix, a single
+ * search per row, so no road search runs while planning. Travel times are the distances at a
+ * fixed speed. A plan is then built and improved in three steps:
+ *   construction - regret insertion: repeatedly insert the stop that would lose the most by not
+ *                  getting its cheapest route, at its cheapest feasible position
+ *   local search - relocate (move a stop to another position or route), exchange (swap two
+ *                  stops) and 2-opt* (swap the tails of two routes), until no move shortens the plan
+ *   ruin and recreate - while time is left, take a group of nearby stops out of the best plan,
+ *                  insert them again and run the local search. The result is kept if it is no worse
+ *
+ * One search runs on each of the given number of threads, each with its own random seed, and the
+ * best plan wins. Thread 0 builds its first plan without randomness, so a single thread with the
+ * same seed and no time budget always gives the same answer. Every move is checked against
+ * capacity, the stop time windows and the vehicle shifts; stops that fit no route are reported as
+ * unassigned.
+ * @author Adam Sickmiller
+ *
+ */
+public class VehicleRoutingSolver {
+	private static final double EPSILON = 1e-9;	 //smallest improvement a move must make
+	private static final double NOISE = 0.2;	 //most a randomized insertion cost is scaled up by
+	private static final double RUIN_SHARE = 0.3; //most stops taken out by one ruin step
+
+	private final MapGraph graph;
+	private long timeBudgetMillis = 1000;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private double speedKmh = 50;
+	private long seed = 42;
+
+	/**
+	 * Create a solver for the given graph
+	 * @param graph the graph the depots and stops are on
+	 */
+	public VehicleRoutingSolver(MapGraph graph) {
+		this.graph = graph;
+	}
+
+	/**
+	 * Set how long solve may keep improving its plan. Building the first plan and one pass of every
+	 * local search move over it are not cut short, so even a budget of 0 gets a locally improved plan
+	 * @param timeBudgetMillis the time budget in milliseconds
+	 */
+	public void setTimeBudgetMillis(long timeBudgetMillis) {
+		if(timeBudgetMillis < 0) {
+			throw new IllegalArgumentException("timeBudgetMillis must be >= 0");
+		}
+		this.timeBudgetMillis = timeBudgetMillis;
+	}
+
+	/**
+	 * Set how many searches run side by side
+	 * @param threads the number of threads, one by default per processor
+	 */
+	public void setThreads(int threads) {
+		if(threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1");
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * Set the speed used to turn road distances into travel times
+	 * @param speedKmh the average speed of every vehicle, in km/h
+	 */
+	public void setSpeedKmh(double speedKmh) {
+		if(!(speedKmh > 0)) {
+			throw new IllegalArgumentException("speedKmh must be > 0");
+		}
+		this.speedKmh = speedKmh;
+	}
+
+	/**
+	 * Set the seed of the random choices, so runs can be repeated
+	 * @param seed the seed of thread 0. Thread t uses seed + t
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Plan a route for every vehicle so that together they serve as many stops as possible, then
+	 * drive as little as possible
+	 * @param vehicles the fleet
+	 * @param stops the stops to serve
+	 * @return the best plan found: one route per vehicle and the stops no route could take
+	 * @throws IllegalArgumentException if there are no vehicles, or a depot or stop is not in the graph
+	 */
+	public VrpSolution solve(List<Vehicle> vehicles, List<DeliveryStop> stops) {
+		if(vehicles == null || vehicles.isEmpty() || stops == null) {
+			throw new IllegalArgumentException("At least one vehicle and a list of stops are needed");
+		}
+		List<GeographicPoint> points = new ArrayList<>(vehicles.size() + stops.size());
+		for(Vehicle vehicle: vehicles) {
+			points.add(vehicle.getDepot());
+		}
+		for(DeliveryStop stop: stops) {
+			points.add(stop.getLocation());
+		}
+		Problem problem = new Problem(vehicles, stops, graph.distanceMatrix(points), speedKmh);
+		long deadline = System.nanoTime() + timeBudgetMillis * 1000000;
+
+		List<Callable<Plan>> searches = new ArrayList<>(threads);
+		for(int t = 0; t < threads; t++) {
+			searches.add(new Search(problem, seed + t, t > 0, deadline));
+		}
+		Plan best = null;
+		if(threads == 1) {
+			best = ((Search) searches.get(0)).call();
+		} else {
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try {
+				for(Future<Plan> future: executor.invokeAll(searches)) {
+					Plan plan = future.get();
+					if(best == null || plan.isBetterThan(best)) {
+						best = plan;
+					}
+				}
+			} catch(InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while planning routes", ie);
+			} catch(ExecutionException ee) {
+				throw new IllegalStateException("A route search failed", ee.getCause());
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+		return problem.toSolution(best);
+	}
+
+	/** The vehicles and stops turned into arrays. Vehicle v's depot is node v, stop s is node numVehicles + s */
+	private static final class Problem {
+		final List<Vehicle> vehicles;
+		final List<DeliveryStop> stops;
+		final int numVehicles;
+		final int numStops;
+		final double[][] distance;
+		final double[][] travelSeconds;
+		final int[] capacity;
+		final double[] shiftStart;
+		final double[] shiftEnd;
+		final int[] demand;
+		final double[] earliest;
+		final double[] latest;
+		final double[] service;
+
+		Problem(List<Vehicle> vehicles, List<DeliveryStop> stops, double[][] distance, double speedKmh) {
+			this.vehicles = vehicles;
+			this.stops = stops;
+			this.numVehicles = vehicles.size();
+			this.numStops = stops.size();
+			this.distance = distance;
+			travelSeconds = new double[distance.length][distance.length];
+			for(int i = 0; i < distance.length; i++) {
+				for(int j = 0; j < distance.length; j++) {
+					travelSeconds[i][j] = distance[i][j] / speedKmh * 3600;
+				}
+			}
+			capacity = new int[numVehicles];
+			shiftStart = new double[numVehicles];
+			shiftEnd = new double[numVehicles];
+			for(int v = 0; v < numVehicles; v++) {
+				capacity[v] = vehicles.get(v).getCapacity();
+				shiftStart[v] = vehicles.get(v).getShiftStartSeconds();
+				shiftEnd[v] = vehicles.get(v).getShiftEndSeconds();
+			}
+			demand = new int[numStops];
+			earliest = new double[numStops];
+			latest = new double[numStops];
+			service = new double[numStops];
+			for(int s = 0; s < numStops; s++) {
+				demand[s] = stops.get(s).getDemand();
+				earliest[s] = stops.get(s).getEarliestSeconds();
+				latest[s] = stops.get(s).getLatestSeconds();
+				service[s] = stops.get(s).getServiceSeconds();
+			}
+		}
+
+		/**
+		 * Get the length of a route, checking it on the way
+		 * @return the distance driven, or Double.POSITIVE_INFINITY if the route breaks the capacity,
+		 *   a time window or the shift, or uses a leg that has no road
+		 */
+		double cost(int v, int[] route, int length) {
+			int load = 0;
+			double time = shiftStart[v];
+			double total = 0;
+			int prev = v;
+			for(int i = 0; i < length; i++) {
+				int s = route[i];
+				int node = numVehicles + s;
+				load += demand[s];
+				if(load > capacity[v] || distance[prev][node] == Double.POSITIVE_INFINITY) {
+					return Double.POSITIVE_INFINITY;
+				}
+				total += distance[prev][node];
+				time = Math.max(time + travelSeconds[prev][node], earliest[s]); //wait for the window to open
+				if(time > latest[s]) {
+					return Double.POSITIVE_INFINITY;
+				}
+				time += service[s];
+				prev = node;
+			}
+			if(distance[prev][v] == Double.POSITIVE_INFINITY || time + travelSeconds[prev][v] > shiftEnd[v]) {
+				return Double.POSITIVE_INFINITY;
+			}
+			return total + distance[prev][v];
+		}
+
+		/** Turn a plan back into vehicles and stops, with the service times along each route */
+		VrpSolution toSolution(Plan plan) {
+			List<VehicleRoute> routes = new ArrayList<>(numVehicles);
+			boolean[] served = new boolean[numStops];
+			for(int v = 0; v < numVehicles; v++) {
+				int[] route = plan.routes[v];
+				List<DeliveryStop> visits = new ArrayList<>(route.length);
+				double[] start = new double[route.length];
+				double time = shiftStart[v];
+				int load = 0;
+				int prev = v;
+				for(int i = 0; i < route.length; i++) {
+					int s = route[i];
+					served[s] = true;
+					visits.add(stops.get(s));
+					load += demand[s];
+					time = Math.max(time + travelSeconds[prev][numVehicles + s], earliest[s]);
+					start[i] = time;
+					time += service[s];
+					prev = numVehicles + s;
+				}
+				time += route.length == 0 ? 0 : travelSeconds[prev][v];
+				routes.add(new VehicleRoute(vehicles.get(v), visits, start, time, plan.cost[v], load));
+			}
+			List<DeliveryStop> unassigned = new ArrayList<>();
+			for(int s = 0; s < numStops; s++) {
+				if(!served[s]) {
+					unassigned.add(stops.get(s));
+				}
+			}
+			return new VrpSolution(routes, unassigned);
+		}
+	}
+
+	/** A plan being worked on: the stops of each route in order, the cost of each route and which stops are served */
+	private static final class Plan {
+		final int[][] routes;
+		final double[] cost;
+		final boolean[] assigned;
+		int numUnassigned;
+
+		Plan(int numVehicles, int numStops) {
+			routes = new int[numVehicles][0];
+			cost = new double[numVehicles];
+			assigned = new boolean[numStops];
+			numUnassigned = numStops;
+		}
+
+		Plan(Plan other) {
+			routes = new int[other.routes.length][];
+			for(int v = 0; v < routes.length; v++) {
+				routes[v] = other.routes[v].clone();
+			}
+			cost = other.cost.clone();
+			assigned = other.assigned.clone();
+			numUnassigned = other.numUnassigned;
+		}
+
+		double total() {
+			double total = 0;
+			for(double c: cost) {
+				total += c;
+			}
+			return total;
+		}
+
+		/** Serving more stops comes first, then driving less */
+		boolean isBetterThan(Plan other) {
+			if(numUnassigned != other.numUnassigned) {
+				return numUnassigned < other.numUnassigned;
+			}
+			return total() < other.total() - EPSILON;
+		}
+	}
+
+	/** One multi-start search, run on its own thread */
+	private static final class Search implements Callable<Plan> {
+		private final Problem problem;
+		private final Random random;
+		private final boolean randomStart;
+		private final long deadline;
+		private boolean fullPass; //set while the moves run to the end whatever the time
+		private final int[] first;	//scratch routes for the moves
+		private final int[] second;
+
+		Search(Problem problem, long seed, boolean randomStart, long deadline) {
+			this.problem = problem;
+			this.random = new Random(seed);
+			this.randomStart = randomStart;
+			this.deadline = deadline;
+			first = new int[problem.numStops + 1];
+			second = new int[problem.numStops + 1];
+		}
+
+		@Override
+		public Plan call() {
+			Plan best = new Plan(problem.numVehicles, problem.numStops);
+			insert(best, randomStart ? NOISE : 0);
+			fullPass = true; //the first plan always gets one pass of every move, even with no time budget
+			boolean improved = relocate(best) | exchange(best) | twoOptStar(best);
+			fullPass = false;
+			if(improved) {
+				if(best.numUnassigned > 0) {
+					insert(best, 0);
+				}
+				improve(best);
+			}
+			while(problem.numStops > 0 && !outOfTime()) {
+				Plan trial = new Plan(best);
+				ruin(trial);
+				insert(trial, NOISE);
+				improve(trial);
+				if(!best.isBetterThan(trial)) {
+					best = trial;
+				}
+			}
+			return best;
+		}
+
+		private boolean outOfTime() {
+			return !fullPass && System.nanoTime() > deadline;
+		}
+
+		/**
+		 * Regret insertion of every unassigned stop. For each stop the cheapest position in every
+		 * route is kept, and only the route that changed is looked at again after an insertion
+		 * @param noise how much each insertion cost may be scaled up at random, 0 for none
+		 */
+		private void insert(Plan plan, double noise) {
+			int numVehicles = problem.numVehicles;
+			double[][] delta = new double[problem.numStops][]; //cheapest insertion of each unassigned stop into each route
+			int[][] position = new int[problem.numStops][];
+			for(int s = 0; s < problem.numStops; s++) {
+				if(!plan.assigned[s]) {
+					delta[s] = new double[numVehicles];
+					position[s] = new int[numVehicles];
+					for(int v = 0; v < numVehicles; v++) {
+						cheapestInsertion(plan, s, v, noise, delta[s], position[s]);
+					}
+				}
+			}
+			while(plan.numUnassigned > 0) {
+				int bestStop = -1;
+				int bestVehicle = -1;
+				double bestRegret = -1;
+				double bestDelta = Double.POSITIVE_INFINITY;
+				for(int s = 0; s < problem.numStops; s++) {
+					if(plan.assigned[s]) {
+						continue;
+					}
+					int cheapest = -1;
+					double secondDelta = Double.POSITIVE_INFINITY;
+					for(int v = 0; v < numVehicles; v++) {
+						if(cheapest < 0 || delta[s][v] < delta[s][cheapest]) {
+							secondDelta = cheapest < 0 ? secondDelta : delta[s][cheapest];
+							cheapest = v;
+						} else if(delta[s][v] < secondDelta) {
+							secondDelta = delta[s][v];
+						}
+					}
+					if(delta[s][cheapest] == Double.POSITIVE_INFINITY) {
+						continue; //fits no route as they are now
+					}
+					//a stop with only one possible route has the most to lose
+					double regret = secondDelta == Double.POSITIVE_INFINITY ? Double.MAX_VALUE : secondDelta - delta[s][cheapest];
+					if(regret > bestRegret || (regret == bestRegret && delta[s][cheapest] < bestDelta)) {
+						bestStop = s;
+						bestVehicle = cheapest;
+						bestRegret = regret;
+						bestDelta = delta[s][cheapest];
+					}
+				}
+				if(bestStop < 0) {
+					return; //the rest fit nowhere
+				}
+				int[] route = plan.routes[bestVehicle];
+				int at = position[bestStop][bestVehicle];
+				int[] inserted = new int[route.length + 1];
+				System.arraycopy(route, 0, inserted, 0, at);
+				inserted[at] = bestStop;
+				System.arraycopy(route, at, inserted, at + 1, route.length - at);
+				plan.routes[bestVehicle] = inserted;
+				plan.cost[bestVehicle] = problem.cost(bestVehicle, inserted, inserted.length);
+				plan.assigned[bestStop] = true;
+				plan.numUnassigned--;
+				delta[bestStop] = null;
+				for(int s = 0; s < problem.numStops; s++) {
+					if(!plan.assigned[s]) {
+						cheapestInsertion(plan, s, bestVehicle, noise, delta[s], position[s]);
+					}
+				}
+			}
+		}
+
+		/** Find the cheapest feasible position for stop s in route v, storing its extra cost and position */
+		private void cheapestInsertion(Plan plan, int s, int v, double noise, double[] delta, int[] position) {
+			int[] route = plan.routes[v];
+			delta[v] = Double.POSITIVE_INFINITY;
+			for(int at = 0; at <= route.length; at++) {
+				System.arraycopy(route, 0, first, 0, at);
+				first[at] = s;
+				System.arraycopy(route, at, first, at + 1, route.length - at);
+				double cost = problem.cost(v, first, route.length + 1);
+				if(cost == Double.POSITIVE_INFINITY) {
+					continue;
+				}
+				double extra = (cost - plan.cost[v]) * (noise == 0 ? 1 : 1 + noise * random.nextDouble());
+				if(extra < delta[v]) {
+					delta[v] = extra;
+					position[v] = at;
+				}
+			}
+		}
+
+		/** Run the local search moves until none of them improves the plan or time runs out */
+		private void improve(Plan plan) {
+			while(!outOfTime() && (relocate(plan) || exchange(plan) || twoOptStar(plan))) {
+				if(plan.numUnassigned > 0) {
+					insert(plan, 0); //shorter routes may now have room
+				}
+			}
+		}
+
+		/** Move one stop to the best place in any route. Returns true if the plan got shorter */
+		private boolean relocate(Plan plan) {
+			for(int v1 = 0; v1 < plan.routes.length; v1++) {
+				int[] from = plan.routes[v1];
+				for(int i = 0; i < from.length && !outOfTime(); i++) {
+					int s = from[i];
+					System.arraycopy(from, 0, first, 0, i);
+					System.arraycopy(from, i + 1, first, i, from.length - i - 1);
+					double removed = problem.cost(v1, first, from.length - 1);
+					if(removed == Double.POSITIVE_INFINITY) {
+						continue;
+					}
+					for(int v2 = 0; v2 < plan.routes.length; v2++) {
+						int[] to = v1 == v2 ? Arrays.copyOf(first, from.length - 1) : plan.routes[v2];
+						double before = v1 == v2 ? plan.cost[v1] : plan.cost[v1] + plan.cost[v2];
+						for(int at = 0; at <= to.length; at++) {
+							if(v1 == v2 && at == i) {
+								continue;
+							}
+							System.arraycopy(to, 0, second, 0, at);
+							second[at] = s;
+							System.arraycopy(to, at, second, at + 1, to.length - at);
+							double inserted = problem.cost(v2, second, to.length + 1);
+							double after = v1 == v2 ? inserted : removed + inserted;
+							if(after < before - EPSILON) {
+								if(v1 != v2) {
+									plan.routes[v1] = Arrays.copyOf(first, from.length - 1);
+									plan.cost[v1] = removed;
+								}
+								plan.routes[v2] = Arrays.copyOf(second, to.length + 1);
+								plan.cost[v2] = inserted;
+								return true;
+							}
+						}
+					}
+				}
+			}
+			return false;
+		}
+
+		/** Swap two stops, in the same route or in two routes. Returns true if the plan got shorter */
+		private boolean exchange(Plan plan) {
+			for(int v1 = 0; v1 < plan.routes.length; v1++) {
+				int[] r1 = plan.routes[v1];
+				for(int i = 0; i < r1.length && !outOfTime(); i++) {
+					for(int v2 = v1; v2 < plan.routes.length; v2++) {
+						int[] r2 = plan.routes[v2];
+						for(int j = v1 == v2 ? i + 1 : 0; j < r2.length; j++) {
+							System.arraycopy(r1, 0, first, 0, r1.length);
+							if(v1 == v2) {
+								first[i] = r1[j];
+								first[j] = r1[i];
+								double after = problem.cost(v1, first, r1.length);
+								if(after < plan.cost[v1] - EPSILON) {
+									plan.routes[v1] = Arrays.copyOf(first, r1.length);
+									plan.cost[v1] = after;
+									return true;
+								}
+								continue;
+							}
+							System.arraycopy(r2, 0, second, 0, r2.length);
+							first[i] = r2[j];
+							second[j] = r1[i];
+							double c1 = problem.cost(v1, first, r1.length);
+							double c2 = c1 == Double.POSITIVE_INFINITY ? c1 : problem.cost(v2, second, r2.length);
+							if(c1 + c2 < plan.cost[v1] + plan.cost[v2] - EPSILON) {
+								plan.routes[v1] = Arrays.copyOf(first, r1.length);
+								plan.routes[v2] = Arrays.copyOf(second, r2.length);
+								plan.cost[v1] = c1;
+								plan.cost[v2] = c2;
+								return true;
+							}
+						}
+					}
+				}
+			}
+			return false;
+		}
+
+		/** Cut two routes in two and swap their tails. Returns true if the plan got shorter */
+		private boolean twoOptStar(Plan plan) {
+			for(int v1 = 0; v1 < plan.routes.length; v1++) {
+				int[] r1 = plan.routes[v1];
+				for(int v2 = v1 + 1; v2 < plan.routes.length && !outOfTime(); v2++) {
+					int[] r2 = plan.routes[v2];
+					for(int i = 0; i <= r1.length; i++) {
+						for(int j = 0; j <= r2.length; j++) {
+							if(i == r1.length && j == r2.length) {
+								continue; //both tails empty, nothing changes
+							}
+							int length1 = i + r2.length - j;
+							int length2 = j + r1.length - i;
+							System.arraycopy(r1, 0, first, 0, i);
+							System.arraycopy(r2, j, first, i, r2.length - j);
+							double c1 = problem.cost(v1, first, length1);
+							if(c1 == Double.POSITIVE_INFINITY) {
+								continue;
+							}
+							System.arraycopy(r2, 0, second, 0, j);
+							System.arraycopy(r1, i, second, j, r1.length - i);
+							double c2 = problem.cost(v2, second, length2);
+							if(c1 + c2 < plan.cost[v1] + plan.cost[v2] - EPSILON) {
+								plan.routes[v1] = Arrays.copyOf(first, length1);
+								plan.routes[v2] = Arrays.copyOf(second, length2);
+								plan.cost[v1] = c1;
+								plan.cost[v2] = c2;
+								return true;
+							}
+						}
+					}
+				}
+			}
+			return false;
+		}
+
+		/** Take a random served stop and the stops closest to it out of their routes */
+		private void ruin(Plan plan) {
+			int served = problem.numStops - plan.numUnassigned;
+			if(served == 0) {
+				return;
+			}
+			int count = 1 + random.nextInt(Math.max(1, (int) (served * RUIN_SHARE)));
+			int center = random.nextInt(problem.numStops);
+			while(!plan.assigned[center]) {
+				center = (center + 1) % problem.numStops;
+			}
+			boolean[] removed = new boolean[problem.numStops];
+			for(int k = 0; k < count; k++) { //pick the count served stops nearest to center, one at a time
+				int nearest = -1;
+				for(int s = 0; s < problem.numStops; s++) {
+					if(plan.assigned[s] && !removed[s] && (nearest < 0 || closeness(center, s) < closeness(center, nearest))) {
+						nearest = s;
+					}
+				}
+				removed[nearest] = true;
+			}
+			for(int v = 0; v < plan.routes.length; v++) {
+				int[] route = plan.routes[v];
+				int length = 0;
+				for(int s: route) {
+					if(!removed[s]) {
+						first[length++] = s;
+					}
+				}
+				if(length < route.length) {
+					plan.routes[v] = Arrays.copyOf(first, length);
+					plan.cost[v] = problem.cost(v, first, length);
+				}
+			}
+			for(int s = 0; s < problem.numStops; s++) {
+				if(removed[s]) {
+					plan.assigned[s] = false;
+					plan.numUnassigned++;
+				}
+			}
+		}
+
+		/** Road distance between two stops, in whichever direction is shorter */
+		private double closeness(int a, int b) {
+			int n = problem.numVehicles;
+			return Math.min(problem.distance[n + a][n + b], problem.distance[n + b][n + a]);
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package roadgraph;
+
+import java.util.Arrays;
+
+/**
+ * Vertex orders that put intersections that are close on the map close together in memory. Ids
+ * start out in the order the .map file lists the roads, so a search that moves from a vertex to its
+ * neighbor jumps to a far away part of every per-vertex array (parent, dist, the visited bitset,
+ * the adjacency offsets) and misses the cache nearly every time. Renumbering the vertices in one of
+ * these orders with MapGraph.renumberVertices keeps most neighbors within a few cache lines.
+ *
+ * Each method returns an order: order[newId] is the current id of the vertex that gets newId.
+ * @author Adam Sickmiller
+ *
+ */
+public class VertexOrdering {
+	private static final int HILBERT_BITS = 15; //a 32768 x 32768 grid, so a curve position fits in 30 bits
+
+	private VertexOrdering() {
+	}
+
+	/**
+	 * Order vertices along a Hilbert curve over latitude and longitude. The curve never jumps, so
+	 * vertices that are near each other on the map are near each other in the order
+	 * @param graphIndex the snapshot to order
+	 * @return the order, see the class comment
+	 */
+	public static int[] hilbert(GraphIndex graphIndex) {
+		int n = graphIndex.getNumVertices();
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for(int v = 0; v < n; v++) {
+			minX = Math.min(minX, graphIndex.latitude(v));
+			maxX = Math.max(maxX, graphIndex.latitude(v));
+			minY = Math.min(minY, graphIndex.longitude(v));
+			maxY = Math.max(maxY, graphIndex.longitude(v));
+		}
+		int side = 1 << HILBERT_BITS;
+		double scaleX = maxX > minX ? (side - 1) / (maxX - minX) : 0;
+		double scaleY = maxY > minY ? (side - 1) / (maxY - minY) : 0;
+		long[] keys = new long[n]; //curve position in the high bits, vertex id in the low 32
+		for(int v = 0; v < n; v++) {
+			int x = (int) ((graphIndex.latitude(v) - minX) * scaleX);
+			int y = (int) ((graphIndex.longitude(v) - minY) * scaleY);
+			keys[v] = hilbertIndex(side, x, y) << 32 | v;
+		}
+		Arrays.sort(keys);
+		int[] order = new int[n];
+		for(int i = 0; i < n; i++) {
+			order[i] = (int) keys[i];
+		}
+		return order;
+	}
+
+	/** Get the position of cell (x, y) along the Hilbert curve that fills a side x side grid */
+	static long hilbertIndex(int side, int x, int y) {
+		long d = 0;
+		for(int s = side / 2; s > 0; s /= 2) {
+			int rx = (x & s) > 0 ? 1 : 0;
+			int ry = (y & s) > 0 ? 1 : 0;
+			d += (long) s * s * ((3 * rx) ^ ry);
+			if(ry == 0) { //rotate the quadrant so the curve inside it lines up
+				if(rx == 1) {
+					x = side - 1 - x;
+					y = side - 1 - y;
+				}
+				int t = x;
+				x = y;
+				y = t;
+			}
+		}
+		return d;
+	}
+
+	/**
+	 * Order vertices with the Cuthill-McKee heuristic: a breadth first search, ignoring edge
+	 * direction, that starts each component from a vertex of the lowest degree and visits the
+	 * neighbors of every vertex from the lowest degree up. Neighbors end up in nearly consecutive
+	 * ids, which suits graphs without useful coordinates
+	 * @param graphIndex the snapshot to order
+	 * @return the order, see the class comment
+	 */
+	public static int[] cuthillMcKee(GraphIndex graphIndex) {
+		int n = graphIndex.getNumVertices();
+		int[] degree = new int[n + 1]; //doubles as offsets into neighbors, shifted by one
+		for(int v = 0; v < n; v++) {
+			for(int e = graphIndex.firstOut(v), end = graphIndex.firstOut(v + 1); e < end; e++) {
+				degree[v + 1]++;
+				degree[graphIndex.head(e) + 1]++;
+			}
+		}
+		int[] first = new int[n + 1];
+		for(int v = 0; v < n; v++) {
+			first[v + 1] = first[v] + degree[v + 1];
+		}
+		int[] neighbors = new int[first[n]];
+		int[] fill = Arrays.copyOf(first, n);
+		for(int v = 0; v < n; v++) {
+			for(int e = graphIndex.firstOut(v), end = graphIndex.firstOut(v + 1); e < end; e++) {
+				int w = graphIndex.head(e);
+				neighbors[fill[v]++] = w;
+				neighbors[fill[w]++] = v;
+			}
+		}
+
+		//vertices sorted by degree, to pick the start of each component
+		long[] byDegree = new long[n];
+		for(int v = 0; v < n; v++) {
+			byDegree[v] = (long) (first[v + 1] - first[v]) << 32 | v;
+		}
+		Arrays.sort(byDegree);
+
+		int[] order = new int[n];
+		boolean[] placed = new boolean[n];
+		long[] batch = new long[n]; //the unplaced neighbors of one vertex, keyed by degree
+		int tail = 0;
+		for(long start: byDegree) {
+			int root = (int) start;
+			if(placed[root]) {
+				continue;
+			}
+			placed[root] = true;
+			order[tail++] = root;
+			for(int head = tail - 1; head < tail; head++) { //order doubles as the BFS queue
+				int v = order[head];
+				int count = 0;
+				for(int i = first[v]; i < first[v + 1]; i++) {
+					int w = neighbors[i];
+					if(!placed[w]) {
+						placed[w] = true;
+						batch[count++] = (long) (first[w + 1] - first[w]) << 32 | w;
+					}
+				}
+				Arrays.sort(batch, 0, count);
+				for(int i = 0; i < count; i++) {
+					order[tail++] = (int) batch[i];
+				}
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * Measure how far apart neighbors are in memory: the share of edges whose two ends have ids
+	 * less than window apart. With window 8, both ends' dist values are usually in one cache line
+	 * @param graphIndex the snapshot to measure
+	 * @param window the largest id difference that counts as close
+	 * @return a number between 0 and 1, higher is better
+	 */
+	public static double locality(GraphIndex graphIndex, int window) {
+		int close = 0;
+		for(int v = 0; v < graphIndex.getNumVertices(); v++) {
+			for(int e = graphIndex.firstOut(v), end = graphIndex.firstOut(v + 1); e < end; e++) {
+				close += Math.abs(graphIndex.head(e) - v) < window ? 1 : 0;
+			}
+		}
+		return graphIndex.getNumEdges() == 0 ? 1 : (double) close / graphIndex.getNumEdges();
+	}
+}
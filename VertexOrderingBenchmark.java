@@ -0,0 +1,77 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import geography.GeographicPoint;
+import util.GraphLoader;
+
+/**
+ * Compares query times of the same map with its vertices in load order, along a Hilbert curve and
+ * in Cuthill-McKee order. For each order it prints the share of edges whose ends are close in
+ * memory, which stands in for the cache miss rate (run it under perf stat -e cache-misses to see
+ * the real counters), and the mean time of dijkstra and aStarSearch, both the plain versions and
+ * the versions used with a routing profile.
+ *
+ * Usage: VertexOrderingBenchmark [mapFile] [queries]
+ * @author Adam Sickmiller
+ *
+ */
+public class VertexOrderingBenchmark {
+
+	public static void main(String[] args) {
+		String mapFile = args.length > 0 ? args[0] : "data/maps/utc.map";
+		int queries = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+		System.out.print("Loading " + mapFile + "...");
+		MapGraph graph = new MapGraph();
+		GraphLoader.loadRoadMap(mapFile, graph);
+		System.out.println("DONE. " + graph.getNumVertices() + " vertices, " + graph.getNumEdges() + " edges");
+
+		List<GeographicPoint> vertices = new ArrayList<>(graph.getVertices());
+		Random random = new Random(42);
+		GeographicPoint[][] pairs = new GeographicPoint[queries][];
+		for(int i = 0; i < queries; i++) {
+			pairs[i] = new GeographicPoint[] {vertices.get(random.nextInt(vertices.size())),
+					vertices.get(random.nextInt(vertices.size()))};
+		}
+
+		report("load order", graph, pairs);
+		graph.renumberVertices(VertexOrdering.hilbert(graph.getIndex()));
+		report("hilbert", graph, pairs);
+		graph.renumberVertices(VertexOrdering.cuthillMcKee(graph.getIndex()));
+		report("cuthill-mckee", graph, pairs);
+	}
+
+	/** Print the locality of the graph's current order and how long each kind of query takes */
+	private static void report(String name, MapGraph graph, GeographicPoint[][] pairs) {
+		GraphIndex graphIndex = graph.getIndex();
+		System.out.println(name + ": " + Math.round(VertexOrdering.locality(graphIndex, 8) * 100)
+				+ "% of edges within 8 ids, " + Math.round(VertexOrdering.locality(graphIndex, 64) * 100)
+				+ "% within 64 ids");
+		for(int round = 0; round < 2; round++) { //the first round warms up the JIT
+			long dijkstra = 0, aStar = 0, dijkstraArray = 0, aStarArray = 0;
+			for(GeographicPoint[] pair: pairs) {
+				long time = System.nanoTime();
+				graph.dijkstra(pair[0], pair[1]);
+				dijkstra += System.nanoTime() - time;
+				time = System.nanoTime();
+				graph.aStarSearch(pair[0], pair[1]);
+				aStar += System.nanoTime() - time;
+				time = System.nanoTime();
+				graph.dijkstra(pair[0], pair[1], RoutingProfile.CAR);
+				dijkstraArray += System.nanoTime() - time;
+				time = System.nanoTime();
+				graph.aStarSearch(pair[0], pair[1], RoutingProfile.CAR);
+				aStarArray += System.nanoTime() - time;
+			}
+			if(round == 1) {
+				System.out.println("  mean micros per query: dijkstra " + dijkstra / 1000 / pairs.length
+						+ ", aStarSearch " + aStar / 1000 / pairs.length
+						+ ", dijkstra (arrays) " + dijkstraArray / 1000 / pairs.length
+						+ ", aStarSearch (arrays) " + aStarArray / 1000 / pairs.length);
+			}
+		}
+	}
+}
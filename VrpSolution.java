@@ -0,0 +1,55 @@
+package roadgraph;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A plan from VehicleRoutingSolver: one route per vehicle, in the order the vehicles were given,
+ * and the stops that no vehicle could take without breaking a capacity or a time window.
+ * @author Adam Sickmiller
+ *
+ */
+public class VrpSolution {
+	private final List<VehicleRoute> routes;
+	private final List<DeliveryStop> unassigned;
+	private final double totalDistance;
+
+	VrpSolution(List<VehicleRoute> routes, List<DeliveryStop> unassigned) {
+		this.routes = Collections.unmodifiableList(routes);
+		this.unassigned = Collections.unmodifiableList(unassigned);
+		double total = 0;
+		for(VehicleRoute route: routes) {
+			total += route.getDistance();
+		}
+		this.totalDistance = total;
+	}
+
+	/**
+	 * Get the routes
+	 * @return one route per vehicle, in the order the vehicles were given. Unused vehicles have an empty route
+	 */
+	public List<VehicleRoute> getRoutes() {
+		return routes;
+	}
+
+	/**
+	 * Get the stops left out of every route
+	 * @return the stops no vehicle could serve, empty if all were served
+	 */
+	public List<DeliveryStop> getUnassigned() {
+		return unassigned;
+	}
+
+	/**
+	 * Get the distance driven by the whole fleet
+	 * @return the sum of the route distances, in km
+	 */
+	public double getTotalDistance() {
+		return totalDistance;
+	}
+
+	@Override
+	public String toString() {
+		return routes + " unassigned " + unassigned;
+	}
+}